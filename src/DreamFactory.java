@@ -1,15 +1,34 @@
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import GameEngine.CommandCompleter;
+import GameEngine.CommandGrammar;
 import GameEngine.Consequence;
 import GameEngine.GameEngine;
 import GameEngine.GameHistory;
 import GameEngine.Exceptions.NoSavedGameException;
-import StoryParser.Parser;
+import SaveLoad.GameJournal;
+import SaveLoad.SaveNLoad;
+import SaveLoad.SaveSlotInfo;
+import SaveLoad.SaveSlots;
+import StoryParser.GeneratedStory;
+import StoryParser.StoryCache;
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.geometry.Side;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.input.KeyCode;
@@ -17,6 +36,7 @@ import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 /**
@@ -30,9 +50,15 @@ public class DreamFactory extends Application{
     private static String TITLE = "DreamFactory";
     private static double INITIAL_HEIGHT = 500.0;
     private static double INITIAL_WIDTH = 750.0;
+    private static String STORY_PATH = "res/story/story.json";
+    private static String SCRIPT_DIRECTORY = "res/scripts";
+    private static int HISTORY_PAGE_SIZE = 100;
+    private static int CACHED_HISTORY_PAGES = 8;
+    private static String HISTORY_PAGE_PLACEHOLDER = "...";
     
-    //game components
+    //game components - the GameEngine is only ever touched on the engine thread
     private GameEngine gameEngine;
+    private ExecutorService engineExecutor;
     //StoryParser storyParser; TODO: Anqi
 
     //ui components
@@ -40,8 +66,13 @@ public class DreamFactory extends Application{
     private Label currentHealth;
     private Label currentAttackPower;
     private Label currentDefence;
-    private TextArea storyViewer;
+    private ListView<TranscriptEntry> storyViewer; //Only the visible turns are laid out
+    private ObservableList<TranscriptEntry> transcript;
+    private Map<Integer, List<GameHistory.Turn>> transcriptPageCache; //filled by the engine thread, through Platform.runLater()
+    private HashSet<Integer> pendingTranscriptPages; //pages that the engine thread is reading
+    private GameHistory cachedGameHistory; //the history that the cached pages belong to
     private TextField commandInput; //Primary game loop in this component bc the user input is the trigger
+    private ContextMenu completionMenu;
     private MenuBar mainMenu;
 
     /**
@@ -60,18 +91,42 @@ public class DreamFactory extends Application{
      */
     public void start(Stage primaryStage) throws Exception{
 
+        // Turns, saves, loads and story parsing run on a single engine thread so that the UI never waits on them.
+        // Input that arrives while a turn is in flight waits in the executor's queue.
+        engineExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "game-engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // The command grammar is compiled once, before the first command is typed
+        engineExecutor.execute(CommandGrammar::getInstance);
+
+        // History segments whose saves have all been deleted or overwritten are cleaned up - this only
+        // looks at the list of segments that the saves refer to, not at the saves themselves
+        engineExecutor.execute(SaveNLoad::collectHistorySegments);
+
         // Initialize UI components
         storyName = new Label();
         currentHealth = new Label();
         currentAttackPower = new Label();
         currentDefence = new Label();
-        storyViewer = new TextArea();
+        transcript = FXCollections.observableArrayList();
+        transcriptPageCache = new LinkedHashMap<Integer, List<GameHistory.Turn>>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<GameHistory.Turn>> eldest){
+                return size() > CACHED_HISTORY_PAGES;
+            }
+        };
+        pendingTranscriptPages = new HashSet<Integer>();
+        storyViewer = new ListView<TranscriptEntry>(transcript);
         commandInput = new TextField(); //Primary game loop in this component bc the user input is the trigger
+        completionMenu = new ContextMenu();
         mainMenu = buildMainMenu();
         Scene gamePortal = buildGamePortal();
 
         //Initialize game engine and set initial values
-        initializeGameEngine();
+        initializeGameEngine(STORY_PATH);
 
         //Set up main game loop
         setUpGameLoop();
@@ -84,25 +139,49 @@ public class DreamFactory extends Application{
         primaryStage.show();
     }
 
+    /**
+     * The Application.stop() function. This stops the engine thread once
+     * any work that has already been queued has finished.
+     */
+    @Override
+    public void stop(){
+        engineExecutor.shutdown();
+    }
+
     /**
      * The initializeGameEngine() function resets all the main
      * components of the user interface with the initial values
      * from the story.
+     *
+     * @param storyPath (String) the story to play, eg: STORY_PATH, or a GeneratedStory path
      */
-    private void initializeGameEngine(){
-        try{
-            gameEngine = new GameEngine(Parser.parse("res/story/story.json")); //TODO: Anqi
-            //gameEngine = new GameEngine(new TestStory(10).getTestStory()); //FIXME
-            Consequence introduction = gameEngine.startStory();
-            storyName.setText(gameEngine.getGameState().getStory().getName());
-            storyViewer.setText(String.format("%s\n\n", introduction.getConsequenceDescription()));
-            currentHealth.setText("" + introduction.getCurrentHeroHealth());
-            currentAttackPower.setText("" + introduction.getCurrentHeroAttackPower());
-            currentDefence.setText("" + introduction.getCurrentHeroDefence());
-        }catch(IOException e){
-            storyName.setText("Something went wrong!");
-            storyViewer.setText(String.format("> IO EXCEPTION\n\n%s", e.toString()));
-        }
+    private void initializeGameEngine(String storyPath){
+        engineExecutor.execute(() -> {
+            try{
+                if(gameEngine != null){
+                    gameEngine.close(); //close the journal and story of the previous game
+                }
+                long seed = new Random().nextLong();
+                gameEngine = new GameEngine(StoryCache.getSharedCache().load(storyPath), seed); //TODO: Anqi
+                gameEngine.record(GameJournal.create(GameJournal.JOURNAL_PATH, storyPath, seed));
+                //gameEngine = new GameEngine(new TestStory(10).getTestStory()); //FIXME
+                Consequence introduction = gameEngine.startStory();
+                String name = gameEngine.getGameState().getStory().getName();
+                GameHistory gameHistory = gameEngine.getGameState().getGameHistory();
+                List<GameHistory.Turn> firstPage = gameHistory.getPage(0, HISTORY_PAGE_SIZE);
+                Platform.runLater(() -> {
+                    storyName.setText(name);
+                    cacheTranscriptPage(gameHistory, 0, firstPage);
+                    transcript.setAll(TranscriptEntry.introduction(gameHistory));
+                    updateHeroStats(introduction.getCurrentHeroHealth(), introduction.getCurrentHeroAttackPower(), introduction.getCurrentHeroDefence());
+                });
+            }catch(IOException e){
+                Platform.runLater(() -> {
+                    storyName.setText("Something went wrong!");
+                    transcript.setAll(TranscriptEntry.notice(String.format("> IO EXCEPTION\n\n%s", e.toString())));
+                });
+            }
+        });
     }
 
     /**
@@ -115,7 +194,12 @@ public class DreamFactory extends Application{
 
         MenuItem startGame = new MenuItem("Start New Game");
         startGame.setOnAction((event) -> {
-            initializeGameEngine();
+            initializeGameEngine(STORY_PATH);
+        });
+
+        MenuItem startDungeon = new MenuItem("Start Endless Dungeon");
+        startDungeon.setOnAction((event) -> {
+            initializeGameEngine(GeneratedStory.getStoryPath(new Random().nextLong()));
         });
 
         MenuItem loadGame = new MenuItem("Load Saved Game");
@@ -125,14 +209,27 @@ public class DreamFactory extends Application{
 
         MenuItem saveGame = new MenuItem("Save Current Game");
         saveGame.setOnAction((event) -> {
-            gameEngine.saveGame();
-            storyViewer.appendText("> GAME SAVED\n\n");
+            saveCurrentGame(false);
+        });
+
+        MenuItem saveToSlot = new MenuItem("Save to Slot...");
+        saveToSlot.setOnAction((event) -> {
+            saveToSlot();
+        });
+
+        MenuItem loadFromSlot = new MenuItem("Load from Slot...");
+        loadFromSlot.setOnAction((event) -> {
+            loadFromSlot();
+        });
+
+        MenuItem runScript = new MenuItem("Run Script...");
+        runScript.setOnAction((event) -> {
+            runScript();
         });
 
         MenuItem saveAndQuitGame = new MenuItem("Save Current Game & Quit");
         saveAndQuitGame.setOnAction((event) -> {
-            gameEngine.saveGame();
-            Platform.exit();
+            saveCurrentGame(true);
         });
 
         MenuItem quitGame = new MenuItem("Quit");
@@ -144,9 +241,15 @@ public class DreamFactory extends Application{
         mainMenu.getItems().addAll(
             new MenuItem[]{
                 startGame,
+                startDungeon,
                 loadGame,
                 saveGame,
                 new SeparatorMenuItem(),
+                loadFromSlot,
+                saveToSlot,
+                new SeparatorMenuItem(),
+                runScript,
+                new SeparatorMenuItem(),
                 saveAndQuitGame,
                 quitGame
             }
@@ -160,20 +263,136 @@ public class DreamFactory extends Application{
      * renders the results to the user interface.
      */
     private void loadSavedGame(){
-        storyViewer.appendText("> LOADING SAVED GAME\n\n");
-        try{
-            GameHistory gameHistory = gameEngine.loadGame();
-            storyViewer.setText("> LOADED SAVED GAME\n\n");
-            for(int i=0; i<gameHistory.size(); i++){
-                storyViewer.appendText(String.format("> %s\n\n", gameHistory.getAction(i).toString()));
-                storyViewer.appendText(String.format("%s\n\n", gameHistory.getConsequence(i).getConsequenceDescription().trim()));
+        appendToTranscript(TranscriptEntry.notice("> LOADING SAVED GAME"));
+        engineExecutor.execute(() -> {
+            if(gameEngine == null){
+                return;
+            }
+            try{
+                renderLoadedGame(gameEngine.loadGame(), "> LOADED SAVED GAME");
+            }catch(NoSavedGameException e){
+                Platform.runLater(() -> appendToTranscript(TranscriptEntry.notice(e.toString())));
             }
-            currentHealth.setText("" + gameEngine.getGameState().getHero().getHealth());
-            currentAttackPower.setText("" + gameEngine.getGameState().getHeroAttackPower());
-            currentDefence.setText("" + gameEngine.getGameState().getHeroDefence());
-        }catch(NoSavedGameException e){
-            storyViewer.appendText(String.format("%s\n\n", e.toString()));
-        }   
+        });
+    }
+
+    /**
+     * The saveCurrentGame() function saves the current game, first asking the player
+     * whether to replace a different game that was saved before.
+     *
+     * @param quit (boolean) true to quit once the game is saved
+     */
+    private void saveCurrentGame(boolean quit){
+        engineExecutor.execute(() -> {
+            if(gameEngine == null){
+                if(quit){
+                    Platform.runLater(Platform::exit);
+                }
+                return;
+            }
+            boolean replacesSavedGame = gameEngine.replacesSavedGame();
+            Platform.runLater(() -> {
+                if(replacesSavedGame){
+                    Alert alert = new Alert(Alert.AlertType.CONFIRMATION, "This will replace the game you saved before.", ButtonType.OK, ButtonType.CANCEL);
+                    alert.setTitle("Save Current Game");
+                    alert.setHeaderText("Replace your saved game?");
+                    if(alert.showAndWait().filter((button) -> button == ButtonType.OK).isEmpty()){
+                        return;
+                    }
+                }
+                engineExecutor.execute(() -> {
+                    boolean saved = gameEngine.saveGame();
+                    Platform.runLater(() -> {
+                        appendToTranscript(TranscriptEntry.notice(saved ? "> GAME SAVED" : "> GAME NOT SAVED"));
+                        if(quit){
+                            Platform.exit();
+                        }
+                    });
+                });
+            });
+        });
+    }
+
+    /**
+     * The saveToSlot() function asks the player for the name of a save slot
+     * and saves the current game to it.
+     */
+    private void saveToSlot(){
+        TextInputDialog dialog = new TextInputDialog("Slot 1");
+        dialog.setTitle("Save to Slot");
+        dialog.setHeaderText("Save the current game to a named slot.");
+        dialog.setContentText("Slot name:");
+        dialog.showAndWait().ifPresent((slotName) -> {
+            if(!SaveSlots.isValidSlotName(slotName)){
+                appendToTranscript(TranscriptEntry.notice(String.format("> '%s' IS NOT A VALID SLOT NAME (use letters, digits, spaces, '_' and '-')", slotName)));
+                return;
+            }
+            engineExecutor.execute(() -> {
+                SaveSlotInfo info = gameEngine == null ? null : gameEngine.saveGame(slotName); //read here, where it is changed
+                String notice = info == null ? "> GAME NOT SAVED" : String.format("> GAME SAVED TO SLOT '%s'", info.getSlotName());
+                Platform.runLater(() -> appendToTranscript(TranscriptEntry.notice(notice)));
+            });
+        });
+    }
+
+    /**
+     * The loadFromSlot() function lists the save slots, from the slot index only, and
+     * loads the one that the player chooses.
+     */
+    private void loadFromSlot(){
+        engineExecutor.execute(() -> {
+            if(gameEngine == null){
+                return;
+            }
+            List<SaveSlotInfo> slots = gameEngine.listSaveSlots();
+            Platform.runLater(() -> {
+                if(slots.isEmpty()){
+                    appendToTranscript(TranscriptEntry.notice("> THERE ARE NO SAVED SLOTS"));
+                    return;
+                }
+                ChoiceDialog<SaveSlotInfo> dialog = new ChoiceDialog<SaveSlotInfo>(slots.get(0), slots);
+                dialog.setTitle("Load from Slot");
+                dialog.setHeaderText("Choose a saved game to load.");
+                dialog.setContentText("Slot:");
+                dialog.showAndWait().ifPresent((slot) -> {
+                    appendToTranscript(TranscriptEntry.notice("> LOADING SAVED GAME"));
+                    engineExecutor.execute(() -> {
+                        try{
+                            renderLoadedGame(gameEngine.loadGame(slot.getSlotName()), String.format("> LOADED SLOT '%s'", slot.getSlotName()));
+                        }catch(NoSavedGameException e){
+                            Platform.runLater(() -> appendToTranscript(TranscriptEntry.notice(e.toString())));
+                        }
+                    });
+                });
+            });
+        });
+    }
+
+    /**
+     * The renderLoadedGame() function replaces the transcript with the history of a game
+     * that has just been loaded. It is called on the engine thread.
+     *
+     * @param gameHistory (GameHistory) the history of the loaded game
+     * @param notice (String) the notice shown above the history
+     */
+    private void renderLoadedGame(GameHistory gameHistory, String notice){
+        //The entries only point at turns in the history - the text is fetched a page at a time when a turn is scrolled into view
+        TranscriptEntry[] entries = new TranscriptEntry[gameHistory.size() + 1];
+        entries[0] = TranscriptEntry.notice(notice);
+        for(int i=0; i<gameHistory.size(); i++){
+            entries[i + 1] = TranscriptEntry.turn(gameHistory, i);
+        }
+        int lastPageIndex = Math.max(gameHistory.size() - 1, 0) / HISTORY_PAGE_SIZE;
+        List<GameHistory.Turn> lastPage = gameHistory.getPage(lastPageIndex * HISTORY_PAGE_SIZE, HISTORY_PAGE_SIZE); //the page that is scrolled to
+        int health = gameEngine.getGameState().getHero().getHealth();
+        int attackPower = gameEngine.getGameState().getHeroAttackPower();
+        int defence = gameEngine.getGameState().getHeroDefence();
+        Platform.runLater(() -> {
+            cacheTranscriptPage(gameHistory, lastPageIndex, lastPage);
+            transcript.setAll(entries);
+            storyViewer.scrollTo(transcript.size() - 1);
+            updateHeroStats(health, attackPower, defence);
+        });
     }
 
     /**
@@ -189,19 +408,115 @@ public class DreamFactory extends Application{
                 if (keyEvent.getCode().equals(KeyCode.ENTER)) {
                     String userInput = commandInput.getText().trim();
                     if(userInput != null && userInput.length() > 0){
-                        Consequence consequence = gameEngine.sendCommand(userInput);
-                        storyViewer.appendText(String.format("> %s\n\n", consequence.getActionText()));
-                        storyViewer.appendText(String.format("%s\n\n", consequence.getConsequenceDescription().trim()));
-                        currentHealth.setText("" + consequence.getCurrentHeroHealth());
-                        currentAttackPower.setText("" + consequence.getCurrentHeroAttackPower());
-                        currentDefence.setText("" + consequence.getCurrentHeroDefence());
-                        storyViewer.setScrollTop(Double.MAX_VALUE);
+                        sendCommands(GameEngine.splitBatch(userInput));
 
                         commandInput.setText("");
                     }
                 }
             }
         });
+
+        //TAB completes the command being typed - a filter, so that TAB does not move the focus
+        commandInput.addEventFilter(KeyEvent.KEY_PRESSED, (keyEvent) -> {
+            if(keyEvent.getCode().equals(KeyCode.TAB)){
+                keyEvent.consume();
+                completeInput();
+            }
+        });
+    }
+
+    /**
+     * The completeInput() function completes the last command in the command input as far as
+     * it can. If there is more than one way to finish it, they are shown in a menu below the
+     * input to choose from.
+     */
+    private void completeInput(){
+        String typed = commandInput.getText();
+        int lastCommand = typed.lastIndexOf(GameEngine.BATCH_SEPARATOR) + 1; //only the last command of a batch is completed
+        String earlierCommands = typed.substring(0, lastCommand) + (lastCommand > 0 ? " " : "");
+        String command = typed.substring(lastCommand).trim();
+        engineExecutor.execute(() -> {
+            if(gameEngine == null){
+                return;
+            }
+            List<String> completions = gameEngine.complete(command);
+            Platform.runLater(() -> {
+                if(completions.isEmpty() || !commandInput.getText().equals(typed)){
+                    return; //nothing to complete, or the player has carried on typing
+                }
+                String prefix = CommandCompleter.getCommonPrefix(completions);
+                commandInput.setText(earlierCommands + prefix + (completions.size() == 1 ? " " : ""));
+                commandInput.positionCaret(commandInput.getText().length());
+                if(completions.size() > 1){
+                    completionMenu.getItems().clear();
+                    for(String completion : completions){
+                        MenuItem item = new MenuItem(completion);
+                        item.setOnAction((event) -> {
+                            commandInput.setText(earlierCommands + completion + " ");
+                            commandInput.positionCaret(commandInput.getText().length());
+                        });
+                        completionMenu.getItems().add(item);
+                    }
+                    completionMenu.show(commandInput, Side.BOTTOM, 0, 0);
+                }
+            });
+        });
+    }
+
+    /**
+     * The sendCommands() function plays one or more commands on the engine thread, and
+     * renders all of their turns in the user interface at once.
+     *
+     * @param userInputs (List<String>) the raw input for each turn, in order
+     */
+    private void sendCommands(List<String> userInputs){
+        engineExecutor.execute(() -> {
+            if(gameEngine == null || userInputs.isEmpty()){
+                return;
+            }
+            List<Consequence> consequences = gameEngine.sendCommands(userInputs);
+            Consequence consequence = consequences.get(consequences.size() - 1);
+            GameHistory gameHistory = gameEngine.getGameState().getGameHistory();
+            int lastTurn = gameHistory.size() - 1;
+            int firstPageIndex = (lastTurn - consequences.size() + 1) / HISTORY_PAGE_SIZE;
+            List<List<GameHistory.Turn>> pages = new ArrayList<List<GameHistory.Turn>>(); //the pages of the new turns, read here rather than on the FX thread
+            for(int pageIndex = firstPageIndex; pageIndex <= lastTurn / HISTORY_PAGE_SIZE; pageIndex++){
+                pages.add(gameHistory.getPage(pageIndex * HISTORY_PAGE_SIZE, HISTORY_PAGE_SIZE));
+            }
+            Platform.runLater(() -> {
+                for(int i = 0; i < pages.size(); i++){
+                    cacheTranscriptPage(gameHistory, firstPageIndex + i, pages.get(i));
+                }
+                for(int turn = lastTurn - consequences.size() + 1; turn <= lastTurn; turn++){
+                    transcript.add(TranscriptEntry.turn(gameHistory, turn));
+                }
+                storyViewer.scrollTo(transcript.size() - 1);
+                updateHeroStats(consequence.getCurrentHeroHealth(), consequence.getCurrentHeroAttackPower(), consequence.getCurrentHeroDefence());
+            });
+        });
+    }
+
+    /**
+     * The runScript() function asks the player for a command script and plays it
+     * (see GameEngine.readScript()).
+     */
+    private void runScript(){
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Run Script");
+        File scriptDirectory = new File(SCRIPT_DIRECTORY);
+        if(scriptDirectory.isDirectory()){
+            chooser.setInitialDirectory(scriptDirectory);
+        }
+        File script = chooser.showOpenDialog(storyViewer.getScene().getWindow());
+        if(script == null){
+            return;
+        }
+        try{
+            appendToTranscript(TranscriptEntry.notice(String.format("> RUNNING SCRIPT '%s'", script.getName())));
+            sendCommands(GameEngine.readScript(script.getPath()));
+        }catch(IOException e){
+            appendToTranscript(TranscriptEntry.notice(String.format("> IO EXCEPTION\n\n%s", e.toString())));
+        }
     }
 
     /**
@@ -273,8 +588,8 @@ public class DreamFactory extends Application{
         commandPortal.setHgrow(commandInput, Priority.ALWAYS);
         commandPortal.setAlignment(Pos.CENTER);
         storyViewer.setPrefHeight(INITIAL_HEIGHT - LABEL_HEIGHT * 3);
-        storyViewer.setWrapText(true);
-        storyViewer.setEditable(false);
+        storyViewer.setFocusTraversable(false);
+        storyViewer.setCellFactory(listView -> new TurnCell());
         // -- root
         root.setAlignment(Pos.CENTER);
         root.getChildren().addAll(mainMenu, storyName, statViewer, storyViewer, commandPortal);
@@ -284,4 +599,162 @@ public class DreamFactory extends Application{
         gamePortal.getStylesheets().add(getClass().getResource("dreamfactory.css").toExternalForm());
         return gamePortal;
     }   
+
+    /**
+     * The updateHeroStats() function renders the hero's stats. This
+     * must be called on the JavaFX application thread.
+     *
+     * @param health (int) the hero's health
+     * @param attackPower (int) the hero's attack power
+     * @param defence (int) the hero's defence
+     */
+    private void updateHeroStats(int health, int attackPower, int defence){
+        currentHealth.setText("" + health);
+        currentAttackPower.setText("" + attackPower);
+        currentDefence.setText("" + defence);
+    }
+
+    /**
+     * The appendToTranscript() function adds an entry to the end of the
+     * transcript and scrolls it into view.
+     *
+     * @param entry (TranscriptEntry) the entry to add
+     */
+    private void appendToTranscript(TranscriptEntry entry){
+        transcript.add(entry);
+        storyViewer.scrollTo(transcript.size() - 1);
+    }
+
+    /**
+     * The renderEntry() function creates the text for a single entry in the transcript.
+     * Turns are shown from the pages of the GameHistory in the cache. A turn whose page is
+     * not cached is shown as a placeholder while the page is read on the engine thread (see
+     * fetchTranscriptPage()), since reading it can mean reading the disk and waiting for
+     * the turn being played.
+     *
+     * @param entry (TranscriptEntry) the entry to render
+     * @return (String) the text of the entry
+     */
+    private String renderEntry(TranscriptEntry entry){
+        if(entry.gameHistory == null){
+            return entry.notice;
+        }
+
+        if(entry.gameHistory != cachedGameHistory){
+            clearTranscriptPages(entry.gameHistory);
+        }
+
+        int pageIndex = entry.turn / HISTORY_PAGE_SIZE;
+        List<GameHistory.Turn> page = transcriptPageCache.get(pageIndex);
+        if(page == null || entry.turn % HISTORY_PAGE_SIZE >= page.size()){ //not read yet, or read before the turn was played
+            fetchTranscriptPage(entry.gameHistory, pageIndex);
+            return HISTORY_PAGE_PLACEHOLDER;
+        }
+        GameHistory.Turn turn = page.get(entry.turn % HISTORY_PAGE_SIZE);
+
+        if(!entry.showAction){
+            return turn.getConsequenceText();
+        }
+        return new StringBuilder(turn.getActionText().length() + turn.getConsequenceText().length() + 4)
+            .append("> ").append(turn.getActionText()).append("\n\n")
+            .append(turn.getConsequenceText())
+            .toString();
+    }
+
+    /**
+     * The fetchTranscriptPage() function reads a page of a GameHistory on the engine thread,
+     * then caches it and redraws the transcript on the FX thread. A page that is already
+     * being read is not read again.
+     *
+     * @param gameHistory (GameHistory) the history that the page is in
+     * @param pageIndex (int) the number of the page
+     */
+    private void fetchTranscriptPage(GameHistory gameHistory, int pageIndex){
+        if(!pendingTranscriptPages.add(pageIndex)){
+            return;
+        }
+        engineExecutor.execute(() -> {
+            List<GameHistory.Turn> page = gameHistory.getPage(pageIndex * HISTORY_PAGE_SIZE, HISTORY_PAGE_SIZE);
+            Platform.runLater(() -> {
+                if(gameHistory == cachedGameHistory){ //not if another game has been started or loaded since
+                    cacheTranscriptPage(gameHistory, pageIndex, page);
+                    storyViewer.refresh();
+                }
+            });
+        });
+    }
+
+    /**
+     * The cacheTranscriptPage() function keeps a page of a GameHistory that was read on the
+     * engine thread. It is called on the FX thread.
+     *
+     * @param gameHistory (GameHistory) the history that the page is in
+     * @param pageIndex (int) the number of the page
+     * @param page (List<GameHistory.Turn>) the turns of the page
+     */
+    private void cacheTranscriptPage(GameHistory gameHistory, int pageIndex, List<GameHistory.Turn> page){
+        if(gameHistory != cachedGameHistory){
+            clearTranscriptPages(gameHistory);
+        }
+        transcriptPageCache.put(pageIndex, page);
+        pendingTranscriptPages.remove(pageIndex);
+    }
+
+    private void clearTranscriptPages(GameHistory gameHistory){
+        transcriptPageCache.clear();
+        pendingTranscriptPages.clear();
+        cachedGameHistory = gameHistory;
+    }
+
+    /**
+     * The TranscriptEntry class is a single entry in the transcript. It is either
+     * a reference to a turn in a GameHistory, or a notice from the user interface
+     * (e.g. "> GAME SAVED"). Turns hold no text of their own, so the transcript can
+     * hold a very long game without holding all of its text.
+     */
+    private static class TranscriptEntry {
+
+        final GameHistory gameHistory;
+        final int turn;
+        final boolean showAction;
+        final String notice;
+
+        private TranscriptEntry(GameHistory gameHistory, int turn, boolean showAction, String notice){
+            this.gameHistory = gameHistory;
+            this.turn = turn;
+            this.showAction = showAction;
+            this.notice = notice;
+        }
+
+        static TranscriptEntry turn(GameHistory gameHistory, int turn){
+            return new TranscriptEntry(gameHistory, turn, true, null);
+        }
+
+        static TranscriptEntry introduction(GameHistory gameHistory){
+            return new TranscriptEntry(gameHistory, 0, false, null);
+        }
+
+        static TranscriptEntry notice(String notice){
+            return new TranscriptEntry(null, -1, false, notice);
+        }
+    }
+
+    /**
+     * The TurnCell class renders one TranscriptEntry. The ListView only creates
+     * enough cells to fill the visible area, and reuses them as the transcript scrolls.
+     */
+    private class TurnCell extends ListCell<TranscriptEntry> {
+
+        TurnCell(){
+            getStyleClass().add("story-turn");
+            setWrapText(true);
+            setPrefWidth(0); //wrap to the width of the ListView rather than the width of the text
+        }
+
+        @Override
+        protected void updateItem(TranscriptEntry entry, boolean empty){
+            super.updateItem(entry, empty);
+            setText(empty || entry == null ? null : renderEntry(entry));
+        }
+    }
 }
@@ -1,13 +1,15 @@
 package GameEngine;
 
 import Story.Command;
+import Story.SymbolTable;
 
 import java.io.Serializable;
 
 /**
  * The Action class represents an action that the player wishes to take.
  * It is created by the CommandParser, which interprets raw user input. 
- * It holds a Command and that command's target.
+ * It holds a Command and that command's target, along with the command id
+ * that the CommandRegistry uses to find the CommandHandler for it.
  * 
  * @author Samuel J. Brookes (u5380100)
  */
@@ -16,7 +18,14 @@ public class Action implements Serializable {
     private boolean commandIsLegal;
     private String illegalCommand;
     private Command command;
+    private int commandId;
+    private String verb;
     private String target;
+    private String preposition;
+    private String indirectTarget;
+    private transient int targetSymbol;
+    private transient int indirectTargetSymbol;
+    private transient int keySymbol;
 
     /**
      * The constructor for an illegal Action. This is
@@ -30,6 +39,7 @@ public class Action implements Serializable {
     public Action(String illegalCommand){
         commandIsLegal = false;
         this.illegalCommand = illegalCommand;
+        this.commandId = -1;
     }
 
     /**
@@ -40,11 +50,43 @@ public class Action implements Serializable {
      * @param target (String)
      */
     public Action(Command command, String target){
+        this(command.ordinal(), command.name(), command, target);
+    }
+
+    /**
+     * The constructor for a legal Action that was resolved by the CommandRegistry.
+     * Verbs that are not built in have no Command.
+     * 
+     * @param commandId (int) the command id of the handler for this action
+     * @param verb (String) the verb typed by the player
+     * @param command (Story.Command) the built-in command, or null
+     * @param target (String)
+     */
+    public Action(int commandId, String verb, Command command, String target){
         commandIsLegal = true;
+        this.commandId = commandId;
+        this.verb = verb;
         this.command = command;
         this.target = target;
     }
 
+    /**
+     * The constructor for a legal Action with an indirect target, eg: "USE BRASS KEY ON CHEST",
+     * where BRASS KEY is the target and CHEST is the indirect target.
+     * 
+     * @param commandId (int) the command id of the handler for this action
+     * @param verb (String) the verb typed by the player
+     * @param command (Story.Command) the built-in command, or null
+     * @param target (String) the direct target
+     * @param preposition (String) the preposition between the targets, eg: "ON"
+     * @param indirectTarget (String) the indirect target
+     */
+    public Action(int commandId, String verb, Command command, String target, String preposition, String indirectTarget){
+        this(commandId, verb, command, target);
+        this.preposition = preposition;
+        this.indirectTarget = indirectTarget;
+    }
+
     /**
      * Utility function to get the Command stored in the Action.
      * 
@@ -54,6 +96,24 @@ public class Action implements Serializable {
         return command;
     }
 
+    /**
+     * Utility function to get the command id of the Action.
+     * 
+     * @return int commandId, or -1 if the Action is not legal
+     */
+    public int getCommandId(){
+        return commandId;
+    }
+
+    /**
+     * Utility function to get the verb typed by the player.
+     * 
+     * @return String verb
+     */
+    public String getVerb(){
+        return verb;
+    }
+
     /**
      * Utility function to get the taarget stored in the Action.
      * 
@@ -63,6 +123,76 @@ public class Action implements Serializable {
         return target;
     }
 
+    /**
+     * Utility function to get the preposition before the indirect target.
+     * 
+     * @return String preposition, or null if the Action has no indirect target
+     */
+    public String getPreposition(){
+        return preposition;
+    }
+
+    /**
+     * Utility function to get the indirect target stored in the Action.
+     * 
+     * @return String indirectTarget, or null if the Action has no indirect target
+     */
+    public String getIndirectTarget(){
+        return indirectTarget;
+    }
+
+    /**
+     * The resolveSymbols() function looks the targets of the Action up in the story's
+     * SymbolTable, so that they can be compared with the names of things as symbols. It
+     * also looks up the Action as a key string, eg: "USE RUSTY IRON KEY".
+     * 
+     * @param symbolTable (Story.SymbolTable) the symbol table of the story being played
+     */
+    public void resolveSymbols(SymbolTable symbolTable){
+        if(!commandIsLegal){
+            return;
+        }
+        targetSymbol = symbolTable.lookup(target);
+        indirectTargetSymbol = symbolTable.lookup(indirectTarget);
+        keySymbol = symbolTable.lookup((command != null ? command.name() : verb) + " " + target);
+    }
+
+    /**
+     * Utility function to get the symbol of the target.
+     * 
+     * @return int targetSymbol, or SymbolTable.NO_SYMBOL if nothing is called that or the symbols have not been resolved
+     */
+    public int getTargetSymbol(){
+        return targetSymbol;
+    }
+
+    /**
+     * Utility function to get the symbol of the indirect target.
+     * 
+     * @return int indirectTargetSymbol, or SymbolTable.NO_SYMBOL if nothing is called that or there is no indirect target
+     */
+    public int getIndirectTargetSymbol(){
+        return indirectTargetSymbol;
+    }
+
+    /**
+     * Utility function to get the symbol of the Action as a key string, eg: "USE RUSTY IRON KEY".
+     * 
+     * @return int keySymbol, or SymbolTable.NO_SYMBOL if nothing is unlocked by it
+     */
+    public int getKeySymbol(){
+        return keySymbol;
+    }
+
+    /**
+     * Utility function that returns whether the Action has an indirect target.
+     * 
+     * @return boolean true if there is an indirect target
+     */
+    public boolean hasIndirectTarget(){
+        return indirectTarget != null;
+    }
+
     /**
      * Utility function that returns whether or not the
      * Action is valid (i.e. has a Command/target).
@@ -87,11 +217,12 @@ public class Action implements Serializable {
      * Utility function that prints the Command/target
      * to a normalized String.
      * 
-     * @return String illegalCommand or 'Command Target'
+     * @return String illegalCommand or 'Command Target', followed by 'Preposition IndirectTarget' if there is one
      */
     public String toString(){
         if(commandIsLegal){
-            return String.format("%s %s", command.name(), target);   
+            String action = String.format("%s %s", command != null ? command.name() : verb, target);
+            return indirectTarget == null ? action : action + " " + preposition + " " + indirectTarget;
         }else{
             return illegalCommand.toUpperCase();
         }
@@ -4,11 +4,9 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Random;
 
-import Story.Command;
 import Story.Enemy;
 import Story.Hero;
 import Story.Item;
-import Story.Mode;
 
 /**
  * The Arena class contains all the necessary data and functions required
@@ -17,7 +15,8 @@ import Story.Mode;
  * Mode is locked so that only the Hero/Enemy in the Arena are modified. When
  * combat finishes, the Hero and Enemy are returned to the GameState.
  * 
- * The valid actions that a player can take in combat are: ATTACK, BLOCK & DODGE.
+ * The valid actions that a player can take in combat are: ATTACK, BLOCK, DODGE & ESCAPE.
+ * Each of these is a function of the Arena, called by the CommandHandler for that command.
  * 
  * The valid actions that an enemy can take in combat are: ATTACK & POWER_UP.
  * 
@@ -33,21 +32,25 @@ public class Arena implements Serializable {
     private ArrayList<Item> equippedItems;
     private boolean heroEscaped;
     private boolean enemyPoweringUp;
+    private Random random;
 
     /**
      * The constructor for the Arena class takes the Hero, a list of
      * all Items from the Hero's inventory that are equipped (this is so 
      * that the full list of Items does not need to be passed to the Arena
      * whenever there is combat), and the Enemy that has been targeted for combat.
+     * All dice are rolled with the game's seeded Random, so that a game can be replayed exactly.
      * 
      * @param hero Story.Hero
      * @param equippedItems ArrayList<Item> 
      * @param enemy Story.Enemy
+     * @param random (Random) the random number generator of the GameState
      */
-    public Arena(Hero hero, ArrayList<Item> equippedItems, Enemy enemy){
+    public Arena(Hero hero, ArrayList<Item> equippedItems, Enemy enemy, Random random){
         this.hero = hero;
         this.equippedItems = equippedItems;
         this.enemy = enemy;
+        this.random = random;
         this.heroHasInitiative = rollD20() >= rollD20(); // Roll for initiative
         heroEscaped = false;
         enemyPoweringUp = false;
@@ -60,7 +63,6 @@ public class Arena implements Serializable {
      * @return (int) randomInteger between 1 & 20
      */
     private int rollD20(){
-        Random random = new Random();
         return random.nextInt(20) + 1;
     }
 
@@ -106,7 +108,6 @@ public class Arena implements Serializable {
      * @return (int) a value representing how much health should be removed from the target of the attack
      */
     private int rollForDamage(boolean herosTurn, boolean criticalHit){
-        Random random = new Random();
         int attackPower = herosTurn ? getHeroAttackPower() : enemy.getAttackPower();
         int variance = criticalHit ? 2 * attackPower : random.nextInt(attackPower) + 1;
         return variance + attackPower;
@@ -130,16 +131,9 @@ public class Arena implements Serializable {
             if((attackRoll + getHeroAttackPower()) >= enemy.getDefence()){
                 dmg = (attackRoll == 20) ? rollForDamage(herosTurn, true) : rollForDamage(herosTurn, false);
                 enemy.setHealth(enemy.getHealth() - dmg);
-                consequence.addToConsequence(
-                    String.format(
-                        "You %shit %s for %d damage!", 
-                        (attackRoll == 20) ? "critically " : "",
-                        enemy.getName(),
-                        dmg
-                    )
-                );
+                consequence.addMessage((attackRoll == 20) ? Message.HERO_HITS_CRITICALLY : Message.HERO_HITS, enemy.getName(), Integer.toString(dmg));
             }else{
-                consequence.addToConsequence(String.format("You try to hit %s, but you miss!", enemy.getName()));
+                consequence.addMessage(Message.HERO_MISSES, enemy.getName());
             }
         }else{
             if(rollD20() >= 15 && !enemyPoweringUp){
@@ -148,7 +142,7 @@ public class Arena implements Serializable {
                 if(enemyPoweringUp){
                     attackRoll = 20;
                     enemyPoweringUp = false;
-                    consequence.addToConsequence(String.format("%s unleashes a vicious attack!", enemy.getName()));
+                    consequence.addMessage(Message.ENEMY_UNLEASHES_ATTACK, enemy.getName());
                 }else{
                     attackRoll = rollD20();
                 }
@@ -156,16 +150,9 @@ public class Arena implements Serializable {
                     dmg = (attackRoll == 20) ? rollForDamage(herosTurn, true) : rollForDamage(herosTurn, false);
     
                     hero.setHealth(hero.getHealth() - dmg);
-                    consequence.addToConsequence(
-                        String.format(
-                            "%s %shits you for %d damage!", 
-                            enemy.getName(),
-                            (attackRoll == 20) ? "critically " : "",
-                            dmg
-                        )
-                    );
+                    consequence.addMessage((attackRoll == 20) ? Message.ENEMY_HITS_CRITICALLY : Message.ENEMY_HITS, enemy.getName(), Integer.toString(dmg));
                 }else{
-                    consequence.addToConsequence(String.format("%s tries to hit you, but they miss!", enemy.getName()));
+                    consequence.addMessage(Message.ENEMY_MISSES, enemy.getName());
                 }
             }
         }
@@ -181,70 +168,100 @@ public class Arena implements Serializable {
      * @return (Consequence) the updated consequence
      */
     private Consequence enemyPowersUp(Consequence consequence){
-        consequence.addToConsequence(String.format(
-            "%s looks furious!",
-            enemy.getName()
-        ));
+        consequence.addMessage(Message.ENEMY_POWERS_UP, enemy.getName());
         enemyPoweringUp = true;
         return consequence;
     }
 
     /**
-     * The primary function of the Arena class, fight() takes the action
-     * taken by the player (ATTACK, DODGE, BLOCK or ESCAPE) and determines if it's 
-     * success, then updates the Hero, Enemy and Consequence object with the results.
+     * The fumble() function is called when the player enters an invalid command during
+     * combat (no such command or not valid for mode COMBAT). The player loses their turn.
      * 
-     * Player's will 'fumble' and lose a turn if they enter an invalid command (no such command or not valid for mode COMBAT)
+     * @param consequence (Consequence) the consequence to update with the results
+     * @return (Consequence) the updated consequence
+     */
+    public Consequence fumble(Consequence consequence){
+        consequence.addMessage(Message.HERO_FUMBLES);
+        return attack(false, consequence);
+    }
+
+    /**
+     * The attackEnemy() function is called when the player uses ATTACK during combat. 
+     * The hero and the enemy each attack, in order of initiative.
      * 
-     * @param action (Action) the action taken by the player
      * @param consequence (Consequence) the consequence to update with the results
      * @return (Consequence) the updated consequence
      */
-    public Consequence fight(Action action, Consequence consequence){
-        if(!action.isValid() || action.getCommand().getValidMode() != Mode.COMBAT){
-            consequence.addToConsequence("You fumble!");
-            consequence = attack(false, consequence);
-        }else if(action.getCommand() == Command.ATTACK_ENEMY){
-            consequence = attack(heroHasInitiative, consequence);
-            if(!enemyIsDead() && !heroIsDead()){
-                consequence = attack(!heroHasInitiative, consequence);
+    public Consequence attackEnemy(Consequence consequence){
+        consequence = attack(heroHasInitiative, consequence);
+        if(!enemyIsDead() && !heroIsDead()){
+            consequence = attack(!heroHasInitiative, consequence);
+        }
+        return consequence;
+    }
+
+    /**
+     * The dodge() function is called when the player uses DODGE during combat. If the 
+     * dodge succeeds, the enemy's attack (including a powered up attack) is avoided.
+     * 
+     * @param consequence (Consequence) the consequence to update with the results
+     * @return (Consequence) the updated consequence
+     */
+    public Consequence dodge(Consequence consequence){
+        int dodgeRoll = rollD20();
+        if(dodgeRoll >= 11){
+            consequence.addMessage(Message.HERO_DODGES, enemy.getName());
+            if(enemyPoweringUp){
+                enemyPoweringUp = false;
             }
-        }else if(action.getCommand() == Command.DODGE){
-            int dodgeRoll = rollD20();
-            if(dodgeRoll >= 11){
-                consequence.addToConsequence(String.format("%s tries to attack you, but you dodge out of the way!", enemy.getName()));
-                if(enemyPoweringUp){
-                    enemyPoweringUp = false;
-                }
+        }else{
+            consequence.addMessage(Message.HERO_FAILS_TO_DODGE, enemy.getName());
+            consequence = attack(false, consequence);
+        }
+        return consequence;
+    }
+
+    /**
+     * The block() function is called when the player uses BLOCK during combat. The
+     * hero's defence is increased by half for the enemy's next attack.
+     * 
+     * @param consequence (Consequence) the consequence to update with the results
+     * @return (Consequence) the updated consequence
+     */
+    public Consequence block(Consequence consequence){
+        int baseDefense = hero.getDefense();
+        hero.setDefense(baseDefense + (int) ((double) baseDefense / 2.0));
+        consequence.addMessage(Message.HERO_BLOCKS);
+        consequence = attack(false, consequence);
+        hero.setDefense(baseDefense);
+        return consequence;
+    }
+
+    /**
+     * The escape() function is called when the player uses ESCAPE during combat. If the 
+     * hero has the initiative they may escape before the enemy attacks, otherwise they 
+     * must survive the enemy's attack first.
+     * 
+     * @param consequence (Consequence) the consequence to update with the results
+     * @return (Consequence) the updated consequence
+     */
+    public Consequence escape(Consequence consequence){
+        int escapeRoll = rollD20();
+        if(heroHasInitiative){
+            if(escapeRoll >= 12){
+                consequence.addMessage(Message.HERO_ESCAPES, enemy.getName());
+                heroEscaped = true;
             }else{
-                consequence.addToConsequence(String.format("You try to dodge %s, but you're too slow!", enemy.getName()));
+                consequence.addMessage(Message.HERO_FAILS_TO_ESCAPE, enemy.getName());
                 consequence = attack(false, consequence);
             }
-        }else if(action.getCommand() == Command.BLOCK){
-            int baseDefense = hero.getDefense();
-            hero.setDefense(baseDefense + (int) ((double) baseDefense / 2.0));
-            consequence.addToConsequence("You try to defend yourself as best you can!");
+        }else{
             consequence = attack(false, consequence);
-            hero.setDefense(baseDefense);
-        }else if(action.getCommand() == Command.ESCAPE){
-            int escapeRoll = rollD20();
-            if(heroHasInitiative){
-                if(escapeRoll >= 12){
-                    consequence.addToConsequence(String.format("You manage to escape from %s!", enemy.getName()));
-                    heroEscaped = true;
-                }else{
-                    consequence.addToConsequence(String.format("You try to escape from %s, but they're too quick!", enemy.getName()));
-                    consequence = attack(false, consequence);
-                }
-            }else{
-                consequence = attack(false, consequence);
-                if(!heroIsDead() && escapeRoll >= 12){
-                    consequence.addToConsequence(String.format("You manage to escape from %s!", enemy.getName()));
-                    heroEscaped = true;
-                }
+            if(!heroIsDead() && escapeRoll >= 12){
+                consequence.addMessage(Message.HERO_ESCAPES, enemy.getName());
+                heroEscaped = true;
             }
         }
-
         return consequence;
     }
 
@@ -0,0 +1,92 @@
+package GameEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import GameEngine.Exceptions.CommandNotLegalInThisModeException;
+import GameEngine.Exceptions.NoSuchItemException;
+import GameEngine.Exceptions.NoValidTargetException;
+import Story.Command;
+import Story.Mode;
+
+/**
+ * The BuiltInCommandHandler class registers the GameEngine's own Commands with the
+ * CommandRegistry. EXPLORATION commands are resolved by the DungeonMaster and COMBAT
+ * commands by the Arena in the GameState.
+ */
+class BuiltInCommandHandler implements CommandHandler {
+
+    private final Command command;
+    private final String verb;
+    private final boolean takesTarget;
+    private final Body body;
+
+    private BuiltInCommandHandler(Command command, String verb, boolean takesTarget, Body body){
+        this.command = command;
+        this.verb = verb;
+        this.takesTarget = takesTarget;
+        this.body = body;
+    }
+
+    /**
+     * The all() function creates a handler for every built-in Command. The handlers
+     * are listed in the same order as the Command enum.
+     *
+     * @return (List<CommandHandler>) the built-in handlers
+     */
+    static List<CommandHandler> all(){
+        ArrayList<CommandHandler> handlers = new ArrayList<CommandHandler>();
+        handlers.add(new BuiltInCommandHandler(Command.GREET, "GREET", true, DungeonMaster::greet));
+        handlers.add(new BuiltInCommandHandler(Command.ATTACK, "ATTACK", true, DungeonMaster::attack));
+        handlers.add(new BuiltInCommandHandler(Command.SEARCH, "SEARCH", true, DungeonMaster::search));
+        handlers.add(new BuiltInCommandHandler(Command.USE, "USE", true, DungeonMaster::use));
+        handlers.add(new BuiltInCommandHandler(Command.INSPECT, "INSPECT", true, DungeonMaster::inspect));
+        handlers.add(new BuiltInCommandHandler(Command.GO, "GO", true, DungeonMaster::go));
+        handlers.add(new BuiltInCommandHandler(Command.LOOK, "LOOK", true, DungeonMaster::look));
+        handlers.add(new BuiltInCommandHandler(Command.EXPLORE, "EXPLORE", false, DungeonMaster::explore));
+        handlers.add(new BuiltInCommandHandler(Command.INVENTORY, "INVENTORY", false, DungeonMaster::showInventory));
+        handlers.add(new BuiltInCommandHandler(Command.SAY, "SAY", true, DungeonMaster::say));
+        handlers.add(new BuiltInCommandHandler(Command.BLOCK, "BLOCK", false, (gameState, action, consequence) -> gameState.getArena().block(consequence)));
+        handlers.add(new BuiltInCommandHandler(Command.ATTACK_ENEMY, "ATTACK", false, (gameState, action, consequence) -> gameState.getArena().attackEnemy(consequence)));
+        handlers.add(new BuiltInCommandHandler(Command.DODGE, "DODGE", false, (gameState, action, consequence) -> gameState.getArena().dodge(consequence)));
+        handlers.add(new BuiltInCommandHandler(Command.ESCAPE, "ESCAPE", false, (gameState, action, consequence) -> gameState.getArena().escape(consequence)));
+        handlers.add(new BuiltInCommandHandler(Command.HELP, "HELP", false, DungeonMaster::help));
+        handlers.add(new BuiltInCommandHandler(Command.UNDO, "UNDO", false, DungeonMaster::undo));
+        handlers.add(new BuiltInCommandHandler(Command.REDO, "REDO", false, DungeonMaster::redo));
+        return handlers;
+    }
+
+    @Override
+    public String getVerb(){
+        return verb;
+    }
+
+    @Override
+    public Mode getValidMode(){
+        return command.getValidMode();
+    }
+
+    @Override
+    public boolean takesTarget(){
+        return takesTarget;
+    }
+
+    @Override
+    public Command getCommand(){
+        return command;
+    }
+
+    @Override
+    public void handle(GameState gameState, Action action, Consequence consequence)
+        throws NoValidTargetException, NoSuchItemException, CommandNotLegalInThisModeException{
+        body.handle(gameState, action, consequence);
+    }
+
+    /**
+     * The Body interface is the function that resolves a built-in command.
+     */
+    private interface Body {
+        void handle(GameState gameState, Action action, Consequence consequence)
+            throws NoValidTargetException, NoSuchItemException, CommandNotLegalInThisModeException;
+    }
+}
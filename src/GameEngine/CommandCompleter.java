@@ -0,0 +1,305 @@
+package GameEngine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import Story.Command;
+import Story.CommandTarget;
+import Story.Container;
+import Story.Direction;
+import Story.Enemy;
+import Story.Hero;
+import Story.Item;
+import Story.Mode;
+import Story.NonPlayerCharacter;
+import Story.Room;
+
+/**
+ * The CommandCompleter class completes a command that the player is part way through typing,
+ * e.g. when TAB is pressed. The verb is completed from the verbs in the CommandRegistry for the
+ * current mode, and the target from the names of the things the verb can be used on that the
+ * player can see - the containers, enemies and characters in the current room, the items in the
+ * inventory, and the directions.
+ *
+ * The verbs and names are kept in prefix tries, so a completion only visits the part of the trie
+ * below what has been typed. The names are not gathered again for every keystroke: the trie is
+ * only brought up to date when the room, its state version or the inventory version of the hero
+ * has changed, and then only the names that have come or gone are added or removed.
+ *
+ * One CommandCompleter is used by each game (see GameState.getCommandCompleter()), and it is used
+ * in the same way by the user interface and by network sessions (see GameEngine.complete()).
+ */
+public class CommandCompleter {
+
+    public static final int MAX_COMPLETIONS = 16;
+
+    private static final CommandTarget[] INSPECT_TARGETS = {CommandTarget.ITEM, CommandTarget.CONTAINER, CommandTarget.ENEMY, CommandTarget.CHARACTER};
+
+    private final CommandRegistry commandRegistry;
+    private final HashMap<Mode, PrefixTrie> verbs;
+    private final PrefixTrie targets;
+    private final HashMap<String, Integer> visibleNames; //"<target ordinal>:<name>" -> how many there are
+    private int syncedRoomIndex = -1;
+    private int syncedStateVersion = -1;
+    private int syncedInventoryVersion = -1;
+
+    /**
+     * The constructor for CommandCompleter.
+     *
+     * @param commandRegistry (CommandRegistry) the registry to take the verbs from
+     */
+    public CommandCompleter(CommandRegistry commandRegistry){
+        this.commandRegistry = commandRegistry;
+        this.verbs = new HashMap<Mode, PrefixTrie>();
+        this.targets = new PrefixTrie();
+        this.visibleNames = new HashMap<String, Integer>();
+        for(Direction direction : Direction.values()){
+            targets.add(direction.name(), CommandTarget.DIRECTION);
+        }
+    }
+
+    /**
+     * The complete() function returns the ways that a partly typed command can be finished,
+     * in alphabetical order. If only the verb has been typed, the verbs are completed;
+     * otherwise the target is.
+     *
+     * @param gameState (GameState) the game being played
+     * @param userInput (String) what the player has typed so far
+     * @return (List<String>) at most MAX_COMPLETIONS completed commands, in upper case
+     */
+    public List<String> complete(GameState gameState, String userInput){
+        String typed = userInput.toUpperCase().replaceAll("\\s+", " ").replaceAll("^ ", "");
+        Mode mode = gameState.getCurrentMode() == Mode.COMBAT ? Mode.COMBAT : Mode.EXPLORATION;
+        ArrayList<String> completions = new ArrayList<String>();
+
+        int space = typed.indexOf(' ');
+        if(space < 0){
+            getVerbs(mode).collect(typed, -1, "", completions);
+            return completions;
+        }
+
+        String verb = typed.substring(0, space);
+        CommandHandler handler = commandRegistry.getHandler(mode, commandRegistry.getCommandId(mode, verb));
+        if(handler == null || !handler.takesTarget()){
+            return completions;
+        }
+        sync(gameState);
+        targets.collect(typed.substring(space + 1), getTargetMask(handler.getCommand()), verb + " ", completions);
+        return completions;
+    }
+
+    /**
+     * Utility function that returns the longest text that every completion starts with,
+     * i.e. how far TAB can fill in the command without choosing between completions.
+     *
+     * @param completions (List<String>) the completions returned by complete()
+     * @return (String) the common prefix, or "" if there are no completions
+     */
+    public static String getCommonPrefix(List<String> completions){
+        if(completions.isEmpty()){
+            return "";
+        }
+        String prefix = completions.get(0);
+        for(String completion : completions){
+            int length = 0;
+            while(length < prefix.length() && length < completion.length() && prefix.charAt(length) == completion.charAt(length)){
+                length++;
+            }
+            prefix = prefix.substring(0, length);
+        }
+        return prefix;
+    }
+
+    private PrefixTrie getVerbs(Mode mode){
+        PrefixTrie trie = verbs.get(mode);
+        if(trie == null){
+            trie = new PrefixTrie();
+            for(String verb : commandRegistry.getVerbs(mode)){
+                trie.add(verb, CommandTarget.NONE);
+            }
+            verbs.put(mode, trie);
+        }
+        return trie;
+    }
+
+    /**
+     * Returns a bit for each CommandTarget that the command can be used on. Commands that are
+     * not built in can be used on anything. The TargetCorrector uses the same mask.
+     */
+    static int getTargetMask(Command command){
+        if(command == null){
+            return -1;
+        }
+        if(command == Command.INSPECT){ //the DungeonMaster lets the player inspect anything they can see
+            int mask = 0;
+            for(CommandTarget target : INSPECT_TARGETS){
+                mask |= 1 << target.ordinal();
+            }
+            return mask;
+        }
+        return 1 << command.getValidCommandTarget().ordinal();
+    }
+
+    /**
+     * The sync() function brings the names in the trie up to date with what the player can
+     * see, adding and removing only the names that have changed. Nothing is done if the room,
+     * its state version and the inventory version are the same as last time.
+     */
+    private void sync(GameState gameState){
+        Room room = gameState.getCurrentRoom();
+        Hero hero = gameState.getHero();
+        HashMap<Integer, Boolean> inventory = hero.getInventory();
+        if(room.getRoomIndex() == syncedRoomIndex && room.getStateVersion() == syncedStateVersion && hero.getInventoryVersion() == syncedInventoryVersion){
+            return;
+        }
+        syncedRoomIndex = room.getRoomIndex();
+        syncedStateVersion = room.getStateVersion();
+        syncedInventoryVersion = hero.getInventoryVersion();
+
+        HashMap<String, Integer> names = new HashMap<String, Integer>();
+        if(room.getContainers() != null){
+            for(int index : room.getContainers()){
+                Container container = gameState.getStory().getContainer(index);
+                addName(names, CommandTarget.CONTAINER, container == null ? null : container.getName());
+            }
+        }
+        if(room.getEnemies() != null){
+            for(int index : room.getEnemies()){
+                Enemy enemy = gameState.getStory().getEnemy(index);
+                addName(names, CommandTarget.ENEMY, enemy == null ? null : enemy.getName());
+            }
+        }
+        if(room.getNonPlayerCharacters() != null){
+            for(int index : room.getNonPlayerCharacters()){
+                NonPlayerCharacter npc = gameState.getStory().getNonPlayerCharacter(index);
+                addName(names, CommandTarget.CHARACTER, npc == null ? null : npc.getName());
+            }
+        }
+        for(int index : inventory.keySet()){
+            Item item = gameState.getStory().getItem(index);
+            addName(names, CommandTarget.ITEM, item == null ? null : item.getName());
+        }
+
+        for(Map.Entry<String, Integer> entry : visibleNames.entrySet()){
+            int gone = entry.getValue() - names.getOrDefault(entry.getKey(), 0);
+            for(int i = 0; i < gone; i++){
+                removeName(entry.getKey());
+            }
+        }
+        for(Map.Entry<String, Integer> entry : names.entrySet()){
+            int added = entry.getValue() - visibleNames.getOrDefault(entry.getKey(), 0);
+            for(int i = 0; i < added; i++){
+                addName(entry.getKey());
+            }
+        }
+        visibleNames.clear();
+        visibleNames.putAll(names);
+    }
+
+    private static void addName(HashMap<String, Integer> names, CommandTarget target, String name){
+        if(name != null && !name.isEmpty()){
+            names.merge(target.ordinal() + ":" + name.toUpperCase(), 1, Integer::sum);
+        }
+    }
+
+    private void addName(String key){
+        int colon = key.indexOf(':');
+        targets.add(key.substring(colon + 1), CommandTarget.values()[Integer.parseInt(key.substring(0, colon))]);
+    }
+
+    private void removeName(String key){
+        int colon = key.indexOf(':');
+        targets.remove(key.substring(colon + 1), CommandTarget.values()[Integer.parseInt(key.substring(0, colon))]);
+    }
+
+    /**
+     * The PrefixTrie class holds words, each tagged with a CommandTarget, one character per
+     * node. Every node counts the words below it for each target, so that words can be removed
+     * again and branches with nothing of the wanted targets are not visited. The same word can
+     * be added more than once (e.g. two enemies with the same name), and is listed once.
+     */
+    static class PrefixTrie {
+
+        private final Node root = new Node();
+
+        void add(String word, CommandTarget target){
+            Node node = root;
+            node.below[target.ordinal()]++;
+            for(int i = 0; i < word.length(); i++){
+                node = node.children.computeIfAbsent(word.charAt(i), (c) -> new Node());
+                node.below[target.ordinal()]++;
+            }
+            node.ends[target.ordinal()]++;
+        }
+
+        void remove(String word, CommandTarget target){
+            Node node = root;
+            node.below[target.ordinal()]--;
+            for(int i = 0; i < word.length(); i++){
+                Node child = node.children.get(word.charAt(i));
+                if(--child.below[target.ordinal()] == 0 && child.isEmpty()){
+                    node.children.remove(word.charAt(i)); //nothing else goes through here
+                    return;
+                }
+                node = child;
+            }
+            node.ends[target.ordinal()]--;
+        }
+
+        /**
+         * Adds every word that starts with the prefix and is tagged with a target in the mask
+         * to the completions, in alphabetical order, each after the given lead.
+         */
+        void collect(String prefix, int mask, String lead, List<String> completions){
+            Node node = root;
+            for(int i = 0; i < prefix.length() && node != null; i++){
+                node = node.children.get(prefix.charAt(i));
+            }
+            if(node != null){
+                collect(node, new StringBuilder(lead).append(prefix), mask, completions);
+            }
+        }
+
+        private void collect(Node node, StringBuilder word, int mask, List<String> completions){
+            if(completions.size() >= MAX_COMPLETIONS || !node.has(node.below, mask)){
+                return;
+            }
+            if(node.has(node.ends, mask)){
+                completions.add(word.toString());
+            }
+            for(Map.Entry<Character, Node> child : node.children.entrySet()){
+                word.append(child.getKey());
+                collect(child.getValue(), word, mask, completions);
+                word.setLength(word.length() - 1);
+            }
+        }
+    }
+
+    private static class Node {
+
+        final TreeMap<Character, Node> children = new TreeMap<Character, Node>();
+        final int[] below = new int[CommandTarget.values().length];
+        final int[] ends = new int[CommandTarget.values().length];
+
+        boolean has(int[] counts, int mask){
+            for(int target = 0; target < counts.length; target++){
+                if(counts[target] > 0 && (mask & (1 << target)) != 0){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isEmpty(){
+            for(int count : below){
+                if(count > 0){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package GameEngine;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The CommandGrammar holds the parse tables that the CommandParser uses to split what follows
+ * the verb into a direct target and, for verbs that take one, a preposition and an indirect
+ * target, eg: "USE BRASS KEY ON CHEST" or "GIVE LETTER TO BUTLER".
+ *
+ * The grammar is written one verb to a line:
+ *
+ *     USE     OBJECT [ON|WITH OBJECT]
+ *
+ * meaning that USE is followed by a noun phrase, and then optionally by ON or WITH and a second
+ * noun phrase. Verbs that are not listed take the rest of the command as one target, as do verbs
+ * listed with OBJECT alone. Lines starting with # are comments.
+ *
+ * The grammar is compiled once, when it is loaded, into a table of the prepositions
+ * each verb takes, so parsing a command only compares the words of the command against the few
+ * prepositions of its verb. The default grammar is built in, and can be replaced by listing
+ * verbs in res/grammar.txt.
+ */
+public class CommandGrammar {
+
+    public static final String DEFAULT_GRAMMAR = "USE OBJECT [ON|WITH OBJECT]";
+
+    private static final String GRAMMAR_PATH = "res/grammar.txt";
+    private static final String OBJECT = "OBJECT";
+    private static final String[] NO_PREPOSITIONS = new String[0];
+    private static volatile CommandGrammar instance;
+
+    private final HashMap<String, String[]> prepositionsByVerb;
+
+    /**
+     * The constructor for CommandGrammar compiles a grammar.
+     *
+     * @param grammar (Reader) the grammar, one verb to a line
+     * @throws IOException if the grammar cannot be read, or a line is not a valid rule
+     */
+    public CommandGrammar(Reader grammar) throws IOException{
+        this.prepositionsByVerb = new HashMap<String, String[]>();
+        compile(grammar);
+    }
+
+    /**
+     * The getInstance() function returns the grammar used by the CommandParser. The first
+     * time it is called, the grammar is compiled from res/grammar.txt if that file exists.
+     *
+     * @return (CommandGrammar) the current grammar
+     */
+    public static CommandGrammar getInstance(){
+        CommandGrammar grammar = instance;
+        if(grammar == null){
+            synchronized(CommandGrammar.class){
+                if(instance == null){
+                    instance = load(GRAMMAR_PATH);
+                }
+                grammar = instance;
+            }
+        }
+        return grammar;
+    }
+
+    /**
+     * The load() function compiles a grammar from a file. If the file does not exist, or
+     * cannot be compiled, the default grammar is used.
+     *
+     * @param path (String) the path to the grammar file
+     * @return (CommandGrammar) the compiled grammar
+     */
+    public static CommandGrammar load(String path){
+        if(new File(path).isFile()){
+            try(Reader reader = new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8)){
+                return new CommandGrammar(reader);
+            }catch(IOException e){
+                e.printStackTrace();
+            }
+        }
+        try{
+            return new CommandGrammar(new StringReader(DEFAULT_GRAMMAR));
+        }catch(IOException e){
+            throw new IllegalStateException(e); //the default grammar is always valid
+        }
+    }
+
+    /**
+     * The setInstance() function replaces the grammar used by the CommandParser.
+     *
+     * @param grammar (CommandGrammar) the new grammar
+     */
+    public static void setInstance(CommandGrammar grammar){
+        instance = grammar;
+    }
+
+    /**
+     * The getPrepositions() function returns the prepositions that can come between the
+     * direct and indirect target of a verb.
+     *
+     * @param verb (String) the verb, in upper case
+     * @return (String[]) the prepositions, in upper case - empty if the verb has one target
+     */
+    public String[] getPrepositions(String verb){
+        String[] prepositions = prepositionsByVerb.get(verb);
+        return prepositions == null ? NO_PREPOSITIONS : prepositions;
+    }
+
+    /**
+     * The compile() function reads the rules of the grammar, one to a line.
+     */
+    private void compile(Reader grammar) throws IOException{
+        BufferedReader reader = new BufferedReader(grammar);
+        int lineNumber = 0;
+        for(String line = reader.readLine(); line != null; line = reader.readLine()){
+            lineNumber++;
+            line = line.trim().toUpperCase();
+            if(line.isEmpty() || line.startsWith("#")){
+                continue;
+            }
+
+            //VERB OBJECT, optionally followed by [PREPOSITION|PREPOSITION OBJECT]
+            String[] words = line.split("\\s+", 3);
+            if(words.length < 2 || !words[1].equals(OBJECT)){
+                throw new IOException("grammar line " + lineNumber + " is not 'VERB OBJECT [PREPOSITION OBJECT]': " + line);
+            }
+            String[] prepositions = NO_PREPOSITIONS;
+            if(words.length == 3){
+                String indirect = words[2];
+                if(!indirect.startsWith("[") || !indirect.endsWith("]")){
+                    throw new IOException("grammar line " + lineNumber + " has an indirect object that is not in [brackets]: " + line);
+                }
+                String[] parts = indirect.substring(1, indirect.length() - 1).trim().split("\\s+");
+                if(parts.length != 2 || !parts[1].equals(OBJECT)){
+                    throw new IOException("grammar line " + lineNumber + " has an indirect object that is not '[PREPOSITION OBJECT]': " + line);
+                }
+                ArrayList<String> listed = new ArrayList<String>();
+                for(String preposition : parts[0].split("\\|")){
+                    if(!preposition.isEmpty() && !listed.contains(preposition)){
+                        listed.add(preposition);
+                    }
+                }
+                prepositions = listed.toArray(new String[listed.size()]);
+            }
+            prepositionsByVerb.put(words[0], prepositions);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package GameEngine;
+
+import GameEngine.Exceptions.CommandNotLegalInThisModeException;
+import GameEngine.Exceptions.NoSuchItemException;
+import GameEngine.Exceptions.NoValidTargetException;
+import Story.Command;
+import Story.Mode;
+
+/**
+ * A CommandHandler resolves one verb that the player can type, e.g. GREET or DODGE.
+ *
+ * The GameEngine's own commands are registered as CommandHandlers, and new verbs can
+ * be added without changing the engine: implement this interface, list the class in
+ * META-INF/services/GameEngine.CommandHandler and put the jar on the classpath. The
+ * CommandRegistry finds it with a ServiceLoader. A handler for a verb that already
+ * exists in the same mode replaces the built-in one.
+ *
+ * Handlers are shared by every session, so they must not hold any state of their own.
+ * Everything a handler needs is passed to handle().
+ */
+public interface CommandHandler {
+
+    /**
+     * Utility function that returns the word the player types to use this command.
+     *
+     * @return (String) the verb, in upper case
+     */
+    String getVerb();
+
+    /**
+     * Utility function that returns the mode that this command can be used in -
+     * Mode.EXPLORATION, Mode.COMBAT or Mode.ANY.
+     *
+     * @return (Mode) the mode that the command is valid in
+     */
+    Mode getValidMode();
+
+    /**
+     * Utility function that indicates if the command is followed by a target,
+     * e.g. GREET LITTLE GIRL. Commands that do not take a target ignore anything
+     * typed after the verb.
+     *
+     * @return (boolean) true if the command takes a target
+     */
+    default boolean takesTarget(){
+        return getValidMode() != Mode.COMBAT;
+    }
+
+    /**
+     * Utility function that returns the built-in Command that this handler implements.
+     *
+     * @return (Command) the built-in command, or null if this is a new verb
+     */
+    default Command getCommand(){
+        return null;
+    }
+
+    /**
+     * The handle() function resolves the command. The results are written to the
+     * consequence, and any changes are made to the game state.
+     *
+     * @param gameState (GameState) the game state of the session
+     * @param action (Action) the action taken by the player
+     * @param consequence (Consequence) the consequence to update
+     * @throws NoValidTargetException
+     * @throws NoSuchItemException
+     * @throws CommandNotLegalInThisModeException
+     */
+    void handle(GameState gameState, Action action, Consequence consequence)
+        throws NoValidTargetException, NoSuchItemException, CommandNotLegalInThisModeException;
+}
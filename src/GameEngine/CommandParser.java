@@ -1,17 +1,19 @@
 package GameEngine;
 
 import java.io.Serializable;
-import java.util.regex.Pattern;
 
 import GameEngine.Exceptions.CommandNotLegalInThisModeException;
 import GameEngine.Exceptions.NoSuchCommandException;
 import Story.Command;
 import Story.Mode;
+import Story.SymbolTable;
 
 /**
  * The CommandParser takes raw user input and transforms it into an Action 
  * class with a Command and a target. This is useful because the Action class
- * allows user input to be rendered in a normalized format. 
+ * allows user input to be rendered in a normalized format. If the CommandGrammar
+ * allows it, the target is followed by a preposition and an indirect target, 
+ * eg: "USE BRASS KEY ON CHEST".
  * 
  * The CommandParser will throw a NoSuchCommandException if the user input resolves
  * to a Command that does not exist.
@@ -23,11 +25,26 @@ import Story.Mode;
  */
 public class CommandParser implements Serializable {
     
-    public CommandParser(){}
+    private transient CommandRegistry commandRegistry;
+
+    public CommandParser(){
+        this(CommandRegistry.getDefault());
+    }
+
+    /**
+     * The constructor for a CommandParser that recognises the verbs in the given registry.
+     * 
+     * @param commandRegistry (CommandRegistry) the registry of command handlers
+     */
+    public CommandParser(CommandRegistry commandRegistry){
+        this.commandRegistry = commandRegistry;
+    }
 
     /**
      * The CommandParser contains only one function, and this is it. The parse() function
-     * will take the raw user input and transform it into an Action object. 
+     * will take the raw user input and transform it into an Action object. The verb is
+     * looked up in the CommandRegistry for the current mode, so the Action carries the
+     * command id of its CommandHandler.
      * 
      * @param userInput (String) raw user input
      * @param currentMode (Mode) the current Mode, according to the GameEngine
@@ -37,57 +54,108 @@ public class CommandParser implements Serializable {
      */
     public Action parse(String userInput, Mode currentMode) throws NoSuchCommandException, CommandNotLegalInThisModeException{
 
-        //Clean up user input by making upper case and removing multiple spaces and not words/digits
-        userInput = userInput.toUpperCase().trim();
-        Pattern multipleSpaces = Pattern.compile("\\s+");
-        Pattern notWords = Pattern.compile("\\c+");
-        userInput = multipleSpaces.matcher(userInput).replaceAll(" ");
-        userInput = notWords.matcher(userInput).replaceAll("");
+        //Clean up user input by making upper case and removing multiple spaces
+        userInput = normalize(userInput);
 
         //Check if command exists
-        String command = userInput.split("\\s+")[0];
-        String target = userInput.substring(userInput.indexOf(" ") + 1);
-        Action action = new Action("INVALID");
+        int space = userInput.indexOf(' ');
+        String command = space < 0 ? userInput : userInput.substring(0, space);
+        String target = userInput.substring(space + 1);
+        CommandRegistry registry = getCommandRegistry();
+        Mode lookupMode = (currentMode == Mode.COMBAT) ? Mode.COMBAT : Mode.EXPLORATION;
+        int commandId = registry.getCommandId(lookupMode, command);
 
-        //Check if this is ATTACK_ENEMY, or a EXPLORATION command without a target
-        if(command.equals("HELP")){
-            action = new Action(Command.HELP, "");
-        }else if(currentMode == Mode.COMBAT && command.equals("ATTACK")){
-            action = new Action(Command.ATTACK_ENEMY, "");
-        }else if(currentMode == Mode.EXPLORATION && command.equals("EXPLORE")){
-            action = new Action(Command.EXPLORE, "");
-        }else if(currentMode == Mode.EXPLORATION && command.equals("INVENTORY")){
-            action = new Action(Command.INVENTORY, "");
-        }else if(currentMode == Mode.EXPLORATION && command.equals("ATTACK") && target.equals("ATTACK")){
-            action = new Action(Command.ATTACK, "");
-        }else{ //Process all other commands in the same way
-            for(Command c : Command.values()){
-                if(c.name().equals(command)){
-                    action = new Action(c, ((currentMode == Mode.COMBAT) ? "" : target));
-                    break;
-                }
+        //If the verb is not registered for this mode, it either does not exist or is being used in the wrong mode
+        if(commandId < 0){
+            CommandHandler handler = registry.findHandler(command);
+            if(handler == null){
+                throw new NoSuchCommandException(MessageCatalogue.getInstance().get(Message.NO_SUCH_COMMAND, command));
             }
+            throw new CommandNotLegalInThisModeException(currentMode, handler.getCommand(), command);
+        }
+
+        //Commands without a target ignore the rest of the input - including ATTACK on its own while exploring
+        CommandHandler handler = registry.getHandler(lookupMode, commandId);
+        if(!handler.takesTarget() || (handler.getCommand() == Command.ATTACK && target.equals(command))){
+            target = "";
         }
-        
-        //If a valid action has not yet been created, then this command does not exist
-        if(!action.isValid()){
-            throw new NoSuchCommandException(String.format("Command '%s' does not exist", command));
-        }else{
-            //If this is a valid action - check that it's being used in the correct mode
-            if(action.getCommand().getValidMode() != Mode.ANY){
-                if(currentMode == Mode.COMBAT){
-                    if(action.getCommand().getValidMode() != Mode.COMBAT){
-                        throw new CommandNotLegalInThisModeException(currentMode, action.getCommand());
-                    }
-                }else{
-                    if(action.getCommand().getValidMode() != Mode.EXPLORATION){
-                        throw new CommandNotLegalInThisModeException(currentMode, action.getCommand());
-                    }
+
+        //Split off the indirect target, if the grammar lets the verb take one
+        int preposition = findPreposition(target, CommandGrammar.getInstance().getPrepositions(command));
+        if(preposition > 0){
+            int indirect = target.indexOf(' ', preposition + 1);
+            return new Action(commandId, command, handler.getCommand(), target.substring(0, preposition - 1), target.substring(preposition, indirect), target.substring(indirect + 1));
+        }
+        return new Action(commandId, command, handler.getCommand(), target);
+    }
+
+    /**
+     * The parse() function for a game in progress. The targets of the Action are also looked
+     * up in the story's SymbolTable, once, so that the CommandHandlers only compare symbols.
+     * 
+     * @param userInput (String) raw user input
+     * @param currentMode (Mode) the current Mode, according to the GameEngine
+     * @param symbolTable (Story.SymbolTable) the symbol table of the story being played
+     * @return (Action) the action to which the user input resolves to
+     * @throws NoSuchCommandException 
+     * @throws CommandNotLegalInThisModeException
+     */
+    public Action parse(String userInput, Mode currentMode, SymbolTable symbolTable) throws NoSuchCommandException, CommandNotLegalInThisModeException{
+        Action action = parse(userInput, currentMode);
+        action.resolveSymbols(symbolTable);
+        return action;
+    }
+
+    /**
+     * The findPreposition() function finds the first word of a target that is one of the
+     * prepositions of its verb, with at least one word before it and one after it.
+     *
+     * @param target (String) the normalized target
+     * @param prepositions (String[]) the prepositions the verb takes
+     * @return (int) where the preposition starts, or -1 if there is none
+     */
+    private static int findPreposition(String target, String[] prepositions){
+        if(prepositions.length == 0){
+            return -1;
+        }
+        for(int start = target.indexOf(' ') + 1; start > 0; start = target.indexOf(' ', start) + 1){
+            for(String preposition : prepositions){
+                int end = start + preposition.length();
+                if(target.startsWith(preposition, start) && end < target.length() && target.charAt(end) == ' '){
+                    return start;
                 }
-                return action;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Utility function that makes user input upper case, with no spaces at either end and
+     * every run of spaces inside made one space.
+     */
+    private static String normalize(String userInput){
+        String upper = userInput.toUpperCase().trim();
+        StringBuilder normalized = new StringBuilder(upper.length());
+        boolean space = false;
+        for(int i = 0; i < upper.length(); i++){
+            char c = upper.charAt(i);
+            if(c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r'){
+                space = true;
             }else{
-                return action;
+                if(space){
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(c);
             }
         }
+        return normalized.toString();
+    }
+
+    private CommandRegistry getCommandRegistry(){
+        if(commandRegistry == null){
+            commandRegistry = CommandRegistry.getDefault();
+        }
+        return commandRegistry;
     }
 }
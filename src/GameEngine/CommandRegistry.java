@@ -0,0 +1,153 @@
+package GameEngine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+import Story.Mode;
+
+/**
+ * The CommandRegistry holds every CommandHandler that the GameEngine knows about - the
+ * built-in commands, followed by any handlers found on the classpath with a ServiceLoader.
+ *
+ * Each handler is given a command id when it is registered. The CommandParser looks verbs up
+ * by mode to find the command id for an Action, and the GameEngine dispatches the Action through
+ * a table indexed by mode and command id, so finding the handler for a turn takes constant time
+ * and no handler is created per turn.
+ */
+public class CommandRegistry {
+
+    private static volatile CommandRegistry defaultRegistry;
+
+    private final CommandHandler[] handlers;
+    private final CommandHandler[][] dispatchTable;
+    private final EnumMap<Mode, HashMap<String, Integer>> commandIdsByMode;
+    private final HashMap<String, CommandHandler> handlersByVerb;
+
+    /**
+     * The constructor for the CommandRegistry. Handlers are given command ids in the order
+     * they are listed. If two handlers use the same verb in the same mode, the later one wins.
+     *
+     * @param commandHandlers (Iterable<CommandHandler>) the handlers to register
+     */
+    public CommandRegistry(Iterable<CommandHandler> commandHandlers){
+        ArrayList<CommandHandler> handlerList = new ArrayList<CommandHandler>();
+        for(CommandHandler handler : commandHandlers){
+            handlerList.add(handler);
+        }
+        this.handlers = handlerList.toArray(new CommandHandler[0]);
+        this.dispatchTable = new CommandHandler[Mode.values().length][handlers.length];
+        this.commandIdsByMode = new EnumMap<Mode, HashMap<String, Integer>>(Mode.class);
+        this.handlersByVerb = new HashMap<String, CommandHandler>();
+        for(Mode mode : Mode.values()){
+            commandIdsByMode.put(mode, new HashMap<String, Integer>());
+        }
+
+        for(int commandId = 0; commandId < handlers.length; commandId++){
+            CommandHandler handler = handlers[commandId];
+            String verb = handler.getVerb().toUpperCase();
+            if(handler.getValidMode() == Mode.ANY){
+                register(Mode.EXPLORATION, verb, commandId);
+                register(Mode.COMBAT, verb, commandId);
+            }else{
+                register(handler.getValidMode(), verb, commandId);
+            }
+            handlersByVerb.putIfAbsent(verb, handler);
+        }
+    }
+
+    /**
+     * The getDefault() function returns the registry used by the GameEngine. It is built the
+     * first time it is needed from the built-in commands and every CommandHandler that the
+     * ServiceLoader can find.
+     *
+     * @return (CommandRegistry) the default registry
+     */
+    public static CommandRegistry getDefault(){
+        CommandRegistry registry = defaultRegistry;
+        if(registry == null){
+            synchronized(CommandRegistry.class){
+                if(defaultRegistry == null){
+                    List<CommandHandler> commandHandlers = BuiltInCommandHandler.all();
+                    for(CommandHandler handler : ServiceLoader.load(CommandHandler.class)){
+                        commandHandlers.add(handler);
+                    }
+                    defaultRegistry = new CommandRegistry(commandHandlers);
+                }
+                registry = defaultRegistry;
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * The getCommandId() function looks up the command id for a verb in a mode.
+     *
+     * @param mode (Mode) the current mode
+     * @param verb (String) the verb typed by the player, in upper case
+     * @return (int) the command id, or -1 if the verb cannot be used in this mode
+     */
+    public int getCommandId(Mode mode, String verb){
+        Integer commandId = commandIdsByMode.get(mode).get(verb);
+        return commandId == null ? -1 : commandId;
+    }
+
+    /**
+     * Utility function that returns every verb that can be used in a mode, e.g. to
+     * complete what the player is typing.
+     *
+     * @param mode (Mode) the current mode
+     * @return (Set<String>) the verbs, in upper case
+     */
+    public Set<String> getVerbs(Mode mode){
+        return Collections.unmodifiableSet(commandIdsByMode.get(mode).keySet());
+    }
+
+    /**
+     * The getHandler() function returns the handler for a command id in a mode.
+     *
+     * @param mode (Mode) the current mode
+     * @param commandId (int) the command id
+     * @return (CommandHandler) the handler, or null if there is none
+     */
+    public CommandHandler getHandler(Mode mode, int commandId){
+        if(commandId < 0 || commandId >= handlers.length){
+            return null;
+        }
+        return dispatchTable[mode.ordinal()][commandId];
+    }
+
+    /**
+     * The getHandler() function returns the handler for an Action in a mode.
+     *
+     * @param mode (Mode) the current mode
+     * @param action (Action) the action taken by the player
+     * @return (CommandHandler) the handler, or null if the action is not valid in this mode
+     */
+    public CommandHandler getHandler(Mode mode, Action action){
+        return action.isValid() ? getHandler(mode, action.getCommandId()) : null;
+    }
+
+    /**
+     * The findHandler() function returns a handler for a verb in any mode. This is
+     * used to tell a verb that does not exist from one that is used in the wrong mode.
+     *
+     * @param verb (String) the verb typed by the player, in upper case
+     * @return (CommandHandler) a handler for the verb, or null if the verb does not exist
+     */
+    public CommandHandler findHandler(String verb){
+        return handlersByVerb.get(verb);
+    }
+
+    private void register(Mode mode, String verb, int commandId){
+        Integer replaced = commandIdsByMode.get(mode).put(verb, commandId);
+        if(replaced != null){
+            dispatchTable[mode.ordinal()][replaced] = handlers[commandId]; //actions for the replaced handler go to the new one
+        }
+        dispatchTable[mode.ordinal()][commandId] = handlers[commandId];
+    }
+}
@@ -0,0 +1,17 @@
+package GameEngine;
+
+/**
+ * The CompiledScript interface is implemented by the classes that the ScriptCompiler makes
+ * from story scripts. A script that is a condition returns 1 if it holds and 0 if not; a
+ * script of statements returns 0.
+ */
+public interface CompiledScript {
+
+    /**
+     * The run() function runs the script.
+     *
+     * @param api (ScriptApi) the game that the script is run in
+     * @return (int) the value of a condition, or 0
+     */
+    int run(ScriptApi api);
+}
@@ -1,7 +1,12 @@
 package GameEngine;
 
+import GameEngine.Output.OutputSink;
+import GameEngine.Output.TextBufferSink;
 import Story.Command;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 /**
@@ -12,21 +17,59 @@ import java.io.Serializable;
  * A Consequence object is instantiated and then passed between
  * functions and updated with the results of those functions.
  *
+ * The consequence description is written to an OutputSink as it is produced. Without a
+ * sink of its own it is kept in a TextBufferSink, so that it can be rendered by the UI and
+ * kept in the GameHistory. With a sink - e.g. a WriterSink or ByteBufferSink for a network
+ * session - each fragment is written there once, and a copy is only kept in a TextBufferSink
+ * as well if that is asked for (see Consequence(OutputSink, boolean)).
+ *
  * @author Samuel J. Brookes (u5380100)
  */
 public class Consequence implements Serializable {
     
     private Action action;
-    private StringBuilder consequenceDescription;
+    private transient OutputSink text; //the sink that keeps the description, or null if it is not kept
+    private transient OutputSink sink; //null if the text is only kept
+    private transient boolean empty;
     private int currentHeroHealth;
     private int currentHeroDefence;
     private int currentHeroAttackPower;
 
     /**
-     * The constructor for Consequence instantiates the consequenceDescription variable.
+     * The constructor for Consequence keeps the consequence description in a TextBufferSink.
      */
     public Consequence(){
-        this.consequenceDescription = new StringBuilder(); 
+        this(null);
+    }
+
+    /**
+     * The constructor for a Consequence that writes its description to the given sink. The
+     * description is not kept as well, unless the sink keeps it itself.
+     *
+     * @param sink (OutputSink) where the consequence description is written, or null to keep it
+     */
+    public Consequence(OutputSink sink){
+        this(sink, false);
+    }
+
+    /**
+     * The constructor for a Consequence that writes its description to the given sink, and
+     * keeps a copy of it if asked to, e.g. for the GameHistory.
+     *
+     * @param sink (OutputSink) where the consequence description is written, or null to keep it
+     * @param keepText (boolean) true to keep the description even if the sink does not
+     */
+    public Consequence(OutputSink sink, boolean keepText){
+        if(sink == null){
+            this.text = new TextBufferSink();
+        }else if(sink.getText() != null){
+            this.text = sink; //the sink keeps it already
+            sink = null;
+        }else if(keepText){
+            this.text = new TextBufferSink();
+        }
+        this.sink = sink;
+        this.empty = true;
     }
 
     /**
@@ -55,21 +98,82 @@ public class Consequence implements Serializable {
 
     /**
      * The addToConsequence() function allows functions to update the
-     * consequence desription with their results.
+     * consequence desription with their results. Consequences are separated
+     * by a single space.
      *
      * @param newConsequence (String) a new consequence to append to the consequence description
      */
-    public void addToConsequence(String newConsequence){
-        consequenceDescription.append(String.format(" %s", newConsequence));
+    public void addToConsequence(CharSequence newConsequence){
+        if(!empty){
+            write(" ");
+        }
+        write(newConsequence);
+        empty = false;
     }
 
     /**
-     * Utility function that returns the consequence description.
+     * The appendToConsequence() function continues the current consequence without a
+     * separator, so that a sentence can be written to the sink in several fragments
+     * instead of being formatted into a new String first.
      *
-     * @return (String) the complete consequence description
+     * @param fragment (CharSequence) the text to append to the consequence description
+     */
+    public void appendToConsequence(CharSequence fragment){
+        write(fragment);
+        empty = false;
+    }
+
+    /**
+     * Keeps a fragment of the consequence description, and writes it on to the sink.
+     */
+    private void write(CharSequence fragment){
+        if(text != null){
+            text.write(fragment);
+        }
+        if(sink != null){
+            sink.write(fragment);
+        }
+    }
+
+    /**
+     * The addMessage() function adds a message from the MessageCatalogue
+     * to the consequence description.
+     *
+     * @param message (Message) the message to add
+     * @param arguments (CharSequence...) the arguments for the message
+     */
+    public void addMessage(Message message, CharSequence... arguments){
+        MessageCatalogue.getInstance().write(this, message, arguments);
+    }
+
+    /**
+     * The appendMessage() function continues the current consequence with a
+     * message from the MessageCatalogue, without a separator.
+     *
+     * @param message (Message) the message to append
+     * @param arguments (CharSequence...) the arguments for the message
+     */
+    public void appendMessage(Message message, CharSequence... arguments){
+        MessageCatalogue.getInstance().append(this, message, arguments);
+    }
+
+    /**
+     * Utility function that returns the consequence description, whatever sink it was
+     * also written to.
+     *
+     * @return (String) the complete consequence description, or null if it was only written to a sink that does not keep it
      */
     public String getConsequenceDescription(){
-        return consequenceDescription.toString();
+        return text == null ? null : text.getText();
+    }
+
+    /**
+     * Utility function that returns the sink that the consequence description is written to.
+     *
+     * @return (OutputSink) the sink for this consequence, or the sink it is kept in if there is no other
+     */
+    public OutputSink getSink(){
+        return sink != null ? sink : text;
     }
 
     /**
@@ -133,4 +237,20 @@ public class Consequence implements Serializable {
     public int getCurrentHeroAttackPower(){
         return currentHeroAttackPower;
     }
+
+    /**
+     * The sink is not saved with the Consequence - only the text that it kept.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException{
+        out.defaultWriteObject();
+        String description = getConsequenceDescription();
+        out.writeObject(description != null ? description : "");
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+        in.defaultReadObject();
+        String description = (String) in.readObject();
+        text = new TextBufferSink(description);
+        empty = description.isEmpty();
+    }
 }
@@ -1,8 +1,8 @@
 package GameEngine;
 
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import GameEngine.Exceptions.NoSuchItemException;
@@ -12,9 +12,12 @@ import Story.Container;
 import Story.Direction;
 import Story.Enemy;
 import Story.Item;
+import Story.Mode;
 import Story.NonPlayerCharacter;
 import Story.Passage;
 import Story.Response;
+import Story.Rule;
+import Story.SymbolTable;
 import Story.Passage.PassageType;
 
 /**
@@ -24,121 +27,63 @@ import Story.Passage.PassageType;
  * The DungeonMaster takes an Action made by the player and uses the current GameState
  * to calculate what the Consequences of that action are, given the current state of the game. 
  * 
+ * The DungeonMaster holds no state of its own. Each command is a static function that is
+ * passed the GameState, the Action and the Consequence to update, and is registered with the
+ * CommandRegistry as a built-in CommandHandler.
+ * 
  * The DungeonMaster does not consider Actions taken in the context of combat (i.e. when the GameEngine is
  * in COMBAT mode). These are handled by the Arena class.
  * 
  * @author Samuel J. Brookes (u5380100)
  */
-public class DungeonMaster implements Serializable {
+public class DungeonMaster {
     
-    private GameState gameState;
-    private Action action;
-    private Consequence consequence;
-
-    /**
-     * The constructor for the DungeonMaster. This requires an Action taken by the 
-     * player, the current GameState and the Consequence object that will be updated by
-     * the results of the action. 
-     * 
-     * @param gameState (GameState) the current game state
-     * @param action (Action) the Action taken by the player
-     * @param consequence (Consequence) the Consequence to be updated
-     */
-    public DungeonMaster(GameState gameState, Action action, Consequence consequence){
-        this.gameState = gameState;
-        this.action = action;
-        this.consequence = consequence;
-    }
-
     /**
-     * Utility function that returns the GameState object stored in the 
-     * DungeonMaster. 
+     * The help() function is called if the player uses the HELP command.
      * 
-     * @return (GameState) the gamestate
+     * The consequence of this action is for all valid commands to be 
+     * shown to the player, starting with the commands for the current mode.
+     * The help text is a constant message, so it is only rendered once.
      */
-    public GameState getGameState(){
-        return gameState;
+    static void help(GameState gameState, Action action, Consequence consequence){
+        consequence.addMessage(gameState.getCurrentMode() == Mode.COMBAT ? Message.HELP_COMBAT : Message.HELP_EXPLORATION);
     }
 
     /**
-     * This is the primary function of the DungeonMaster class.
-     * It implements the logic for all EXPLORATION mode commands, resolving them
-     * in the context of the current game state. 
-     * 
-     * The mediate() function updates the Consequence object that
-     * is passed to the DungeonMaster with the results of the action taken, and 
-     * then returns it to the GameEngine.
-     * 
-     * @return (Consequence) the updated consequence
+     * The undo() function is called if the player uses the UNDO command. The game is put back
+     * to the version before the player's last move that changed anything. A fight cannot be
+     * undone while it is still going, but a fight that has ended (even in death) can be.
      */
-    public Consequence mediate(){
-        try{
-            if(gameState.npcIsWaitingForResponse()){
-                
-                    respond();
-                
-            }else{    
-                switch(action.getCommand()){
-                    case HELP: help(); break;
-                    case GREET: greet(); break;
-                    case ATTACK: attack(); break;
-                    case SEARCH: search(); break;
-                    case USE: use(); break;
-                    case INSPECT: inspect(); break;
-                    case GO: go(); break;
-                    case LOOK: look(); break;
-                    case EXPLORE: explore(); break;
-                    case INVENTORY: showInventory(); break;
-                    case SAY: say(); break;
-                    default: return consequence; /* This shouldn't happen... */
-                }
-                
-            }
-        }catch(NoValidTargetException e){
-            consequence.addToConsequence(e.toString());
-        }catch(NoSuchItemException e){
-            consequence.addToConsequence(e.toString());
-        }catch(CommandNotLegalInThisModeException e){
-            consequence.addToConsequence(e.toString());
+    static void undo(GameState gameState, Action action, Consequence consequence){
+        if(gameState.getCurrentMode() == Mode.COMBAT){
+            consequence.addMessage(Message.NO_UNDO_IN_COMBAT);
+        }else if(gameState.getTimeline().undo(gameState)){
+            consequence.addMessage(Message.UNDONE, gameState.getCurrentRoom().getRoomName());
+        }else{
+            consequence.addMessage(Message.NOTHING_TO_UNDO);
         }
-
-        return consequence;
     }
 
     /**
-     * The help() function is called if the player uses the HELP command.
-     * 
-     * The consequence of this action is for all valid commands to be 
-     * shown to the player. 
+     * The redo() function is called if the player uses the REDO command. The game is put
+     * forward to the version that was last undone, as long as no new move has been made since.
      */
-    private void help(){
-        consequence.addToConsequence("The following commands can be used when NOT IN COMBAT:\n");
-        consequence.addToConsequence(" - GREET <TARGET>\n");
-        consequence.addToConsequence(" - ATTACK <TARGET>\n");
-        consequence.addToConsequence(" - SEARCH <TARGET>\n");
-        consequence.addToConsequence(" - USE <TARGET>\n");
-        consequence.addToConsequence(" - INSPECT <TARGET>\n");
-        consequence.addToConsequence(" - GO <NORTH/SOUTH/EAST/WEST>\n");
-        consequence.addToConsequence(" - LOOK <NORTH/SOUTH/EAST/WEST>\n");
-        consequence.addToConsequence(" - SAY <ANYTHING>\n");
-        consequence.addToConsequence(" - EXPLORE\n");
-        consequence.addToConsequence(" - INVENTORY\n\n");
-
-        consequence.addToConsequence("The following actions can be taken when IN COMBAT:\n");
-        consequence.addToConsequence(" - ATTACK\n");
-        consequence.addToConsequence(" - BLOCK\n");
-        consequence.addToConsequence(" - DODGE\n");
-        consequence.addToConsequence(" - ESCAPE\n\n");
-
-        consequence.addToConsequence("The following actions can be taken at ANY TIME:\n");
-        consequence.addToConsequence(" - HELP");
+    static void redo(GameState gameState, Action action, Consequence consequence){
+        if(gameState.getCurrentMode() == Mode.COMBAT){
+            consequence.addMessage(Message.NO_UNDO_IN_COMBAT);
+        }else if(gameState.getTimeline().redo(gameState)){
+            consequence.addMessage(Message.REDONE, gameState.getCurrentRoom().getRoomName());
+        }else{
+            consequence.addMessage(Message.NOTHING_TO_REDO);
+        }
     }
 
     /**
      * The repsond() function is called if any NonPlayerCharacter 
      * is waiting for a response from the player. A NonPlayerCharacter
      * will wait for a repsonse if it is GREETed by the player and it
-     * has a question.
+     * has a question. The answer can be anywhere in what the player
+     * types, eg: "I THINK I'LL TAKE IT" (see GameState.getResponseMatcher()).
      * 
      * The respond() function will throw a NoValidTargetException if
      * there are no NonPlayerCharacters waiting for a response, however
@@ -146,7 +91,7 @@ public class DungeonMaster implements Serializable {
      * 
      * @throws NoValidTargetException
      */
-    private void respond() throws NoValidTargetException{
+    static void respond(GameState gameState, Action action, Consequence consequence) throws NoValidTargetException{
 
         //Find the npc that is waiting for a response
         HashMap<Integer, NonPlayerCharacter> npcs = gameState.getStory().getNonPlayerCharacters();
@@ -162,23 +107,19 @@ public class DungeonMaster implements Serializable {
         if(expectantNPC == null){
             throw new NoValidTargetException(action, false);
         }else{
-            if(expectantNPC.getResponses().containsKey(action.toString())){
-                Response response = expectantNPC.getResponses().get(action.toString());
+            String answer = gameState.getResponseMatcher(expectantNPC).find(action.toString()); //the answer can be anywhere in what the player says
+            if(answer != null){
+                Response response = expectantNPC.getResponses().get(answer);
                 switch(response.getType()){
                     case ITEM:
                         //add the item to your inventory
                         Item item = gameState.getStory().getItem(response.getItemIndex());
-                        HashMap<Integer, Boolean> inventory = gameState.getHero().getInventory();
-                        inventory.put(item.getIndex(), item.isEquippable());
-                        gameState.getHero().setInventory(inventory);
+                        gameState.addToInventory(item);
+                        gameState.raiseEvent(Rule.Event.TAKE_ITEM, item.getIndex());
                         consequence.addToConsequence(response.getResponseText());
 
                         //add the response to the consequence
-                        consequence.addToConsequence(String.format(
-                            "You get %s and %s",
-                            item.getName(),
-                            item.isEquippable() ? "equip it." : "add it to your inventory."
-                        ));
+                        consequence.addMessage(item.isEquippable() ? Message.NPC_GIVES_EQUIPPABLE_ITEM : Message.NPC_GIVES_ITEM, item.getName());
 
                         //resolve npc
                         expectantNPC.setResolved(true);
@@ -191,7 +132,7 @@ public class DungeonMaster implements Serializable {
                         expectantNPC.setResolved(true);
 
                         //add the response to the consequence
-                        consequence.addToConsequence(String.format("%s You %s %d health.", response.getResponseText(), response.getHealth() > 0 ? "gain": "lose", Math.abs(response.getHealth())));
+                        consequence.addMessage(response.getHealth() > 0 ? Message.NPC_HEALS : Message.NPC_HURTS, response.getResponseText(), Integer.toString(Math.abs(response.getHealth())));
                         break;
                     case TEXT:
                         //add the response to the consequence
@@ -199,12 +140,12 @@ public class DungeonMaster implements Serializable {
                 }
             }else{
                 //The response is not a valid one for the question
-                consequence.addToConsequence(String.format("%s doesn't understand your response.", expectantNPC.getName()));
+                consequence.addMessage(Message.NPC_DOES_NOT_UNDERSTAND, expectantNPC.getName());
             }
 
             //make the npc stop waiting for a response, and save it's new state
             expectantNPC.setWaitingForResponse(false);
-            gameState.getStory().getNonPlayerCharacters().put(expectantNPC.getCharacterIndex(), expectantNPC);
+            gameState.updateNonPlayerCharacter(expectantNPC);
         }
     }
 
@@ -218,17 +159,17 @@ public class DungeonMaster implements Serializable {
      * 
      * @throws NoValidTargetException
      */
-    private void greet() throws NoValidTargetException{
-        NonPlayerCharacter targetNpc = getTargetNPC();
-        Enemy targetEnemy = getTargetEnemy();
-        Container targetContainer = getTargetContainer();
+    static void greet(GameState gameState, Action action, Consequence consequence) throws NoValidTargetException{
+        NonPlayerCharacter targetNpc = getTargetNPC(gameState, action);
+        Enemy targetEnemy = getTargetEnemy(gameState, action);
+        Container targetContainer = getTargetContainer(gameState, action);
         if(targetNpc == null){
             throw new NoValidTargetException(action, targetEnemy != null || targetContainer != null);
         }else{
             consequence.addToConsequence(targetNpc.isResolved() ? targetNpc.getResolvedGreeting() : targetNpc.getGreeting());
             if(targetNpc.isHasQuestion() && !targetNpc.isResolved()){
                 targetNpc.setWaitingForResponse(true);
-                gameState.getStory().getNonPlayerCharacters().put(targetNpc.getCharacterIndex(), targetNpc);
+                gameState.updateNonPlayerCharacter(targetNpc);
             }
         }
     }
@@ -247,20 +188,20 @@ public class DungeonMaster implements Serializable {
      * @throws NoValidTargetException
      * @throws CommandNotLegalInThisModeException
      */
-    private void attack() throws NoValidTargetException, CommandNotLegalInThisModeException{
+    static void attack(GameState gameState, Action action, Consequence consequence) throws NoValidTargetException, CommandNotLegalInThisModeException{
         if(action.getTarget().equals("")){
             throw new CommandNotLegalInThisModeException(gameState.getCurrentMode(), action.getCommand());
         }
 
-        Enemy targetEnemy = getTargetEnemy();
-        NonPlayerCharacter targetNpc = getTargetNPC();
-        Container targetContainer = getTargetContainer();
+        Enemy targetEnemy = getTargetEnemy(gameState, action);
+        NonPlayerCharacter targetNpc = getTargetNPC(gameState, action);
+        Container targetContainer = getTargetContainer(gameState, action);
         if(targetEnemy == null){
             throw new NoValidTargetException(action, targetNpc != null || targetContainer != null);
         }else{
-            consequence.addToConsequence(String.format("You choose to attack %s. Begin combat!", targetEnemy.getName()));
+            consequence.addMessage(Message.BEGIN_COMBAT, targetEnemy.getName());
 
-            gameState.setArena(new Arena(gameState.getHero(), gameState.getEquippedItems(), targetEnemy));
+            gameState.setArena(new Arena(gameState.getHero(), gameState.getEquippedItems(), targetEnemy, gameState.getRandom()));
             gameState.toggleMode();
             
         }
@@ -276,32 +217,26 @@ public class DungeonMaster implements Serializable {
      * 
      * @throws NoValidTargetException
      */
-    private void search() throws NoValidTargetException{
-        Container targetContainer = getTargetContainer();
-        NonPlayerCharacter targetNpc = getTargetNPC();
-        Enemy targetEnemy = getTargetEnemy();
+    static void search(GameState gameState, Action action, Consequence consequence) throws NoValidTargetException{
+        Container targetContainer = getTargetContainer(gameState, action);
+        NonPlayerCharacter targetNpc = getTargetNPC(gameState, action);
+        Enemy targetEnemy = getTargetEnemy(gameState, action);
         if(targetContainer == null){
             throw new NoValidTargetException(action, targetNpc != null || targetEnemy != null);
         }else{
             if(targetContainer.isLocked()){
-                consequence.addToConsequence(String.format("%s is locked.", targetContainer.getName()));
+                consequence.addMessage(Message.CONTAINER_LOCKED, targetContainer.getName());
             }else if(targetContainer.isLooted()){
-                consequence.addToConsequence(String.format("There is nothing of interest in the %s", targetContainer.getName()));
+                consequence.addMessage(Message.CONTAINER_LOOTED, targetContainer.getName());
             }else{
 
                 //Get the loot from the container
                 Item loot = gameState.getStory().getItem(targetContainer.getItemIndex());
-                gameState.getHero().getInventory().put(loot.getIndex(), loot.isEquippable());
-                consequence.addToConsequence(
-                    String.format(
-                        "You find a %s in the %s.%s",
-                        loot.getName(), 
-                        targetContainer.getName(),
-                        loot.isEquippable() ? " You equip it." : ""
-                    )
-                );
+                gameState.addToInventory(loot);
+                gameState.raiseEvent(Rule.Event.TAKE_ITEM, loot.getIndex());
+                consequence.addMessage(loot.isEquippable() ? Message.CONTAINER_EQUIPPABLE_LOOT : Message.CONTAINER_LOOT, loot.getName(), targetContainer.getName());
                 targetContainer.setLooted(true);
-                gameState.getStory().getContainers().put(targetContainer.getContainerIndex(), targetContainer);
+                gameState.updateContainer(targetContainer);
             }
         }
     }
@@ -319,30 +254,32 @@ public class DungeonMaster implements Serializable {
      * 
      * If the item is a key for a Container or Passage in the room, that Container or Passage
      * will be unlocked (if it wasn't already), otherwise a NoValidTargetException will be thrown.
+     * If the Action has an indirect target, eg: "USE BRASS KEY ON CHEST" or "USE CROWBAR ON NORTH",
+     * only the Container with that name or the Passage in that direction is tried.
      * 
      * @throws NoValidTargetException
      * @throws NoSuchItemException
      */
-    private void use() throws NoValidTargetException, NoSuchItemException{
+    static void use(GameState gameState, Action action, Consequence consequence) throws NoValidTargetException, NoSuchItemException{
         //check inventory isConsumable
-        Item targetItem = getTargetInventoryItem();
+        Item targetItem = getTargetInventoryItem(gameState, action);
         if(targetItem != null && targetItem.isConsumable() && !targetItem.isEmpty()){
-            consequence.addToConsequence(String.format("You use %s.", targetItem.getName()));
+            consequence.addMessage(Message.USE_ITEM, targetItem.getName());
             if(Math.abs((double) targetItem.getHealth()) > 0){
                 gameState.getHero().setHealth(gameState.getHero().getHealth() + targetItem.getHealth());
-                consequence.addToConsequence(String.format(" You %s %d health!", targetItem.getHealth() > 0 ? "gain" : "lose", (int) Math.abs((double) targetItem.getHealth())));
+                consequence.addMessage(targetItem.getHealth() > 0 ? Message.ITEM_GAIN_HEALTH : Message.ITEM_LOSE_HEALTH, Integer.toString(Math.abs(targetItem.getHealth())));
             }
             if(Math.abs((double) targetItem.getAttackPower()) > 0){
                 gameState.getHero().setAttackPower(gameState.getHero().getAttackPower() + targetItem.getAttackPower());
-                consequence.addToConsequence(String.format(" You %s %d attack power!", targetItem.getAttackPower() > 0 ? "gain" : "lose", (int) Math.abs((double) targetItem.getAttackPower())));
+                consequence.addMessage(targetItem.getAttackPower() > 0 ? Message.ITEM_GAIN_ATTACK_POWER : Message.ITEM_LOSE_ATTACK_POWER, Integer.toString(Math.abs(targetItem.getAttackPower())));
             }
             if(Math.abs((double) targetItem.getDefence()) > 0){
                 gameState.getHero().setDefense(gameState.getHero().getDefense() + targetItem.getDefence());
-                consequence.addToConsequence(String.format(" You %s %d defence!", targetItem.getDefence() > 0 ? "gain" : "lose", (int) Math.abs((double) targetItem.getDefence())));
+                consequence.addMessage(targetItem.getDefence() > 0 ? Message.ITEM_GAIN_DEFENCE : Message.ITEM_LOSE_DEFENCE, Integer.toString(Math.abs(targetItem.getDefence())));
             }
             targetItem.useConsumableItem();
-            gameState.getStory().getItems().put(targetItem.getIndex(), targetItem);
-            gameState.getHero().getInventory().remove(targetItem.getIndex());
+            gameState.updateItem(targetItem);
+            gameState.removeFromInventory(targetItem.getIndex());
             return;
         }else if(targetItem == null){
             throw new NoSuchItemException(action);
@@ -350,27 +287,27 @@ public class DungeonMaster implements Serializable {
 
 
         //check passages
-        Passage targetPassage = getTargetPassageByKey();
+        Passage targetPassage = getTargetPassageByKey(gameState, action, action.getKeySymbol());
         if(targetPassage != null){
             if(targetPassage.isLocked()){
                 consequence.addToConsequence(targetPassage.getDescriptionAction());
                 targetPassage.setLocked(false);
-                gameState.getStory().getPassages().put(targetPassage.getPassageIndex(), targetPassage);
+                gameState.updatePassage(targetPassage);
             }else{
-                consequence.addToConsequence(String.format("You use %s, but you can already go %s.", targetItem.getName(), getPassageDirectionByIndex(targetPassage.getPassageIndex())));
+                consequence.addMessage(Message.PASSAGE_ALREADY_UNLOCKED, targetItem.getName(), getPassageDirectionByIndex(gameState, targetPassage.getPassageIndex()).name());
             }
             return;
         }
 
         //check containers
-        Container targetContainer = getTargetContainerByKey();
+        Container targetContainer = getTargetContainerByKey(gameState, action, action.getKeySymbol());
         if(targetContainer != null){
             if(targetContainer.isLocked()){
                 consequence.addToConsequence(targetContainer.getDescriptionAction());
                 targetContainer.setLocked(false);
-                gameState.getStory().getContainers().put(targetContainer.getContainerIndex(), targetContainer);
+                gameState.updateContainer(targetContainer);
             }else{
-                consequence.addToConsequence(String.format("You use %s on %s, but it is already unlocked!", targetItem.getName(), targetContainer.getName()));
+                consequence.addMessage(Message.CONTAINER_ALREADY_UNLOCKED, targetItem.getName(), targetContainer.getName());
             }
             return;
         }
@@ -389,31 +326,31 @@ public class DungeonMaster implements Serializable {
      * 
      * @throws NoValidTargetException
      */
-    private void inspect() throws NoValidTargetException{
+    static void inspect(GameState gameState, Action action, Consequence consequence) throws NoValidTargetException{
         //inspect items in inventory
-        Item targetItem = getTargetInventoryItem();
+        Item targetItem = getTargetInventoryItem(gameState, action);
         if(targetItem != null){
             consequence.addToConsequence(targetItem.getDescription());
             return;
         }
 
         //inspect containers in room
-        Container targetContainer = getTargetContainer();
+        Container targetContainer = getTargetContainer(gameState, action);
         if(targetContainer != null){
             consequence.addToConsequence(targetContainer.isLocked() ? targetContainer.getDescriptionLocked(): targetContainer.getDescriptionUnlocked());
-            consequence.addToConsequence(targetContainer.isLooted() ? "It is empty." : "You see something inside.");
+            consequence.addMessage(targetContainer.isLooted() ? Message.CONTAINER_IS_EMPTY : Message.CONTAINER_IS_NOT_EMPTY);
             return;
         }
 
         //inspect enemies in room
-        Enemy targetEnemy = getTargetEnemy();
+        Enemy targetEnemy = getTargetEnemy(gameState, action);
         if(targetEnemy != null){
             consequence.addToConsequence(targetEnemy.getDescription());
             return;
         }
 
         //inspect npcs in room
-        NonPlayerCharacter targetNpc = getTargetNPC();
+        NonPlayerCharacter targetNpc = getTargetNPC(gameState, action);
         if(targetNpc != null){
             consequence.addToConsequence(targetNpc.getDescription());
             return;
@@ -432,19 +369,24 @@ public class DungeonMaster implements Serializable {
      * to the room that is linked to that passage and the player will be shown the new room's description. 
      * Otherwise a NoValidTargetException will be thrown. 
      * 
+     * If the target is TO followed by the name of a room, the player is taken to the nearest
+     * room with that name by the shortest way through unlocked passages, all in one turn.
+     * 
      * @throws NoValidTargetException
      */
-    private void go() throws NoValidTargetException{
+    static void go(GameState gameState, Action action, Consequence consequence) throws NoValidTargetException{
+        if(action.getTarget().startsWith("TO ")){
+            goTo(gameState, action.getTarget().substring(3).trim(), consequence);
+            return;
+        }
         for(Direction direction : Direction.values()){
             if(action.getTarget().equals(direction.name())){
                 Passage passage = gameState.getStory().getPassage(gameState.getCurrentRoom().getPassages().get(direction));
                 if(passage.getPassageType() == PassageType.PASSAGE_NONE || passage.isLocked()){
-                    consequence.addToConsequence(String.format("You cannot go %s.", direction.name()));
+                    consequence.addMessage(Message.CANNOT_GO, direction.name());
                 }else{
-                    consequence.addToConsequence(String.format("You go %s.\n\n", direction.name()));
                     gameState.moveToNewRoom(passage);
-                    consequence.addToConsequence(String.format("[%s]\n\n", gameState.getCurrentRoom().getRoomName()));
-                    consequence.addToConsequence(gameState.getCurrentRoom().getDescription());
+                    consequence.addMessage(Message.GO, direction.name(), gameState.getCurrentRoom().getRoomName(), gameState.getCurrentRoom().getDescription());
                     if(gameState.getCurrentRoom().isLastRoom()){
                         gameState.gameOver();
                     }
@@ -456,6 +398,34 @@ public class DungeonMaster implements Serializable {
         throw new NoValidTargetException(action, false);
     }
 
+    /**
+     * The goTo() function moves the player along the shortest path to a room (see PathFinder).
+     * The moves are made as one turn with one message, and stop early if the player reaches the
+     * last room of the story on the way.
+     */
+    private static void goTo(GameState gameState, String roomName, Consequence consequence){
+        List<Direction> path = gameState.getPathFinder().findPath(gameState.getStory(), gameState.getCurrentRoomIndex(), roomName);
+        if(path == null){
+            consequence.addMessage(Message.NO_WAY_TO, roomName);
+            return;
+        }
+        if(path.isEmpty()){
+            consequence.addMessage(Message.ALREADY_THERE, gameState.getCurrentRoom().getRoomName());
+            return;
+        }
+
+        StringBuilder directions = new StringBuilder();
+        for(Direction direction : path){
+            gameState.moveToNewRoom(gameState.getStory().getPassage(gameState.getCurrentRoom().getPassages().get(direction)));
+            directions.append(directions.length() == 0 ? "" : ", ").append(direction.name());
+            if(gameState.getCurrentRoom().isLastRoom()){
+                gameState.gameOver();
+                break;
+            }
+        }
+        consequence.addMessage(Message.TRAVEL, directions, gameState.getCurrentRoom().getRoomName(), gameState.getCurrentRoom().getDescription());
+    }
+
     /**
      * The look() function is called when the player uses the LOOK command. This
      * command allows players to get the description of a passage without moving through
@@ -467,7 +437,7 @@ public class DungeonMaster implements Serializable {
      * 
      * @throws NoValidTargetException
      */
-    private void look() throws NoValidTargetException{
+    static void look(GameState gameState, Action action, Consequence consequence) throws NoValidTargetException{
         for(Direction direction : Direction.values()){
             if(action.getTarget().equals(direction.name())){
                 Passage passage = gameState.getStory().getPassage(gameState.getCurrentRoom().getPassages().get(direction));
@@ -484,41 +454,60 @@ public class DungeonMaster implements Serializable {
      * This command allows players to list all interactable features within the current room. 
      * 
      * This command will show the description of all containers, enemies, non-player characters, and
-     * passages in the current room to the player. 
+     * passages in the current room to the player. The rendered text is cached against the room's
+     * state version, so exploring a room again before anything in it has changed costs one lookup.
+     */
+    static void explore(GameState gameState, Action action, Consequence consequence){
+        String exploreText = gameState.getExploreText(gameState.getCurrentRoom());
+        if(exploreText == null){
+            Consequence rendered = new Consequence();
+            renderExplore(gameState, rendered);
+            exploreText = rendered.getConsequenceDescription();
+            gameState.cacheExploreText(gameState.getCurrentRoom(), exploreText);
+        }
+        consequence.addToConsequence(exploreText);
+    }
+
+    /**
+     * Utility function that renders the EXPLORE text for the current room. Each feature 
+     * is written straight to the consequence, so rendering is linear in the length of the text.
+     * 
+     * @param rendered (Consequence) the consequence to render the text into
      */
-    private void explore(){
+    private static void renderExplore(GameState gameState, Consequence rendered){
         ArrayList<Integer> npcs = gameState.getCurrentRoom().getNonPlayerCharacters();
         ArrayList<Integer> enemies = gameState.getCurrentRoom().getEnemies();
         ArrayList<Integer> containers = gameState.getCurrentRoom().getContainers();
         HashMap<Direction, Integer> passages = gameState.getCurrentRoom().getPassages();
         
-        String roomFeatures = "";
-        if(npcs != null && npcs.size() > 0){
+        boolean hasFeatures = (npcs != null && npcs.size() > 0) || (enemies != null && enemies.size() > 0)
+            || passages.size() > 0 || (containers != null && containers.size() > 0);
+        if(!hasFeatures){
+            rendered.addMessage(Message.EXPLORE_NOTHING, gameState.getCurrentRoom().getRoomName());
+            return;
+        }
+
+        rendered.addMessage(Message.EXPLORE_ROOM, gameState.getCurrentRoom().getRoomName());
+        if(npcs != null){
             for(Integer npcIndex : npcs){
-                roomFeatures += String.format("%s", gameState.getStory().getNonPlayerCharacter(npcIndex).getDescription());
+                rendered.addToConsequence(gameState.getStory().getNonPlayerCharacter(npcIndex).getDescription());
             }
         }
-        if(enemies != null && enemies.size() > 0){
+        if(enemies != null){
             for(Integer enemyIndex : enemies){
-                roomFeatures += String.format(" %s", gameState.getStory().getEnemy(enemyIndex).getDescription());
+                rendered.addToConsequence(gameState.getStory().getEnemy(enemyIndex).getDescription());
             }
         }
         for(Map.Entry<Direction, Integer> entry : passages.entrySet()){
             Passage passage = gameState.getStory().getPassage(entry.getValue());
-            roomFeatures += String.format(" You look %s. %s", entry.getKey().name(), passage.isLocked() ? passage.getDescriptionLocked() : passage.getDescriptionUnlocked());
+            rendered.addMessage(Message.EXPLORE_PASSAGE, entry.getKey().name(), passage.isLocked() ? passage.getDescriptionLocked() : passage.getDescriptionUnlocked());
         }
-        if(containers != null && containers.size() > 0){
+        if(containers != null){
             for(Integer containerIndex : containers){
                 Container container = gameState.getStory().getContainer(containerIndex);
-                roomFeatures += String.format(" %s", container.isLocked() ? container.getDescriptionLocked(): container.getDescriptionUnlocked());
+                rendered.addToConsequence(container.isLocked() ? container.getDescriptionLocked(): container.getDescriptionUnlocked());
             }
         }
-
-        if(roomFeatures.length() == 0){
-            consequence.addToConsequence(String.format("You look around the %s, but you don't see anything of interest.", gameState.getCurrentRoom().getRoomName()));
-        }else{
-            consequence.addToConsequence(String.format("You look around the %s. %s", gameState.getCurrentRoom().getRoomName(), roomFeatures.trim()));
-        }
     }
 
     /**
@@ -531,29 +520,29 @@ public class DungeonMaster implements Serializable {
      * If the item is consumable, this will be indicated with "[CONSUMABLE]" and whether the item
      * is full or empty will be shown.
      */
-    private void showInventory(){
+    static void showInventory(GameState gameState, Action action, Consequence consequence){
         if(gameState.getHero().getInventory().size() > 0){
-            consequence.addToConsequence("You have the following items in your inventory:\n");
+            consequence.addMessage(Message.INVENTORY_HEADER);
             
             HashMap<Integer, Boolean> inventory = gameState.getHero().getInventory();
             for(Map.Entry<Integer, Boolean> entry : inventory.entrySet()){
                 Item item = gameState.getStory().getItem(entry.getKey());
-                String itemDescription = String.format(" - %s", item.getName());
+                consequence.addMessage(Message.INVENTORY_ITEM, item.getName());
                 if(entry.getValue()){ //item is equipped
-                    itemDescription += " [EQUIPPED]";
+                    consequence.appendMessage(Message.INVENTORY_EQUIPPED);
                     if(item.getAttackPower() > 0){
-                        itemDescription += String.format(" [+%d AP]", item.getAttackPower());
+                        consequence.appendMessage(Message.INVENTORY_ATTACK_POWER, Integer.toString(item.getAttackPower()));
                     }
                     if(item.getDefence() > 0){
-                        itemDescription += String.format(" [+%d DEF]", item.getDefence());
+                        consequence.appendMessage(Message.INVENTORY_DEFENCE, Integer.toString(item.getDefence()));
                     }
                 }else if(item.isConsumable()){
-                    itemDescription += String.format(" [CONSUMABLE] [%s]", item.isEmpty() ? "EMPTY" : "FULL");
+                    consequence.appendMessage(item.isEmpty() ? Message.INVENTORY_CONSUMABLE_EMPTY : Message.INVENTORY_CONSUMABLE_FULL);
                 }
-                consequence.addToConsequence(String.format("%s\n", itemDescription));
+                consequence.appendToConsequence("\n");
             }
         }else{
-            consequence.addToConsequence("There is nothing in your inventory.");
+            consequence.addMessage(Message.INVENTORY_EMPTY);
         }
     }
 
@@ -563,30 +552,58 @@ public class DungeonMaster implements Serializable {
      * command is similar to the USE command in that it can be used as a key for 
      * a passage or container. 
      * 
-     * If the target of the Action matches the key string of any container or passage
-     * in the room, that container or passage will be unlocked, if it isn't already. Otherwise
-     * a NoValidTargetException will be thrown. 
+     * If the target of the Action contains the passphrase of any container or passage
+     * in the room (see GameState.getPassphraseMatcher()), that container or passage will be
+     * unlocked, if it isn't already. If what was said contains the phrase of a SAY rule,
+     * the rule is fired at the end of the turn (see RuleNetwork). Otherwise a 
+     * NoValidTargetException will be thrown. 
      * 
      * @throws NoValidTargetException
      */
-    private void say() throws NoValidTargetException{
+    static void say(GameState gameState, Action action, Consequence consequence) throws NoValidTargetException{
+        //a rule may wait for what was said, whether or not it is also a passphrase
+        int phrase = gameState.getRuleNetwork().findPhrase(action.getTarget());
+        if(phrase != SymbolTable.NO_SYMBOL){
+            gameState.raiseEvent(Rule.Event.SAY, phrase);
+        }
+
+        //find the passphrase in what was said - it can be anywhere in it
+        Integer key = gameState.getPassphraseMatcher(gameState.getCurrentRoom()).find(action.getTarget());
+        if(key == null){
+            nothingUnlocked(action, consequence, phrase);
+            return;
+        }
+
         //check passages
-        Passage targetPassage = getTargetPassageByKey();
+        Passage targetPassage = getTargetPassageByKey(gameState, action, key);
         if(targetPassage != null && targetPassage.isLocked()){
-            gameState.getStory().getPassage(targetPassage.getPassageIndex()).setLocked(false);
+            targetPassage.setLocked(false);
+            gameState.updatePassage(targetPassage);
             consequence.addToConsequence(targetPassage.getDescriptionAction());
             return;
         }
 
         //check containers
-        Container targetContainer = getTargetContainerByKey();
+        Container targetContainer = getTargetContainerByKey(gameState, action, key);
         if(targetContainer != null && targetContainer.isLocked()){
-            gameState.getStory().getContainer(targetContainer.getContainerIndex()).setLocked(false);
+            targetContainer.setLocked(false);
+            gameState.updateContainer(targetContainer);
             consequence.addToConsequence(targetContainer.getDescriptionAction());
             return;
         }
 
-        throw new NoValidTargetException(action, false);
+        nothingUnlocked(action, consequence, phrase);
+    }
+
+    /**
+     * Utility function for when what was said does not unlock anything. If a rule is waiting
+     * for it, the rule tells the player what happens; otherwise nothing happens.
+     */
+    private static void nothingUnlocked(Action action, Consequence consequence, int phrase) throws NoValidTargetException{
+        if(phrase == SymbolTable.NO_SYMBOL){
+            throw new NoValidTargetException(action, false);
+        }
+        consequence.addMessage(Message.SAID, action.toString());
     }
 
     /**
@@ -595,10 +612,10 @@ public class DungeonMaster implements Serializable {
      * 
      * @return (Container/null) the target container, or null if there is no matching container name
      */
-    private Container getTargetContainer(){
+    private static Container getTargetContainer(GameState gameState, Action action){
         ArrayList<Integer> containers = gameState.getCurrentRoom().getContainers();
         for(Integer containerIndex : containers){
-            if(gameState.getStory().getContainer(containerIndex).getName().equals(action.getTarget())){
+            if(isSymbol(gameState.getStory().getContainer(containerIndex).getNameSymbol(), action.getTargetSymbol())){
                 return gameState.getStory().getContainer(containerIndex);
             }
         }
@@ -611,10 +628,10 @@ public class DungeonMaster implements Serializable {
      * 
      * @return (Enemy/null) the target enemy, or null if there is no matching enemy name
      */
-    private Enemy getTargetEnemy(){
+    private static Enemy getTargetEnemy(GameState gameState, Action action){
         ArrayList<Integer> enemies = gameState.getCurrentRoom().getEnemies();
         for(Integer enemyIndex : enemies){
-            if(gameState.getStory().getEnemy(enemyIndex).getName().equals(action.getTarget())){
+            if(isSymbol(gameState.getStory().getEnemy(enemyIndex).getNameSymbol(), action.getTargetSymbol())){
                 return gameState.getStory().getEnemy(enemyIndex);
             }
         }
@@ -627,10 +644,10 @@ public class DungeonMaster implements Serializable {
      * 
      * @return (Item/null) the target item, or null if there is no matching item name
      */
-    private Item getTargetInventoryItem(){
+    private static Item getTargetInventoryItem(GameState gameState, Action action){
         HashMap<Integer, Boolean> inventory = gameState.getHero().getInventory();
         for(Map.Entry<Integer, Boolean> entry : inventory.entrySet()){
-            if(gameState.getStory().getItem(entry.getKey()).getName().equals(action.getTarget())){
+            if(isSymbol(gameState.getStory().getItem(entry.getKey()).getNameSymbol(), action.getTargetSymbol())){
                 return gameState.getStory().getItem(entry.getKey());
             }
         }
@@ -643,10 +660,10 @@ public class DungeonMaster implements Serializable {
      * 
      * @return (NonPlayerCharacter/null) the target npc, or null if there is no matching npc name
      */
-    private NonPlayerCharacter getTargetNPC(){
+    private static NonPlayerCharacter getTargetNPC(GameState gameState, Action action){
         ArrayList<Integer> npcs = gameState.getCurrentRoom().getNonPlayerCharacters();
         for(Integer npcIndex : npcs){
-            if(gameState.getStory().getNonPlayerCharacter(npcIndex).getName().equals(action.getTarget())){
+            if(isSymbol(gameState.getStory().getNonPlayerCharacter(npcIndex).getNameSymbol(), action.getTargetSymbol())){
                 return gameState.getStory().getNonPlayerCharacter(npcIndex);
             }
         }
@@ -655,34 +672,86 @@ public class DungeonMaster implements Serializable {
 
     /**
      * Utility function that retrieves a Passage from the current Room based on whether
-     * it's key string matches the Action.
+     * it's key string matches the given key, e.g. the Action as a string. The same key can
+     * fit more than one passage, so only a passage that is the indirect target of the Action
+     * (if it has one) is returned, and a locked passage is returned before an unlocked one.
      * 
+     * @param keySymbol (int) the symbol of the key string, eg: "USE RUSTY IRON KEY"
      * @return (Passage) the target passage, or null if there is no matching passage key
      */
-    private Passage getTargetPassageByKey(){
+    private static Passage getTargetPassageByKey(GameState gameState, Action action, int keySymbol){
+        Passage targetPassage = null;
         HashMap<Direction, Integer> passages = gameState.getCurrentRoom().getPassages();
         for(Map.Entry<Direction, Integer> entry : passages.entrySet()){
-            if(gameState.getStory().getPassage(entry.getValue()).getKey().equals(action.toString())){
-                return gameState.getStory().getPassage(entry.getValue());
+            Passage passage = gameState.getStory().getPassage(entry.getValue());
+            if(isSymbol(passage.getKeySymbol(), keySymbol) && isIndirectTarget(action, entry.getKey())){
+                if(passage.isLocked()){
+                    return passage;
+                }else if(targetPassage == null){
+                    targetPassage = passage;
+                }
             }
         }
-        return null;
+        return targetPassage;
     }
 
     /**
      * Utility function that retrieves a Container from the current room based on whether 
-     * it's key string matches the Action. 
+     * it's key string matches the given key, e.g. the Action as a string. As for passages, 
+     * only a container that is the indirect target of the Action (if it has one) is returned,
+     * and a locked container is returned before an unlocked one.
      * 
+     * @param keySymbol (int) the symbol of the key string, eg: "USE HAIRCLIP"
      * @return (Container) the target Container, or null if there is no matching container key
      */
-    private Container getTargetContainerByKey(){
+    private static Container getTargetContainerByKey(GameState gameState, Action action, int keySymbol){
+        Container targetContainer = null;
         ArrayList<Integer> containers = gameState.getCurrentRoom().getContainers();
         for(Integer containerIndex : containers){
-            if(gameState.getStory().getContainer(containerIndex).getKey().equals(action.toString())){
-                return gameState.getStory().getContainer(containerIndex);
+            Container container = gameState.getStory().getContainer(containerIndex);
+            if(isSymbol(container.getKeySymbol(), keySymbol) && isIndirectTarget(action, container)){
+                if(container.isLocked()){
+                    return container;
+                }else if(targetContainer == null){
+                    targetContainer = container;
+                }
             }
         }
-        return null;
+        return targetContainer;
+    }
+
+    /**
+     * Utility function that checks whether a passage is what the Action was used on. An
+     * Action without an indirect target can be used on anything.
+     * 
+     * @param direction (Direction) the direction of the passage
+     * @return (boolean) true if the Action has no indirect target, or its indirect target is the direction
+     */
+    private static boolean isIndirectTarget(Action action, Direction direction){
+        return !action.hasIndirectTarget() || action.getIndirectTarget().equals(direction.name());
+    }
+
+    /**
+     * Utility function that checks whether a container is what the Action was used on. An
+     * Action without an indirect target can be used on anything.
+     * 
+     * @return (boolean) true if the Action has no indirect target, or its indirect target is the container's name
+     */
+    private static boolean isIndirectTarget(Action action, Container container){
+        return !action.hasIndirectTarget() || isSymbol(container.getNameSymbol(), action.getIndirectTargetSymbol());
+    }
+
+    /**
+     * Utility function that checks whether the symbol of a name or key is the symbol that
+     * the player typed. Names are compared as symbols (see Story.SymbolTable), so this is
+     * one int comparison.
+     * 
+     * @param symbol (int) the symbol of the name or key
+     * @param targetSymbol (int) the symbol of what the player typed
+     * @return (boolean) true if they are the same, and something is called that
+     */
+    private static boolean isSymbol(int symbol, int targetSymbol){
+        return targetSymbol != SymbolTable.NO_SYMBOL && symbol == targetSymbol;
     }
 
     /**
@@ -691,7 +760,7 @@ public class DungeonMaster implements Serializable {
      * @param passageIndex (int) the index of the passage for which the direction is required
      * @return (Direction) the direction of the passage
      */
-    private Direction getPassageDirectionByIndex(int passageIndex){
+    private static Direction getPassageDirectionByIndex(GameState gameState, int passageIndex){
         for(Map.Entry<Direction, Integer> entry : gameState.getCurrentRoom().getPassages().entrySet()){
             if(entry.getValue() == passageIndex){
                 return entry.getKey();
@@ -0,0 +1,109 @@
+package GameEngine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+import Story.Room;
+import Story.Story;
+
+/**
+ * The EntityLocator class finds the rooms that a passage, container, enemy or NPC can be
+ * seen from, so that the GameState only bumps the state version of those rooms when the
+ * entity changes, rather than looking through every room in the story.
+ *
+ * The rooms are indexed from the rooms that the Story holds in memory, and indexed again
+ * whenever its room set version changes (see Story.getRoomSetVersion()), e.g. when a
+ * LazyStory or GeneratedStory loads or drops a room.
+ */
+class EntityLocator {
+
+    private static final List<Room> NO_ROOMS = new ArrayList<Room>(0);
+
+    private final Story story;
+    private final HashMap<Integer, List<Room>> passageRooms;
+    private final HashMap<Integer, List<Room>> containerRooms;
+    private final HashMap<Integer, List<Room>> enemyRooms;
+    private final HashMap<Integer, List<Room>> npcRooms;
+    private int roomSetVersion;
+
+    /**
+     * The constructor for EntityLocator.
+     *
+     * @param story (Story) the story whose rooms are indexed
+     */
+    EntityLocator(Story story){
+        this.story = story;
+        this.passageRooms = new HashMap<Integer, List<Room>>();
+        this.containerRooms = new HashMap<Integer, List<Room>>();
+        this.enemyRooms = new HashMap<Integer, List<Room>>();
+        this.npcRooms = new HashMap<Integer, List<Room>>();
+        index();
+    }
+
+    /**
+     * Utility function that returns the story that the rooms are indexed from.
+     *
+     * @return (Story) the story
+     */
+    Story getStory(){
+        return story;
+    }
+
+    List<Room> getPassageRooms(int passageIndex){
+        return find(passageRooms, passageIndex);
+    }
+
+    List<Room> getContainerRooms(int containerIndex){
+        return find(containerRooms, containerIndex);
+    }
+
+    List<Room> getEnemyRooms(int enemyIndex){
+        return find(enemyRooms, enemyIndex);
+    }
+
+    List<Room> getNonPlayerCharacterRooms(int npcIndex){
+        return find(npcRooms, npcIndex);
+    }
+
+    private List<Room> find(HashMap<Integer, List<Room>> rooms, int index){
+        if(roomSetVersion != story.getRoomSetVersion()){
+            index();
+        }
+        return rooms.getOrDefault(index, NO_ROOMS);
+    }
+
+    /**
+     * Indexes every room that the story holds in memory.
+     */
+    private void index(){
+        passageRooms.clear();
+        containerRooms.clear();
+        enemyRooms.clear();
+        npcRooms.clear();
+        roomSetVersion = story.getRoomSetVersion();
+        for(Room room : story.getRooms().values()){
+            if(room.getPassages() != null){
+                add(passageRooms, room.getPassages().values(), room);
+            }
+            add(containerRooms, room.getContainers(), room);
+            add(enemyRooms, room.getEnemies(), room);
+            add(npcRooms, room.getNonPlayerCharacters(), room);
+        }
+    }
+
+    private static void add(HashMap<Integer, List<Room>> rooms, Collection<Integer> indexes, Room room){
+        if(indexes == null){
+            return;
+        }
+        for(Integer index : indexes){
+            if(index != null){
+                List<Room> found = rooms.computeIfAbsent(index, added -> new ArrayList<Room>(2));
+                if(found.isEmpty() || found.get(found.size() - 1) != room){ //e.g. a passage in two directions of a room
+                    found.add(room);
+                }
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package GameEngine.Exceptions;
 
+import GameEngine.Message;
+import GameEngine.MessageCatalogue;
 import Story.Command;
 import Story.Mode;
 
@@ -7,32 +9,43 @@ public class CommandNotLegalInThisModeException extends Exception{
     
     private Mode currentMode;
     private Command command;
+    private String verb;
 
     public CommandNotLegalInThisModeException(Mode currentMode, Command command){
         this.currentMode = currentMode;
         this.command = command;
+        this.verb = command.name();
+    }
+
+    public CommandNotLegalInThisModeException(Mode currentMode, Command command, String verb){
+        this.currentMode = currentMode;
+        this.command = command;
+        this.verb = verb;
     }
 
     public String toString(){
-        if(currentMode == Mode.COMBAT){ //Player is currently in combat
+        MessageCatalogue messages = MessageCatalogue.getInstance();
+        if(command == null){ //Verb added by a CommandHandler
+            return messages.get(currentMode == Mode.COMBAT ? Message.NO_TIME_FOR_COMMAND : Message.NOT_IN_COMBAT, verb);
+        }else if(currentMode == Mode.COMBAT){ //Player is currently in combat
             switch(command){
                 case ATTACK:
-                    return "You are already in combat!";
+                    return messages.get(Message.ALREADY_IN_COMBAT);
                 case INVENTORY:
-                    return "You are being attacked! You don't have time to look at your inventory!";
+                    return messages.get(Message.NO_TIME_FOR_INVENTORY);
                 case GO:
-                    return "You are being attacked! You must escape before you can go anywhere!";
+                    return messages.get(Message.NO_TIME_TO_GO);
                 case LOOK:
-                    return "You are being attacked! You can't look away!";
+                    return messages.get(Message.NO_TIME_TO_LOOK);
                 default:
-                    return String.format("You are being attacked! You don't have time to %s anything!", command.name());
+                    return messages.get(Message.NO_TIME_FOR_COMMAND, verb);
             }
         }else{ //Player is exploring
             switch(command){
                 case ATTACK_ENEMY:
-                    return "What did you want to attack?";
+                    return messages.get(Message.ATTACK_WHAT);
                 default:
-                    return String.format("You're not in combat! There's nothing to %s!", command.name());
+                    return messages.get(Message.NOT_IN_COMBAT, verb);
             }
         }
     }
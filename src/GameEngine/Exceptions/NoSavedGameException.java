@@ -1,9 +1,12 @@
 package GameEngine.Exceptions;
 
+import GameEngine.Message;
+import GameEngine.MessageCatalogue;
+
 public class NoSavedGameException extends Exception{
 
     public String toString(){
-        return "There is no save file to load!";
+        return MessageCatalogue.getInstance().get(Message.NO_SAVED_GAME);
     }
     
 }
@@ -1,6 +1,8 @@
 package GameEngine.Exceptions;
 
 import GameEngine.Action;
+import GameEngine.Message;
+import GameEngine.MessageCatalogue;
 
 public class NoSuchItemException extends Exception{
     
@@ -11,6 +13,6 @@ public class NoSuchItemException extends Exception{
     }
 
     public String toString(){
-        return String.format("You do not have anything called '%s' in your inventory!", action.getTarget());
+        return MessageCatalogue.getInstance().get(Message.NO_SUCH_ITEM, action.getTarget());
     }
 }
@@ -0,0 +1,17 @@
+package GameEngine.Exceptions;
+
+import GameEngine.Message;
+import GameEngine.MessageCatalogue;
+
+public class NoSuchSessionException extends Exception{
+
+    private String sessionId;
+
+    public NoSuchSessionException(String sessionId){
+        this.sessionId = sessionId;
+    }
+
+    public String toString(){
+        return MessageCatalogue.getInstance().get(Message.NO_SUCH_SESSION, sessionId);
+    }
+}
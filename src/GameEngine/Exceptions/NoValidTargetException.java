@@ -1,6 +1,8 @@
 package GameEngine.Exceptions;
 
 import GameEngine.Action;
+import GameEngine.Message;
+import GameEngine.MessageCatalogue;
 import Story.Command;
 
 public class NoValidTargetException extends Exception{
@@ -13,21 +15,22 @@ public class NoValidTargetException extends Exception{
     }
 
     public String toString(){
+        MessageCatalogue messages = MessageCatalogue.getInstance();
         if(targetExists){
-            return String.format("You can't %s %s.", action.getCommand().name(), action.getTarget());
+            return messages.get(Message.TARGET_NOT_VALID, action.getVerb(), action.getTarget());
         }else{
             if(action.getCommand() == Command.SAY || action.getCommand() == Command.USE){
-                return String.format("You %s, but nothing happens", action.toString());
+                return messages.get(Message.NOTHING_HAPPENS, action.toString());
             }else if(action.getCommand() == Command.GO || action.getCommand() == Command.LOOK){
-                return String.format("%s is not a valid direction.", action.getTarget());
+                return messages.get(Message.NOT_A_DIRECTION, action.getTarget());
             }else if(action.getCommand() == Command.GREET){
-                return String.format("There is noone here called '%s'", action.getTarget());
+                return messages.get(Message.NO_ONE_CALLED, action.getTarget());
             }else if(action.getCommand() == Command.ATTACK || action.getCommand() == Command.SEARCH){
-                return String.format("There is nothing here called '%s'", action.getTarget());
+                return messages.get(Message.NOTHING_CALLED, action.getTarget());
             }else if(action.getCommand() == Command.INSPECT || action.getCommand() == Command.USE){
-                return String.format("You can't find a '%s'", action.getTarget());
+                return messages.get(Message.CANNOT_FIND, action.getTarget());
             }else{
-                return String.format("You cannot %s '%s'", action.getCommand().name(), action.getTarget());
+                return messages.get(Message.CANNOT_TARGET, action.getVerb(), action.getTarget());
             }
         }
         
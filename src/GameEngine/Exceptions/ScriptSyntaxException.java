@@ -0,0 +1,15 @@
+package GameEngine.Exceptions;
+
+public class ScriptSyntaxException extends Exception {
+
+    String message;
+
+    public ScriptSyntaxException(String message, int line, int column){
+        this.message = "Script error at line " + line + ", column " + column + ": " + message;
+    }
+
+    @Override
+    public String toString(){
+        return message;
+    }
+}
@@ -1,31 +1,54 @@
 package GameEngine;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
 import java.util.Stack;
 
 import GameEngine.Exceptions.*;
+import GameEngine.Output.OutputSink;
 import Story.Command;
-import Story.Enemy;
 import Story.Hero;
 import Story.Item;
 import Story.Mode;
+import Story.Rule;
 import Story.Story;
+import SaveLoad.GameJournal;
 import SaveLoad.SaveNLoad;
+import SaveLoad.SaveSlotInfo;
+import SaveLoad.SaveSlots;
 
 /**
  * The GameEngine class is the logic engine for the game. It interprets user input with a
- * CommandParser object, tracks the game's state with a GameState object, implements combat 
- * with Arena objects, resolves EXPLORATION mode actions with DungeonMaster objects and 
+ * CommandParser object, tracks the game's state with a GameState object, and dispatches each
+ * action to the CommandHandler registered for it in the CommandRegistry - combat actions are 
+ * resolved by Arena objects, EXPLORATION mode actions by the DungeonMaster - and 
  * stores the history of the game in a GameHistory object. 
  * 
  * @author Samuel J. Brookes (u5380100)
  */
 public class GameEngine implements Serializable{
     
+    public static final String BATCH_SEPARATOR = ";";
+    public static final String SCRIPT_COMMENT = "#";
+
     private GameState gameState;
     private int autoSaveCount = 0;
     private SaveNLoad saveNLoad=new SaveNLoad();
+    private transient CommandRegistry commandRegistry = CommandRegistry.getDefault();
+    private transient CommandParser commandParser = new CommandParser(commandRegistry);
+    private transient GameJournal gameJournal;
+    private transient boolean replaying = false;
+    private transient boolean autosaveDisabled = false; //e.g. for an automatic tester, which must not overwrite the player's saved game
+    private transient boolean keepsSinkText = false; //whether text written to a sink is kept in the GameHistory as well
 
     /**
      * The constructor for the GameEngine. In order to initialize a GameState
@@ -33,6 +56,17 @@ public class GameEngine implements Serializable{
      * @param story
      */
     public GameEngine(Story story){
+        this(story, new Random().nextLong());
+    }
+
+    /**
+     * The constructor for a GameEngine whose dice are rolled from the given seed,
+     * so that the game can be replayed from a GameJournal.
+     *
+     * @param story (Story) the story to play
+     * @param seed (long) the seed for the game's random number generator
+     */
+    public GameEngine(Story story, long seed){
         Hero hero = new Hero(
             story.getInitialHeroHealth(), 
             story.getInitialHeroAttackPower(), 
@@ -41,10 +75,21 @@ public class GameEngine implements Serializable{
         );
         this.gameState = new GameState(
             hero,
-            story
+            story,
+            seed
         );
     }
 
+    /**
+     * The constructor for a GameEngine that resumes an existing GameState,
+     * e.g. one that has been read back from a save file.
+     *
+     * @param gameState (GameState) the game state to resume
+     */
+    public GameEngine(GameState gameState){
+        this.gameState = gameState;
+    }
+
     /**
      * The startStory function returns the first Consequence object for the story. 
      * This consists of the introduction text for the story, as well as the description 
@@ -53,14 +98,23 @@ public class GameEngine implements Serializable{
      * @return (Consequence) The introduction text for the story
      */
     public Consequence startStory(){
-        Consequence consequence = new Consequence();
-        consequence.addToConsequence(
-            String.format(
-                "%s\n\n[%s]\n\n%s\n\n(Type 'HELP' to view available commands)", 
-                gameState.getStory().getIntroduction().trim(), 
-                gameState.getCurrentRoom().getRoomName(), 
-                gameState.getCurrentRoom().getDescription()
-            )
+        return startStory(null);
+    }
+
+    /**
+     * The startStory function writes the introduction text for the story to the given sink
+     * as well.
+     *
+     * @param sink (OutputSink) where else the consequence text is written, or null
+     * @return (Consequence) The introduction text for the story
+     */
+    public Consequence startStory(OutputSink sink){
+        Consequence consequence = new Consequence(sink, keepsSinkText);
+        consequence.addMessage(
+            Message.INTRODUCTION,
+            gameState.getStory().getIntroduction().trim(),
+            gameState.getCurrentRoom().getRoomName(),
+            gameState.getCurrentRoom().getDescription()
         );
         return finalizeConsequence(new Action("BEGIN"), consequence);
     }
@@ -76,45 +130,295 @@ public class GameEngine implements Serializable{
      */
 
     public Consequence sendCommand(String userInput) {
+        return sendCommand(userInput, null);
+    }
 
-        Consequence consequence = new Consequence();
-        Action action = new Action(userInput);
+    /**
+     * The sendCommand() function resolves user input as above, but also writes the consequence
+     * text to the given sink as it is produced, e.g. straight to a network session.
+     *
+     * @param userInput (String) raw input from the user
+     * @param sink (OutputSink) where else the consequence text is written, or null
+     * @return (Consequence) The consequence of the action taken by the player
+     */
+    public Consequence sendCommand(String userInput, OutputSink sink) {
+        return sendCommand(userInput, sink, true);
+    }
+
+    /**
+     * The sendCommands() function plays a batch of inputs, e.g. "GO NORTH; SEARCH CHEST; USE KEY"
+     * or the lines of a script, as one pipeline. Each input is a separate turn in the GameHistory,
+     * with its own Consequence. The batch stops early after any turn that changes the mode - e.g.
+     * starts or ends a fight, or ends the game - after any turn of a fight, and after any turn that
+     * leaves a NonPlayerCharacter waiting for an answer, so the player can see what happened before
+     * anything else is done. The journal is
+     * flushed once, at the end of the batch.
+     *
+     * @param userInputs (List<String>) the raw input for each turn, in order
+     * @return (List<Consequence>) the consequence of each turn that was played
+     */
+    public List<Consequence> sendCommands(List<String> userInputs){
+        return sendBatch(userInputs, null);
+    }
 
-        // Autosave Feature after every 10 commands.
-        autoSaveCount++;
-        if (autoSaveCount == 10) {
-            autoSaveCount = 0;
-            autosave();
+    /**
+     * The sendCommands() function plays a batch of inputs as above, but writes the text of
+     * every turn to the given sink, one line per turn, and flushes the sink once at the end -
+     * e.g. so that a network session is sent the whole batch at once.
+     *
+     * @param userInputs (List<String>) the raw input for each turn, in order
+     * @param sink (OutputSink) where the text of every turn is written
+     * @return (List<Consequence>) the consequence of each turn that was played
+     */
+    public List<Consequence> sendCommands(List<String> userInputs, OutputSink sink){
+        return sendBatch(userInputs, sink);
+    }
+
+    /**
+     * Plays a batch of turns, writing them all to the sink if one is given.
+     */
+    private List<Consequence> sendBatch(List<String> userInputs, OutputSink sink){
+        ArrayList<Consequence> consequences = new ArrayList<Consequence>();
+        Mode mode = gameState.getCurrentMode();
+        try{
+            for(String userInput : userInputs){
+                if(sink != null && !consequences.isEmpty()){
+                    sink.write("\n");
+                }
+                consequences.add(sendCommand(userInput, sink, false));
+                if(stopsBatch(mode)){
+                    break;
+                }
+            }
+        }finally{
+            if(gameJournal != null && !replaying){
+                gameJournal.flush();
+            }
+            if(sink != null){
+                sink.flush();
+            }
         }
+        return consequences;
+    }
+
+    /**
+     * The stopsBatch() function checks whether the rest of a batch should be dropped after a turn - 
+     * i.e. if the turn changed the mode, if the player is fighting or the game is over, or if a 
+     * NonPlayerCharacter is now waiting for an answer that the next input would otherwise be taken as.
+     * 
+     * @param mode (Mode) the mode the batch was started in
+     * @return (boolean) true if no more turns of the batch should be played
+     */
+    private boolean stopsBatch(Mode mode){
+        Mode currentMode = gameState.getCurrentMode();
+        return currentMode != mode
+            || currentMode == Mode.COMBAT
+            || currentMode == Mode.GAMEOVER
+            || gameState.npcIsWaitingForResponse();
+    }
+
+    /**
+     * Utility function that splits one line of input into the commands in it, which are
+     * separated by BATCH_SEPARATOR. A separator in "quoted text" is part of the command, and
+     * so is everything after SAY, which can be anything the player wants to say. Empty
+     * commands are left out.
+     *
+     * @param userInput (String) raw input from the user, e.g. "GO NORTH; SEARCH CHEST"
+     * @return (List<String>) the commands, in order
+     */
+    public static List<String> splitBatch(String userInput){
+        ArrayList<String> userInputs = new ArrayList<String>();
+        int start = 0;
+        boolean quoted = false;
+        for(int i = 0; i < userInput.length(); i++){
+            char c = userInput.charAt(i);
+            if(c == '"'){
+                quoted = !quoted;
+            }else if(!quoted && userInput.startsWith(BATCH_SEPARATOR, i)){
+                if(isSay(userInput.substring(start, i))){
+                    break; //the rest of the line is what is said
+                }
+                addCommand(userInputs, userInput.substring(start, i));
+                start = i + BATCH_SEPARATOR.length();
+                i = start - 1;
+            }
+        }
+        addCommand(userInputs, userInput.substring(start));
+        return userInputs;
+    }
+
+    private static void addCommand(List<String> userInputs, String command){
+        if(!command.trim().isEmpty()){
+            userInputs.add(command.trim());
+        }
+    }
+
+    /**
+     * Tells whether a command is SAY, whose argument is not split.
+     */
+    private static boolean isSay(String command){
+        String[] words = command.trim().split("\\s+", 2);
+        return words[0].equalsIgnoreCase(Command.SAY.name()) && words.length > 1;
+    }
+
+    /**
+     * The readScript() function reads a command script - a text file with one or more
+     * commands on each line, separated as for splitBatch(). Blank lines and lines that
+     * start with SCRIPT_COMMENT are skipped. The commands can be played with sendCommands().
+     *
+     * @param scriptPath (String) the path of the script, eg: "res/scripts/walkthrough.txt"
+     * @return (List<String>) the commands in the script, in order
+     * @throws IOException if the script cannot be read
+     */
+    public static List<String> readScript(String scriptPath) throws IOException{
+        ArrayList<String> userInputs = new ArrayList<String>();
+        for(String line : Files.readAllLines(Paths.get(scriptPath), StandardCharsets.UTF_8)){
+            if(!line.trim().startsWith(SCRIPT_COMMENT)){
+                userInputs.addAll(splitBatch(line));
+            }
+        }
+        return userInputs;
+    }
+
+    /**
+     * Plays one turn, and records it in the journal - flushing the journal only if this turn
+     * is not part of a batch.
+     */
+    private Consequence sendCommand(String userInput, OutputSink sink, boolean flushJournal){
+
+        Consequence consequence = resolve(userInput, sink);
+
+        if(replaying){
+            return consequence;
+        }
+
+        if(gameJournal != null){ //Recording the input is enough to save the turn
+            gameJournal.append(userInput, gameState, flushJournal);
+        }else{
+            // Autosave Feature after every 10 commands.
+            autoSaveCount++;
+            if (autoSaveCount == 10 && !autosaveDisabled) {
+                autoSaveCount = 0;
+                autosave();
+            }
+        }
+
+        return consequence;
+    }
+
+    /**
+     * The complete() function returns the ways that what the player has typed so far can be
+     * finished, e.g. for tab completion in the user interface or a network session.
+     *
+     * @param userInput (String) the partly typed command
+     * @return (List<String>) the completed commands, in alphabetical order (see CommandCompleter)
+     */
+    public List<String> complete(String userInput){
+        return gameState.getCommandCompleter().complete(gameState, userInput);
+    }
+
+    /**
+     * The replay() function sends each of the given inputs to the GameEngine in turn, without
+     * recording or autosaving them. This is how a GameJournal brings a game back up to date.
+     *
+     * @param userInputs (List<String>) the raw input for each turn, in order
+     */
+    public void replay(List<String> userInputs){
+        replaying = true;
+        try{
+            for(String userInput : userInputs){
+                sendCommand(userInput);
+            }
+        }finally{
+            replaying = false;
+        }
+    }
+
+    /**
+     * The keepSinkText() function sets whether the text of turns written to a sink (see
+     * sendCommand(String, OutputSink)) is also kept in the GameHistory, e.g. so that the
+     * transcript of a network session can be shown again later. It is not kept by default, so
+     * that the text is written once, to the sink, and the turns are recorded without it.
+     * Turns played without a sink always keep their text.
+     *
+     * @param keepsSinkText (boolean) true to keep a copy of the text written to sinks
+     */
+    public void keepSinkText(boolean keepsSinkText){
+        this.keepsSinkText = keepsSinkText;
+    }
+
+    /**
+     * The record() function attaches a GameJournal that every turn from now on is appended to.
+     * While a journal is attached, saving the game writes a snapshot to the journal rather
+     * than the full save file, and the autosave is not needed.
+     *
+     * @param gameJournal (GameJournal) the journal to record to
+     */
+    public void record(GameJournal gameJournal){
+        if(this.gameJournal != null && this.gameJournal != gameJournal){
+            try{
+                this.gameJournal.close();
+            }catch(IOException e){
+                e.printStackTrace();
+            }
+        }
+        this.gameJournal = gameJournal;
+    }
+
+    /**
+     * The resolve() function interprets user input in the context of the current game
+     * state and resolves the action taken by the player.
+     *
+     * @param userInput (String) raw input from the user
+     * @param sink (OutputSink) where else the consequence text is written, or null
+     * @return (Consequence) The consequence of the action taken by the player
+     */
+    private Consequence resolve(String userInput, OutputSink sink){
+
+        Consequence consequence = new Consequence(sink, keepsSinkText);
+        Action action = new Action(userInput);
 
 
+        //UNDO and REDO are resolved first - they work even if the game is over or an NPC is waiting for a response
+        if(gameState.getCurrentMode() != Mode.COMBAT){
+            Action timelineAction = parseTimelineCommand(userInput);
+            if(timelineAction != null){
+                dispatch(Mode.EXPLORATION, timelineAction, consequence);
+                return finalizeConsequence(timelineAction, consequence);
+            }
+        }
+
         //Check if hero is dead or game is finished
         if(gameState.getCurrentMode() == Mode.GAMEOVER){
             if(gameState.getHero().getHealth() <= 0){
-                consequence.addToConsequence("[GAME OVER] You are dead. Better luck next time!");    
+                consequence.addMessage(Message.GAME_OVER_DEAD);
             }else if(gameState.getCurrentRoom().isLastRoom()){
-                consequence.addToConsequence("[GAME OVER] You finished the story! Thanks for playing!");
+                consequence.addMessage(Message.GAME_OVER_FINISHED);
             }
             return finalizeConsequence(action, consequence);
         }
 
         //Check if a nonPlayerCharacter is waiting for a response - because this can be any text at all
         if(gameState.npcIsWaitingForResponse()){
-            DungeonMaster dungeonMaster = new DungeonMaster(gameState, action, consequence);
-            consequence = dungeonMaster.mediate();
-            gameState = dungeonMaster.getGameState();
+            try{
+                DungeonMaster.respond(gameState, action, consequence);
+            }catch(NoValidTargetException e){
+                consequence.addToConsequence(e.toString());
+            }
             return finalizeConsequence(action, consequence);
         }
 
         //Check if command is legal and being used in the correct Mode
         try{
-            action = new CommandParser().parse(userInput, gameState.getCurrentMode());
-            if(action.getCommand() == Command.HELP){
-                return finalizeConsequence(action, new DungeonMaster(gameState, action, consequence).mediate());
+            gameState.internVisibleSymbols();
+            action = commandParser.parse(userInput, gameState.getCurrentMode(), gameState.getStory().getSymbolTable());
+            if(commandRegistry.getHandler(gameState.getCurrentMode(), action).getValidMode() == Mode.ANY){ //e.g. HELP - this does not use up a turn of combat
+                dispatch(action, consequence);
+                return finalizeConsequence(action, consequence);
             }
         }catch(NoSuchCommandException e){
             if(gameState.getCurrentMode() != Mode.COMBAT){ //player 'fumbles' if in combat
-                consequence.addToConsequence("You look confused.");    
+                consequence.addMessage(Message.CONFUSED);
                 return finalizeConsequence(action, consequence);
             }            
         }catch(CommandNotLegalInThisModeException e){
@@ -125,11 +429,17 @@ public class GameEngine implements Serializable{
         }
 
         //If hero is not dead and command is valid - the game continues - check if they're currently in combat
+        gameState.raiseEvent(Rule.Event.TURN, Rule.ANY_TARGET);
+        gameState.tickWorld();
         if(gameState.getCurrentMode() == Mode.COMBAT){
 
-            //Do next round of fighting
+            //Do next round of fighting - the player 'fumbles' if the command was not valid
             Arena arena = gameState.getArena();
-            consequence = arena.fight(action, consequence);
+            if(commandRegistry.getHandler(Mode.COMBAT, action) == null){
+                arena.fumble(consequence);
+            }else{
+                dispatch(action, consequence);
+            }
 
             //Check if enemy is dead, hero is dead or hero has escaped
             if(arena.enemyIsDead()){ //If enemy is dead - combat has ended
@@ -137,21 +447,19 @@ public class GameEngine implements Serializable{
                 //Save enemy and hero to gameState
                 finalizeCombat(arena);
                 gameState.toggleMode();
-                consequence.addToConsequence(String.format("You have killed %s!", arena.getEnemy().getName()));
+                consequence.addMessage(Message.ENEMY_KILLED, arena.getEnemy().getName());
+                gameState.raiseEvent(Rule.Event.KILL_ENEMY, arena.getEnemy().getEnemyIndex());
 
                 //Check for loot on the dead enemy
                 if(arena.getEnemy().dropsLoot()){
 
                     //Update the hero's inventory
                     Item loot = gameState.getStory().getItem(arena.getEnemy().getItemIndex());
-                    Hero hero = gameState.getHero();
-                    HashMap<Integer, Boolean> inventory = hero.getInventory();
-                    inventory.put(loot.getIndex(), loot.isEquippable());
-                    hero.setInventory(inventory);
-                    gameState.updateHero(hero);
+                    gameState.addToInventory(loot);
+                    gameState.raiseEvent(Rule.Event.TAKE_ITEM, loot.getIndex());
                     
                     //Report the loot drop to the player
-                    consequence.addToConsequence(String.format("%s drops item '%s'.%s", arena.getEnemy().getName(), loot.getName(), loot.isEquippable() ? " You equip it": ""));
+                    consequence.addMessage(loot.isEquippable() ? Message.ENEMY_DROPS_EQUIPPABLE_ITEM : Message.ENEMY_DROPS_ITEM, arena.getEnemy().getName(), loot.getName());
                 }
 
             }else if(arena.heroHasEscaped()){ //If hero has escaped - combat has ended
@@ -162,9 +470,12 @@ public class GameEngine implements Serializable{
 
             }else if(arena.heroIsDead()){ //If hero is dead - game has ended
 
+                //Save enemy and hero to gameState, so that the fight can be undone
+                finalizeCombat(arena);
+
                 //End game
                 gameState.gameOver();
-                consequence.addToConsequence("[GAME OVER] You are dead. Better luck next time!");
+                consequence.addMessage(Message.GAME_OVER_DEAD);
 
             }else{ //If none of the previous conditions are true - combat continues
                 
@@ -174,19 +485,16 @@ public class GameEngine implements Serializable{
 
         }else{ //Otherwise, they are currently exploring
             
-            DungeonMaster dungeonMaster = new DungeonMaster(gameState, action, consequence);
-            consequence = dungeonMaster.mediate();
+            dispatch(action, consequence);
 
             if(gameState.getHero().getHealth() <= 0){ //If hero is dead - game has ended
 
                 //End game
                 gameState.gameOver();
-                consequence.addToConsequence("[GAME OVER] You are dead. Better luck next time!");
+                consequence.addMessage(Message.GAME_OVER_DEAD);
 
             }
 
-            gameState = dungeonMaster.getGameState();
-
         }
 
         return finalizeConsequence(action, consequence);
@@ -200,24 +508,160 @@ public class GameEngine implements Serializable{
      * the GameState from the save file will replace the current GameState
      * in the GameEngine.
      * 
+     * If a GameJournal has been saved, the game is restored from its save point instead - not
+     * from its last turn, which may be after the hero died - and the GameEngine carries on
+     * recording to it from there. A journal whose story has changed since it was recorded
+     * cannot be replayed, so the save file is loaded instead.
+     * 
      * @return (GameHistory) The game history of the saved game. 
      */
     public GameHistory loadGame() throws NoSavedGameException {
+        if(GameJournal.exists(GameJournal.JOURNAL_PATH)){
+            try{
+                GameJournal savedJournal = GameJournal.open(GameJournal.JOURNAL_PATH);
+                if(savedJournal.hasSavedGame()){
+                    GameState savedState = savedJournal.restoreSaved().getGameState();
+                    if(savedState.getCurrentMode() != Mode.GAMEOVER){ //only a journal written before save markers can be saved after the game ended
+                        replaceGameState(savedState);
+                        record(savedJournal);
+                        return gameState.getGameHistory();
+                    }
+                    closeStory(savedState);
+                }
+                savedJournal.close();
+            }catch(IOException e){
+                e.printStackTrace(); //fall back to the save file
+            }
+        }
+
         GameState gameRecord;
         gameRecord = saveNLoad.loadGame();
-        if(gameRecord != null){
+        if(gameRecord != null && gameRecord.getCurrentMode() != Mode.GAMEOVER){
+            replaceGameState(gameRecord);
             return gameRecord.getGameHistory();
         }
+        if(gameRecord != null){
+            closeStory(gameRecord);
+        }
         throw new NoSavedGameException();
     }
 
     /**
      * The saveGame function will pass the current gameState
-     * to a gameSaver object to be written to file. 
+     * to a gameSaver object to be written to file. A game that
+     * is over is not saved, so that loading never lands on it.
+     *
+     * If the GameEngine is recording to a GameJournal, a snapshot and a
+     * save marker are written to the journal instead. The first save of a
+     * new game replaces the journal that was saved before (see replacesSavedGame()).
+     *
+     * @return (boolean) true if the game was saved
+     */
+    public boolean saveGame(){
+        if(gameState.getCurrentMode() == Mode.GAMEOVER){
+            return false;
+        }
+        if(gameJournal != null){ //Every turn is already in the journal - the snapshot just makes it quicker to load
+            return gameJournal.snapshot(getGameState()) && gameJournal.markSaved();
+        }
+        return SaveNLoad.saveGame(getGameState());
+    }
+
+    /**
+     * The replacesSavedGame function checks whether saving the game would replace a
+     * different game that was saved before, so that the player can be asked first.
+     *
+     * @return (boolean) true if this game has not been saved and another game has
+     */
+    public boolean replacesSavedGame(){
+        return gameJournal != null && gameJournal.isPending() && GameJournal.exists(gameJournal.getPath());
+    }
+
+    /**
+     * The saveGame function writes the current gameState to a named save slot,
+     * alongside any other slots that have been saved.
+     *
+     * @param slotName (String) the name of the slot
+     * @return (SaveSlotInfo) the metadata of the saved slot, or null if it could not be saved
+     */
+    public SaveSlotInfo saveGame(String slotName){
+        return getSaveSlots().save(slotName, gameState);
+    }
+
+    /**
+     * The loadGame function replaces the current gameState with the one saved in a
+     * named save slot. If the GameEngine is recording to a GameJournal, a new journal is
+     * started from the loaded game.
+     *
+     * @param slotName (String) the name of the slot
+     * @return (GameHistory) The game history of the saved game.
+     */
+    public GameHistory loadGame(String slotName) throws NoSavedGameException {
+        GameState gameRecord = getSaveSlots().load(slotName);
+        if(gameRecord == null){
+            throw new NoSavedGameException();
+        }
+        replaceGameState(gameRecord);
+        if(gameJournal != null){ //the loaded game cannot be replayed from the story - so the new journal starts from a snapshot of it
+            String storyPath = gameState.getStory().getStoryPath();
+            GameJournal slotJournal = GameJournal.create(gameJournal.getPath(), storyPath != null ? storyPath : gameJournal.getStoryPath(), gameState.getSeed());
+            record(slotJournal);
+            slotJournal.snapshot(gameState);
+        }
+        return gameState.getGameHistory();
+    }
+
+    /**
+     * The close() function closes the journal that the game is recorded to, and the files
+     * that its story is read from (see LazyStory), once the game will not be played again.
      */
-    public void saveGame(){
-        System.out.println("save game in gameengine");
-        saveNLoad.saveGame(getGameState());
+    public void close(){
+        record(null);
+        closeStory(gameState);
+    }
+
+    /**
+     * Utility function that replaces the current gameState with a loaded one, closing the
+     * story of the game that is replaced.
+     *
+     * @param loaded (GameState) the game state to play from now on
+     */
+    private void replaceGameState(GameState loaded){
+        GameState replaced = gameState;
+        gameState = loaded;
+        if(replaced != null && replaced.getStory() != loaded.getStory()){
+            closeStory(replaced);
+        }
+    }
+
+    /**
+     * Utility function that closes the story of a game that will not be played again, if
+     * it holds files open.
+     *
+     * @param finished (GameState) the game
+     */
+    private static void closeStory(GameState finished){
+        if(finished.getStory() instanceof Closeable){
+            try{
+                ((Closeable) finished.getStory()).close();
+            }catch(IOException e){
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * The listSaveSlots function returns the metadata of every save slot,
+     * without reading any of the saves.
+     *
+     * @return (List<SaveSlotInfo>) the slots, most recently saved first
+     */
+    public List<SaveSlotInfo> listSaveSlots(){
+        return getSaveSlots().list();
+    }
+
+    private SaveSlots getSaveSlots(){
+        return SaveSlots.getSharedSlots(); //shared by every GameEngine, so that they do not race on the slot index
     }
 
     /**
@@ -230,8 +674,92 @@ public class GameEngine implements Serializable{
         return gameState;
     }
 
+    /**
+     * The dispatch() function passes an Action to the CommandHandler for the current mode.
+     * If the handler cannot resolve the action, the reason is shown to the player.
+     * 
+     * @param action (Action) the action taken this turn
+     * @param consequence (Consequence) the consequence to update
+     */
+    private void dispatch(Action action, Consequence consequence){
+        dispatch(gameState.getCurrentMode(), action, consequence);
+    }
+
+    /**
+     * The dispatch() function passes an Action to the CommandHandler for the given mode.
+     * If the target of the action does not match anything, the player may have mistyped it,
+     * so it is corrected if possible (see correctTarget()).
+     *
+     * @param mode (Mode) the mode to look the handler up in
+     * @param action (Action) the action taken this turn
+     * @param consequence (Consequence) the consequence to update
+     */
+    private void dispatch(Mode mode, Action action, Consequence consequence){
+        try{
+            commandRegistry.getHandler(mode, action).handle(gameState, action, consequence);
+        }catch(NoValidTargetException e){
+            if(!correctTarget(mode, action, consequence)){
+                consequence.addToConsequence(e.toString());
+            }
+        }catch(NoSuchItemException e){
+            if(!correctTarget(mode, action, consequence)){
+                consequence.addToConsequence(e.toString());
+            }
+        }catch(CommandNotLegalInThisModeException e){
+            consequence.addToConsequence(e.toString());
+        }
+    }
+
+    /**
+     * The correctTarget() function looks for what the player meant by a target that did not
+     * match anything (see TargetCorrector). If there is exactly one closest name, the action is
+     * taken again with that name; if there are several, the player is asked which they meant.
+     *
+     * @param mode (Mode) the mode to look the handler up in
+     * @param action (Action) the action whose target did not match anything
+     * @param consequence (Consequence) the consequence to update
+     * @return (boolean) true if the target was corrected or the player was asked, false if there is nothing close to it
+     */
+    private boolean correctTarget(Mode mode, Action action, Consequence consequence){
+        if(action.getCommand() == null || action.getTarget() == null || action.getTarget().isEmpty()){
+            return false; //verbs that are not built in may not take the names of things
+        }
+        List<String> names = gameState.getTargetCorrector().correct(gameState, action.getCommand(), action.getTarget());
+        if(names.isEmpty()){
+            return false;
+        }
+        if(names.size() == 1){
+            consequence.addMessage(Message.TARGET_ASSUMED, names.get(0));
+            Action corrected = new Action(action.getCommandId(), action.getVerb(), action.getCommand(), names.get(0), action.getPreposition(), action.getIndirectTarget());
+            corrected.resolveSymbols(gameState.getStory().getSymbolTable());
+            dispatch(mode, corrected, consequence);
+        }else{
+            consequence.addMessage(Message.DID_YOU_MEAN, String.join(MessageCatalogue.getInstance().get(Message.DID_YOU_MEAN_OR), names));
+        }
+        return true;
+    }
+
+    /**
+     * The parseTimelineCommand() function checks whether user input is an UNDO or REDO command.
+     *
+     * @param userInput (String) raw input from the user
+     * @return (Action) the UNDO or REDO action, or null if the input is anything else
+     */
+    private Action parseTimelineCommand(String userInput){
+        try{
+            Action action = commandParser.parse(userInput, Mode.EXPLORATION);
+            Command command = commandRegistry.getHandler(Mode.EXPLORATION, action).getCommand();
+            return command == Command.UNDO || command == Command.REDO ? action : null;
+        }catch(NoSuchCommandException e){
+            return null;
+        }catch(CommandNotLegalInThisModeException e){
+            return null;
+        }
+    }
+
     /**
      * The finalizeConsequence() function is a utility function that 
+     * fires the story's rules for the events of the turn, and then
      * updates the Consequence object with the Action that was taken
      * as well as the current hero stats.
      * 
@@ -241,12 +769,18 @@ public class GameEngine implements Serializable{
      */
     private Consequence finalizeConsequence(Action action, Consequence consequence){
 
+        //Fire the rules that wait for what happened this turn
+        gameState.fireRules(consequence);
+
         //Prepare consequence with all the details necessary for the UI
         consequence.setAction(action);
         consequence.updateHeroHealth(gameState.getHero().getHealth());
         consequence.updateHeroAttackPower(gameState.getHeroAttackPower());
         consequence.updateHeroDefence(gameState.getHeroDefence());
 
+        //Record a new version of the game for UNDO, if anything changed this turn
+        gameState.getTimeline().commit(gameState);
+
         //Save the action/consequence to the game history
         gameState.getGameHistory().append(action, consequence);
 
@@ -261,9 +795,7 @@ public class GameEngine implements Serializable{
      */
     private void finalizeCombat(Arena arena){
         //Save the enemy
-        HashMap<Integer, Enemy> enemies = gameState.getStory().getEnemies();
-        enemies.put(arena.getEnemy().getEnemyIndex(), arena.getEnemy());
-        gameState.getStory().setEnemies(enemies);
+        gameState.updateEnemy(arena.getEnemy());
 
         //Save the hero
         gameState.updateHero(arena.getHero());
@@ -272,33 +804,31 @@ public class GameEngine implements Serializable{
     /**
      * @author Shafin Kamal
      *
-     * the autosave() function will observe the Stack and check if it was called by the automatic game tester.
-     *
-     * If it was called by the AGT, do NOT autosave as it will overwrite user progress. Else, autosave.
+     * the autosave() function saves the game, as is done after every 10 commands unless the
+     * autosave has been disabled.
      */
     public void autosave() {
+        saveGame();
+    }
 
-        // Get stack frames
-        StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
-
-        for (int i = 1; i < stackTraceElements.length && i <= 5; i++) {
-            StackTraceElement stackTraceElement = stackTraceElements[i];
-
-            // if the Automatic Game Tester is called, it is at stack index 3 - thus check at index 3.
-            if (i == 3) {
-                if (stackTraceElement.getClassName().equals("test.AutomaticTester.AutomaticGameTester")) {
-                    System.out.println("Automatic Game Tester (AGT) detected. Autosaving function is " +
-                            "DISABLED.");
-                    break;
+    /**
+     * The setAutosave() function turns the save after every 10 commands on or off, e.g. off
+     * for an automatic tester, so that it does not overwrite the player's progress.
+     *
+     * @param autosave (boolean) false to stop autosaving
+     */
+    public void setAutosave(boolean autosave){
+        this.autosaveDisabled = !autosave;
+    }
 
-                    // Automatic Game Tester not detected. Save game.
-                } else {
-                    saveGame();
-                    System.out.println("Game as been autosaved.");
-                    break;
-                }
-            }
-        }
+    /**
+     * The command registry and parser are shared, so they are not saved with
+     * the GameEngine. They are looked up again when it is read back.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+        in.defaultReadObject();
+        commandRegistry = CommandRegistry.getDefault();
+        commandParser = new CommandParser(commandRegistry);
     }
 
 }
@@ -1,7 +1,27 @@
 package GameEngine;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
 
 /**
  * The GameHistory class stores all Actions that have have been taken
@@ -9,11 +29,36 @@ import java.util.ArrayList;
  * It provides utility functions so that the UI can iterate through the contents
  * of the list. 
  * 
+ * Only the most recent turns are held in memory. Once the in-memory tail grows past
+ * TAIL_CAPACITY, the oldest turns are spilled to an append-only segment file, so neither
+ * the heap nor the save file grows with the length of the game. Because the segment is
+ * append-only, a saved GameHistory only needs to remember how much of the segment belonged
+ * to it at the time of the save.
+ * 
+ * The segment is never cut short, because every save of the game (the save file, its older
+ * generations, the save slots and the journal snapshots) shares it, and each only reads as far
+ * as its own spilledBytes. When a loaded GameHistory spills and finds that the segment has
+ * grown past its own end - another copy of the game has played on from the same point - it
+ * forks: the part of the segment that belongs to it is copied to a new segment, and the turns
+ * are appended there instead. A segment is only deleted when no save refers to it (see
+ * deleteUnreferencedSegments()).
+ * 
  * @author Samuel J. Brookes (u5380100)
  */
 public class GameHistory implements Serializable {
     
+    private static final String SEGMENT_DIRECTORY = "res/history";
+    private static final int TAIL_CAPACITY = 200;
+    private static final int SPILL_BATCH = 100;
+    private static final String SEGMENT_EXTENSION = ".seg";
+    private static final Object segmentLock = new Object(); //held while a segment is appended to, forked or deleted
+    private static final Set<GameHistory> openHistories = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<GameHistory, Boolean>()));
+
     private ArrayList<ActionConsequence> actionsAndConsequences;
+    private String segmentPath;
+    private int spilledTurns;
+    private long spilledBytes;
+    private transient long[] spilledOffsets;
 
     /**
      * The constructor of the GameHistory class initializes
@@ -21,6 +66,10 @@ public class GameHistory implements Serializable {
      */
     public GameHistory(){
         this.actionsAndConsequences = new ArrayList<ActionConsequence>();
+        this.spilledTurns = 0;
+        this.spilledBytes = 0;
+        this.spilledOffsets = new long[0];
+        openHistories.add(this);
     }
 
     /**
@@ -30,44 +79,391 @@ public class GameHistory implements Serializable {
      * @param action (Action) The action to store
      * @param consequence (Consequence) The corresponding consequence for that action
      */
-    public void append(Action action, Consequence consequence){
+    public synchronized void append(Action action, Consequence consequence){
         actionsAndConsequences.add(new ActionConsequence(action, consequence));
+        if(actionsAndConsequences.size() >= TAIL_CAPACITY + SPILL_BATCH){
+            spill(SPILL_BATCH);
+        }
     }
 
     /**
      * Utility function for iterating through a GameHistory.
-     * 
-     * @return (int) the size of the array list in the GameHistory object
+     *
+     * @return (int) the number of turns in the GameHistory object
      */
-    public int size(){
-        return actionsAndConsequences.size();
+    public synchronized int size(){
+        return spilledTurns + actionsAndConsequences.size();
     }
 
     /**
      * Utiltiy function for iterating through a GameHistory.
-     * 
+     *
      * @param index (int) the current index in the loop
      * @return (Action) the action at that index
      */
-    public Action getAction(int index){
-        return actionsAndConsequences.get(index).action;
+    public synchronized Action getAction(int index){
+        if(index >= spilledTurns){
+            return actionsAndConsequences.get(index - spilledTurns).action;
+        }
+        return getPage(index, 1).get(0).toAction();
     }
 
     /**
      * Utility function for iterating through a GameHistory.
-     * 
+     *
      * @param index (int) the current index in the loop
      * @return (Consequence) the consequence at that index
      */
-    public Consequence getConsequence(int index){
-        return actionsAndConsequences.get(index).consequence;
+    public synchronized Consequence getConsequence(int index){
+        if(index >= spilledTurns){
+            return actionsAndConsequences.get(index - spilledTurns).consequence;
+        }
+        return getPage(index, 1).get(0).toConsequence();
+    }
+
+    /**
+     * The getPage() function returns a page of consecutive turns from the history,
+     * reading them from the segment file if they are no longer held in memory.
+     *
+     * @param firstTurn (int) the index of the first turn in the page
+     * @param pageSize (int) the maximum number of turns in the page
+     * @return (List<Turn>) the turns in the page - this is shorter than pageSize at the end of the history
+     */
+    public synchronized List<Turn> getPage(int firstTurn, int pageSize){
+        int lastTurn = Math.min(firstTurn + pageSize, size());
+        ArrayList<Turn> page = new ArrayList<Turn>(Math.max(lastTurn - firstTurn, 0));
+        if(firstTurn < spilledTurns){
+            readSpilledTurns(firstTurn, Math.min(lastTurn, spilledTurns), page);
+        }
+        for(int i = Math.max(firstTurn, spilledTurns); i < lastTurn; i++){
+            page.add(new Turn(actionsAndConsequences.get(i - spilledTurns)));
+        }
+        return page;
+    }
+
+    /**
+     * The pages() function allows the whole history to be iterated through
+     * one page at a time, so that only one page is ever held in memory.
+     *
+     * @param pageSize (int) the number of turns in each page
+     * @return (Iterable<List<Turn>>) the pages of the history, oldest first
+     */
+    public Iterable<List<Turn>> pages(int pageSize){
+        return () -> new Iterator<List<Turn>>(){
+            private int nextTurn = 0;
+
+            @Override
+            public boolean hasNext(){
+                return nextTurn < size();
+            }
+
+            @Override
+            public List<Turn> next(){
+                if(!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                List<Turn> page = getPage(nextTurn, pageSize);
+                nextTurn += page.size();
+                return page;
+            }
+        };
+    }
+
+    /**
+     * The spill() function moves the oldest turns from memory to the end
+     * of the segment file.
+     *
+     * @param count (int) the number of turns to spill
+     */
+    private void spill(int count){
+        long[] offsets = Arrays.copyOf(getSpilledOffsets(), spilledTurns + count);
+        long position = spilledBytes;
+        synchronized(segmentLock){
+            try{
+                if(segmentPath == null){
+                    new File(SEGMENT_DIRECTORY).mkdirs();
+                    segmentPath = newSegmentPath();
+                }else if(new File(segmentPath).length() != spilledBytes){
+                    segmentPath = fork(segmentPath, spilledBytes);
+                }
+                try(DataOutputStream segment = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segmentPath, true)))){
+                    for(int i = 0; i < count; i++){
+                        offsets[spilledTurns + i] = position;
+                        position += new Turn(actionsAndConsequences.get(i)).write(segment);
+                    }
+                }
+            }catch(IOException e){
+                e.printStackTrace();
+                return; //keep the turns in memory rather than lose them
+            }
+        }
+
+        actionsAndConsequences.subList(0, count).clear();
+        spilledOffsets = offsets;
+        spilledTurns += count;
+        spilledBytes = position;
+    }
+
+    /**
+     * The fork() function copies the part of a segment that belongs to this GameHistory to a
+     * new segment, so that turns can be appended after it without overwriting the turns that
+     * another copy of the game appended to the old segment.
+     *
+     * @param path (String) the segment that is shared
+     * @param length (long) the number of bytes of it that belong to this GameHistory
+     * @return (String) the path of the new segment
+     * @throws IOException if the segment cannot be copied
+     */
+    private static String fork(String path, long length) throws IOException{
+        String forkPath = newSegmentPath();
+        try(FileChannel source = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ);
+            FileChannel target = FileChannel.open(new File(forkPath).toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)){
+            if(source.size() < length){
+                throw new IOException("the history segment " + path + " is shorter than the game that uses it");
+            }
+            for(long copied = 0; copied < length; ){
+                copied += source.transferTo(copied, length - copied, target);
+            }
+        }catch(IOException e){
+            new File(forkPath).delete();
+            throw e;
+        }
+        return forkPath;
+    }
+
+    private static String newSegmentPath(){
+        return new File(SEGMENT_DIRECTORY, UUID.randomUUID().toString() + SEGMENT_EXTENSION).getPath();
+    }
+
+    /**
+     * The readSpilledTurns() function reads a run of consecutive turns from the segment file.
+     *
+     * @param firstTurn (int) the first turn to read
+     * @param lastTurn (int) the turn after the last turn to read
+     * @param page (List<Turn>) the list that the turns are added to
+     */
+    private void readSpilledTurns(int firstTurn, int lastTurn, List<Turn> page){
+        long[] offsets = getSpilledOffsets();
+        try(RandomAccessFile segment = new RandomAccessFile(segmentPath, "r")){
+            segment.seek(offsets[firstTurn]);
+            for(int i = firstTurn; i < lastTurn; i++){
+                page.add(Turn.read(segment));
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Utility function that returns the offset of every spilled turn in the segment file.
+     * The offsets are not saved with the GameHistory, so they are rebuilt by scanning the
+     * segment the first time they are needed after a load.
+     *
+     * @return (long[]) the offset of each spilled turn
+     */
+    private long[] getSpilledOffsets(){
+        if(spilledOffsets == null){
+            long[] offsets = new long[spilledTurns];
+            try(RandomAccessFile segment = new RandomAccessFile(segmentPath, "r")){
+                for(int i = 0; i < spilledTurns; i++){
+                    offsets[i] = segment.getFilePointer();
+                    Turn.read(segment);
+                }
+                if(segment.getFilePointer() != spilledBytes){ //anything after spilledBytes belongs to another copy of the game
+                    throw new IOException("the history segment " + segmentPath + " does not match the game that uses it");
+                }
+            }catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+            spilledOffsets = offsets;
+        }
+        return spilledOffsets;
+    }
+
+    /**
+     * Utility function that returns the segment file that the spilled turns are in.
+     *
+     * @return (String) the path of the segment, or null if no turns have been spilled
+     */
+    public synchronized String getSegmentPath(){
+        return segmentPath;
+    }
+
+    /**
+     * The deleteUnreferencedSegments() function deletes the segment files that no save refers
+     * to and that no GameHistory in memory is using, e.g. the segments of deleted saves.
+     * Segments that were last changed before the given time are kept, as the saves made
+     * before then are not known.
+     *
+     * @param referencedSegments (Set<String>) the segment of every save that is kept
+     * @param since (long) when the saves started to be known, in milliseconds since the epoch
+     * @return (int) the number of segments deleted
+     */
+    public static int deleteUnreferencedSegments(Set<String> referencedSegments, long since){
+        HashSet<String> kept = new HashSet<String>();
+        for(String path : referencedSegments){
+            kept.add(new File(path).getName());
+        }
+        synchronized(segmentLock){
+            synchronized(openHistories){
+                for(GameHistory gameHistory : openHistories){
+                    String path = gameHistory.segmentPath; //only changed under segmentLock, so its own lock is not needed
+                    if(path != null){
+                        kept.add(new File(path).getName());
+                    }
+                }
+            }
+            int deleted = 0;
+            File[] segments = new File(SEGMENT_DIRECTORY).listFiles((directory, name) -> name.endsWith(SEGMENT_EXTENSION));
+            for(File segment : segments == null ? new File[0] : segments){
+                if(!kept.contains(segment.getName()) && segment.lastModified() >= since && segment.delete()){
+                    deleted++;
+                }
+            }
+            return deleted;
+        }
+    }
+
+    /**
+     * Restores a saved GameHistory. The segment file is left as it is, since other saves may
+     * use the turns after this one's end - they are forked off when this GameHistory next spills.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+        in.defaultReadObject();
+        openHistories.add(this);
+    }
+
+    /**
+     * The Turn class is a read-only copy of one Action and its Consequence,
+     * in the form that is needed to render it. This is the form that turns
+     * take in the segment file.
+     */
+    public static class Turn {
+
+        private final String actionText;
+        private final String consequenceText;
+        private final int heroHealth;
+        private final int heroAttackPower;
+        private final int heroDefence;
+
+        private Turn(String actionText, String consequenceText, int heroHealth, int heroAttackPower, int heroDefence){
+            this.actionText = actionText;
+            this.consequenceText = consequenceText;
+            this.heroHealth = heroHealth;
+            this.heroAttackPower = heroAttackPower;
+            this.heroDefence = heroDefence;
+        }
+
+        private Turn(ActionConsequence actionConsequence){
+            this(
+                actionConsequence.consequence.getActionText(),
+                actionConsequence.consequence.getConsequenceDescription() != null ? actionConsequence.consequence.getConsequenceDescription() : "", //not kept if it was only written to a sink
+                actionConsequence.consequence.getCurrentHeroHealth(),
+                actionConsequence.consequence.getCurrentHeroAttackPower(),
+                actionConsequence.consequence.getCurrentHeroDefence()
+            );
+        }
+
+        /**
+         * Utility function that returns the action taken this turn, as it was rendered.
+         *
+         * @return (String) the action text
+         */
+        public String getActionText(){
+            return actionText;
+        }
+
+        /**
+         * Utility function that returns the consequence of this turn, as it was rendered.
+         *
+         * @return (String) the consequence text
+         */
+        public String getConsequenceText(){
+            return consequenceText;
+        }
+
+        /**
+         * Utility function that returns the hero's health at the end of this turn.
+         *
+         * @return (int) the hero's health
+         */
+        public int getHeroHealth(){
+            return heroHealth;
+        }
+
+        /**
+         * Utility function that returns the hero's attack power at the end of this turn.
+         *
+         * @return (int) the hero's attack power
+         */
+        public int getHeroAttackPower(){
+            return heroAttackPower;
+        }
+
+        /**
+         * Utility function that returns the hero's defence at the end of this turn.
+         *
+         * @return (int) the hero's defence
+         */
+        public int getHeroDefence(){
+            return heroDefence;
+        }
+
+        private Action toAction(){
+            return new Action(actionText);
+        }
+
+        private Consequence toConsequence(){
+            Consequence consequence = new Consequence();
+            consequence.setAction(toAction());
+            consequence.addToConsequence(consequenceText);
+            consequence.updateHeroHealth(heroHealth);
+            consequence.updateHeroAttackPower(heroAttackPower);
+            consequence.updateHeroDefence(heroDefence);
+            return consequence;
+        }
+
+        /**
+         * Writes this turn to the segment file.
+         *
+         * @return (int) the number of bytes written
+         */
+        private int write(DataOutputStream out) throws IOException{
+            byte[] action = actionText.getBytes(StandardCharsets.UTF_8);
+            byte[] consequence = consequenceText.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(action.length);
+            out.write(action);
+            out.writeInt(consequence.length);
+            out.write(consequence);
+            out.writeInt(heroHealth);
+            out.writeInt(heroAttackPower);
+            out.writeInt(heroDefence);
+            return 4 + action.length + 4 + consequence.length + 12;
+        }
+
+        /**
+         * Reads the turn at the current position of the segment file.
+         */
+        private static Turn read(RandomAccessFile in) throws IOException{
+            byte[] action = new byte[in.readInt()];
+            in.readFully(action);
+            byte[] consequence = new byte[in.readInt()];
+            in.readFully(consequence);
+            return new Turn(
+                new String(action, StandardCharsets.UTF_8),
+                new String(consequence, StandardCharsets.UTF_8),
+                in.readInt(),
+                in.readInt(),
+                in.readInt()
+            );
+        }
     }
 
     /**
      * The ActionConsequenc class is a private utility class
      * that allows an Action and it's corresponding Consequence
      * to be stored as a single element in an ArrayList.
-     * 
+     *
      * It serves no purpose beyond that.
      */
     private class ActionConsequence implements Serializable{
@@ -1,15 +1,26 @@
 package GameEngine;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Random;
 
+import Story.Command;
+import Story.Container;
+import Story.Enemy;
 import Story.Hero;
 import Story.Item;
 import Story.Mode;
+import Story.NonPlayerCharacter;
 import Story.Passage;
 import Story.Room;
+import Story.Rule;
 import Story.Story;
 
 /**
@@ -27,6 +38,26 @@ public class GameState implements Serializable {
     private Mode currentMode;
     private int currentRoomIndex;
     private Arena arena;
+    private long seed;
+    private Random random;
+    private GameTimeline timeline;
+    private BitSet firedRules;
+    private HashMap<Integer, Integer> variables; //the story variables set by scripts, by symbol
+    private TimingWheel worldClock; //the story's timers, made when the first one is started
+    private long idleTicks; //ticks of wall clock time that have passed since the last turn
+    private long wallClockMillis;
+    private transient LinkedHashMap<Integer, RenderedRoom> exploreCache;
+    private transient PathFinder pathFinder;
+    private transient EntityLocator entityLocator;
+    private transient CommandCompleter commandCompleter;
+    private transient TargetCorrector targetCorrector;
+    private transient LinkedHashMap<Integer, PhraseMatcher<String>> responseMatchers;
+    private transient LinkedHashMap<Integer, PhraseMatcher<Integer>> passphraseMatchers;
+    private transient RuleNetwork ruleNetwork;
+    private transient ArrayDeque<Long> ruleEvents;
+
+    private static final int EXPLORE_CACHE_SIZE = 256;
+    private static final int PHRASE_CACHE_SIZE = 256;
     
     /**
      * The constructor for the GameState class requires a Hero
@@ -36,12 +67,38 @@ public class GameState implements Serializable {
      * @param story (Story) the Story that the hero will play
      */
     public GameState(Hero hero, Story story){
+        this(hero, story, new Random().nextLong());
+    }
+
+    /**
+     * The constructor for a GameState whose dice are rolled from the given seed. Two games
+     * with the same story and seed that are sent the same commands end in the same state,
+     * which is what allows a GameJournal to rebuild a game by replaying it.
+     *
+     * @param hero (Hero) the hero that will be the avatar throughout the game
+     * @param story (Story) the Story that the hero will play
+     * @param seed (long) the seed for the game's random number generator
+     */
+    public GameState(Hero hero, Story story, long seed){
         this.hero = hero;
         this.story = story;
+        this.seed = seed;
+        this.random = new Random(seed);
 
         gameHistory = new GameHistory();
         currentRoomIndex = 0;
         currentMode = Mode.EXPLORATION;
+        timeline = new GameTimeline(this);
+        story.enterRoom(currentRoomIndex); //where the hero starts
+    }
+
+    /**
+     * A story that only keeps the rooms around the hero in memory (e.g. a LazyStory) does
+     * not save which room the hero is in, so it is told again when the game is loaded.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+        in.defaultReadObject();
+        story.enterRoom(currentRoomIndex);
     }
 
     /**
@@ -60,6 +117,8 @@ public class GameState implements Serializable {
      */
     public void updateStory(Story story){
         this.story = story;
+        ruleNetwork = null;
+        story.enterRoom(currentRoomIndex);
     }
     
     /**
@@ -70,6 +129,8 @@ public class GameState implements Serializable {
      */
     public void moveToNewRoom(Passage passage){
         currentRoomIndex = passage.getRoomIndex(); 
+        story.enterRoom(currentRoomIndex);
+        raiseEvent(Rule.Event.ENTER_ROOM, currentRoomIndex);
     }
 
     /**
@@ -81,6 +142,38 @@ public class GameState implements Serializable {
         return story.getRoom(currentRoomIndex);
     }
 
+    /**
+     * Utility function to retrieve the index of the room that the player is in.
+     *
+     * @return (int) the index of the current room
+     */
+    public int getCurrentRoomIndex(){
+        return currentRoomIndex;
+    }
+
+    /**
+     * The restorePosition() function puts the player back in a room and mode, e.g. when
+     * a move is undone. Any fight in progress is abandoned.
+     *
+     * @param roomIndex (int) the index of the room
+     * @param mode (Mode) the game mode
+     */
+    void restorePosition(int roomIndex, Mode mode){
+        currentRoomIndex = roomIndex;
+        currentMode = mode;
+        arena = null;
+        story.enterRoom(currentRoomIndex);
+    }
+
+    /**
+     * Utility function that retrieves the versions of the game that are kept for UNDO and REDO.
+     *
+     * @return (GameTimeline) the game's timeline
+     */
+    public GameTimeline getTimeline(){
+        return timeline;
+    }
+
     /**
      * Utility function to change the current room to a new one.
      * 
@@ -88,10 +181,501 @@ public class GameState implements Serializable {
      */
     public void updateCurrentRoom(Room room){
         HashMap<Integer, Room> rooms = story.getRooms();
+        room.bumpStateVersion();
         rooms.put(currentRoomIndex, room);
         story.setRooms(rooms);
     }
 
+    /**
+     * The updatePassage() function saves a passage that has changed (e.g. it has been unlocked)
+     * and bumps the state version of every room that the passage can be seen from.
+     *
+     * @param passage (Passage) the passage that has changed
+     */
+    public void updatePassage(Passage passage){
+        story.getPassages().put(passage.getPassageIndex(), passage);
+        timeline.markPassage(passage.getPassageIndex());
+        for(Room room : getEntityLocator().getPassageRooms(passage.getPassageIndex())){
+            room.bumpStateVersion();
+            if(pathFinder != null){
+                pathFinder.passageChanged(room.getRoomIndex(), passage.getRoomIndex());
+            }
+        }
+    }
+
+    /**
+     * The updateContainer() function saves a container that has changed (e.g. it has been
+     * unlocked or looted) and bumps the state version of the rooms that it is in.
+     *
+     * @param container (Container) the container that has changed
+     */
+    public void updateContainer(Container container){
+        story.getContainers().put(container.getContainerIndex(), container);
+        timeline.markContainer(container.getContainerIndex());
+        for(Room room : getEntityLocator().getContainerRooms(container.getContainerIndex())){
+            room.bumpStateVersion();
+        }
+    }
+
+    /**
+     * The updateEnemy() function saves an enemy that has changed (e.g. it has been
+     * killed) and bumps the state version of the rooms that it is in.
+     *
+     * @param enemy (Enemy) the enemy that has changed
+     */
+    public void updateEnemy(Enemy enemy){
+        story.getEnemies().put(enemy.getEnemyIndex(), enemy);
+        timeline.markEnemy(enemy.getEnemyIndex());
+        for(Room room : getEntityLocator().getEnemyRooms(enemy.getEnemyIndex())){
+            room.bumpStateVersion();
+        }
+    }
+
+    /**
+     * The updateNonPlayerCharacter() function saves an NPC that has changed (e.g. it is now
+     * waiting for a response) and bumps the state version of the rooms that it is in.
+     *
+     * @param npc (NonPlayerCharacter) the npc that has changed
+     */
+    public void updateNonPlayerCharacter(NonPlayerCharacter npc){
+        story.getNonPlayerCharacters().put(npc.getCharacterIndex(), npc);
+        timeline.markNonPlayerCharacter(npc.getCharacterIndex());
+        for(Room room : getEntityLocator().getNonPlayerCharacterRooms(npc.getCharacterIndex())){
+            room.bumpStateVersion();
+        }
+    }
+
+    /**
+     * The updateItem() function saves an item that has changed (e.g. it has been consumed).
+     * Items are not shown by EXPLORE, so no room needs to be rendered again.
+     *
+     * @param item (Item) the item that has changed
+     */
+    public void updateItem(Item item){
+        story.getItems().put(item.getIndex(), item);
+        timeline.markItem(item.getIndex());
+    }
+
+    /**
+     * Utility function that returns the EntityLocator that finds the rooms an entity is in.
+     * It is not saved with the GameState.
+     *
+     * @return (EntityLocator) the entity locator for the current story
+     */
+    private EntityLocator getEntityLocator(){
+        if(entityLocator == null || entityLocator.getStory() != story){
+            entityLocator = new EntityLocator(story);
+        }
+        return entityLocator;
+    }
+
+    /**
+     * Utility function that returns the PathFinder for GO TO. Its searches are not saved with
+     * the GameState.
+     *
+     * @return (PathFinder) the path finder of this game
+     */
+    public PathFinder getPathFinder(){
+        if(pathFinder == null){
+            pathFinder = new PathFinder();
+        }
+        return pathFinder;
+    }
+
+    /**
+     * Utility function that returns the CommandCompleter for this game. Its tries are not
+     * saved with the GameState.
+     *
+     * @return (CommandCompleter) the command completer of this game
+     */
+    public CommandCompleter getCommandCompleter(){
+        if(commandCompleter == null){
+            commandCompleter = new CommandCompleter(CommandRegistry.getDefault());
+        }
+        return commandCompleter;
+    }
+
+    /**
+     * Utility function that returns the TargetCorrector for this game. Its trees are not
+     * saved with the GameState.
+     *
+     * @return (TargetCorrector) the target corrector of this game
+     */
+    public TargetCorrector getTargetCorrector(){
+        if(targetCorrector == null){
+            targetCorrector = new TargetCorrector();
+        }
+        return targetCorrector;
+    }
+
+    /**
+     * Utility function that returns the RuleNetwork that runs the story's rules. It is
+     * compiled the first time it is needed, and is not saved with the GameState.
+     *
+     * @return (RuleNetwork) the rule network of this game
+     */
+    public RuleNetwork getRuleNetwork(){
+        if(ruleNetwork == null){
+            ruleNetwork = new RuleNetwork(story);
+        }
+        return ruleNetwork;
+    }
+
+    /**
+     * The raiseEvent() function records that something happened that a rule may wait for,
+     * e.g. the hero entering a room. The event is only kept if a rule waits for it, and the
+     * rules are fired at the end of the turn (see fireRules()).
+     *
+     * @param event (Rule.Event) what happened
+     * @param target (int) the index of the room, item or enemy it happened to, the symbol of the phrase that was said, or Rule.ANY_TARGET
+     */
+    public void raiseEvent(Rule.Event event, int target){
+        RuleNetwork network = getRuleNetwork();
+        if(network.isEmpty() || !network.waitsFor(event, target)){
+            return;
+        }
+        if(ruleEvents == null){
+            ruleEvents = new ArrayDeque<Long>();
+        }
+        ruleEvents.add(RuleNetwork.getKey(event, target));
+    }
+
+    /**
+     * The fireRules() function fires the rules that wait for the events raised this turn.
+     * Nothing is looked at if no event that a rule waits for was raised.
+     *
+     * @param consequence (Consequence) the consequence to add the text of the rules to
+     */
+    public void fireRules(Consequence consequence){
+        if(ruleEvents != null && !ruleEvents.isEmpty()){
+            getRuleNetwork().fire(this, ruleEvents, consequence);
+        }
+    }
+
+    /**
+     * Utility function that checks whether a rule has fired in this game.
+     *
+     * @param ruleIndex (int) the index of the rule
+     * @return (boolean) true if the rule has fired
+     */
+    public boolean hasRuleFired(int ruleIndex){
+        return firedRules != null && firedRules.get(ruleIndex);
+    }
+
+    /**
+     * Utility function that records whether a rule has fired, e.g. when a move is undone.
+     *
+     * @param ruleIndex (int) the index of the rule
+     * @param fired (boolean) true if the rule has fired
+     */
+    void setRuleFired(int ruleIndex, boolean fired){
+        if(hasRuleFired(ruleIndex) == fired){
+            return;
+        }
+        if(firedRules == null){
+            firedRules = new BitSet();
+        }
+        firedRules.set(ruleIndex, fired);
+        timeline.markRule(ruleIndex);
+    }
+
+    /**
+     * Utility function that returns the value of a story variable (see ScriptCompiler).
+     *
+     * @param variable (int) the symbol of the variable's name
+     * @return (int) the value of the variable, which is 0 until a script sets it
+     */
+    public int getVariable(int variable){
+        Integer value = variables == null ? null : variables.get(variable);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Utility function that sets a story variable, e.g. from a script or when a move is undone.
+     *
+     * @param variable (int) the symbol of the variable's name
+     * @param value (int) the new value
+     */
+    void setVariable(int variable, int value){
+        if(getVariable(variable) == value){
+            return;
+        }
+        if(variables == null){
+            variables = new HashMap<Integer, Integer>();
+        }
+        if(value == 0){
+            variables.remove(variable);
+        }else{
+            variables.put(variable, value);
+        }
+        timeline.markVariable(variable);
+    }
+
+    /**
+     * The tickWorld() function moves the world on by one turn, plus any wall clock time that
+     * has passed since the last turn (see catchUpWallClock()), and raises a TIMER event for
+     * each timer that runs out. Nothing is done if no timer is running.
+     */
+    public void tickWorld(){
+        long ticks = 1 + idleTicks;
+        idleTicks = 0;
+        if(worldClock == null || worldClock.size() == 0){
+            return;
+        }
+        worldClock.advance(ticks, timer -> {
+            timeline.markTimer(timer);
+            raiseEvent(Rule.Event.TIMER, timer);
+        });
+    }
+
+    /**
+     * The catchUpWallClock() function counts the ticks of wall clock time that have passed
+     * since it was last called, e.g. on a server where the world moves on while the player
+     * is away. The ticks are added to the next turn.
+     *
+     * @param nowMillis (long) the current time, in milliseconds
+     * @param millisPerTick (long) how much wall clock time is one tick
+     */
+    public void catchUpWallClock(long nowMillis, long millisPerTick){
+        if(wallClockMillis == 0 || nowMillis < wallClockMillis){
+            wallClockMillis = nowMillis;
+            return;
+        }
+        long ticks = (nowMillis - wallClockMillis) / millisPerTick;
+        idleTicks += ticks;
+        wallClockMillis += ticks * millisPerTick;
+    }
+
+    /**
+     * Utility function that returns how many turns are left until a timer runs out.
+     *
+     * @param timer (int) the number of the timer
+     * @return (int) the number of turns left, or 0 if the timer is not running
+     */
+    public int getTimerTurns(int timer){
+        long deadline = getTimerDeadline(timer);
+        return deadline < 0 ? 0 : (int) Math.min(deadline - worldClock.getNow(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Utility function that starts a timer, or starts it again if it is already running.
+     *
+     * @param timer (int) the number of the timer
+     * @param turns (int) the number of turns until it runs out
+     */
+    void startTimer(int timer, int turns){
+        if(worldClock == null){
+            worldClock = new TimingWheel();
+        }
+        worldClock.schedule(timer, turns);
+        timeline.markTimer(timer);
+    }
+
+    /**
+     * Utility function that stops a timer before it runs out.
+     *
+     * @param timer (int) the number of the timer
+     */
+    void cancelTimer(int timer){
+        if(worldClock != null && worldClock.cancel(timer)){
+            timeline.markTimer(timer);
+        }
+    }
+
+    long getWorldTick(){
+        return worldClock == null ? 0 : worldClock.getNow();
+    }
+
+    long getTimerDeadline(int timer){
+        return worldClock == null ? -1 : worldClock.getDeadline(timer);
+    }
+
+    /**
+     * Utility function that sets the world clock back to an earlier version of the game, when
+     * a move is undone, keeping the deadlines of the running timers.
+     *
+     * @param tick (long) the tick of the version
+     */
+    void restoreWorldTick(long tick){
+        if(worldClock == null){
+            worldClock = new TimingWheel();
+        }
+        if(worldClock.getNow() != tick){
+            worldClock.reset(tick);
+        }
+    }
+
+    /**
+     * Utility function that sets a timer back to an earlier version of the game.
+     *
+     * @param timer (int) the number of the timer
+     * @param deadline (long) the tick at which it runs out, or -1 if it was not running
+     */
+    void restoreTimer(int timer, long deadline){
+        if(deadline < 0){
+            cancelTimer(timer);
+        }else{
+            if(worldClock == null){
+                worldClock = new TimingWheel();
+            }
+            worldClock.scheduleAt(timer, deadline);
+        }
+    }
+
+    /**
+     * The getExploreText() function returns the EXPLORE text that was last rendered for a room,
+     * as long as nothing in the room has changed since it was rendered.
+     *
+     * @param room (Room) the room being explored
+     * @return (String) the cached text, or null if it needs to be rendered again
+     */
+    public String getExploreText(Room room){
+        if(exploreCache == null){
+            return null;
+        }
+        RenderedRoom rendered = exploreCache.get(room.getRoomIndex());
+        return rendered != null && rendered.stateVersion == room.getStateVersion() ? rendered.text : null;
+    }
+
+    /**
+     * The cacheExploreText() function stores the EXPLORE text that has been rendered for
+     * a room at its current state version. The cache is not saved with the GameState.
+     *
+     * @param room (Room) the room that was explored
+     * @param text (String) the rendered text
+     */
+    public void cacheExploreText(Room room, String text){
+        if(exploreCache == null){
+            //only the most recently explored rooms are kept, as an endless dungeon has no last room
+            exploreCache = newLeastRecentlyUsedCache(EXPLORE_CACHE_SIZE);
+        }
+        exploreCache.put(room.getRoomIndex(), new RenderedRoom(room.getStateVersion(), text));
+    }
+
+    /**
+     * The getResponseMatcher() function returns the PhraseMatcher for the answers that a
+     * NonPlayerCharacter understands. The values are the keys of the NPC's responses. The
+     * answers never change, so the matcher is built once and kept (but not saved).
+     *
+     * @param npc (NonPlayerCharacter) the npc that is waiting for a response
+     * @return (PhraseMatcher<String>) the matcher for the npc's responses
+     */
+    public PhraseMatcher<String> getResponseMatcher(NonPlayerCharacter npc){
+        if(responseMatchers == null){
+            responseMatchers = newLeastRecentlyUsedCache(PHRASE_CACHE_SIZE);
+        }
+        PhraseMatcher<String> matcher = responseMatchers.get(npc.getCharacterIndex());
+        if(matcher == null){
+            HashMap<String, String> answers = new HashMap<String, String>();
+            for(String key : npc.getResponses().keySet()){
+                answers.put(key, key);
+            }
+            matcher = new PhraseMatcher<String>(answers);
+            responseMatchers.put(npc.getCharacterIndex(), matcher);
+        }
+        return matcher;
+    }
+
+    /**
+     * The getPassphraseMatcher() function returns the PhraseMatcher for the passphrases that
+     * can be said in a room - the keys of its passages and containers that are SAY commands.
+     * The values are the symbols of the keys. Keys never change, so the matcher is built once
+     * and kept (but not saved), whether or not the passage or container is still locked.
+     *
+     * @param room (Room) the room the hero is in
+     * @return (PhraseMatcher<Integer>) the matcher for the room's passphrases
+     */
+    public PhraseMatcher<Integer> getPassphraseMatcher(Room room){
+        if(passphraseMatchers == null){
+            passphraseMatchers = newLeastRecentlyUsedCache(PHRASE_CACHE_SIZE);
+        }
+        PhraseMatcher<Integer> matcher = passphraseMatchers.get(room.getRoomIndex());
+        if(matcher == null){
+            internVisibleSymbols();
+            HashMap<String, Integer> passphrases = new HashMap<String, Integer>();
+            for(int passageIndex : room.getPassages().values()){
+                Passage passage = story.getPassage(passageIndex);
+                if(passage != null){
+                    addPassphrase(passphrases, passage.getKey(), passage.getKeySymbol());
+                }
+            }
+            for(int containerIndex : room.getContainers()){
+                Container container = story.getContainer(containerIndex);
+                if(container != null){
+                    addPassphrase(passphrases, container.getKey(), container.getKeySymbol());
+                }
+            }
+            matcher = new PhraseMatcher<Integer>(passphrases);
+            passphraseMatchers.put(room.getRoomIndex(), matcher);
+        }
+        return matcher;
+    }
+
+    private static void addPassphrase(HashMap<String, Integer> passphrases, String key, int keySymbol){
+        String say = Command.SAY.name() + " ";
+        if(key != null && key.startsWith(say)){
+            passphrases.put(key.substring(say.length()), keySymbol);
+        }
+    }
+
+    /**
+     * The internVisibleSymbols() function makes sure that the names and keys of everything
+     * the player can use a command on - the containers, enemies, npcs and passages in the
+     * current room and the items in the inventory - are in the story's SymbolTable, so that
+     * the targets of commands can be compared with them as symbols. Things that are already
+     * interned are skipped, so for a fully loaded story this only checks their symbols.
+     */
+    public void internVisibleSymbols(){
+        Room room = getCurrentRoom();
+        for(int index : room.getContainers()){
+            story.internSymbols(story.getContainer(index));
+        }
+        for(int index : room.getEnemies()){
+            story.internSymbols(story.getEnemy(index));
+        }
+        for(int index : room.getNonPlayerCharacters()){
+            story.internSymbols(story.getNonPlayerCharacter(index));
+        }
+        for(int index : room.getPassages().values()){
+            story.internSymbols(story.getPassage(index));
+        }
+        for(int index : hero.getInventory().keySet()){
+            story.internSymbols(story.getItem(index));
+        }
+    }
+
+    /**
+     * Utility function that makes a map that only keeps the size entries that were used
+     * most recently, for the caches that are kept by room or by NPC.
+     */
+    private static <V> LinkedHashMap<Integer, V> newLeastRecentlyUsedCache(int maxSize){
+        return new LinkedHashMap<Integer, V>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, V> eldest){
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Utility function that retrieves the seed that the game was started with.
+     *
+     * @return (long) the seed of the game's random number generator
+     */
+    public long getSeed(){
+        return seed;
+    }
+
+    /**
+     * Utility function that retrieves the game's random number generator. It is saved
+     * with the GameState, so a loaded game carries on rolling the same dice.
+     *
+     * @return (Random) the random number generator
+     */
+    public Random getRandom(){
+        return random;
+    }
+
     /**
      * Utility function to retrieve the hero from the game state.
      * 
@@ -121,6 +705,31 @@ public class GameState implements Serializable {
         return equippedItems;
     }
 
+    /**
+     * The addToInventory() function puts an item in the hero's inventory, and tells the
+     * timeline that it has changed.
+     *
+     * @param item (Item) the item the hero has taken
+     */
+    public void addToInventory(Item item){
+        hero.getInventory().put(item.getIndex(), item.isEquippable());
+        hero.bumpInventoryVersion();
+        timeline.markInventory(item.getIndex());
+    }
+
+    /**
+     * The removeFromInventory() function takes an item out of the hero's inventory, and
+     * tells the timeline that it has changed.
+     *
+     * @param itemIndex (int) the index of the item
+     */
+    public void removeFromInventory(int itemIndex){
+        if(hero.getInventory().remove(itemIndex) != null){
+            hero.bumpInventoryVersion();
+            timeline.markInventory(itemIndex);
+        }
+    }
+
     /**
      * Utility function to change the hero in the gamestate
      * to a new hero. 
@@ -247,4 +856,19 @@ public class GameState implements Serializable {
         }
         return hero.getDefense() + defModifier;
     }
+
+    /**
+     * The RenderedRoom class is a private utility class that pairs
+     * rendered text with the state version of the room it was rendered from.
+     */
+    private static class RenderedRoom {
+
+        final int stateVersion;
+        final String text;
+
+        RenderedRoom(int stateVersion, String text){
+            this.stateVersion = stateVersion;
+            this.text = text;
+        }
+    }
 }
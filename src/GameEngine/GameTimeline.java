@@ -0,0 +1,542 @@
+package GameEngine;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import Story.Container;
+import Story.Enemy;
+import Story.Hero;
+import Story.Item;
+import Story.Mode;
+import Story.NonPlayerCharacter;
+import Story.Passage;
+import Story.Story;
+
+/**
+ * The GameTimeline class keeps the recent versions of a game so that the player can UNDO
+ * and REDO their moves. Only the parts of the game that change during play are versioned:
+ * the hero's stats and inventory, the flags of the passages, containers, NPCs and items,
+ * the health of the enemies, the rules that have fired, the story variables set by scripts,
+ * the running timers, and the current room and mode. These are held in a Version made of
+ * PersistentIntMaps, so each new version shares everything that did not change with the
+ * version before it and costs only the entities that changed.
+ *
+ * The GameState tells the timeline which entities have changed through its update functions,
+ * and the GameEngine commits a new version at the end of each turn. Turns that change nothing
+ * do not make a version, and a fight is committed as one version when it ends, so UNDO takes
+ * back the last move that actually changed the game.
+ *
+ * The number of versions that are kept is bounded both by depth and by an estimate of the
+ * memory that they hold. A Version is immutable, so the current one can also be handed to
+ * another thread (e.g. a background save) as a consistent snapshot.
+ */
+public class GameTimeline implements Serializable {
+
+    public static final int DEFAULT_DEPTH = 50;
+    public static final long DEFAULT_MEMORY_BOUND = 1L << 20;
+
+    private static final int PASSAGES = 0;
+    private static final int CONTAINERS = 1;
+    private static final int NON_PLAYER_CHARACTERS = 2;
+    private static final int ENEMIES = 3;
+    private static final int ITEMS = 4;
+    private static final int RULES = 5;
+    private static final int VARIABLES = 6;
+    private static final int TIMERS = 7;
+    private static final int INVENTORY = 8;
+
+    private Version current;
+    private final ArrayDeque<Version> undoVersions;
+    private final ArrayDeque<Version> redoVersions;
+    private int maxDepth;
+    private long memoryBound;
+    private long retainedBytes;
+
+    //the indices of the entities of each kind that have changed since the last commit
+    private transient BitSet[] dirty;
+
+    /**
+     * The constructor for the GameTimeline records the first version of the game. This
+     * visits every entity in the story once - every later version only visits what changed.
+     *
+     * @param gameState (GameState) the game state at the start of the story
+     */
+    public GameTimeline(GameState gameState){
+        this.current = Version.capture(gameState);
+        this.undoVersions = new ArrayDeque<Version>();
+        this.redoVersions = new ArrayDeque<Version>();
+        this.maxDepth = DEFAULT_DEPTH;
+        this.memoryBound = DEFAULT_MEMORY_BOUND;
+        this.retainedBytes = 0;
+    }
+
+    /**
+     * The setLimits() function changes how many versions are kept for UNDO. The oldest
+     * versions are dropped straight away if the timeline is now over either limit.
+     *
+     * @param maxDepth (int) the maximum number of moves that can be undone
+     * @param memoryBound (long) the maximum estimated size of the retained versions, in bytes
+     */
+    public synchronized void setLimits(int maxDepth, long memoryBound){
+        this.maxDepth = Math.max(maxDepth, 0);
+        this.memoryBound = Math.max(memoryBound, 0);
+        trim();
+    }
+
+    void markPassage(int passageIndex){
+        getDirty(PASSAGES).set(passageIndex);
+    }
+
+    void markContainer(int containerIndex){
+        getDirty(CONTAINERS).set(containerIndex);
+    }
+
+    void markNonPlayerCharacter(int characterIndex){
+        getDirty(NON_PLAYER_CHARACTERS).set(characterIndex);
+    }
+
+    void markEnemy(int enemyIndex){
+        getDirty(ENEMIES).set(enemyIndex);
+    }
+
+    void markItem(int itemIndex){
+        getDirty(ITEMS).set(itemIndex);
+    }
+
+    void markRule(int ruleIndex){
+        getDirty(RULES).set(ruleIndex);
+    }
+
+    void markVariable(int variable){
+        getDirty(VARIABLES).set(variable);
+    }
+
+    void markTimer(int timer){
+        getDirty(TIMERS).set(timer);
+    }
+
+    void markInventory(int itemIndex){
+        getDirty(INVENTORY).set(itemIndex);
+    }
+
+    /**
+     * The commit() function records the state of the game at the end of a turn as a new
+     * version, if anything has changed. Nothing is committed in the middle of a fight.
+     *
+     * @param gameState (GameState) the game state at the end of the turn
+     * @return (boolean) true if a new version was recorded
+     */
+    public synchronized boolean commit(GameState gameState){
+        if(gameState.getCurrentMode() == Mode.COMBAT){
+            return false;
+        }
+        Version next = current.advance(gameState, getDirty(PASSAGES), getDirty(CONTAINERS), getDirty(NON_PLAYER_CHARACTERS), getDirty(ENEMIES), getDirty(ITEMS), getDirty(RULES), getDirty(VARIABLES), getDirty(TIMERS), getDirty(INVENTORY));
+        clearDirty();
+        if(next == current){
+            return false;
+        }
+
+        undoVersions.addLast(current);
+        retainedBytes += current.bytes;
+        for(Version version : redoVersions){
+            retainedBytes -= version.bytes;
+        }
+        redoVersions.clear();
+        current = next;
+        trim();
+        return true;
+    }
+
+    /**
+     * The undo() function puts the game back to the version before the current one.
+     *
+     * @param gameState (GameState) the game state to restore
+     * @return (boolean) false if there is nothing to undo
+     */
+    public synchronized boolean undo(GameState gameState){
+        if(undoVersions.isEmpty()){
+            return false;
+        }
+        Version target = undoVersions.pollLast();
+        redoVersions.addFirst(current);
+        retainedBytes += current.bytes - target.bytes;
+        moveTo(target, gameState);
+        return true;
+    }
+
+    /**
+     * The redo() function puts the game forward to the version that was last undone.
+     *
+     * @param gameState (GameState) the game state to restore
+     * @return (boolean) false if there is nothing to redo
+     */
+    public synchronized boolean redo(GameState gameState){
+        if(redoVersions.isEmpty()){
+            return false;
+        }
+        Version target = redoVersions.pollFirst();
+        undoVersions.addLast(current);
+        retainedBytes += current.bytes - target.bytes;
+        moveTo(target, gameState);
+        return true;
+    }
+
+    /**
+     * Utility function that returns the current version of the game.
+     *
+     * @return (Version) the version that was last committed or moved to
+     */
+    public synchronized Version getCurrentVersion(){
+        return current;
+    }
+
+    /**
+     * Utility function that returns how many moves can be undone.
+     *
+     * @return (int) the number of versions before the current one
+     */
+    public synchronized int getUndoDepth(){
+        return undoVersions.size();
+    }
+
+    /**
+     * Utility function that returns how many moves can be redone.
+     *
+     * @return (int) the number of versions after the current one
+     */
+    public synchronized int getRedoDepth(){
+        return redoVersions.size();
+    }
+
+    /**
+     * Utility function that returns the estimated size of the versions kept for UNDO and REDO.
+     *
+     * @return (long) the estimate in bytes
+     */
+    public synchronized long getRetainedBytes(){
+        return retainedBytes;
+    }
+
+    /**
+     * The moveTo() function writes the entities that differ between the current version
+     * and the target version back into the story, so that it only touches what changed.
+     *
+     * @param target (Version) the version to move to
+     * @param gameState (GameState) the game state to restore
+     */
+    private void moveTo(Version target, GameState gameState){
+        Story story = gameState.getStory();
+        Version from = current;
+
+        //an entity that is missing from the target version was not loaded yet at that version (see
+        //Story.getOriginal()), so it goes back to how it was at the start of the story
+        from.passages.diff(target.passages, index -> {
+            Passage passage = story.getPassage(index);
+            Boolean locked = target.passages.get(index);
+            passage.setLocked(locked != null ? locked : story.getOriginal().getPassage(index).isLocked());
+            gameState.updatePassage(passage);
+        });
+        from.containers.diff(target.containers, index -> {
+            Container container = story.getContainer(index);
+            Integer targetFlags = target.containers.get(index);
+            int flags = targetFlags != null ? targetFlags : Version.flags(story.getOriginal().getContainer(index));
+            container.setLocked((flags & Version.LOCKED) != 0);
+            container.setLooted((flags & Version.LOOTED) != 0);
+            gameState.updateContainer(container);
+        });
+        from.nonPlayerCharacters.diff(target.nonPlayerCharacters, index -> {
+            NonPlayerCharacter npc = story.getNonPlayerCharacter(index);
+            Integer targetFlags = target.nonPlayerCharacters.get(index);
+            int flags = targetFlags != null ? targetFlags : Version.flags(story.getOriginal().getNonPlayerCharacter(index));
+            npc.setWaitingForResponse((flags & Version.WAITING) != 0);
+            npc.setResolved((flags & Version.RESOLVED) != 0);
+            gameState.updateNonPlayerCharacter(npc);
+        });
+        from.enemies.diff(target.enemies, index -> {
+            Enemy enemy = story.getEnemy(index);
+            Integer health = target.enemies.get(index);
+            enemy.setHealth(health != null ? health : enemy.getInitialHealth());
+            gameState.updateEnemy(enemy);
+        });
+        from.items.diff(target.items, index -> {
+            Item item = story.getItem(index);
+            Boolean empty = target.items.get(index);
+            item.setEmpty(empty != null ? empty : story.getOriginal().getItem(index).isEmpty());
+            gameState.updateItem(item);
+        });
+        from.rules.diff(target.rules, index -> gameState.setRuleFired(index, target.rules.get(index) != null));
+        from.variables.diff(target.variables, variable -> {
+            Integer value = target.variables.get(variable);
+            gameState.setVariable(variable, value != null ? value : 0);
+        });
+        if(target.timers.size() > 0 || from.timers.size() > 0){ //the world clock only matters while a timer is running
+            gameState.restoreWorldTick(target.worldTick);
+            from.timers.diff(target.timers, timer -> {
+                Long deadline = target.timers.get(timer);
+                gameState.restoreTimer(timer, deadline != null ? deadline : -1);
+            });
+        }
+
+        Hero hero = gameState.getHero();
+        hero.setHealth(target.heroHealth);
+        hero.setAttackPower(target.heroAttackPower);
+        hero.setDefense(target.heroDefence);
+        HashMap<Integer, Boolean> inventory = new HashMap<Integer, Boolean>();
+        target.inventory.forEachKey(index -> inventory.put(index, target.inventory.get(index)));
+        hero.setInventory(inventory);
+        gameState.updateHero(hero);
+        gameState.restorePosition(target.currentRoomIndex, target.currentMode);
+
+        clearDirty(); //these changes are the target version, not a new one
+        current = target;
+    }
+
+    /**
+     * The trim() function drops the oldest versions until the timeline is within its limits.
+     */
+    private void trim(){
+        while(undoVersions.size() + redoVersions.size() > maxDepth || (retainedBytes > memoryBound && !(undoVersions.isEmpty() && redoVersions.isEmpty()))){
+            Version dropped = undoVersions.isEmpty() ? redoVersions.pollLast() : undoVersions.pollFirst();
+            retainedBytes -= dropped.bytes;
+        }
+    }
+
+    private BitSet getDirty(int kind){
+        if(dirty == null){ //the marks are not saved - a game is only saved between turns
+            dirty = new BitSet[]{new BitSet(), new BitSet(), new BitSet(), new BitSet(), new BitSet(), new BitSet(), new BitSet(), new BitSet(), new BitSet()};
+        }
+        return dirty[kind];
+    }
+
+    private void clearDirty(){
+        if(dirty != null){
+            for(BitSet marks : dirty){
+                marks.clear();
+            }
+        }
+    }
+
+    /**
+     * The Version class is one immutable version of the changing parts of a game.
+     */
+    public static final class Version implements Serializable {
+
+        private static final int LOCKED = 1;
+        private static final int LOOTED = 2;
+        private static final int WAITING = 1;
+        private static final int RESOLVED = 2;
+        private static final int VERSION_BYTES = 96; //the Version object itself
+
+        private final int heroHealth;
+        private final int heroAttackPower;
+        private final int heroDefence;
+        private final PersistentIntMap<Boolean> inventory;
+        private final PersistentIntMap<Boolean> passages;
+        private final PersistentIntMap<Integer> containers;
+        private final PersistentIntMap<Integer> nonPlayerCharacters;
+        private final PersistentIntMap<Integer> enemies;
+        private final PersistentIntMap<Boolean> items;
+        private final PersistentIntMap<Boolean> rules; //only the rules that have fired
+        private final PersistentIntMap<Integer> variables; //only the variables that are not 0
+        private final PersistentIntMap<Long> timers; //the deadline of each running timer
+        private final long worldTick;
+        private final int currentRoomIndex;
+        private final Mode currentMode;
+        private final long bytes;
+
+        private Version(int heroHealth, int heroAttackPower, int heroDefence, PersistentIntMap<Boolean> inventory,
+            PersistentIntMap<Boolean> passages, PersistentIntMap<Integer> containers, PersistentIntMap<Integer> nonPlayerCharacters,
+            PersistentIntMap<Integer> enemies, PersistentIntMap<Boolean> items, PersistentIntMap<Boolean> rules,
+            PersistentIntMap<Integer> variables, PersistentIntMap<Long> timers, long worldTick, int currentRoomIndex, Mode currentMode, long bytes){
+            this.heroHealth = heroHealth;
+            this.heroAttackPower = heroAttackPower;
+            this.heroDefence = heroDefence;
+            this.inventory = inventory;
+            this.passages = passages;
+            this.containers = containers;
+            this.nonPlayerCharacters = nonPlayerCharacters;
+            this.enemies = enemies;
+            this.items = items;
+            this.rules = rules;
+            this.variables = variables;
+            this.timers = timers;
+            this.worldTick = worldTick;
+            this.currentRoomIndex = currentRoomIndex;
+            this.currentMode = currentMode;
+            this.bytes = bytes;
+        }
+
+        /**
+         * The capture() function records every changing entity in the game.
+         *
+         * @param gameState (GameState) the game state
+         * @return (Version) the first version of the game
+         */
+        private static Version capture(GameState gameState){
+            Story story = gameState.getStory();
+            PersistentIntMap<Boolean> passages = PersistentIntMap.empty();
+            for(Passage passage : story.getPassages().values()){
+                passages = passages.put(passage.getPassageIndex(), passage.isLocked());
+            }
+            PersistentIntMap<Integer> containers = PersistentIntMap.empty();
+            for(Container container : story.getContainers().values()){
+                containers = containers.put(container.getContainerIndex(), flags(container));
+            }
+            PersistentIntMap<Integer> nonPlayerCharacters = PersistentIntMap.empty();
+            for(NonPlayerCharacter npc : story.getNonPlayerCharacters().values()){
+                nonPlayerCharacters = nonPlayerCharacters.put(npc.getCharacterIndex(), flags(npc));
+            }
+            PersistentIntMap<Integer> enemies = PersistentIntMap.empty();
+            for(Enemy enemy : story.getEnemies().values()){
+                enemies = enemies.put(enemy.getEnemyIndex(), enemy.getHealth());
+            }
+            PersistentIntMap<Boolean> items = PersistentIntMap.empty();
+            for(Item item : story.getItems().values()){
+                items = items.put(item.getIndex(), item.isEmpty());
+            }
+            PersistentIntMap<Boolean> inventory = PersistentIntMap.empty();
+            for(Map.Entry<Integer, Boolean> entry : gameState.getHero().getInventory().entrySet()){
+                inventory = inventory.put(entry.getKey(), entry.getValue());
+            }
+            Hero hero = gameState.getHero();
+            //no rule has fired, no variable has been set and no timer is running yet at the start of the story
+            return new Version(hero.getHealth(), hero.getAttackPower(), hero.getDefense(), inventory,
+                passages, containers, nonPlayerCharacters, enemies, items, PersistentIntMap.<Boolean>empty(), PersistentIntMap.<Integer>empty(),
+                PersistentIntMap.<Long>empty(), gameState.getWorldTick(),
+                gameState.getCurrentRoomIndex(), gameState.getCurrentMode(), 0);
+        }
+
+        /**
+         * The advance() function makes the next version from this one by reading only the
+         * entities that have been marked as changed, plus the hero. If nothing differs, this
+         * version is returned.
+         */
+        private Version advance(GameState gameState, BitSet dirtyPassages, BitSet dirtyContainers,
+            BitSet dirtyNonPlayerCharacters, BitSet dirtyEnemies, BitSet dirtyItems, BitSet dirtyRules, BitSet dirtyVariables, BitSet dirtyTimers,
+            BitSet dirtyInventory){
+            Story story = gameState.getStory();
+            int[] changes = new int[1];
+
+            PersistentIntMap<Boolean> newPassages = passages;
+            for(int i = dirtyPassages.nextSetBit(0); i >= 0; i = dirtyPassages.nextSetBit(i + 1)){
+                newPassages = put(newPassages, i, story.getPassage(i).isLocked(), changes);
+            }
+            PersistentIntMap<Integer> newContainers = containers;
+            for(int i = dirtyContainers.nextSetBit(0); i >= 0; i = dirtyContainers.nextSetBit(i + 1)){
+                newContainers = put(newContainers, i, flags(story.getContainer(i)), changes);
+            }
+            PersistentIntMap<Integer> newNonPlayerCharacters = nonPlayerCharacters;
+            for(int i = dirtyNonPlayerCharacters.nextSetBit(0); i >= 0; i = dirtyNonPlayerCharacters.nextSetBit(i + 1)){
+                newNonPlayerCharacters = put(newNonPlayerCharacters, i, flags(story.getNonPlayerCharacter(i)), changes);
+            }
+            PersistentIntMap<Integer> newEnemies = enemies;
+            for(int i = dirtyEnemies.nextSetBit(0); i >= 0; i = dirtyEnemies.nextSetBit(i + 1)){
+                newEnemies = put(newEnemies, i, story.getEnemy(i).getHealth(), changes);
+            }
+            PersistentIntMap<Boolean> newItems = items;
+            for(int i = dirtyItems.nextSetBit(0); i >= 0; i = dirtyItems.nextSetBit(i + 1)){
+                newItems = put(newItems, i, story.getItem(i).isEmpty(), changes);
+            }
+            PersistentIntMap<Boolean> newRules = rules;
+            for(int i = dirtyRules.nextSetBit(0); i >= 0; i = dirtyRules.nextSetBit(i + 1)){
+                newRules = put(newRules, i, gameState.hasRuleFired(i) ? Boolean.TRUE : null, changes);
+            }
+            PersistentIntMap<Integer> newVariables = variables;
+            for(int i = dirtyVariables.nextSetBit(0); i >= 0; i = dirtyVariables.nextSetBit(i + 1)){
+                int value = gameState.getVariable(i);
+                newVariables = put(newVariables, i, value != 0 ? Integer.valueOf(value) : null, changes);
+            }
+            PersistentIntMap<Long> newTimers = timers;
+            for(int i = dirtyTimers.nextSetBit(0); i >= 0; i = dirtyTimers.nextSetBit(i + 1)){
+                long deadline = gameState.getTimerDeadline(i);
+                newTimers = put(newTimers, i, deadline >= 0 ? Long.valueOf(deadline) : null, changes);
+            }
+            //while a timer is running every turn brings it closer, so every turn is a change
+            long newWorldTick = newTimers.size() > 0 ? gameState.getWorldTick() : worldTick;
+
+            Hero hero = gameState.getHero();
+            HashMap<Integer, Boolean> heroInventory = hero.getInventory();
+            PersistentIntMap<Boolean> newInventory = inventory;
+            for(int i = dirtyInventory.nextSetBit(0); i >= 0; i = dirtyInventory.nextSetBit(i + 1)){
+                newInventory = put(newInventory, i, heroInventory.get(i), changes);
+            }
+
+            if(changes[0] == 0 && newWorldTick == worldTick && hero.getHealth() == heroHealth && hero.getAttackPower() == heroAttackPower
+                && hero.getDefense() == heroDefence && gameState.getCurrentRoomIndex() == currentRoomIndex
+                && gameState.getCurrentMode() == currentMode){
+                return this;
+            }
+
+            return new Version(hero.getHealth(), hero.getAttackPower(), hero.getDefense(), newInventory,
+                newPassages, newContainers, newNonPlayerCharacters, newEnemies, newItems, newRules, newVariables, newTimers, newWorldTick,
+                gameState.getCurrentRoomIndex(), gameState.getCurrentMode(),
+                VERSION_BYTES + (long) changes[0] * PersistentIntMap.NODE_BYTES);
+        }
+
+        private static <V> PersistentIntMap<V> put(PersistentIntMap<V> map, int key, V value, int[] changes){
+            PersistentIntMap<V> updated = map.put(key, value);
+            if(updated != map){
+                changes[0] += updated.getDepth(); //one new node per level
+            }
+            return updated;
+        }
+
+        private static int flags(Container container){
+            return (container.isLocked() ? LOCKED : 0) | (container.isLooted() ? LOOTED : 0);
+        }
+
+        private static int flags(NonPlayerCharacter npc){
+            return (npc.isWaitingForResponse() ? WAITING : 0) | (npc.isResolved() ? RESOLVED : 0);
+        }
+
+        /**
+         * Utility function that returns the hero's health in this version.
+         *
+         * @return (int) the hero's health
+         */
+        public int getHeroHealth(){
+            return heroHealth;
+        }
+
+        /**
+         * Utility function that returns the index of the room that the hero is in, in this version.
+         *
+         * @return (int) the current room index
+         */
+        public int getCurrentRoomIndex(){
+            return currentRoomIndex;
+        }
+
+        /**
+         * Utility function that returns the game mode in this version.
+         *
+         * @return (Mode) the current mode
+         */
+        public Mode getCurrentMode(){
+            return currentMode;
+        }
+
+        /**
+         * Utility function that returns the health of an enemy in this version.
+         *
+         * @param enemyIndex (int) the index of the enemy
+         * @return (Integer) the enemy's health, or null if there is no such enemy
+         */
+        public Integer getEnemyHealth(int enemyIndex){
+            return enemies.get(enemyIndex);
+        }
+
+        /**
+         * Utility function that checks whether the hero is carrying an item in this version.
+         *
+         * @param itemIndex (int) the index of the item
+         * @return (boolean) true if the item is in the hero's inventory
+         */
+        public boolean hasItem(int itemIndex){
+            return inventory.get(itemIndex) != null;
+        }
+    }
+}
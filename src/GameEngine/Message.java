@@ -0,0 +1,171 @@
+package GameEngine;
+
+/**
+ * The Message enum lists every piece of text that the GameEngine shows to the player,
+ * together with its default English template. Arguments are written as {0}, {1}, etc.
+ *
+ * The templates can be changed or translated without touching the engine by listing
+ * them in res/messages.properties, using the names of the constants as keys.
+ * See MessageCatalogue.
+ */
+public enum Message {
+
+    //help
+    HELP_EXPLORATION(
+        "The following commands can be used when NOT IN COMBAT:\n"
+        + "  - GREET <TARGET>\n"
+        + "  - ATTACK <TARGET>\n"
+        + "  - SEARCH <TARGET>\n"
+        + "  - USE <TARGET>\n"
+        + "  - INSPECT <TARGET>\n"
+        + "  - GO <NORTH/SOUTH/EAST/WEST>\n"
+        + "  - GO TO <ROOM>\n"
+        + "  - LOOK <NORTH/SOUTH/EAST/WEST>\n"
+        + "  - SAY <ANYTHING>\n"
+        + "  - EXPLORE\n"
+        + "  - INVENTORY\n\n"
+        + " The following actions can be taken when IN COMBAT:\n"
+        + "  - ATTACK\n"
+        + "  - BLOCK\n"
+        + "  - DODGE\n"
+        + "  - ESCAPE\n\n"
+        + " The following actions can be taken at ANY TIME:\n"
+        + "  - HELP\n"
+        + "  - UNDO\n"
+        + "  - REDO"
+    ),
+    HELP_COMBAT(
+        "The following actions can be taken when IN COMBAT:\n"
+        + "  - ATTACK\n"
+        + "  - BLOCK\n"
+        + "  - DODGE\n"
+        + "  - ESCAPE\n\n"
+        + " The following commands can be used when NOT IN COMBAT:\n"
+        + "  - GREET <TARGET>\n"
+        + "  - ATTACK <TARGET>\n"
+        + "  - SEARCH <TARGET>\n"
+        + "  - USE <TARGET>\n"
+        + "  - INSPECT <TARGET>\n"
+        + "  - GO <NORTH/SOUTH/EAST/WEST>\n"
+        + "  - GO TO <ROOM>\n"
+        + "  - LOOK <NORTH/SOUTH/EAST/WEST>\n"
+        + "  - SAY <ANYTHING>\n"
+        + "  - EXPLORE\n"
+        + "  - INVENTORY\n\n"
+        + " The following actions can be taken at ANY TIME:\n"
+        + "  - HELP\n"
+        + "  - UNDO\n"
+        + "  - REDO"
+    ),
+
+    //game engine
+    INTRODUCTION("{0}\n\n[{1}]\n\n{2}\n\n(Type 'HELP' to view available commands)"),
+    GAME_OVER_DEAD("[GAME OVER] You are dead. Better luck next time!"),
+    GAME_OVER_FINISHED("[GAME OVER] You finished the story! Thanks for playing!"),
+    CONFUSED("You look confused."),
+    ENEMY_KILLED("You have killed {0}!"),
+    ENEMY_DROPS_ITEM("{0} drops item '{1}'."),
+    ENEMY_DROPS_EQUIPPABLE_ITEM("{0} drops item '{1}'. You equip it"),
+    RULE_EFFECT_FAILED("[ERROR] The {0} effect of rule {1} failed: {2}"),
+
+    //combat
+    HERO_HITS("You hit {0} for {1} damage!"),
+    HERO_HITS_CRITICALLY("You critically hit {0} for {1} damage!"),
+    HERO_MISSES("You try to hit {0}, but you miss!"),
+    HERO_FUMBLES("You fumble!"),
+    HERO_DODGES("{0} tries to attack you, but you dodge out of the way!"),
+    HERO_FAILS_TO_DODGE("You try to dodge {0}, but you're too slow!"),
+    HERO_BLOCKS("You try to defend yourself as best you can!"),
+    HERO_ESCAPES("You manage to escape from {0}!"),
+    HERO_FAILS_TO_ESCAPE("You try to escape from {0}, but they're too quick!"),
+    ENEMY_HITS("{0} hits you for {1} damage!"),
+    ENEMY_HITS_CRITICALLY("{0} critically hits you for {1} damage!"),
+    ENEMY_MISSES("{0} tries to hit you, but they miss!"),
+    ENEMY_POWERS_UP("{0} looks furious!"),
+    ENEMY_UNLEASHES_ATTACK("{0} unleashes a vicious attack!"),
+
+    //exploration
+    NPC_GIVES_ITEM("You get {0} and add it to your inventory."),
+    NPC_GIVES_EQUIPPABLE_ITEM("You get {0} and equip it."),
+    NPC_HEALS("{0} You gain {1} health."),
+    NPC_HURTS("{0} You lose {1} health."),
+    NPC_DOES_NOT_UNDERSTAND("{0} doesn't understand your response."),
+    BEGIN_COMBAT("You choose to attack {0}. Begin combat!"),
+    CONTAINER_LOCKED("{0} is locked."),
+    CONTAINER_LOOTED("There is nothing of interest in the {0}"),
+    CONTAINER_LOOT("You find a {0} in the {1}."),
+    CONTAINER_EQUIPPABLE_LOOT("You find a {0} in the {1}. You equip it."),
+    CONTAINER_IS_EMPTY("It is empty."),
+    CONTAINER_IS_NOT_EMPTY("You see something inside."),
+    USE_ITEM("You use {0}."),
+    ITEM_GAIN_HEALTH("You gain {0} health!"),
+    ITEM_LOSE_HEALTH("You lose {0} health!"),
+    ITEM_GAIN_ATTACK_POWER("You gain {0} attack power!"),
+    ITEM_LOSE_ATTACK_POWER("You lose {0} attack power!"),
+    ITEM_GAIN_DEFENCE("You gain {0} defence!"),
+    ITEM_LOSE_DEFENCE("You lose {0} defence!"),
+    PASSAGE_ALREADY_UNLOCKED("You use {0}, but you can already go {1}."),
+    CONTAINER_ALREADY_UNLOCKED("You use {0} on {1}, but it is already unlocked!"),
+    CANNOT_GO("You cannot go {0}."),
+    GO("You go {0}.\n\n [{1}]\n\n {2}"),
+    TRAVEL("You go {0}.\n\n [{1}]\n\n {2}"),
+    ALREADY_THERE("You are already there. [{0}]"),
+    NO_WAY_TO("You don't know a way to '{0}'."),
+    TARGET_ASSUMED("({0})"),
+    DID_YOU_MEAN("Did you mean {0}?"),
+    DID_YOU_MEAN_OR(" or "),
+    EXPLORE_NOTHING("You look around the {0}, but you don't see anything of interest."),
+    EXPLORE_ROOM("You look around the {0}."),
+    EXPLORE_PASSAGE("You look {0}. {1}"),
+    INVENTORY_HEADER("You have the following items in your inventory:\n"),
+    INVENTORY_ITEM(" - {0}"),
+    INVENTORY_EQUIPPED(" [EQUIPPED]"),
+    INVENTORY_ATTACK_POWER(" [+{0} AP]"),
+    INVENTORY_DEFENCE(" [+{0} DEF]"),
+    INVENTORY_CONSUMABLE_EMPTY(" [CONSUMABLE] [EMPTY]"),
+    INVENTORY_CONSUMABLE_FULL(" [CONSUMABLE] [FULL]"),
+    INVENTORY_EMPTY("There is nothing in your inventory."),
+
+    //timeline
+    UNDONE("You take back your last move. [{0}]"),
+    REDONE("You make your move again. [{0}]"),
+    NOTHING_TO_UNDO("There is nothing to undo."),
+    NOTHING_TO_REDO("There is nothing to redo."),
+    NO_UNDO_IN_COMBAT("You are being attacked! There is no going back now!"),
+
+    //exceptions
+    ALREADY_IN_COMBAT("You are already in combat!"),
+    NO_TIME_FOR_INVENTORY("You are being attacked! You don't have time to look at your inventory!"),
+    NO_TIME_TO_GO("You are being attacked! You must escape before you can go anywhere!"),
+    NO_TIME_TO_LOOK("You are being attacked! You can't look away!"),
+    NO_TIME_FOR_COMMAND("You are being attacked! You don't have time to {0} anything!"),
+    ATTACK_WHAT("What did you want to attack?"),
+    NOT_IN_COMBAT("You're not in combat! There's nothing to {0}!"),
+    NO_SAVED_GAME("There is no save file to load!"),
+    NO_SUCH_COMMAND("Command '{0}' does not exist"),
+    NO_SUCH_ITEM("You do not have anything called '{0}' in your inventory!"),
+    NO_SUCH_SESSION("There is no session called '{0}'!"),
+    TARGET_NOT_VALID("You can't {0} {1}."),
+    NOTHING_HAPPENS("You {0}, but nothing happens"),
+    SAID("You {0}."),
+    NOT_A_DIRECTION("{0} is not a valid direction."),
+    NO_ONE_CALLED("There is noone here called '{0}'"),
+    NOTHING_CALLED("There is nothing here called '{0}'"),
+    CANNOT_FIND("You can't find a '{0}'"),
+    CANNOT_TARGET("You cannot {0} '{1}'");
+
+    private final String defaultTemplate;
+
+    private Message(String defaultTemplate){
+        this.defaultTemplate = defaultTemplate;
+    }
+
+    /**
+     * Utility function that returns the default English template for this message.
+     *
+     * @return (String) the default template
+     */
+    public String getDefaultTemplate(){
+        return defaultTemplate;
+    }
+}
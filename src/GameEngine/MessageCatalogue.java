@@ -0,0 +1,227 @@
+package GameEngine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Properties;
+
+/**
+ * The MessageCatalogue holds the templates for every Message. Each template is parsed
+ * once, when the catalogue is loaded, into an array of literal segments and argument
+ * numbers, so filling one in is a matter of copying segments rather than calling
+ * String.format. Messages without arguments are rendered once and reused.
+ *
+ * The default templates come from the Message enum. Any of them can be replaced by
+ * listing it in res/messages.properties, e.g. to localize the engine.
+ */
+public class MessageCatalogue {
+
+    private static final String MESSAGES_PATH = "res/messages.properties";
+    private static volatile MessageCatalogue instance;
+
+    private final Template[] templates;
+
+    /**
+     * The constructor for the MessageCatalogue parses the template for every Message,
+     * using the overrides where there is one.
+     *
+     * @param overrides (Properties) replacement templates keyed by Message name - may be empty
+     */
+    public MessageCatalogue(Properties overrides){
+        Message[] messages = Message.values();
+        this.templates = new Template[messages.length];
+        for(Message message : messages){
+            templates[message.ordinal()] = new Template(overrides.getProperty(message.name(), message.getDefaultTemplate()));
+        }
+    }
+
+    /**
+     * The getInstance() function returns the catalogue used by the GameEngine. The first
+     * time it is called, the catalogue is loaded from res/messages.properties if that file exists.
+     *
+     * @return (MessageCatalogue) the current catalogue
+     */
+    public static MessageCatalogue getInstance(){
+        MessageCatalogue catalogue = instance;
+        if(catalogue == null){
+            synchronized(MessageCatalogue.class){
+                if(instance == null){
+                    instance = load(MESSAGES_PATH);
+                }
+                catalogue = instance;
+            }
+        }
+        return catalogue;
+    }
+
+    /**
+     * The load() function reads a catalogue of templates from a properties file. Messages
+     * that are not listed in the file keep their default templates. If the file cannot be
+     * read, the default templates are used for everything.
+     *
+     * @param path (String) the path to the properties file
+     * @return (MessageCatalogue) the loaded catalogue
+     */
+    public static MessageCatalogue load(String path){
+        Properties overrides = new Properties();
+        if(new File(path).isFile()){
+            try(Reader reader = new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8)){
+                overrides.load(reader);
+            }catch(IOException e){
+                e.printStackTrace();
+            }
+        }
+        return new MessageCatalogue(overrides);
+    }
+
+    /**
+     * The setInstance() function replaces the catalogue used by the GameEngine,
+     * e.g. to switch to another language.
+     *
+     * @param catalogue (MessageCatalogue) the new catalogue
+     */
+    public static void setInstance(MessageCatalogue catalogue){
+        instance = catalogue;
+    }
+
+    /**
+     * The get() function returns a message, with its arguments filled in.
+     *
+     * @param message (Message) the message
+     * @param arguments (CharSequence...) the arguments for the message
+     * @return (String) the complete message
+     */
+    public String get(Message message, CharSequence... arguments){
+        return templates[message.ordinal()].format(arguments);
+    }
+
+    /**
+     * The write() function adds a message to a consequence as a new fragment. The
+     * segments of the message are written to the consequence's sink one by one.
+     *
+     * @param consequence (Consequence) the consequence to write to
+     * @param message (Message) the message
+     * @param arguments (CharSequence...) the arguments for the message
+     */
+    public void write(Consequence consequence, Message message, CharSequence... arguments){
+        templates[message.ordinal()].write(consequence, true, arguments);
+    }
+
+    /**
+     * The append() function continues the current fragment of a consequence with a message.
+     *
+     * @param consequence (Consequence) the consequence to write to
+     * @param message (Message) the message
+     * @param arguments (CharSequence...) the arguments for the message
+     */
+    public void append(Consequence consequence, Message message, CharSequence... arguments){
+        templates[message.ordinal()].write(consequence, false, arguments);
+    }
+
+    /**
+     * The Template class is a message template that has been parsed into segments.
+     * literals[i] is followed by the argument numbered arguments[i], and the last
+     * literal ends the message. As with String.format, a null argument is written as "null".
+     */
+    private static class Template {
+
+        private final String[] literals;
+        private final int[] arguments;
+        private final String constant;
+
+        Template(String template){
+            ArrayList<String> literalList = new ArrayList<String>();
+            ArrayList<Integer> argumentList = new ArrayList<Integer>();
+            int start = 0;
+            int open = template.indexOf('{');
+            while(open >= 0){
+                int close = template.indexOf('}', open);
+                if(close > open + 1 && isNumber(template, open + 1, close)){
+                    literalList.add(template.substring(start, open));
+                    argumentList.add(Integer.parseInt(template.substring(open + 1, close)));
+                    start = close + 1;
+                    open = template.indexOf('{', start);
+                }else{
+                    open = template.indexOf('{', open + 1);
+                }
+            }
+            literalList.add(template.substring(start));
+
+            this.literals = literalList.toArray(new String[0]);
+            this.arguments = new int[argumentList.size()];
+            for(int i = 0; i < arguments.length; i++){
+                arguments[i] = argumentList.get(i);
+            }
+            this.constant = arguments.length == 0 ? literals[0] : null;
+        }
+
+        String format(CharSequence[] values){
+            if(constant != null){
+                return constant;
+            }
+            StringBuilder message = new StringBuilder(estimateLength(values));
+            for(int i = 0; i < arguments.length; i++){
+                message.append(literals[i]).append(argument(values, i));
+            }
+            return message.append(literals[arguments.length]).toString();
+        }
+
+        void write(Consequence consequence, boolean newFragment, CharSequence[] values){
+            if(constant != null){
+                writeSegment(consequence, constant, newFragment);
+                return;
+            }
+            for(int i = 0; i < arguments.length; i++){
+                if(literals[i].length() > 0){
+                    writeSegment(consequence, literals[i], newFragment);
+                    newFragment = false;
+                }
+                writeSegment(consequence, argument(values, i), newFragment);
+                newFragment = false;
+            }
+            if(literals[arguments.length].length() > 0){
+                writeSegment(consequence, literals[arguments.length], false);
+            }
+        }
+
+        private static void writeSegment(Consequence consequence, CharSequence segment, boolean newFragment){
+            if(newFragment){
+                consequence.addToConsequence(segment);
+            }else{
+                consequence.appendToConsequence(segment);
+            }
+        }
+
+        private CharSequence argument(CharSequence[] values, int i){
+            return values != null && arguments[i] < values.length ? valueOf(values[arguments[i]]) : "";
+        }
+
+        private int estimateLength(CharSequence[] values){
+            int length = 0;
+            for(String literal : literals){
+                length += literal.length();
+            }
+            for(CharSequence value : values == null ? new CharSequence[0] : values){
+                length += valueOf(value).length();
+            }
+            return length;
+        }
+
+        private static CharSequence valueOf(CharSequence value){
+            return value != null ? value : "null";
+        }
+
+        private static boolean isNumber(String template, int start, int end){
+            for(int i = start; i < end; i++){
+                if(!Character.isDigit(template.charAt(i))){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package GameEngine.Output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The ByteBufferSink encodes consequence text as UTF-8 directly into pooled direct
+ * ByteBuffers, ready to be written to a network channel. If a turn produces more text
+ * than fits in one buffer, further buffers are taken from the pool and the whole turn
+ * is written with a single gathering write.
+ *
+ * A character that cannot be encoded (e.g. half of a surrogate pair on its own) is written
+ * as '?'. A surrogate pair that is split between two fragments is kept back until the second
+ * half arrives. The encoder is finished the first time the sink is drained, after which
+ * nothing more can be written to it.
+ *
+ * A ByteBufferSink must be released once its contents have been written, so that its
+ * buffers can be reused by the next turn.
+ */
+public class ByteBufferSink implements OutputSink {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256;
+    private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private final CharsetEncoder encoder;
+    private final ArrayList<ByteBuffer> buffers;
+    private CharBuffer leftover; //the first half of a surrogate pair, waiting for the next fragment
+    private boolean finished;
+
+    public ByteBufferSink(){
+        this.encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.buffers = new ArrayList<ByteBuffer>(1);
+        this.buffers.add(acquire());
+    }
+
+    @Override
+    public void write(CharSequence fragment){
+        if(finished){
+            throw new IllegalStateException("the sink has already been drained");
+        }
+        CharBuffer chars = CharBuffer.wrap(fragment);
+        if(leftover != null){
+            chars = CharBuffer.allocate(leftover.remaining() + chars.remaining()).put(leftover).put(chars).flip();
+            leftover = null;
+        }
+        encode(chars, false);
+        if(chars.hasRemaining()){
+            leftover = CharBuffer.allocate(chars.remaining()).put(chars).flip();
+        }
+    }
+
+    /**
+     * Encodes characters into the buffers, taking another buffer from the pool whenever
+     * the current one is full.
+     *
+     * @param chars (CharBuffer) the characters to encode
+     * @param endOfInput (boolean) true if no more characters will follow
+     */
+    private void encode(CharBuffer chars, boolean endOfInput){
+        ByteBuffer current = buffers.get(buffers.size() - 1);
+        while(true){
+            CoderResult result = encoder.encode(chars, current, endOfInput);
+            if(result.isOverflow()){
+                current = nextBuffer();
+            }else if(result.isError()){
+                throwError(result); //cannot happen, as errors are replaced
+            }else{
+                return;
+            }
+        }
+    }
+
+    /**
+     * The finish() function encodes anything that has been kept back and flushes the encoder,
+     * so that every character written is in the buffers. It only does anything the first time.
+     */
+    private void finish(){
+        if(finished){
+            return;
+        }
+        encode(leftover != null ? leftover : CharBuffer.allocate(0), true);
+        leftover = null;
+        while(true){
+            CoderResult result = encoder.flush(buffers.get(buffers.size() - 1));
+            if(result.isOverflow()){
+                nextBuffer();
+            }else if(result.isError()){
+                throwError(result);
+            }else{
+                break;
+            }
+        }
+        for(ByteBuffer buffer : buffers){
+            buffer.flip();
+        }
+        finished = true;
+    }
+
+    private ByteBuffer nextBuffer(){
+        ByteBuffer buffer = acquire();
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    private static void throwError(CoderResult result){
+        try{
+            result.throwException();
+        }catch(CharacterCodingException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The drain() function writes everything in the sink that has not been written yet to
+     * a channel, so draining a sink again writes nothing. Gathering channels (e.g. a
+     * SocketChannel) receive the whole turn in a single write.
+     *
+     * A non-blocking channel may take only part of the turn, or nothing at all. Then drain()
+     * returns what was written rather than waiting, and the caller drains the sink again
+     * when the channel is ready for writing (e.g. SelectionKey.OP_WRITE), until
+     * hasRemaining() is false.
+     *
+     * @param channel (WritableByteChannel) the channel to write to
+     * @return (long) the number of bytes written
+     * @throws IOException
+     */
+    public long drain(WritableByteChannel channel) throws IOException{
+        finish();
+        ByteBuffer[] contents = buffers.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for(ByteBuffer buffer : contents){
+            remaining += buffer.remaining();
+        }
+        long written = 0;
+        if(channel instanceof GatheringByteChannel){
+            while(written < remaining){
+                long count = ((GatheringByteChannel) channel).write(contents);
+                if(count == 0){
+                    break; //the channel is full
+                }
+                written += count;
+            }
+        }else{
+            for(ByteBuffer buffer : contents){
+                while(buffer.hasRemaining()){
+                    int count = channel.write(buffer);
+                    if(count == 0){
+                        return written; //the channel is full
+                    }
+                    written += count;
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Utility function that tells whether any of the sink's contents have not been drained
+     * yet, e.g. because a non-blocking channel was full.
+     *
+     * @return (boolean) true if there is more to drain
+     */
+    public boolean hasRemaining(){
+        if(!finished){
+            return true;
+        }
+        for(ByteBuffer buffer : buffers){
+            if(buffer.hasRemaining()){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The release() function returns the sink's buffers to the pool. The
+     * sink must not be used after it has been released.
+     */
+    public void release(){
+        for(ByteBuffer buffer : buffers){
+            if(pool.size() < MAX_POOLED_BUFFERS){
+                pool.offer(buffer.clear());
+            }
+        }
+        buffers.clear();
+        finished = true;
+    }
+
+    /**
+     * Utility function that takes an empty buffer from the pool, or
+     * allocates a new one if the pool is empty.
+     *
+     * @return (ByteBuffer) an empty direct buffer
+     */
+    private static ByteBuffer acquire(){
+        ByteBuffer buffer = pool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,34 @@
+package GameEngine.Output;
+
+/**
+ * An OutputSink receives the text of a Consequence one fragment at a time, as the
+ * GameEngine, DungeonMaster and Arena resolve an action. This allows the text to be
+ * written straight to wherever it is going - the user interface, a Writer, or a buffer
+ * for a network session - rather than being built up and copied several times first.
+ */
+public interface OutputSink {
+
+    /**
+     * Writes a fragment of consequence text to the sink.
+     *
+     * @param fragment (CharSequence) the text to write
+     */
+    void write(CharSequence fragment);
+
+    /**
+     * Returns the text that has been written to the sink, if the sink keeps it.
+     * Sinks that pass text straight through (e.g. to a Writer) return null.
+     *
+     * @return (String) the text written so far, or null if it is not kept
+     */
+    default String getText(){
+        return null;
+    }
+
+    /**
+     * Passes on the text written so far, e.g. to a socket, once a turn (or a batch of
+     * turns) is complete. Sinks that do not buffer anything do nothing.
+     */
+    default void flush(){
+    }
+}
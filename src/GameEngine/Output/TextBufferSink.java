@@ -0,0 +1,41 @@
+package GameEngine.Output;
+
+/**
+ * The TextBufferSink keeps consequence text in memory so that it can be rendered
+ * by the user interface and stored in the GameHistory. The String is only built
+ * once, the first time it is asked for.
+ */
+public class TextBufferSink implements OutputSink {
+
+    private final StringBuilder buffer;
+    private String text;
+
+    public TextBufferSink(){
+        this.buffer = new StringBuilder(256);
+    }
+
+    /**
+     * The constructor for a TextBufferSink that already contains some text,
+     * e.g. when a Consequence is read back from a save file.
+     *
+     * @param text (String) the initial text
+     */
+    public TextBufferSink(String text){
+        this.buffer = new StringBuilder(text);
+        this.text = text;
+    }
+
+    @Override
+    public void write(CharSequence fragment){
+        buffer.append(fragment);
+        text = null;
+    }
+
+    @Override
+    public String getText(){
+        if(text == null){
+            text = buffer.toString();
+        }
+        return text;
+    }
+}
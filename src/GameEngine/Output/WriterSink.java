@@ -0,0 +1,39 @@
+package GameEngine.Output;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * The WriterSink passes consequence text straight through to a Writer,
+ * e.g. a socket or a log file. The text is not kept.
+ */
+public class WriterSink implements OutputSink {
+
+    private final Writer writer;
+
+    public WriterSink(Writer writer){
+        this.writer = writer;
+    }
+
+    @Override
+    public void write(CharSequence fragment){
+        try{
+            writer.append(fragment);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flushes the underlying Writer once the turn is complete.
+     */
+    @Override
+    public void flush(){
+        try{
+            writer.flush();
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package GameEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import Story.Direction;
+import Story.Passage;
+import Story.Passage.PassageType;
+import Story.Room;
+import Story.Story;
+
+/**
+ * The PathFinder class finds the shortest way from the hero's room to a room with a given name,
+ * for the GO TO command.
+ *
+ * Searches are made backwards from the rooms with the name: a breadth-first search over the
+ * passages that can be walked through right now (not PASSAGE_NONE and not locked), followed the
+ * wrong way. The result is a PathTree that holds, for every room that the named rooms can be
+ * reached from, which way to go next. It does not matter where the hero is, so every later GO TO
+ * the same room is answered from the tree, from any room, in time that depends only on the length
+ * of the path. The trees for the last cachedTargets room names are kept.
+ *
+ * When a passage is unlocked (or locked), only the trees that hold the room the passage leads out
+ * of or the room it leads to can change, so only those trees are dropped (see passageChanged()).
+ *
+ * Only the rooms that the Story holds in memory are searched. For a LazyStory or GeneratedStory
+ * that is the rooms around the hero, and a tree is searched again if the rooms in memory change
+ * (see Story.getRoomSetVersion()).
+ */
+public class PathFinder {
+
+    public static final int DEFAULT_CACHED_TARGETS = 8;
+
+    private static final byte TARGET = -1;
+    private static final byte UNREACHABLE = -2;
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final int cachedTargets;
+    private final LinkedHashMap<String, PathTree> trees;
+    private int hits;
+    private int searches;
+
+    public PathFinder(){
+        this(DEFAULT_CACHED_TARGETS);
+    }
+
+    /**
+     * The constructor for PathFinder.
+     *
+     * @param cachedTargets (int) the most room names to keep searches for
+     */
+    public PathFinder(int cachedTargets){
+        this.cachedTargets = Math.max(cachedTargets, 1);
+        this.trees = new LinkedHashMap<String, PathTree>(16, 0.75f, true);
+    }
+
+    /**
+     * The findPath() function returns the directions to go in, in order, to get from a room
+     * to the nearest room with the given name.
+     *
+     * @param story (Story) the story being played
+     * @param fromRoomIndex (int) the room to start in
+     * @param roomName (String) the name of the room to go to, in any case
+     * @return (List<Direction>) the directions to go in (empty if already there), or null if there is no way there
+     */
+    public List<Direction> findPath(Story story, int fromRoomIndex, String roomName){
+        roomName = roomName.toUpperCase();
+        PathTree tree = trees.get(roomName);
+        if(tree != null && tree.story == story && tree.roomSetVersion == story.getRoomSetVersion()){
+            hits++;
+        }else{
+            tree = search(story, roomName);
+            searches++;
+            trees.put(roomName, tree);
+            Iterator<String> eldest = trees.keySet().iterator();
+            while(trees.size() > cachedTargets){
+                eldest.next();
+                eldest.remove();
+            }
+        }
+
+        if(!tree.reaches(fromRoomIndex)){
+            return null;
+        }
+        ArrayList<Direction> path = new ArrayList<Direction>();
+        int roomIndex = fromRoomIndex;
+        for(byte next = tree.getNext(roomIndex); next != TARGET; next = tree.getNext(roomIndex)){
+            Direction direction = DIRECTIONS[next];
+            path.add(direction);
+            roomIndex = story.getPassage(story.getRoom(roomIndex).getPassages().get(direction)).getRoomIndex();
+        }
+        return path;
+    }
+
+    /**
+     * The passageChanged() function drops every search that a passage that has been unlocked
+     * or locked could change - those that hold either end of the passage.
+     *
+     * @param fromRoomIndex (int) the room that the passage leads out of
+     * @param toRoomIndex (int) the room that the passage leads to
+     */
+    public void passageChanged(int fromRoomIndex, int toRoomIndex){
+        trees.values().removeIf(tree -> tree.reaches(fromRoomIndex) || tree.reaches(toRoomIndex));
+    }
+
+    /**
+     * Utility function that drops every search, e.g. when a different game is loaded.
+     */
+    public void clear(){
+        trees.clear();
+    }
+
+    /**
+     * Utility function that returns the number of GO TO commands answered without searching.
+     *
+     * @return (int) the number of hits
+     */
+    public int getHits(){
+        return hits;
+    }
+
+    /**
+     * Utility function that returns the number of searches that have been made.
+     *
+     * @return (int) the number of searches
+     */
+    public int getSearches(){
+        return searches;
+    }
+
+    /**
+     * The search() function makes a breadth-first search backwards from every room with the
+     * name, recording for each room it reaches which way leads one step closer.
+     */
+    private static PathTree search(Story story, String roomName){
+        int roomSetVersion = story.getRoomSetVersion();
+        HashMap<Integer, Room> rooms = story.getRooms();
+        HashMap<Integer, Passage> passages = story.getPassages();
+
+        //number the rooms, so the rest of the search only uses arrays
+        int count = rooms.size();
+        RoomTable ids = new RoomTable(count);
+        int[] roomIndexes = new int[count];
+        for(int roomIndex : rooms.keySet()){
+            roomIndexes[ids.size()] = roomIndex;
+            ids.put(roomIndex, ids.size());
+        }
+
+        //find every open passage, and list them by the room they lead to
+        int[] edgeFrom = new int[count * DIRECTIONS.length];
+        int[] edgeTo = new int[edgeFrom.length];
+        byte[] edgeDirection = new byte[edgeFrom.length];
+        int[] firstEdge = new int[count + 1];
+        int edges = 0;
+        for(int id = 0; id < count; id++){
+            HashMap<Direction, Integer> roomPassages = rooms.get(roomIndexes[id]).getPassages();
+            if(roomPassages == null){
+                continue;
+            }
+            for(Direction direction : DIRECTIONS){
+                Integer passageIndex = roomPassages.get(direction);
+                Passage passage = passageIndex == null ? null : passages.get(passageIndex);
+                if(passage == null || passage.getPassageType() == PassageType.PASSAGE_NONE || passage.isLocked()){
+                    continue;
+                }
+                int to = ids.get(passage.getRoomIndex());
+                if(to >= 0){
+                    edgeFrom[edges] = id;
+                    edgeTo[edges] = to;
+                    edgeDirection[edges++] = (byte) direction.ordinal();
+                    firstEdge[to + 1]++;
+                }
+            }
+        }
+        for(int id = 0; id < count; id++){
+            firstEdge[id + 1] += firstEdge[id];
+        }
+        int[] incoming = new int[edges];
+        int[] filled = Arrays.copyOf(firstEdge, count);
+        for(int edge = 0; edge < edges; edge++){
+            incoming[filled[edgeTo[edge]]++] = edge;
+        }
+
+        //search backwards from the named rooms
+        byte[] next = new byte[count];
+        Arrays.fill(next, UNREACHABLE);
+        int[] queue = new int[count];
+        int tail = 0;
+        for(int id = 0; id < count; id++){
+            if(rooms.get(roomIndexes[id]).getRoomName().toUpperCase().equals(roomName)){
+                next[id] = TARGET;
+                queue[tail++] = id;
+            }
+        }
+        for(int head = 0; head < tail; head++){
+            int to = queue[head];
+            for(int i = firstEdge[to]; i < firstEdge[to + 1]; i++){
+                int from = edgeFrom[incoming[i]];
+                if(next[from] == UNREACHABLE){
+                    next[from] = edgeDirection[incoming[i]];
+                    queue[tail++] = from;
+                }
+            }
+        }
+        return new PathTree(story, roomSetVersion, ids, next);
+    }
+
+    /**
+     * The PathTree class is the result of one search: for each room, numbered by ids, the
+     * Direction to go in next, TARGET if it is one of the named rooms, or UNREACHABLE if the
+     * named rooms cannot be reached from it.
+     */
+    private static class PathTree {
+
+        final Story story;
+        final int roomSetVersion; //the rooms in memory that were searched
+        final RoomTable ids;
+        final byte[] next;
+
+        PathTree(Story story, int roomSetVersion, RoomTable ids, byte[] next){
+            this.story = story;
+            this.roomSetVersion = roomSetVersion;
+            this.ids = ids;
+            this.next = next;
+        }
+
+        byte getNext(int roomIndex){
+            int id = ids.get(roomIndex);
+            return id < 0 ? UNREACHABLE : next[id];
+        }
+
+        boolean reaches(int roomIndex){
+            return getNext(roomIndex) != UNREACHABLE;
+        }
+    }
+
+    /**
+     * The RoomTable class numbers room indexes. It is an open addressed table of ints, so a
+     * search of a large story does not box every room index it reaches.
+     */
+    private static class RoomTable {
+
+        private final int[] keys;
+        private final int[] values;
+        private int size;
+
+        RoomTable(int expected){
+            int capacity = Integer.highestOneBit(Math.max(expected, 4) * 2 - 1) * 2; //never more than half full
+            keys = new int[capacity];
+            values = new int[capacity];
+            Arrays.fill(values, -1);
+        }
+
+        void put(int roomIndex, int value){
+            int slot = find(roomIndex);
+            if(values[slot] < 0){
+                size++;
+            }
+            keys[slot] = roomIndex;
+            values[slot] = value;
+        }
+
+        /**
+         * Returns the number of a room, or -1 if the room is not in the table.
+         */
+        int get(int roomIndex){
+            return values[find(roomIndex)];
+        }
+
+        int size(){
+            return size;
+        }
+
+        private int find(int roomIndex){
+            int mask = keys.length - 1;
+            int hash = roomIndex * 0x9e3779b9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while(values[slot] >= 0 && keys[slot] != roomIndex){
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
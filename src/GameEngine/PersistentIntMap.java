@@ -0,0 +1,218 @@
+package GameEngine;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+
+/**
+ * The PersistentIntMap class is an immutable map from non-negative int keys (e.g. the index
+ * of an entity in the Story) to values. It is stored as a 32-way trie, so put() copies only
+ * the path from the root to the changed key and shares every other node with the map it
+ * was made from. Many versions of a map can therefore be kept for the cost of their changes.
+ *
+ * Because versions share nodes, diff() can skip any subtree that is the same object in both
+ * maps, so finding the keys that differ between two nearby versions takes time in proportion
+ * to the number of changes rather than the size of the map.
+ *
+ * @param <V> the type of the values
+ */
+public final class PersistentIntMap<V> implements Serializable {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final PersistentIntMap<Object> EMPTY = new PersistentIntMap<Object>(null, 0, 0);
+
+    /** The approximate size of one trie node in bytes: an object header and 32 references. */
+    public static final int NODE_BYTES = 16 + 16 + WIDTH * 4;
+
+    private final Object[] root;
+    private final int shift;
+    private final int size;
+
+    private PersistentIntMap(Object[] root, int shift, int size){
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    /**
+     * Utility function that returns the empty map.
+     *
+     * @return (PersistentIntMap<V>) a map with no keys
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentIntMap<V> empty(){
+        return (PersistentIntMap<V>) EMPTY;
+    }
+
+    /**
+     * The get() function looks up the value for a key.
+     *
+     * @param key (int) the key
+     * @return (V) the value, or null if the key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key){
+        if(root == null || key < 0 || !fits(key, shift)){
+            return null;
+        }
+        Object[] node = root;
+        for(int level = shift; level > 0; level -= BITS){
+            node = (Object[]) node[(key >>> level) & MASK];
+            if(node == null){
+                return null;
+            }
+        }
+        return (V) node[key & MASK];
+    }
+
+    /**
+     * The put() function returns a map with the given value for a key. This map is not
+     * changed. If the key already has an equal value, this map is returned as it is.
+     *
+     * @param key (int) the key - this must not be negative
+     * @param value (V) the value, or null to remove the key
+     * @return (PersistentIntMap<V>) the new map
+     */
+    public PersistentIntMap<V> put(int key, V value){
+        if(key < 0){
+            throw new IllegalArgumentException("Negative key: " + key);
+        }
+        if(Objects.equals(get(key), value)){
+            return this;
+        }
+
+        Object[] newRoot = root == null ? new Object[WIDTH] : root;
+        int newShift = shift;
+        while(!fits(key, newShift)){ //grow the trie upwards until the key fits
+            Object[] parent = new Object[WIDTH];
+            parent[0] = newRoot;
+            newRoot = parent;
+            newShift += BITS;
+        }
+
+        boolean added = get(key) == null;
+        int newSize = size + (value == null ? -1 : (added ? 1 : 0));
+        return new PersistentIntMap<V>(put(newRoot, newShift, key, value), newShift, newSize);
+    }
+
+    /**
+     * The remove() function returns a map without the given key.
+     *
+     * @param key (int) the key
+     * @return (PersistentIntMap<V>) the new map
+     */
+    public PersistentIntMap<V> remove(int key){
+        return get(key) == null ? this : put(key, null);
+    }
+
+    /**
+     * Utility function that returns the number of keys in the map.
+     *
+     * @return (int) the number of keys
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Utility function that returns the number of nodes that a put() copies, which is the
+     * number of nodes that a new version of this map costs per changed key.
+     *
+     * @return (int) the depth of the trie
+     */
+    public int getDepth(){
+        return shift / BITS + 1;
+    }
+
+    /**
+     * The forEachKey() function visits every key in the map, in ascending order.
+     *
+     * @param visitor (IntConsumer) called with each key
+     */
+    public void forEachKey(IntConsumer visitor){
+        if(root != null){
+            visit(root, shift, 0, visitor);
+        }
+    }
+
+    /**
+     * The diff() function visits every key whose value differs between this map and
+     * another one, skipping the subtrees that the two maps share.
+     *
+     * @param other (PersistentIntMap<V>) the map to compare with
+     * @param visitor (IntConsumer) called with each key that differs
+     */
+    public void diff(PersistentIntMap<V> other, IntConsumer visitor){
+        if(root == other.root){
+            return;
+        }
+        if(root == null || other.root == null || shift != other.shift){
+            //the tries have different shapes - compare every key that either of them holds
+            forEachKey(key -> {
+                if(!Objects.equals(get(key), other.get(key))){
+                    visitor.accept(key);
+                }
+            });
+            other.forEachKey(key -> {
+                if(get(key) == null){
+                    visitor.accept(key);
+                }
+            });
+            return;
+        }
+        diff(root, other.root, shift, 0, visitor);
+    }
+
+    private static Object[] put(Object[] node, int level, int key, Object value){
+        Object[] copy = node.clone();
+        int slot = (key >>> level) & MASK;
+        if(level == 0){
+            copy[slot] = value;
+        }else{
+            Object[] child = (Object[]) copy[slot];
+            copy[slot] = put(child == null ? new Object[WIDTH] : child, level - BITS, key, value);
+        }
+        return copy;
+    }
+
+    private static void visit(Object[] node, int level, int base, IntConsumer visitor){
+        for(int slot = 0; slot < WIDTH; slot++){
+            if(node[slot] != null){
+                int key = base | (slot << level);
+                if(level == 0){
+                    visitor.accept(key);
+                }else{
+                    visit((Object[]) node[slot], level - BITS, key, visitor);
+                }
+            }
+        }
+    }
+
+    private static void diff(Object[] a, Object[] b, int level, int base, IntConsumer visitor){
+        for(int slot = 0; slot < WIDTH; slot++){
+            Object left = a[slot];
+            Object right = b[slot];
+            if(left == right){
+                continue; //shared - nothing below here has changed
+            }
+            int key = base | (slot << level);
+            if(level == 0){
+                if(!Objects.equals(left, right)){
+                    visitor.accept(key);
+                }
+            }else if(left == null){
+                visit((Object[]) right, level - BITS, key, visitor);
+            }else if(right == null){
+                visit((Object[]) left, level - BITS, key, visitor);
+            }else{
+                diff((Object[]) left, (Object[]) right, level - BITS, key, visitor);
+            }
+        }
+    }
+
+    private static boolean fits(int key, int shift){
+        return shift + BITS >= 31 || key < (1 << (shift + BITS));
+    }
+}
@@ -0,0 +1,192 @@
+package GameEngine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The PhraseMatcher class finds which of a set of phrases appears in what the player typed,
+ * e.g. the answers an NPC is waiting for or the passphrases that open the passages and
+ * containers in a room. The phrase may appear anywhere in the text, as long as it is made of
+ * whole words - "I THINK I'LL TAKE IT" matches "TAKE IT", but "MISTAKE IT" does not. Case and
+ * runs of spaces are ignored. If more than one phrase appears, the longest wins, and of those
+ * the one that appears first.
+ *
+ * The phrases are compiled into an Aho-Corasick automaton: a trie of the phrases in which each
+ * character of the text takes one step, to the node for the longest phrase prefix that the text
+ * now ends with. Every node has a step for every character that appears in the phrases, so the
+ * text is matched in one pass, one table lookup per character, however many phrases there are.
+ *
+ * @param <V> the value kept with each phrase
+ */
+public class PhraseMatcher<V> {
+
+    private static final int NO_PHRASE = -1;
+
+    private final ArrayList<String> phrases;
+    private final ArrayList<V> values;
+    private final int[] asciiSymbols;
+    private final HashMap<Character, Integer> otherSymbols;
+    private final int symbolCount;
+    private final int[] steps; //steps[node * symbolCount + symbol] is the next node
+    private final int[] phraseAt; //the phrase that ends at a node, or NO_PHRASE
+    private final int[] nextMatch; //the next shorter node on the failure chain that ends a phrase, or -1
+
+    /**
+     * The constructor for PhraseMatcher.
+     *
+     * @param phrases (Map<String, V>) the phrases to look for, each with the value to return when it is found
+     */
+    public PhraseMatcher(Map<String, V> phrases){
+        this.phrases = new ArrayList<String>();
+        this.values = new ArrayList<V>();
+        this.asciiSymbols = new int[128];
+        this.otherSymbols = new HashMap<Character, Integer>();
+
+        //number the characters used in the phrases - symbol 0 is every other character
+        int symbols = 1;
+        for(Map.Entry<String, V> entry : phrases.entrySet()){
+            String phrase = normalize(entry.getKey());
+            if(phrase.isEmpty()){
+                continue;
+            }
+            this.phrases.add(phrase);
+            this.values.add(entry.getValue());
+            for(int i = 0; i < phrase.length(); i++){
+                char c = phrase.charAt(i);
+                if(getSymbol(c) == 0){
+                    if(c < asciiSymbols.length){
+                        asciiSymbols[c] = symbols++;
+                    }else{
+                        otherSymbols.put(c, symbols++);
+                    }
+                }
+            }
+        }
+        this.symbolCount = symbols;
+
+        //build the trie
+        int maxNodes = 1;
+        for(String phrase : this.phrases){
+            maxNodes += phrase.length();
+        }
+        int[] trie = new int[maxNodes * symbolCount];
+        int[] phraseAtNode = new int[maxNodes];
+        Arrays.fill(phraseAtNode, NO_PHRASE);
+        int nodes = 1;
+        for(int p = 0; p < this.phrases.size(); p++){
+            String phrase = this.phrases.get(p);
+            int node = 0;
+            for(int i = 0; i < phrase.length(); i++){
+                int step = node * symbolCount + getSymbol(phrase.charAt(i));
+                if(trie[step] == 0){
+                    trie[step] = nodes++;
+                }
+                node = trie[step];
+            }
+            if(phraseAtNode[node] == NO_PHRASE){ //two phrases can only be the same once normalized, so keep the first
+                phraseAtNode[node] = p;
+            }
+        }
+
+        //turn the trie into the automaton, breadth first, so that a node's failure is always done before the node
+        this.steps = Arrays.copyOf(trie, nodes * symbolCount);
+        this.phraseAt = Arrays.copyOf(phraseAtNode, nodes);
+        this.nextMatch = new int[nodes];
+        int[] failure = new int[nodes];
+        nextMatch[0] = -1;
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        for(int symbol = 0; symbol < symbolCount; symbol++){
+            int child = steps[symbol];
+            if(child != 0){
+                failure[child] = 0;
+                nextMatch[child] = -1;
+                queue.add(child);
+            }
+        }
+        while(!queue.isEmpty()){
+            int node = queue.poll();
+            for(int symbol = 0; symbol < symbolCount; symbol++){
+                int step = node * symbolCount + symbol;
+                int fallback = steps[failure[node] * symbolCount + symbol];
+                int child = steps[step];
+                if(child == 0){
+                    steps[step] = fallback; //no phrase continues this way, so go where the failure goes
+                }else{
+                    failure[child] = fallback;
+                    nextMatch[child] = phraseAt[fallback] != NO_PHRASE ? fallback : nextMatch[fallback];
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * The find() function returns the value of the phrase that appears in the text.
+     *
+     * @param text (String) what the player typed
+     * @return (V) the value of the longest phrase that appears in the text, or null if none do
+     */
+    public V find(String text){
+        String normalized = normalize(text);
+        int best = NO_PHRASE;
+        int node = 0;
+        for(int end = 0; end < normalized.length(); end++){
+            node = steps[node * symbolCount + getSymbol(normalized.charAt(end))];
+            for(int match = phraseAt[node] != NO_PHRASE ? node : nextMatch[node]; match > 0; match = nextMatch[match]){
+                int phrase = phraseAt[match];
+                int length = phrases.get(phrase).length();
+                if((best == NO_PHRASE || length > phrases.get(best).length()) && isWholeWords(normalized, end + 1 - length, end + 1)){
+                    best = phrase;
+                }
+            }
+        }
+        return best == NO_PHRASE ? null : values.get(best);
+    }
+
+    /**
+     * Utility function that returns the number of phrases the matcher looks for.
+     *
+     * @return (int) the number of phrases
+     */
+    public int size(){
+        return phrases.size();
+    }
+
+    private int getSymbol(char c){
+        if(c < asciiSymbols.length){
+            return asciiSymbols[c];
+        }
+        Integer symbol = otherSymbols.get(c);
+        return symbol == null ? 0 : symbol;
+    }
+
+    private static boolean isWholeWords(String text, int start, int end){
+        return (start == 0 || !Character.isLetterOrDigit(text.charAt(start - 1)))
+            && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)));
+    }
+
+    /**
+     * Utility function that puts text in the form it is matched in - upper case, with every
+     * run of spaces made one space.
+     */
+    private static String normalize(String text){
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean space = false;
+        for(int i = 0; i < text.length(); i++){
+            char c = Character.toUpperCase(text.charAt(i));
+            if(Character.isWhitespace(c)){
+                space = normalized.length() > 0;
+            }else{
+                if(space){
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(c);
+            }
+        }
+        return normalized.toString();
+    }
+}
@@ -0,0 +1,311 @@
+package GameEngine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import GameEngine.Exceptions.ScriptSyntaxException;
+import Story.Mode;
+import Story.Rule;
+import Story.Story;
+import Story.SymbolTable;
+
+/**
+ * The RuleNetwork class runs the Rules written in a story file (see Story.Rule). The rules are
+ * compiled into a table of the rules that wait for each event and target, e.g. "ENTER_ROOM 12",
+ * plus the rules that wait for an event whatever its target. During a turn the GameState only
+ * queues the events that some rule waits for, and at the end of the turn fire() looks at the
+ * rules waiting for those events and no others, so a story with thousands of rules costs no
+ * more per turn than the few rules that its events wake up.
+ *
+ * The phrases of the SAY rules are matched in what the player says by a PhraseMatcher, in the
+ * same way as passphrases, and each phrase is an event target through its symbol in the story's
+ * SymbolTable. The effects of a rule can cause events of their own (e.g. GIVE_ITEM causes
+ * TAKE_ITEM), which are fired in the same turn, up to MAX_FIRINGS_PER_TURN rules.
+ *
+ * The "if" and "script" of each rule are compiled into bytecode by the ScriptCompiler when
+ * the network is made, so a scripted rule costs about as much as one written in Java.
+ *
+ * One RuleNetwork is used by each game (see GameState.getRuleNetwork()). Whether each rule has
+ * fired is kept in the GameState, so that it is saved and can be undone.
+ */
+public class RuleNetwork {
+
+    public static final int MAX_FIRINGS_PER_TURN = 64;
+
+    private final Rule[] rules;
+    private final HashMap<Long, int[]> waitingRules; //the positions of the rules that wait for each event and target
+    private final PhraseMatcher<Integer> phrases; //the phrases of the SAY rules, with their symbols
+    private final CompiledScript[] conditions; //the compiled script condition of each rule, or null
+    private final CompiledScript[] scripts; //the compiled script of each rule, or null
+
+    /**
+     * The constructor for RuleNetwork compiles the rules of a story.
+     *
+     * @param story (Story) the story whose rules are run
+     */
+    public RuleNetwork(Story story){
+        List<Rule> storyRules = story.getRules();
+        this.rules = storyRules.toArray(new Rule[storyRules.size()]);
+        this.conditions = new CompiledScript[rules.length];
+        this.scripts = new CompiledScript[rules.length];
+
+        HashMap<Long, ArrayList<Integer>> waiting = new HashMap<Long, ArrayList<Integer>>();
+        HashMap<String, Integer> sayPhrases = new HashMap<String, Integer>();
+        for(int position = 0; position < rules.length; position++){
+            Rule rule = rules[position];
+            conditions[position] = compile(rule.getCondition(), true, story.getSymbolTable());
+            scripts[position] = compile(rule.getScript(), false, story.getSymbolTable());
+            int target = rule.getTarget();
+            if(rule.getEvent() == Rule.Event.SAY){
+                String phrase = rule.getPhrase().trim().toUpperCase().replaceAll("\\s+", " ");
+                target = story.getSymbolTable().intern(phrase);
+                sayPhrases.put(phrase, target);
+            }else if(rule.getEvent() == Rule.Event.TURN){
+                target = Rule.ANY_TARGET; //a turn does not happen to anything
+            }
+            waiting.computeIfAbsent(getKey(rule.getEvent(), target), (key) -> new ArrayList<Integer>()).add(position);
+        }
+
+        this.waitingRules = new HashMap<Long, int[]>();
+        for(Map.Entry<Long, ArrayList<Integer>> entry : waiting.entrySet()){
+            int[] positions = new int[entry.getValue().size()];
+            for(int i = 0; i < positions.length; i++){
+                positions[i] = entry.getValue().get(i);
+            }
+            waitingRules.put(entry.getKey(), positions);
+        }
+        this.phrases = new PhraseMatcher<Integer>(sayPhrases);
+    }
+
+    /**
+     * Utility function that checks whether the story has any rules at all.
+     *
+     * @return (boolean) true if there are no rules
+     */
+    public boolean isEmpty(){
+        return rules.length == 0;
+    }
+
+    /**
+     * The waitsFor() function checks whether any rule waits for an event, so that events that
+     * no rule waits for are not queued.
+     *
+     * @param event (Rule.Event) the event
+     * @param target (int) the index (or phrase symbol) it happened to
+     * @return (boolean) true if at least one rule waits for the event
+     */
+    public boolean waitsFor(Rule.Event event, int target){
+        return waitingRules.containsKey(getKey(event, target))
+            || (target != Rule.ANY_TARGET && waitingRules.containsKey(getKey(event, Rule.ANY_TARGET)));
+    }
+
+    /**
+     * The findPhrase() function finds the phrase of a SAY rule in what the player said.
+     *
+     * @param said (String) what the player said
+     * @return (int) the symbol of the longest phrase that was said, or SymbolTable.NO_SYMBOL if none were
+     */
+    public int findPhrase(String said){
+        Integer symbol = phrases.size() == 0 ? null : phrases.find(said);
+        return symbol == null ? SymbolTable.NO_SYMBOL : symbol;
+    }
+
+    /**
+     * The fire() function takes the events that happened during a turn and fires the rules
+     * that wait for them - first the rules that wait for the event's target, then the rules that
+     * wait for the event on anything, each in the order they are written in the story. A rule
+     * fires if it has not fired before (or is repeatable) and all of its conditions hold.
+     *
+     * @param gameState (GameState) the game being played
+     * @param events (ArrayDeque<Long>) the events, which effects may add to - empty when this returns
+     * @param consequence (Consequence) the consequence to add the text of the effects to
+     */
+    void fire(GameState gameState, ArrayDeque<Long> events, Consequence consequence){
+        ScriptContext context = new ScriptContext(gameState, consequence);
+        int firings = 0;
+        while(!events.isEmpty() && firings < MAX_FIRINGS_PER_TURN){
+            long event = events.poll();
+            firings = fire(gameState, waitingRules.get(event), context, consequence, firings);
+            if((int) event != Rule.ANY_TARGET){
+                firings = fire(gameState, waitingRules.get(getKey(Rule.Event.values()[(int) (event >>> 32)], Rule.ANY_TARGET)), context, consequence, firings);
+            }
+        }
+        events.clear(); //a rule that keeps causing its own event stops here
+
+        if(gameState.getHero().getHealth() <= 0 && gameState.getCurrentMode() != Mode.GAMEOVER){
+            gameState.gameOver();
+            consequence.addMessage(Message.GAME_OVER_DEAD);
+        }
+    }
+
+    private int fire(GameState gameState, int[] positions, ScriptContext context, Consequence consequence, int firings){
+        if(positions == null){
+            return firings;
+        }
+        for(int position : positions){
+            Rule rule = rules[position];
+            if(firings >= MAX_FIRINGS_PER_TURN){
+                break;
+            }
+            if((rule.isRepeatable() || !gameState.hasRuleFired(rule.getIndex())) && holds(context, position)){
+                gameState.setRuleFired(rule.getIndex(), true);
+                for(Rule.Effect effect : rule.getEffects()){
+                    apply(context, consequence, rule, effect);
+                }
+                if(scripts[position] != null){
+                    run(scripts[position], context, rule);
+                }
+                firings++;
+            }
+        }
+        return firings;
+    }
+
+    /**
+     * The holds() function checks whether every condition of a rule is true, and then its
+     * script condition, if it has one.
+     */
+    private boolean holds(ScriptContext context, int position){
+        Rule rule = rules[position];
+        for(Rule.Condition condition : rule.getConditions()){
+            int value = condition.getValue();
+            boolean holds;
+            switch(condition.getType()){
+                case IN_ROOM:
+                    holds = context.getRoom() == value;
+                    break;
+                case HAS_ITEM:
+                    holds = context.hasItem(value);
+                    break;
+                case LACKS_ITEM:
+                    holds = !context.hasItem(value);
+                    break;
+                case NPC_RESOLVED:
+                    holds = context.isResolved(value);
+                    break;
+                case ENEMY_DEAD:
+                    holds = context.isDead(value);
+                    break;
+                case PASSAGE_UNLOCKED:
+                    holds = context.isUnlocked(value);
+                    break;
+                case CONTAINER_LOOTED:
+                    holds = context.isLooted(value);
+                    break;
+                case HEALTH_AT_LEAST:
+                    holds = context.getHealth() >= value;
+                    break;
+                case HEALTH_BELOW:
+                    holds = context.getHealth() < value;
+                    break;
+                case RULE_FIRED:
+                    holds = context.hasFired(value);
+                    break;
+                default:
+                    holds = false;
+            }
+            if(!holds){
+                return false;
+            }
+        }
+        if(rule.getCondition() == null){
+            return true;
+        }
+        return conditions[position] != null && run(conditions[position], context, rule) != 0; //a condition that did not compile never holds
+    }
+
+    /**
+     * The apply() function applies one effect of a rule that has fired, through the
+     * ScriptContext so that the change is versioned for UNDO. An effect that fails (e.g. one
+     * that refers to something that is not in the story) is reported in the consequence and
+     * skipped, so that the rule's other effects are still applied.
+     */
+    private static void apply(ScriptContext context, Consequence consequence, Rule rule, Rule.Effect effect){
+        try{
+            apply(context, effect);
+        }catch(RuntimeException e){
+            e.printStackTrace();
+            consequence.addMessage(Message.RULE_EFFECT_FAILED, effect.getType().name(), String.valueOf(rule.getIndex()), String.valueOf(e));
+        }
+    }
+
+    private static void apply(ScriptContext context, Rule.Effect effect){
+        context.say(effect.getText());
+        int value = effect.getValue();
+        switch(effect.getType()){
+            case UNLOCK_PASSAGE:
+                context.unlockPassage(value);
+                break;
+            case LOCK_PASSAGE:
+                context.lockPassage(value);
+                break;
+            case UNLOCK_CONTAINER:
+                context.unlockContainer(value);
+                break;
+            case GIVE_ITEM:
+                context.giveItem(value); //which raises TAKE_ITEM
+                break;
+            case REMOVE_ITEM:
+                context.removeItem(value);
+                break;
+            case ALTER_HEALTH:
+                context.setHealth(context.getHealth() + value);
+                break;
+            case START_TIMER:
+                context.startTimer(value, effect.getTurns());
+                break;
+            case CANCEL_TIMER:
+                context.cancelTimer(value);
+                break;
+            case RESPAWN_ENEMY:
+                context.respawnEnemy(value);
+                break;
+            case TEXT:
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Utility function that runs a script of a rule. A script that fails (e.g. divides by 0)
+     * is reported and counts as 0, so that one bad rule cannot stop the game.
+     */
+    private static int run(CompiledScript script, ScriptContext context, Rule rule){
+        try{
+            return script.run(context);
+        }catch(RuntimeException e){
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Utility function that compiles a script of a rule. A script that does not compile is
+     * reported, and the rule runs without it.
+     */
+    private static CompiledScript compile(String source, boolean isCondition, SymbolTable symbolTable){
+        if(source == null){
+            return null;
+        }
+        try{
+            return isCondition ? ScriptCompiler.compileCondition(source, symbolTable) : ScriptCompiler.compileScript(source, symbolTable);
+        }catch(ScriptSyntaxException e){
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Utility function that packs an event and its target into one key.
+     *
+     * @param event (Rule.Event) the event
+     * @param target (int) the index or phrase symbol, or Rule.ANY_TARGET
+     * @return (long) the key
+     */
+    static long getKey(Rule.Event event, int target){
+        return ((long) event.ordinal() << 32) | (target & 0xffffffffL);
+    }
+}
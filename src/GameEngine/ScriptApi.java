@@ -0,0 +1,86 @@
+package GameEngine;
+
+/**
+ * The ScriptApi interface is everything that a story script can see and change in a game
+ * (see ScriptCompiler). Scripts are compiled into calls to these functions and nothing else,
+ * so a script cannot reach the rest of the GameState, the Hero or the Story. Indexes are
+ * those used in the story file, and functions given an index that does not exist do nothing,
+ * or return false.
+ */
+public interface ScriptApi {
+
+    int getHealth();
+
+    void setHealth(int health);
+
+    int getAttackPower();
+
+    void setAttackPower(int attackPower);
+
+    int getDefence();
+
+    void setDefence(int defence);
+
+    /**
+     * Returns the index of the room that the hero is in.
+     */
+    int getRoom();
+
+    boolean hasItem(int itemIndex);
+
+    void giveItem(int itemIndex);
+
+    void removeItem(int itemIndex);
+
+    boolean isResolved(int npcIndex);
+
+    boolean isDead(int enemyIndex);
+
+    boolean isUnlocked(int passageIndex);
+
+    void unlockPassage(int passageIndex);
+
+    void lockPassage(int passageIndex);
+
+    boolean isLooted(int containerIndex);
+
+    void unlockContainer(int containerIndex);
+
+    boolean hasFired(int ruleIndex);
+
+    /**
+     * Starts a timer of the story, which causes a TIMER event when it runs out.
+     */
+    void startTimer(int timer, int turns);
+
+    void cancelTimer(int timer);
+
+    /**
+     * Returns the number of turns until a timer runs out, or 0 if it is not running.
+     */
+    int getTimerTurns(int timer);
+
+    /**
+     * Brings a dead enemy back with the health it had at the start of the story.
+     */
+    void respawnEnemy(int enemyIndex);
+
+    /**
+     * Returns a number from 0 up to (but not including) bound, rolled with the game's dice so
+     * that a replayed game rolls the same numbers.
+     */
+    int random(int bound);
+
+    /**
+     * Returns the value of a story variable, which is 0 until a script sets it. Variables are
+     * numbered by the symbols of their names (see ScriptCompiler).
+     */
+    int getVariable(int variable);
+
+    void setVariable(int variable, int value);
+
+    /**
+     * Shows text to the player.
+     */
+    void say(String text);
+}
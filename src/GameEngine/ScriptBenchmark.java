@@ -0,0 +1,78 @@
+package GameEngine;
+
+import java.io.IOException;
+
+import GameEngine.Exceptions.ScriptSyntaxException;
+import Story.SymbolTable;
+import StoryParser.Parser;
+
+/**
+ * The ScriptBenchmark class measures how long a compiled story script takes to run,
+ * against the same logic written by hand in Java, in nanoseconds per run. Both run through
+ * the same ScriptContext, so the difference is the cost of the compiled code itself.
+ *
+ * Usage: ScriptBenchmark [runs]
+ */
+public class ScriptBenchmark {
+
+    private static final String STORY_PATH = "res/story/story.json";
+    private static final String CONDITION = "(health < 50 && has(0)) || visits > 2 && !fired(1)";
+    private static final String SCRIPT = "visits += 1; if (visits % 7 == 0) { visits = 0; defence = defence + 1; } else if (room == -1) { say \"never\"; }";
+
+    public static void main(String[] args) throws IOException, ScriptSyntaxException{
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+
+        GameEngine gameEngine = new GameEngine(Parser.parse(STORY_PATH), 0);
+        GameState gameState = gameEngine.getGameState();
+        ScriptContext context = new ScriptContext(gameState, new Consequence());
+        SymbolTable symbolTable = gameState.getStory().getSymbolTable();
+        int visits = symbolTable.intern("visits");
+
+        long start = System.nanoTime();
+        CompiledScript condition = ScriptCompiler.compileCondition(CONDITION, symbolTable);
+        CompiledScript script = ScriptCompiler.compileScript(SCRIPT, symbolTable);
+        long compileNanos = System.nanoTime() - start;
+
+        CompiledScript javaCondition = (api) -> (api.getHealth() < 50 && api.hasItem(0)) || api.getVariable(visits) > 2 && !api.hasFired(1) ? 1 : 0;
+        CompiledScript javaScript = (api) -> {
+            api.setVariable(visits, api.getVariable(visits) + 1);
+            if(api.getVariable(visits) % 7 == 0){
+                api.setVariable(visits, 0);
+                api.setDefence(api.getDefence() + 1);
+            }else if(api.getRoom() == -1){
+                api.say("never");
+            }
+            return 0;
+        };
+
+        System.out.println(String.format("Compiled 2 scripts in %.2f ms", compileNanos / 1_000_000.0));
+        for(int round = 0; round < 3; round++){ //the first rounds warm up the JIT
+            System.out.println(String.format("Round %d", round + 1));
+            System.out.println(String.format("  Condition, compiled: %.1f ns/run", time(condition, context, runs)));
+            System.out.println(String.format("  Condition, Java:     %.1f ns/run", time(javaCondition, context, runs)));
+            System.out.println(String.format("  Script, compiled:    %.1f ns/run", time(script, context, runs)));
+            System.out.println(String.format("  Script, Java:        %.1f ns/run", time(javaScript, context, runs)));
+        }
+    }
+
+    /**
+     * The time() function runs a script the given number of times.
+     *
+     * @param script (CompiledScript) the script
+     * @param api (ScriptApi) the game to run it in
+     * @param runs (int) the number of runs
+     * @return (double) the mean time of one run, in nanoseconds
+     */
+    private static double time(CompiledScript script, ScriptApi api, int runs){
+        int total = 0;
+        long start = System.nanoTime();
+        for(int i = 0; i < runs; i++){
+            total += script.run(api);
+        }
+        long elapsed = System.nanoTime() - start;
+        if(total < 0){
+            System.out.println(total); //so that the runs are not optimised away
+        }
+        return elapsed / (double) runs;
+    }
+}
@@ -0,0 +1,850 @@
+package GameEngine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+import GameEngine.Exceptions.ScriptSyntaxException;
+import Story.SymbolTable;
+
+/**
+ * The ScriptCompiler class compiles the scripts written in a story file - the "if" and
+ * "script" of a Rule - into JVM bytecode, so that running a script costs about as much as
+ * running the same logic written in Java, rather than walking a syntax tree every turn.
+ *
+ * A script is a list of statements:
+ *
+ *     if (health < 50 && has(3)) { health += 20; say "The amulet glows."; }
+ *     else if (random(4) == 0) { visits = visits + 1; }
+ *     give 7; remove 2; unlock 37; lock 12; open 4; respawn 3;
+ *     start 0 after 20; cancel 0;
+ *
+ * and a condition is one expression, e.g. "resolved(3) && !fired(5)". Every value is an int,
+ * and true and false are 1 and 0. The names health, attack and defence are the hero's stats,
+ * room is the index of the current room, and any other name is a story variable, which starts
+ * at 0 and is saved with the game. The functions has, resolved, dead, unlocked, looted, fired,
+ * timer and random, and the statements give, remove, unlock, lock, open, respawn, start, cancel
+ * and say, call the ScriptApi functions of the same meaning. Comments start with // and run to the end of the line.
+ *
+ * Each script is parsed and turned into bytecode in one pass, written as a class file that
+ * implements CompiledScript, and defined as a hidden class (see
+ * MethodHandles.Lookup.defineHiddenClass()), which the JVM can unload once the story is no
+ * longer used. The class file is written in the version 49 format, so that its branches do
+ * not need stack map frames. Compiled scripts are kept for each SymbolTable - i.e. for each
+ * story - so a script that is in every game of a story is only compiled once.
+ */
+public class ScriptCompiler {
+
+    public static final int MAX_CODE_LENGTH = 32767; //so that every branch fits in its 16 bit offset
+
+    private static final String API = "GameEngine/ScriptApi";
+    private static final String[][] PROPERTIES = { //name, getter, setter
+        {"health", "getHealth", "setHealth"},
+        {"attack", "getAttackPower", "setAttackPower"},
+        {"defence", "getDefence", "setDefence"},
+        {"room", "getRoom", null}
+    };
+    private static final String[][] FUNCTIONS = { //name, ScriptApi function, descriptor
+        {"has", "hasItem", "(I)Z"},
+        {"resolved", "isResolved", "(I)Z"},
+        {"dead", "isDead", "(I)Z"},
+        {"unlocked", "isUnlocked", "(I)Z"},
+        {"looted", "isLooted", "(I)Z"},
+        {"fired", "hasFired", "(I)Z"},
+        {"timer", "getTimerTurns", "(I)I"},
+        {"random", "random", "(I)I"}
+    };
+    private static final String[][] COMMANDS = { //statement, ScriptApi function
+        {"give", "giveItem"},
+        {"remove", "removeItem"},
+        {"unlock", "unlockPassage"},
+        {"lock", "lockPassage"},
+        {"open", "unlockContainer"},
+        {"respawn", "respawnEnemy"},
+        {"cancel", "cancelTimer"}
+    };
+    private static final String[] KEYWORDS = {"if", "else", "true", "false", "say", "start", "after"};
+
+    private static final WeakHashMap<SymbolTable, HashMap<String, CompiledScript>> compiledScripts = new WeakHashMap<SymbolTable, HashMap<String, CompiledScript>>();
+
+    private final ArrayList<Token> tokens;
+    private final SymbolTable symbolTable;
+    private final ConstantPool pool;
+    private final Code code;
+    private int next;
+
+    private ScriptCompiler(String source, SymbolTable symbolTable) throws ScriptSyntaxException{
+        this.tokens = tokenize(source);
+        this.symbolTable = symbolTable;
+        this.pool = new ConstantPool();
+        this.code = new Code();
+        this.next = 0;
+    }
+
+    /**
+     * The compileCondition() function compiles a condition - one expression, which holds if it
+     * is not 0.
+     *
+     * @param source (String) the condition, e.g. "has(3) && health > 10"
+     * @param symbolTable (SymbolTable) the symbol table of the story, which numbers its variables
+     * @return (CompiledScript) the compiled condition
+     * @throws ScriptSyntaxException if the condition is not a valid expression
+     */
+    public static CompiledScript compileCondition(String source, SymbolTable symbolTable) throws ScriptSyntaxException{
+        return compile(source, symbolTable, true);
+    }
+
+    /**
+     * The compileScript() function compiles a list of statements.
+     *
+     * @param source (String) the script, e.g. "if (room == 4) { give 7; }"
+     * @param symbolTable (SymbolTable) the symbol table of the story, which numbers its variables
+     * @return (CompiledScript) the compiled script
+     * @throws ScriptSyntaxException if the script is not valid
+     */
+    public static CompiledScript compileScript(String source, SymbolTable symbolTable) throws ScriptSyntaxException{
+        return compile(source, symbolTable, false);
+    }
+
+    private static CompiledScript compile(String source, SymbolTable symbolTable, boolean isCondition) throws ScriptSyntaxException{
+        String key = (isCondition ? "?" : "!") + source;
+        synchronized(compiledScripts){
+            HashMap<String, CompiledScript> scripts = compiledScripts.computeIfAbsent(symbolTable, (table) -> new HashMap<String, CompiledScript>());
+            CompiledScript script = scripts.get(key);
+            if(script == null){
+                script = new ScriptCompiler(source, symbolTable).compile(isCondition);
+                scripts.put(key, script);
+            }
+            return script;
+        }
+    }
+
+    /**
+     * Parses the script, writing its bytecode as it goes, and defines the class.
+     */
+    private CompiledScript compile(boolean isCondition) throws ScriptSyntaxException{
+        if(isCondition){
+            expression();
+        }else{
+            while(peek().type != Token.END){
+                statement();
+            }
+            code.op(Code.ICONST_0, 1);
+        }
+        if(peek().type != Token.END){
+            throw error(peek(), "expected the end of the script");
+        }
+        code.op(Code.IRETURN, -1);
+        if(code.length() > MAX_CODE_LENGTH){
+            throw new ScriptSyntaxException("the script is too long", 1, 1);
+        }
+
+        try{
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(writeClass(), true);
+            return (CompiledScript) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        }catch(Throwable e){
+            throw new IllegalStateException("the compiled script could not be defined", e); //the class file is wrong, not the script
+        }
+    }
+
+    //statements
+
+    private void statement() throws ScriptSyntaxException{
+        Token token = take();
+        if(token.is("if")){
+            expect("(");
+            expression();
+            expect(")");
+            Label otherwise = new Label();
+            code.jump(Code.IFEQ, otherwise, -1);
+            block();
+            if(peek().is("else")){
+                take();
+                Label end = new Label();
+                code.jump(Code.GOTO, end, 0);
+                code.mark(otherwise);
+                if(peek().is("if")){
+                    statement();
+                }else{
+                    block();
+                }
+                code.mark(end);
+            }else{
+                code.mark(otherwise);
+            }
+            return;
+        }
+        if(token.is("say")){
+            Token text = take();
+            if(text.type != Token.STRING){
+                throw error(text, "say must be followed by \"text\"");
+            }
+            code.op(Code.ALOAD_1, 1);
+            code.ldc(pool.string(text.text));
+            invoke("say", "(Ljava/lang/String;)V");
+            expect(";");
+            return;
+        }
+        if(token.is("start")){
+            code.op(Code.ALOAD_1, 1);
+            expression();
+            expect("after");
+            expression();
+            invoke("startTimer", "(II)V");
+            expect(";");
+            return;
+        }
+        for(String[] command : COMMANDS){
+            if(token.is(command[0])){
+                code.op(Code.ALOAD_1, 1);
+                expression();
+                invoke(command[1], "(I)V");
+                expect(";");
+                return;
+            }
+        }
+        if(token.type != Token.NAME || isKeyword(token.text)){
+            throw error(token, "expected a statement");
+        }
+
+        //name = value, name += value or name -= value
+        Token operator = take();
+        if(!operator.is("=") && !operator.is("+=") && !operator.is("-=")){
+            throw error(operator, "expected =, += or -=");
+        }
+        String[] property = getProperty(token.text);
+        if(property != null && property[2] == null){
+            throw new ScriptSyntaxException(token.text + " cannot be changed", token.line, token.column);
+        }
+        code.op(Code.ALOAD_1, 1);
+        if(property == null){
+            code.push(getVariable(token.text));
+        }
+        if(!operator.is("=")){
+            load(token.text);
+        }
+        expression();
+        if(operator.is("+=")){
+            code.op(Code.IADD, -1);
+        }else if(operator.is("-=")){
+            code.op(Code.ISUB, -1);
+        }
+        if(property != null){
+            invoke(property[2], "(I)V");
+        }else{
+            invoke("setVariable", "(II)V");
+        }
+        expect(";");
+    }
+
+    private void block() throws ScriptSyntaxException{
+        expect("{");
+        while(!peek().is("}")){
+            if(peek().type == Token.END){
+                throw error(peek(), "expected }");
+            }
+            statement();
+        }
+        take();
+    }
+
+    //expressions, from the loosest binding operator to the tightest - each leaves one int on the stack
+
+    private void expression() throws ScriptSyntaxException{
+        and();
+        if(!peek().is("||")){
+            return;
+        }
+        Label isTrue = new Label();
+        Label end = new Label();
+        code.jump(Code.IFNE, isTrue, -1);
+        while(peek().is("||")){
+            take();
+            and();
+            code.jump(Code.IFNE, isTrue, -1);
+        }
+        pushBoolean(false, isTrue, end);
+    }
+
+    private void and() throws ScriptSyntaxException{
+        comparison();
+        if(!peek().is("&&")){
+            return;
+        }
+        Label isFalse = new Label();
+        Label end = new Label();
+        code.jump(Code.IFEQ, isFalse, -1);
+        while(peek().is("&&")){
+            take();
+            comparison();
+            code.jump(Code.IFEQ, isFalse, -1);
+        }
+        pushBoolean(true, isFalse, end);
+    }
+
+    /**
+     * Pushes the given value, and at the label pushes the other one.
+     */
+    private void pushBoolean(boolean value, Label otherwise, Label end){
+        code.op(value ? Code.ICONST_1 : Code.ICONST_0, 1);
+        code.jump(Code.GOTO, end, -1); //the other branch pushes its own value
+        code.mark(otherwise);
+        code.op(value ? Code.ICONST_0 : Code.ICONST_1, 1);
+        code.mark(end);
+    }
+
+    private void comparison() throws ScriptSyntaxException{
+        sum();
+        String[] operators = {"==", "!=", "<", "<=", ">", ">="};
+        int[] jumpIfNot = {Code.IF_ICMPNE, Code.IF_ICMPEQ, Code.IF_ICMPGE, Code.IF_ICMPGT, Code.IF_ICMPLE, Code.IF_ICMPLT};
+        int operator = indexOf(operators, peek());
+        while(operator >= 0){ //compared left to right, so 3 > 2 == true
+            take();
+            sum();
+            Label isFalse = new Label();
+            code.jump(jumpIfNot[operator], isFalse, -2);
+            pushBoolean(true, isFalse, new Label());
+            operator = indexOf(operators, peek());
+        }
+    }
+
+    private static int indexOf(String[] operators, Token token){
+        for(int i = 0; i < operators.length; i++){
+            if(token.is(operators[i])){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void sum() throws ScriptSyntaxException{
+        term();
+        while(peek().is("+") || peek().is("-")){
+            boolean add = take().is("+");
+            term();
+            code.op(add ? Code.IADD : Code.ISUB, -1);
+        }
+    }
+
+    private void term() throws ScriptSyntaxException{
+        unary();
+        while(peek().is("*") || peek().is("/") || peek().is("%")){
+            Token operator = take();
+            unary();
+            code.op(operator.is("*") ? Code.IMUL : operator.is("/") ? Code.IDIV : Code.IREM, -1);
+        }
+    }
+
+    private void unary() throws ScriptSyntaxException{
+        if(peek().is("-")){
+            take();
+            unary();
+            code.op(Code.INEG, 0);
+        }else if(peek().is("!")){
+            take();
+            unary();
+            Label isZero = new Label();
+            code.jump(Code.IFEQ, isZero, -1);
+            pushBoolean(false, isZero, new Label());
+        }else{
+            primary();
+        }
+    }
+
+    private void primary() throws ScriptSyntaxException{
+        Token token = take();
+        if(token.type == Token.NUMBER){
+            code.push(token.value);
+        }else if(token.is("true") || token.is("false")){
+            code.op(token.is("true") ? Code.ICONST_1 : Code.ICONST_0, 1);
+        }else if(token.is("(")){
+            expression();
+            expect(")");
+        }else if(token.type == Token.NAME && !isKeyword(token.text)){
+            if(peek().is("(")){
+                call(token);
+            }else{
+                load(token.text);
+            }
+        }else{
+            throw error(token, "expected a number, a name or (");
+        }
+    }
+
+    private void call(Token name) throws ScriptSyntaxException{
+        for(String[] function : FUNCTIONS){
+            if(name.is(function[0])){
+                expect("(");
+                code.op(Code.ALOAD_1, 1);
+                expression();
+                expect(")");
+                invoke(function[1], function[2]);
+                return;
+            }
+        }
+        throw error(name, "there is no function called " + name.text);
+    }
+
+    /**
+     * Pushes the value of a property or variable.
+     */
+    private void load(String name){
+        String[] property = getProperty(name);
+        code.op(Code.ALOAD_1, 1);
+        if(property != null){
+            invoke(property[1], "()I");
+        }else{
+            code.push(getVariable(name));
+            invoke("getVariable", "(I)I");
+        }
+    }
+
+    private void invoke(String function, String descriptor){
+        int arguments = 0;
+        for(int i = 1; descriptor.charAt(i) != ')'; i++){
+            if(descriptor.charAt(i) == 'L'){
+                i = descriptor.indexOf(';', i);
+            }
+            arguments++;
+        }
+        boolean returns = !descriptor.endsWith("V");
+        code.invokeInterface(pool.interfaceMethod(API, function, descriptor), arguments + 1, (returns ? 1 : 0) - arguments - 1);
+    }
+
+    private int getVariable(String name){
+        return symbolTable.intern(name);
+    }
+
+    private static String[] getProperty(String name){
+        for(String[] property : PROPERTIES){
+            if(property[0].equals(name)){
+                return property;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isKeyword(String name){
+        for(String keyword : KEYWORDS){
+            if(keyword.equals(name)){
+                return true;
+            }
+        }
+        for(String[] command : COMMANDS){
+            if(command[0].equals(name)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //tokens
+
+    private Token peek(){
+        return tokens.get(next);
+    }
+
+    private Token take(){
+        Token token = tokens.get(next);
+        if(token.type != Token.END){
+            next++;
+        }
+        return token;
+    }
+
+    private void expect(String text) throws ScriptSyntaxException{
+        Token token = take();
+        if(!token.is(text)){
+            throw error(token, "expected " + text);
+        }
+    }
+
+    private static ScriptSyntaxException error(Token token, String message){
+        return new ScriptSyntaxException(message + (token.type == Token.END ? " before the end" : " at '" + token.text + "'"), token.line, token.column);
+    }
+
+    private static ArrayList<Token> tokenize(String source) throws ScriptSyntaxException{
+        ArrayList<Token> tokens = new ArrayList<Token>();
+        int line = 1;
+        int lineStart = 0;
+        int i = 0;
+        while(i < source.length()){
+            char c = source.charAt(i);
+            int column = i - lineStart + 1;
+            if(c == '\n'){
+                line++;
+                lineStart = ++i;
+            }else if(Character.isWhitespace(c)){
+                i++;
+            }else if(source.startsWith("//", i)){
+                while(i < source.length() && source.charAt(i) != '\n'){
+                    i++;
+                }
+            }else if(Character.isDigit(c)){
+                int start = i;
+                while(i < source.length() && Character.isDigit(source.charAt(i))){
+                    i++;
+                }
+                try{
+                    tokens.add(new Token(Token.NUMBER, source.substring(start, i), Integer.parseInt(source.substring(start, i)), line, column));
+                }catch(NumberFormatException e){
+                    throw new ScriptSyntaxException("the number is too large", line, column);
+                }
+            }else if(Character.isLetter(c) || c == '_'){
+                int start = i;
+                while(i < source.length() && (Character.isLetterOrDigit(source.charAt(i)) || source.charAt(i) == '_')){
+                    i++;
+                }
+                tokens.add(new Token(Token.NAME, source.substring(start, i), 0, line, column));
+            }else if(c == '"'){
+                StringBuilder text = new StringBuilder();
+                i++;
+                while(i < source.length() && source.charAt(i) != '"'){
+                    if(source.charAt(i) == '\\' && i + 1 < source.length()){
+                        i++;
+                    }
+                    text.append(source.charAt(i++));
+                }
+                if(i == source.length()){
+                    throw new ScriptSyntaxException("the text is not closed with \"", line, column);
+                }
+                i++;
+                tokens.add(new Token(Token.STRING, text.toString(), 0, line, column));
+            }else{
+                String symbol = null;
+                for(String operator : new String[]{"==", "!=", "<=", ">=", "&&", "||", "+=", "-="}){
+                    if(source.startsWith(operator, i)){
+                        symbol = operator;
+                    }
+                }
+                if(symbol == null){
+                    if("(){};=<>+-*/%!".indexOf(c) < 0){
+                        throw new ScriptSyntaxException("unexpected '" + c + "'", line, column);
+                    }
+                    symbol = String.valueOf(c);
+                }
+                tokens.add(new Token(Token.SYMBOL, symbol, 0, line, column));
+                i += symbol.length();
+            }
+        }
+        tokens.add(new Token(Token.END, "", 0, line, source.length() - lineStart + 1));
+        return tokens;
+    }
+
+    //the class file
+
+    /**
+     * Writes the class file: a final class that implements CompiledScript, with a constructor
+     * and the run() function whose bytecode has been written to the Code.
+     */
+    private byte[] writeClass(){
+        int thisClass = pool.classRef("GameEngine/Script");
+        int superClass = pool.classRef("java/lang/Object");
+        int scriptInterface = pool.classRef("GameEngine/CompiledScript");
+        int superConstructor = pool.method("java/lang/Object", "<init>", "()V");
+        int codeName = pool.utf8("Code");
+        int constructorName = pool.utf8("<init>");
+        int constructorType = pool.utf8("()V");
+        int runName = pool.utf8("run");
+        int runType = pool.utf8("(L" + API + ";)I");
+        code.resolveJumps();
+
+        try{
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            pool.write(out);
+            out.writeShort(0x0031); //public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(scriptInterface);
+            out.writeShort(0); //no fields
+            out.writeShort(2);
+
+            //public <init>() { super(); }
+            byte[] constructor = {0x2a, (byte) 0xb7, (byte) (superConstructor >> 8), (byte) superConstructor, (byte) 0xb1};
+            writeMethod(out, constructorName, constructorType, codeName, 1, 1, constructor);
+
+            //public int run(ScriptApi api)
+            writeMethod(out, runName, runType, codeName, code.getMaxStack(), 2, code.toByteArray());
+
+            out.writeShort(0); //no attributes
+            out.flush();
+            return bytes.toByteArray();
+        }catch(IOException e){
+            throw new IllegalStateException(e); //a ByteArrayOutputStream cannot fail
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int type, int codeName, int maxStack, int maxLocals, byte[] bytecode) throws IOException{
+        out.writeShort(0x0001); //public
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + bytecode.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(bytecode.length);
+        out.write(bytecode);
+        out.writeShort(0); //no exception table
+        out.writeShort(0); //no attributes
+    }
+
+    /**
+     * The ConstantPool class collects the constants of the class file, each only once.
+     */
+    private static class ConstantPool {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+        private int count = 1;
+
+        int utf8(String text){
+            Integer index = indexes.get("utf8 " + text);
+            if(index == null){
+                index = add("utf8 " + text, 1);
+                writeUTF(text);
+            }
+            return index;
+        }
+
+        int classRef(String internalName){
+            return add(7, "class " + internalName, utf8(internalName), -1);
+        }
+
+        int string(String text){
+            return add(8, "string " + text, utf8(text), -1);
+        }
+
+        int integer(int value){
+            Integer index = indexes.get("int " + value);
+            if(index == null){
+                index = add("int " + value, 3);
+                writeInt(value);
+            }
+            return index;
+        }
+
+        int method(String owner, String name, String descriptor){
+            return add(10, "method " + owner + "." + name + descriptor, classRef(owner), nameAndType(name, descriptor));
+        }
+
+        int interfaceMethod(String owner, String name, String descriptor){
+            return add(11, "interface method " + owner + "." + name + descriptor, classRef(owner), nameAndType(name, descriptor));
+        }
+
+        private int nameAndType(String name, String descriptor){
+            return add(12, "name and type " + name + descriptor, utf8(name), utf8(descriptor));
+        }
+
+        /**
+         * Adds a constant that refers to one or two other constants, which have already been added.
+         */
+        private int add(int tag, String key, int first, int second){
+            Integer index = indexes.get(key);
+            if(index == null){
+                index = add(key, tag);
+                writeShort(first);
+                if(second >= 0){
+                    writeShort(second);
+                }
+            }
+            return index;
+        }
+
+        private int add(String key, int tag){
+            int index = count++;
+            indexes.put(key, index);
+            bytes.write(tag);
+            return index;
+        }
+
+        void write(DataOutputStream classFile) throws IOException{
+            classFile.writeShort(count);
+            classFile.write(bytes.toByteArray());
+        }
+
+        private void writeShort(int value){
+            bytes.write(value >> 8);
+            bytes.write(value);
+        }
+
+        private void writeInt(int value){
+            writeShort(value >>> 16);
+            writeShort(value & 0xffff);
+        }
+
+        private void writeUTF(String text){
+            try{
+                out.writeUTF(text); //the modified UTF-8 of class files
+                out.flush();
+            }catch(IOException e){
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * The Code class is the bytecode of run(). It keeps the depth of the operand stack as
+     * instructions are written, for max_stack, and fills in the offsets of jumps once the
+     * labels they jump to are known.
+     */
+    private class Code {
+
+        static final int ICONST_0 = 0x03;
+        static final int ICONST_1 = 0x04;
+        static final int BIPUSH = 0x10;
+        static final int SIPUSH = 0x11;
+        static final int LDC = 0x12;
+        static final int LDC_W = 0x13;
+        static final int ALOAD_1 = 0x2b;
+        static final int IADD = 0x60;
+        static final int ISUB = 0x64;
+        static final int IMUL = 0x68;
+        static final int IDIV = 0x6c;
+        static final int IREM = 0x70;
+        static final int INEG = 0x74;
+        static final int IFEQ = 0x99;
+        static final int IFNE = 0x9a;
+        static final int IF_ICMPEQ = 0x9f;
+        static final int IF_ICMPNE = 0xa0;
+        static final int IF_ICMPLT = 0xa1;
+        static final int IF_ICMPGE = 0xa2;
+        static final int IF_ICMPGT = 0xa3;
+        static final int IF_ICMPLE = 0xa4;
+        static final int GOTO = 0xa7;
+        static final int IRETURN = 0xac;
+        static final int INVOKEINTERFACE = 0xb9;
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final ArrayList<int[]> jumps = new ArrayList<int[]>(); //the position of each jump instruction
+        private final ArrayList<Label> jumpTargets = new ArrayList<Label>();
+        private int depth = 0;
+        private int maxStack = 0;
+
+        void op(int opcode, int stackChange){
+            bytes.write(opcode);
+            changeDepth(stackChange);
+        }
+
+        void push(int value){
+            if(value >= -1 && value <= 5){
+                op(ICONST_0 + value, 1);
+            }else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE){
+                op(BIPUSH, 1);
+                bytes.write(value);
+            }else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE){
+                op(SIPUSH, 1);
+                writeShort(value);
+            }else{
+                ldc(pool.integer(value));
+            }
+        }
+
+        void ldc(int constant){
+            if(constant < 256){
+                op(LDC, 1);
+                bytes.write(constant);
+            }else{
+                op(LDC_W, 1);
+                writeShort(constant);
+            }
+        }
+
+        void invokeInterface(int method, int argumentSlots, int stackChange){
+            op(INVOKEINTERFACE, stackChange);
+            writeShort(method);
+            bytes.write(argumentSlots);
+            bytes.write(0);
+        }
+
+        void jump(int opcode, Label target, int stackChange){
+            jumps.add(new int[]{bytes.size()});
+            jumpTargets.add(target);
+            op(opcode, stackChange);
+            writeShort(0); //filled in by resolveJumps()
+        }
+
+        void mark(Label label){
+            label.position = bytes.size();
+        }
+
+        int length(){
+            return bytes.size();
+        }
+
+        int getMaxStack(){
+            return maxStack;
+        }
+
+        void resolveJumps(){
+            byte[] code = bytes.toByteArray();
+            for(int i = 0; i < jumps.size(); i++){
+                int at = jumps.get(i)[0];
+                int offset = jumpTargets.get(i).position - at;
+                code[at + 1] = (byte) (offset >> 8);
+                code[at + 2] = (byte) offset;
+            }
+            bytes.reset();
+            bytes.write(code, 0, code.length);
+            jumps.clear();
+            jumpTargets.clear();
+        }
+
+        byte[] toByteArray(){
+            return bytes.toByteArray();
+        }
+
+        private void changeDepth(int stackChange){
+            depth += stackChange;
+            maxStack = Math.max(maxStack, depth);
+        }
+
+        private void writeShort(int value){
+            bytes.write(value >> 8);
+            bytes.write(value);
+        }
+    }
+
+    private static class Label {
+
+        int position = -1;
+    }
+
+    private static class Token {
+
+        static final int NUMBER = 0;
+        static final int STRING = 1;
+        static final int NAME = 2;
+        static final int SYMBOL = 3;
+        static final int END = 4;
+
+        final int type;
+        final String text;
+        final int value;
+        final int line;
+        final int column;
+
+        Token(int type, String text, int value, int line, int column){
+            this.type = type;
+            this.text = text;
+            this.value = value;
+            this.line = line;
+            this.column = column;
+        }
+
+        boolean is(String text){
+            return type != STRING && type != END && this.text.equals(text);
+        }
+    }
+}
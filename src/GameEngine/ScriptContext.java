@@ -0,0 +1,195 @@
+package GameEngine;
+
+import Story.Container;
+import Story.Enemy;
+import Story.Hero;
+import Story.Item;
+import Story.NonPlayerCharacter;
+import Story.Passage;
+import Story.Rule;
+import Story.Story;
+
+/**
+ * The ScriptContext class is the ScriptApi of one game, for the scripts and effects of the
+ * rules fired in a turn. Every change goes through the update functions of the GameState, so
+ * that it is versioned for UNDO and saved with the game, and text is added to the turn's
+ * Consequence.
+ */
+class ScriptContext implements ScriptApi {
+
+    private final GameState gameState;
+    private final Consequence consequence;
+
+    /**
+     * The constructor for ScriptContext.
+     *
+     * @param gameState (GameState) the game that scripts are run in
+     * @param consequence (Consequence) the consequence of the turn, that text is shown in
+     */
+    ScriptContext(GameState gameState, Consequence consequence){
+        this.gameState = gameState;
+        this.consequence = consequence;
+    }
+
+    @Override
+    public int getHealth(){
+        return gameState.getHero().getHealth();
+    }
+
+    @Override
+    public void setHealth(int health){
+        Hero hero = gameState.getHero();
+        hero.setHealth(health);
+        gameState.updateHero(hero);
+    }
+
+    @Override
+    public int getAttackPower(){
+        return gameState.getHero().getAttackPower();
+    }
+
+    @Override
+    public void setAttackPower(int attackPower){
+        Hero hero = gameState.getHero();
+        hero.setAttackPower(attackPower);
+        gameState.updateHero(hero);
+    }
+
+    @Override
+    public int getDefence(){
+        return gameState.getHero().getDefense();
+    }
+
+    @Override
+    public void setDefence(int defence){
+        Hero hero = gameState.getHero();
+        hero.setDefense(defence);
+        gameState.updateHero(hero);
+    }
+
+    @Override
+    public int getRoom(){
+        return gameState.getCurrentRoomIndex();
+    }
+
+    @Override
+    public boolean hasItem(int itemIndex){
+        return gameState.getHero().getInventory().containsKey(itemIndex);
+    }
+
+    @Override
+    public void giveItem(int itemIndex){
+        Item item = gameState.getStory().getItem(itemIndex);
+        if(item != null && !gameState.getHero().getInventory().containsKey(itemIndex)){
+            gameState.addToInventory(item);
+            gameState.raiseEvent(Rule.Event.TAKE_ITEM, item.getIndex());
+        }
+    }
+
+    @Override
+    public void removeItem(int itemIndex){
+        gameState.removeFromInventory(itemIndex);
+    }
+
+    @Override
+    public boolean isResolved(int npcIndex){
+        NonPlayerCharacter npc = gameState.getStory().getNonPlayerCharacter(npcIndex);
+        return npc != null && npc.isResolved();
+    }
+
+    @Override
+    public boolean isDead(int enemyIndex){
+        Enemy enemy = gameState.getStory().getEnemy(enemyIndex);
+        return enemy != null && enemy.getHealth() <= 0;
+    }
+
+    @Override
+    public boolean isUnlocked(int passageIndex){
+        Passage passage = gameState.getStory().getPassage(passageIndex);
+        return passage != null && !passage.isLocked();
+    }
+
+    @Override
+    public void unlockPassage(int passageIndex){
+        setLocked(passageIndex, false);
+    }
+
+    @Override
+    public void lockPassage(int passageIndex){
+        setLocked(passageIndex, true);
+    }
+
+    private void setLocked(int passageIndex, boolean locked){
+        Passage passage = gameState.getStory().getPassage(passageIndex);
+        if(passage != null){
+            passage.setLocked(locked);
+            gameState.updatePassage(passage);
+        }
+    }
+
+    @Override
+    public boolean isLooted(int containerIndex){
+        Container container = gameState.getStory().getContainer(containerIndex);
+        return container != null && container.isLooted();
+    }
+
+    @Override
+    public void unlockContainer(int containerIndex){
+        Container container = gameState.getStory().getContainer(containerIndex);
+        if(container != null){
+            container.setLocked(false);
+            gameState.updateContainer(container);
+        }
+    }
+
+    @Override
+    public boolean hasFired(int ruleIndex){
+        return gameState.hasRuleFired(ruleIndex);
+    }
+
+    @Override
+    public void startTimer(int timer, int turns){
+        gameState.startTimer(timer, turns);
+    }
+
+    @Override
+    public void cancelTimer(int timer){
+        gameState.cancelTimer(timer);
+    }
+
+    @Override
+    public int getTimerTurns(int timer){
+        return gameState.getTimerTurns(timer);
+    }
+
+    @Override
+    public void respawnEnemy(int enemyIndex){
+        Enemy enemy = gameState.getStory().getEnemy(enemyIndex);
+        if(enemy != null){
+            enemy.setHealth(enemy.getInitialHealth());
+            gameState.updateEnemy(enemy);
+        }
+    }
+
+    @Override
+    public int random(int bound){
+        return bound > 0 ? gameState.getRandom().nextInt(bound) : 0;
+    }
+
+    @Override
+    public int getVariable(int variable){
+        return gameState.getVariable(variable);
+    }
+
+    @Override
+    public void setVariable(int variable, int value){
+        gameState.setVariable(variable, value);
+    }
+
+    @Override
+    public void say(String text){
+        if(text != null && !text.isEmpty()){
+            consequence.addToConsequence(text);
+        }
+    }
+}
@@ -0,0 +1,521 @@
+package GameEngine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import GameEngine.Exceptions.NoSuchSessionException;
+import SaveLoad.SaveNLoad;
+import Story.Story;
+
+/**
+ * The SessionManager class holds the GameEngines for many concurrent players, e.g. when
+ * the game is hosted on a server. Most of these sessions are idle at any given time, so
+ * sessions that have not received a command for longer than the idle threshold are
+ * passivated - their GameState is written to disk with SaveNLoad and the session is
+ * evicted from memory. A passivated session is reactivated transparently the next time
+ * a command is sent to it.
+ *
+ * The number of resident sessions is bounded. When the bound is exceeded, the least
+ * recently used session is passivated, even if it has not reached the idle threshold.
+ *
+ * Each session has its own lock, so commands for different sessions run at the same time,
+ * and a session is only ever used while its lock is held - commands are sent through the
+ * manager (see withSession()), and a session that is in use is never passivated. Only the
+ * LRU order of the resident sessions is shared, and it is locked just long enough to update.
+ * Session ids are used as file names, so they must be made of letters, digits and '-', such
+ * as a UUID.
+ *
+ * The world of each session moves on by turns. It can also move on by wall clock time (see
+ * setMillisPerTick()), so that the timers of the story keep running while the player is away -
+ * the time that has passed is added to the session's next turn.
+ */
+public class SessionManager {
+
+    private static final String SESSION_FILE_EXTENSION = ".sav";
+    private static final Pattern SESSION_ID = Pattern.compile("[A-Za-z0-9-]{1,64}");
+
+    private final String passivationDirectory;
+    private final int maxResidentSessions;
+    private final long idleThresholdMillis;
+    private final ConcurrentHashMap<String, Session> sessions; //every open session, resident or passivated
+    private final LinkedHashMap<String, Session> residentSessions; //locked on itself
+    private final SaveNLoad saveNLoad = new SaveNLoad();
+    private volatile long millisPerTick = 0;
+    private ScheduledExecutorService idleSweeper;
+
+    //metrics
+    private final AtomicLong passivationCount = new AtomicLong();
+    private final AtomicLong reactivationCount = new AtomicLong();
+    private final AtomicLong totalReactivationNanos = new AtomicLong();
+    private final AtomicLong maxReactivationNanos = new AtomicLong();
+
+    /**
+     * The constructor for the SessionManager.
+     *
+     * @param passivationDirectory (String) the directory that passivated sessions are written to
+     * @param maxResidentSessions (int) the maximum number of sessions that are kept in memory
+     * @param idleThresholdMillis (long) how long a session may be idle before it is passivated
+     */
+    public SessionManager(String passivationDirectory, int maxResidentSessions, long idleThresholdMillis){
+        this.passivationDirectory = passivationDirectory;
+        this.maxResidentSessions = maxResidentSessions;
+        this.idleThresholdMillis = idleThresholdMillis;
+        this.sessions = new ConcurrentHashMap<String, Session>();
+        this.residentSessions = new LinkedHashMap<String, Session>(16, 0.75f, true); //access order == LRU order
+        new File(passivationDirectory).mkdirs();
+    }
+
+    /**
+     * The openSession() function starts a new game for a session and returns
+     * the introduction to the story. A session that already has the id is closed.
+     *
+     * @param sessionId (String) the id of the new session - this is also used as its passivation file name
+     * @param story (Story) the story for the session - this must not be shared with other sessions
+     * @return (Consequence) the introduction text for the story
+     * @throws IllegalArgumentException if the id is not made of letters, digits and '-'
+     */
+    public Consequence openSession(String sessionId, Story story){
+        if(!isValidSessionId(sessionId)){
+            throw new IllegalArgumentException("A session id must be 1 to 64 letters, digits or '-': " + sessionId);
+        }
+        Session session = new Session(sessionId);
+        Consequence introduction;
+        session.lock.lock();
+        try{
+            Session previous = sessions.put(sessionId, session);
+            if(previous != null){
+                previous.lock.lock(); //as in closeSession(), so that a command running on it finishes first
+                try{
+                    close(previous);
+                }finally{
+                    previous.lock.unlock();
+                }
+            }
+            GameEngine gameEngine = new GameEngine(story);
+            introduction = gameEngine.startStory();
+            session.gameEngine = gameEngine;
+            catchUpWallClock(gameEngine);
+            touch(session);
+        }finally{
+            session.lock.unlock();
+        }
+        trimResidentSessions();
+        return introduction;
+    }
+
+    /**
+     * The sendCommand() function passes user input to the GameEngine of a session,
+     * reactivating the session first if it has been passivated.
+     *
+     * @param sessionId (String) the id of the session
+     * @param userInput (String) raw input from the user
+     * @return (Consequence) the consequence of the action taken by the player
+     * @throws NoSuchSessionException
+     */
+    public Consequence sendCommand(String sessionId, String userInput) throws NoSuchSessionException{
+        return withSession(sessionId, gameEngine -> gameEngine.sendCommand(userInput));
+    }
+
+    /**
+     * The sendCommands() function passes a batch of inputs to the GameEngine of a session
+     * as one pipeline (see GameEngine.sendCommands()), so a client can send several turns
+     * in one round trip.
+     *
+     * @param sessionId (String) the id of the session
+     * @param userInputs (List<String>) the raw input for each turn, in order
+     * @return (List<Consequence>) the consequence of each turn that was played
+     * @throws NoSuchSessionException
+     */
+    public List<Consequence> sendCommands(String sessionId, List<String> userInputs) throws NoSuchSessionException{
+        return withSession(sessionId, gameEngine -> gameEngine.sendCommands(userInputs));
+    }
+
+    /**
+     * The complete() function returns the ways that a partly typed command can be finished
+     * in a session (see GameEngine.complete()).
+     *
+     * @param sessionId (String) the id of the session
+     * @param userInput (String) the partly typed command
+     * @return (List<String>) the completed commands
+     * @throws NoSuchSessionException
+     */
+    public List<String> complete(String sessionId, String userInput) throws NoSuchSessionException{
+        return withSession(sessionId, gameEngine -> gameEngine.complete(userInput));
+    }
+
+    /**
+     * The withSession() function runs a task on the GameEngine of a session, reactivating
+     * the session from disk if it has been passivated. The session is locked while the task
+     * runs, so no other command can use it and it cannot be passivated. The task must not
+     * keep the GameEngine once it returns.
+     *
+     * @param sessionId (String) the id of the session
+     * @param task (Function<GameEngine, T>) the work to do with the session's game engine
+     * @return (T) the result of the task
+     * @throws NoSuchSessionException
+     */
+    public <T> T withSession(String sessionId, Function<GameEngine, T> task) throws NoSuchSessionException{
+        Session session = lockSession(sessionId);
+        try{
+            return task.apply(session.gameEngine);
+        }finally{
+            session.lastAccessed = System.currentTimeMillis();
+            session.lock.unlock();
+            trimResidentSessions();
+        }
+    }
+
+    /**
+     * The closeSession() function removes a session from memory and from disk.
+     *
+     * @param sessionId (String) the id of the session
+     */
+    public void closeSession(String sessionId){
+        Session session = isValidSessionId(sessionId) ? sessions.remove(sessionId) : null;
+        if(session != null){
+            session.lock.lock();
+            try{
+                close(session);
+            }finally{
+                session.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The passivateIdleSessions() function writes every session that has been idle
+     * for longer than the idle threshold to disk and evicts it from memory. Sessions are
+     * kept in LRU order, so only the idle sessions at the head of the list are visited.
+     * Sessions that are in use are skipped.
+     *
+     * @return (int) the number of sessions that were passivated
+     */
+    public int passivateIdleSessions(){
+        long now = System.currentTimeMillis();
+        int passivated = 0;
+        for(Session session : getResidentSessions(Integer.MAX_VALUE)){
+            if(now - session.lastAccessed < idleThresholdMillis){
+                break; //every session after this one was used more recently
+            }
+            if(session.lock.tryLock()){
+                try{
+                    if(passivate(session)){
+                        passivated++;
+                    }
+                }finally{
+                    session.lock.unlock();
+                }
+            }
+        }
+        return passivated;
+    }
+
+    /**
+     * The startIdleSweep() function schedules passivateIdleSessions() to run
+     * periodically on a background thread.
+     *
+     * @param periodMillis (long) the time between sweeps
+     */
+    public synchronized void startIdleSweep(long periodMillis){
+        if(idleSweeper == null){
+            idleSweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "session-idle-sweep");
+                thread.setDaemon(true);
+                return thread;
+            });
+            idleSweeper.scheduleAtFixedRate(this::passivateIdleSessions, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The shutdown() function stops the idle sweep and passivates every
+     * resident session so that no progress is lost, waiting for commands that are running.
+     */
+    public synchronized void shutdown(){
+        if(idleSweeper != null){
+            idleSweeper.shutdown(); //not shutdownNow(), which would interrupt a sweep part-way through a save
+            try{
+                idleSweeper.awaitTermination(1, TimeUnit.MINUTES);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            idleSweeper = null;
+        }
+        for(Session session : getResidentSessions(Integer.MAX_VALUE)){
+            session.lock.lock();
+            try{
+                passivate(session);
+            }finally{
+                session.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Utility function that returns the number of sessions held in memory.
+     *
+     * @return (int) the number of resident sessions
+     */
+    public int getResidentSessionCount(){
+        synchronized(residentSessions){
+            return residentSessions.size();
+        }
+    }
+
+    /**
+     * Utility function that returns the number of sessions that have been written to disk.
+     *
+     * @return (int) the number of passivated sessions
+     */
+    public int getPassivatedSessionCount(){
+        return Math.max(sessions.size() - getResidentSessionCount(), 0);
+    }
+
+    /**
+     * Utility function that returns the number of times a session has been passivated.
+     *
+     * @return (long) the total number of passivations
+     */
+    public long getPassivationCount(){
+        return passivationCount.get();
+    }
+
+    /**
+     * Utility function that returns the number of times a session has been reactivated.
+     *
+     * @return (long) the total number of reactivations
+     */
+    public long getReactivationCount(){
+        return reactivationCount.get();
+    }
+
+    /**
+     * Utility function that returns the mean time taken to reactivate a session.
+     *
+     * @return (double) the mean reactivation latency in milliseconds
+     */
+    public double getAverageReactivationMillis(){
+        long count = reactivationCount.get();
+        return count == 0 ? 0.0 : (totalReactivationNanos.get() / (double) count) / 1_000_000.0;
+    }
+
+    /**
+     * Utility function that returns the longest time taken to reactivate a session.
+     *
+     * @return (double) the maximum reactivation latency in milliseconds
+     */
+    public double getMaxReactivationMillis(){
+        return maxReactivationNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * The setMillisPerTick() function makes the world of every session move on by wall clock
+     * time as well as by turns, one tick for each period of the given length.
+     *
+     * @param millisPerTick (long) the wall clock time of one tick, or 0 for turns only
+     */
+    public void setMillisPerTick(long millisPerTick){
+        this.millisPerTick = Math.max(millisPerTick, 0);
+    }
+
+    /**
+     * The lockSession() function finds a session and locks it, reactivating it if it has
+     * been passivated. If the session is closed or replaced while waiting for the lock, the
+     * session that now has the id is used instead.
+     *
+     * @param sessionId (String) the id of the session
+     * @return (Session) the session, locked and resident
+     * @throws NoSuchSessionException
+     */
+    private Session lockSession(String sessionId) throws NoSuchSessionException{
+        while(true){
+            Session session = isValidSessionId(sessionId) ? sessions.get(sessionId) : null;
+            if(session == null){
+                throw new NoSuchSessionException(sessionId);
+            }
+            session.lock.lock();
+            if(session.isClosed){
+                session.lock.unlock();
+                continue;
+            }
+            try{
+                if(session.gameEngine == null){
+                    reactivate(session);
+                }
+                catchUpWallClock(session.gameEngine);
+                touch(session);
+                return session;
+            }catch(NoSuchSessionException | RuntimeException e){
+                session.lock.unlock();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * The trimResidentSessions() function passivates the least recently used sessions while
+     * there are too many resident sessions. Sessions that are in use are skipped.
+     */
+    private void trimResidentSessions(){
+        for(Session eldest : getResidentSessions(getResidentSessionCount() - maxResidentSessions)){
+            if(eldest.lock.tryLock()){
+                try{
+                    passivate(eldest);
+                }finally{
+                    eldest.lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Utility function that returns the least recently used resident sessions.
+     *
+     * @param count (int) the most sessions to return
+     * @return (ArrayList<Session>) the sessions, least recently used first
+     */
+    private ArrayList<Session> getResidentSessions(int count){
+        ArrayList<Session> eldest = new ArrayList<Session>();
+        synchronized(residentSessions){
+            Iterator<Session> resident = residentSessions.values().iterator();
+            while(eldest.size() < count && resident.hasNext()){
+                eldest.add(resident.next());
+            }
+        }
+        return eldest;
+    }
+
+    /**
+     * Marks a session as the most recently used resident session.
+     */
+    private void touch(Session session){
+        session.lastAccessed = System.currentTimeMillis();
+        synchronized(residentSessions){
+            residentSessions.put(session.sessionId, session);
+        }
+    }
+
+    /**
+     * The passivate() function writes the GameState of a session to disk and evicts it from
+     * memory. The caller must hold the session's lock.
+     *
+     * @param session (Session) the session
+     * @return (boolean) true if the session was written to disk
+     */
+    private boolean passivate(Session session){
+        if(session.gameEngine == null || session.isClosed){
+            return false;
+        }
+        if(!SaveNLoad.saveGame(session.gameEngine.getGameState(), getSessionFile(session.sessionId).getPath())){
+            return false;
+        }
+        session.gameEngine.close();
+        session.gameEngine = null;
+        synchronized(residentSessions){
+            residentSessions.remove(session.sessionId, session);
+        }
+        passivationCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * The reactivate() function reads a passivated session back from disk. The caller must
+     * hold the session's lock.
+     *
+     * @param session (Session) the session
+     * @throws NoSuchSessionException
+     */
+    private void reactivate(Session session) throws NoSuchSessionException{
+        long start = System.nanoTime();
+        File sessionFile = getSessionFile(session.sessionId);
+        GameState gameState = sessionFile.isFile() ? saveNLoad.loadGame(sessionFile.getPath()) : null;
+        if(gameState == null){
+            throw new NoSuchSessionException(session.sessionId);
+        }
+        session.gameEngine = new GameEngine(gameState);
+        SaveNLoad.deleteGame(sessionFile.getPath());
+        long latency = System.nanoTime() - start;
+
+        reactivationCount.incrementAndGet();
+        totalReactivationNanos.addAndGet(latency);
+        maxReactivationNanos.accumulateAndGet(latency, Math::max);
+    }
+
+    /**
+     * Closes a session, deleting it from disk if it is passivated. The caller must hold the
+     * session's lock.
+     */
+    private void close(Session session){
+        if(session.gameEngine == null){
+            SaveNLoad.deleteGame(getSessionFile(session.sessionId).getPath());
+        }else{
+            session.gameEngine.close();
+        }
+        session.isClosed = true;
+        session.gameEngine = null;
+        synchronized(residentSessions){
+            residentSessions.remove(session.sessionId, session);
+        }
+    }
+
+    /**
+     * Utility function that checks that a session id is safe to use as a file name.
+     *
+     * @param sessionId (String) the id of the session
+     * @return (boolean) true if the id is 1 to 64 letters, digits or '-'
+     */
+    public static boolean isValidSessionId(String sessionId){
+        return sessionId != null && SESSION_ID.matcher(sessionId).matches();
+    }
+
+    /**
+     * Utility function that counts the wall clock time that has passed in a session since it
+     * was last used, if the world moves on by wall clock time.
+     *
+     * @param gameEngine (GameEngine) the game engine of the session
+     */
+    private void catchUpWallClock(GameEngine gameEngine){
+        if(millisPerTick > 0){
+            gameEngine.getGameState().catchUpWallClock(System.currentTimeMillis(), millisPerTick);
+        }
+    }
+
+    /**
+     * Utility function that returns the file that a session is passivated to.
+     *
+     * @param sessionId (String) the id of the session
+     * @return (File) the passivation file for the session
+     */
+    private File getSessionFile(String sessionId){
+        return new File(passivationDirectory, sessionId + SESSION_FILE_EXTENSION);
+    }
+
+    /**
+     * The Session class is a private utility class that holds the lock of a session, its
+     * GameEngine while it is resident, and the time it was last used.
+     */
+    private static class Session {
+
+        final String sessionId;
+        final ReentrantLock lock = new ReentrantLock();
+        GameEngine gameEngine; //null while passivated
+        boolean isClosed = false;
+        volatile long lastAccessed;
+
+        public Session(String sessionId){
+            this.sessionId = sessionId;
+            this.lastAccessed = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package GameEngine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import Story.Command;
+import Story.CommandTarget;
+import Story.Container;
+import Story.Direction;
+import Story.Enemy;
+import Story.Hero;
+import Story.Item;
+import Story.NonPlayerCharacter;
+import Story.Room;
+
+/**
+ * The TargetCorrector class finds what the player probably meant when the target of a command
+ * does not match anything, e.g. "INSPECT CHSET" when there is a CHEST in the room. It returns
+ * the names of the things the command can be used on that are the fewest edits (letters added,
+ * removed or changed) away from the target, as long as that is at most MAX_DISTANCE edits.
+ * Short targets are allowed fewer edits, so that e.g. "BOX" is not taken to mean "FOX".
+ *
+ * The names are kept in BK-trees - one for each room, one for the inventory and one for the
+ * directions - so a lookup only measures the distance to a few of the names in a large room,
+ * not all of them. A room's tree is built the first time a target in it is corrected and kept
+ * until the room's state version changes; the trees of the last ROOM_CACHE_SIZE rooms are kept.
+ * The inventory's tree is kept until the inventory version of the hero changes.
+ *
+ * One TargetCorrector is used by each game (see GameState.getTargetCorrector()).
+ */
+public class TargetCorrector {
+
+    public static final int MAX_DISTANCE = 2;
+    public static final int ROOM_CACHE_SIZE = 64;
+
+    private static final BKTree DIRECTIONS = new BKTree();
+    static{
+        for(Direction direction : Direction.values()){
+            DIRECTIONS.add(direction.name(), CommandTarget.DIRECTION);
+        }
+    }
+
+    private final LinkedHashMap<Integer, RoomNames> rooms;
+    private BKTree inventory;
+    private int inventoryVersion;
+
+    public TargetCorrector(){
+        this.rooms = new LinkedHashMap<Integer, RoomNames>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, RoomNames> eldest){
+                return size() > ROOM_CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * The correct() function returns the names that the player may have meant by a target
+     * that does not match anything. Nothing is returned if something the player can see is
+     * called exactly that, as then it is the command that was wrong, not the name.
+     *
+     * @param gameState (GameState) the game being played
+     * @param command (Command) the command the target was used with
+     * @param target (String) the target that did not match anything
+     * @return (List<String>) the closest names, in alphabetical order - empty if there are none
+     */
+    public List<String> correct(GameState gameState, Command command, String target){
+        String query = target.toUpperCase();
+        int maxDistance = Math.min(MAX_DISTANCE, (query.length() - 1) / 2);
+        ArrayList<Match> matches = new ArrayList<Match>();
+        getRoomNames(gameState).search(query, maxDistance, matches);
+        getInventoryNames(gameState).search(query, maxDistance, matches);
+        DIRECTIONS.search(query, maxDistance, matches);
+
+        int mask = CommandCompleter.getTargetMask(command);
+        int best = maxDistance + 1;
+        for(Match match : matches){
+            if(match.distance == 0){
+                return new ArrayList<String>();
+            }
+            if((match.node.targets & mask) != 0){
+                best = Math.min(best, match.distance);
+            }
+        }
+        TreeSet<String> closest = new TreeSet<String>();
+        for(Match match : matches){
+            if(match.distance == best && (match.node.targets & mask) != 0){
+                closest.add(match.node.word);
+            }
+        }
+        return new ArrayList<String>(closest);
+    }
+
+    private BKTree getRoomNames(GameState gameState){
+        Room room = gameState.getCurrentRoom();
+        RoomNames names = rooms.get(room.getRoomIndex());
+        if(names != null && names.stateVersion == room.getStateVersion()){
+            return names.tree;
+        }
+
+        BKTree tree = new BKTree();
+        if(room.getContainers() != null){
+            for(int index : room.getContainers()){
+                Container container = gameState.getStory().getContainer(index);
+                tree.add(container == null ? null : container.getName(), CommandTarget.CONTAINER);
+            }
+        }
+        if(room.getEnemies() != null){
+            for(int index : room.getEnemies()){
+                Enemy enemy = gameState.getStory().getEnemy(index);
+                tree.add(enemy == null ? null : enemy.getName(), CommandTarget.ENEMY);
+            }
+        }
+        if(room.getNonPlayerCharacters() != null){
+            for(int index : room.getNonPlayerCharacters()){
+                NonPlayerCharacter npc = gameState.getStory().getNonPlayerCharacter(index);
+                tree.add(npc == null ? null : npc.getName(), CommandTarget.CHARACTER);
+            }
+        }
+        rooms.put(room.getRoomIndex(), new RoomNames(room.getStateVersion(), tree));
+        return tree;
+    }
+
+    private BKTree getInventoryNames(GameState gameState){
+        Hero hero = gameState.getHero();
+        HashMap<Integer, Boolean> items = hero.getInventory();
+        if(inventory != null && hero.getInventoryVersion() == inventoryVersion){
+            return inventory;
+        }
+        inventory = new BKTree();
+        inventoryVersion = hero.getInventoryVersion();
+        for(int index : items.keySet()){
+            Item item = gameState.getStory().getItem(index);
+            inventory.add(item == null ? null : item.getName(), CommandTarget.ITEM);
+        }
+        return inventory;
+    }
+
+    /**
+     * Utility function that returns the Levenshtein distance between two words - the fewest
+     * letters that have to be added, removed or changed to turn one into the other.
+     *
+     * @param a (String) a word
+     * @param b (String) another word
+     * @return (int) the edit distance
+     */
+    static int getDistance(String a, String b){
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for(int j = 0; j <= b.length(); j++){
+            previous[j] = j;
+        }
+        for(int i = 1; i <= a.length(); i++){
+            current[0] = i;
+            for(int j = 1; j <= b.length(); j++){
+                int change = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(change, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    /**
+     * The RoomNames class is the BK-tree of a room, with the state version it was built at.
+     */
+    private static class RoomNames {
+
+        final int stateVersion;
+        final BKTree tree;
+
+        RoomNames(int stateVersion, BKTree tree){
+            this.stateVersion = stateVersion;
+            this.tree = tree;
+        }
+    }
+
+    /**
+     * The BKTree class holds names so that the names within a distance of a word can be found
+     * without measuring the distance to all of them. Each child of a node is filed under its
+     * distance from the node, so by the triangle inequality only the children filed within
+     * maxDistance of the word's own distance from the node can hold a match.
+     */
+    static class BKTree {
+
+        private Node root;
+
+        void add(String name, CommandTarget target){
+            if(name == null || name.isEmpty()){
+                return;
+            }
+            String word = name.toUpperCase();
+            if(root == null){
+                root = new Node(word);
+            }
+            Node node = root;
+            int distance = getDistance(word, node.word);
+            while(distance > 0){
+                if(distance >= node.children.length){
+                    node.children = Arrays.copyOf(node.children, distance + 1);
+                }
+                if(node.children[distance] == null){
+                    node.children[distance] = new Node(word);
+                }
+                node = node.children[distance];
+                distance = getDistance(word, node.word);
+            }
+            node.targets |= 1 << target.ordinal(); //the same name can be used by more than one kind of thing
+        }
+
+        void search(String word, int maxDistance, List<Match> matches){
+            if(root == null){
+                return;
+            }
+            ArrayDeque<Node> stack = new ArrayDeque<Node>();
+            stack.push(root);
+            while(!stack.isEmpty()){
+                Node node = stack.pop();
+                int distance = getDistance(word, node.word);
+                if(distance <= maxDistance){
+                    matches.add(new Match(node, distance));
+                }
+                int last = Math.min(distance + maxDistance, node.children.length - 1);
+                for(int i = Math.max(distance - maxDistance, 1); i <= last; i++){
+                    if(node.children[i] != null){
+                        stack.push(node.children[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Node {
+
+        final String word;
+        int targets;
+        Node[] children = new Node[0];
+
+        Node(String word){
+            this.word = word;
+        }
+    }
+
+    private static class Match {
+
+        final Node node;
+        final int distance;
+
+        Match(Node node, int distance){
+            this.node = node;
+            this.distance = distance;
+        }
+    }
+}
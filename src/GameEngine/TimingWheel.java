@@ -0,0 +1,316 @@
+package GameEngine;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.IntConsumer;
+
+/**
+ * The TimingWheel class holds the timers of a game - e.g. "the candle burns out in 20 turns" -
+ * and tells the game which of them have run out as time passes. Time is counted in ticks,
+ * which are turns (see GameState.tickWorld()).
+ *
+ * The timers are kept in a hierarchical timing wheel: LEVELS wheels of SLOTS slots each,
+ * where a slot of the first wheel is one tick, a slot of the second is SLOTS ticks, and so
+ * on. A timer is put in the lowest wheel whose span still reaches it, and when time reaches
+ * the start of one of its slots it is moved down a wheel, until it is in the first wheel and
+ * runs out. Each slot is a linked list and each timer is also found by its number, so a
+ * timer is started and cancelled in O(1). Each wheel keeps a bit for every slot that has
+ * timers in it, so advancing the wheel jumps straight over empty slots, and costs nothing
+ * at all when there are no timers.
+ *
+ * Timers that are further away than the last wheel reaches are kept in an overflow list,
+ * which is only looked at once each time the last wheel goes round.
+ */
+public class TimingWheel implements Serializable {
+
+    public static final int SLOT_BITS = 6;
+    public static final int SLOTS = 1 << SLOT_BITS; //one bit of a long for each slot
+    public static final int LEVELS = 4;
+
+    private static final long SLOT_MASK = SLOTS - 1;
+    private static final int OVERFLOW = LEVELS;
+
+    private long now;
+    private transient HashMap<Integer, Timer> timers;
+    private transient Timer[][] slots;
+    private transient long[] occupied; //a bit for each slot of each wheel that has timers
+    private transient Timer overflow;
+
+    /**
+     * The constructor for the TimingWheel, at tick 0 with no timers.
+     */
+    public TimingWheel(){
+        this.now = 0;
+        clear();
+    }
+
+    /**
+     * Utility function that returns the current tick.
+     *
+     * @return (long) the number of ticks that have passed
+     */
+    public long getNow(){
+        return now;
+    }
+
+    /**
+     * Utility function that returns the number of timers that have not run out.
+     *
+     * @return (int) the number of pending timers
+     */
+    public int size(){
+        return timers.size();
+    }
+
+    /**
+     * The schedule() function starts a timer, which runs out after the given number of ticks.
+     * If the timer is already running, it is started again.
+     *
+     * @param timer (int) the number of the timer
+     * @param ticks (long) the number of ticks until it runs out - at least 1
+     */
+    public void schedule(int timer, long ticks){
+        scheduleAt(timer, now + Math.max(ticks, 1));
+    }
+
+    /**
+     * The scheduleAt() function starts a timer that runs out at the given tick, e.g. when a
+     * timer is restored. A tick that has already passed is taken as the next one.
+     *
+     * @param timer (int) the number of the timer
+     * @param deadline (long) the tick at which it runs out
+     */
+    public void scheduleAt(int timer, long deadline){
+        cancel(timer);
+        Timer scheduled = new Timer(timer, Math.max(deadline, now + 1));
+        timers.put(timer, scheduled);
+        place(scheduled);
+    }
+
+    /**
+     * The cancel() function stops a timer before it runs out.
+     *
+     * @param timer (int) the number of the timer
+     * @return (boolean) true if the timer was running
+     */
+    public boolean cancel(int timer){
+        Timer cancelled = timers.remove(timer);
+        if(cancelled == null){
+            return false;
+        }
+        unlink(cancelled);
+        return true;
+    }
+
+    /**
+     * Utility function that returns the tick at which a timer runs out.
+     *
+     * @param timer (int) the number of the timer
+     * @return (long) the tick, or -1 if the timer is not running
+     */
+    public long getDeadline(int timer){
+        Timer scheduled = timers.get(timer);
+        return scheduled == null ? -1 : scheduled.deadline;
+    }
+
+    /**
+     * The advance() function moves time forward, passing the number of each timer that runs
+     * out to the consumer, in the order they run out. The consumer may start and cancel
+     * timers, including the ones it is given.
+     *
+     * @param ticks (long) the number of ticks that pass
+     * @param expired (IntConsumer) told the number of each timer that runs out
+     */
+    public void advance(long ticks, IntConsumer expired){
+        long target = now + ticks;
+        while(now < target){
+            if(timers.isEmpty()){
+                now = target; //nothing can run out
+                return;
+            }
+
+            //the next tick that anything can happen at - a used slot of the first wheel, or the start of its next turn
+            int slot = (int) (now & SLOT_MASK);
+            long later = slot == SLOT_MASK ? 0 : occupied[0] & (-1L << (slot + 1));
+            long next = later != 0 ? (now & ~SLOT_MASK) + Long.numberOfTrailingZeros(later) : (now | SLOT_MASK) + 1;
+            now = Math.min(next, target);
+
+            if((now & SLOT_MASK) == 0){
+                cascade();
+            }
+            slot = (int) (now & SLOT_MASK);
+            if((occupied[0] & (1L << slot)) != 0){
+                expire(slots[0][slot], expired);
+            }
+        }
+    }
+
+    /**
+     * The reset() function moves the wheel to a tick, keeping the deadlines of its timers,
+     * e.g. when a move is undone. Timers whose deadline has passed run out at the next tick.
+     *
+     * @param tick (long) the new current tick
+     */
+    public void reset(long tick){
+        ArrayList<Timer> pending = new ArrayList<Timer>(timers.values());
+        clear();
+        now = tick;
+        for(Timer timer : pending){
+            scheduleAt(timer.timer, timer.deadline);
+        }
+    }
+
+    /**
+     * Moves the timers of the wheels whose slots start at this tick down towards the first
+     * wheel, from the highest wheel that has turned to the lowest.
+     */
+    private void cascade(){
+        int levels = 1;
+        while(levels < LEVELS && ((now >>> (SLOT_BITS * levels)) & SLOT_MASK) == 0){
+            levels++;
+        }
+        if(levels == LEVELS && overflow != null){
+            Timer timer = overflow;
+            overflow = null;
+            replace(timer);
+        }
+        for(int level = Math.min(levels, LEVELS - 1); level >= 1; level--){
+            int slot = (int) ((now >>> (SLOT_BITS * level)) & SLOT_MASK);
+            if((occupied[level] & (1L << slot)) != 0){
+                Timer timer = slots[level][slot];
+                slots[level][slot] = null;
+                occupied[level] &= ~(1L << slot);
+                replace(timer);
+            }
+        }
+    }
+
+    /**
+     * Places each timer of a list that has been taken out of a slot again.
+     */
+    private void replace(Timer timer){
+        while(timer != null){
+            Timer next = timer.next;
+            timer.previous = null;
+            timer.next = null;
+            place(timer);
+            timer = next;
+        }
+    }
+
+    /**
+     * Runs out the timers of a slot of the first wheel, which all run out now.
+     */
+    private void expire(Timer timer, IntConsumer expired){
+        int slot = (int) (now & SLOT_MASK);
+        slots[0][slot] = null;
+        occupied[0] &= ~(1L << slot);
+        ArrayList<Integer> numbers = new ArrayList<Integer>();
+        for(; timer != null; timer = timer.next){
+            timers.remove(timer.timer);
+            numbers.add(timer.timer);
+        }
+        for(int number : numbers){ //after the slot is empty, so that the consumer can start them again
+            expired.accept(number);
+        }
+    }
+
+    /**
+     * Puts a timer in the lowest wheel whose current turn its deadline is in.
+     */
+    private void place(Timer timer){
+        int level = 0;
+        while(level < LEVELS && (timer.deadline >>> (SLOT_BITS * (level + 1))) != (now >>> (SLOT_BITS * (level + 1)))){
+            level++;
+        }
+        timer.level = level;
+        if(level == OVERFLOW){
+            push(timer, overflow);
+            overflow = timer;
+            return;
+        }
+        int slot = (int) ((timer.deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+        timer.slot = slot;
+        push(timer, slots[level][slot]);
+        slots[level][slot] = timer;
+        occupied[level] |= 1L << slot;
+    }
+
+    private static void push(Timer timer, Timer head){
+        timer.previous = null;
+        timer.next = head;
+        if(head != null){
+            head.previous = timer;
+        }
+    }
+
+    private void unlink(Timer timer){
+        if(timer.next != null){
+            timer.next.previous = timer.previous;
+        }
+        if(timer.previous != null){
+            timer.previous.next = timer.next;
+        }else if(timer.level == OVERFLOW){
+            overflow = timer.next;
+        }else{
+            slots[timer.level][timer.slot] = timer.next;
+            if(timer.next == null){
+                occupied[timer.level] &= ~(1L << timer.slot);
+            }
+        }
+        timer.previous = null;
+        timer.next = null;
+    }
+
+    private void clear(){
+        timers = new HashMap<Integer, Timer>();
+        slots = new Timer[LEVELS][SLOTS];
+        occupied = new long[LEVELS];
+        overflow = null;
+    }
+
+    /**
+     * The timers are saved as their numbers and deadlines, rather than as the linked lists
+     * of the wheels.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException{
+        out.defaultWriteObject();
+        out.writeInt(timers.size());
+        for(Timer timer : timers.values()){
+            out.writeInt(timer.timer);
+            out.writeLong(timer.deadline);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+        in.defaultReadObject();
+        clear();
+        int count = in.readInt();
+        for(int i = 0; i < count; i++){
+            int timer = in.readInt();
+            scheduleAt(timer, in.readLong());
+        }
+    }
+
+    /**
+     * The Timer class is one pending timer, linked into the slot it is in.
+     */
+    private static class Timer {
+
+        final int timer;
+        final long deadline;
+        int level;
+        int slot;
+        Timer previous;
+        Timer next;
+
+        Timer(int timer, long deadline){
+            this.timer = timer;
+            this.deadline = deadline;
+        }
+    }
+}
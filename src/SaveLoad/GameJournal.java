@@ -0,0 +1,641 @@
+package SaveLoad;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import GameEngine.GameEngine;
+import GameEngine.GameState;
+import StoryParser.StoryCache;
+
+/**
+ * The GameJournal class records a game as the story it was started from, the seed of its
+ * dice and every line of input that the player has sent, in order. Because the GameEngine is
+ * deterministic for a given story and seed, this is enough to rebuild the GameState exactly, so
+ * saving a turn only appends one line of input to the journal file.
+ *
+ * Replaying a long game from the start would be slow, so a full GameState snapshot is also
+ * written with SaveNLoad every snapshotInterval turns. A game is restored by loading the nearest
+ * snapshot at or before the wanted turn and replaying the rest of the input through
+ * GameEngine.sendCommand(). Restoring to an earlier turn than the last one is how a bug report
+ * is stepped through one turn at a time.
+ *
+ * The journal file is laid out as a header (magic number, version, story path, a hash of the
+ * story's content, seed and snapshot interval) followed by one record per turn (the length of
+ * the input in bytes, the input in UTF-8 and a CRC32 of the input). Snapshots are written next
+ * to the journal as "<journal>.<turn>.snap".
+ *
+ * Every turn is recorded, but the game is only saved when the player saves it: markSaved()
+ * writes a save marker (a record of length SAVE_MARKER) after the last turn, and loading the
+ * game restores the turn of the last marker, not the last turn - which may be the hero's death.
+ * A new journal is written to "<journal>.new" until its game is first saved, so that starting
+ * a new game does not replace the saved one until the player saves over it.
+ */
+public class GameJournal implements Closeable {
+
+    public static final String JOURNAL_PATH = "res/dreamfactory.journal";
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 50;
+
+    private static final int MAGIC = 0x44464a4c; //"DFJL"
+    private static final int VERSION = 3;
+    private static final int UNHASHED_VERSION = 2; //journals written before the header had the story hash and turns had save markers
+    private static final int UNCHECKED_VERSION = 1; //journals written before records had a checksum
+    private static final int SAVE_MARKER = -1;
+    private static final int RETAINED_SNAPSHOTS = 2;
+    private static final String SNAPSHOT_EXTENSION = ".snap";
+    private static final String PENDING_EXTENSION = ".new";
+
+    private final String path;
+    private final String storyPath;
+    private String storyHash;
+    private final long seed;
+    private final int snapshotInterval;
+    private final ArrayList<String> inputs;
+    private final TreeMap<Integer, File> snapshots;
+    private DataOutputStream journal;
+    private boolean uncheckedRecords;
+    private boolean pending; //not saved yet - written to the pending file rather than the journal path
+    private long length; //the bytes written to the journal file, or 0 if it has not been written
+    private int savedTurn = -1;
+    private long savedLength;
+
+    private GameJournal(String path, String storyPath, String storyHash, long seed, int snapshotInterval){
+        this.path = path;
+        this.storyPath = storyPath;
+        this.storyHash = storyHash;
+        this.seed = seed;
+        this.snapshotInterval = snapshotInterval;
+        this.inputs = new ArrayList<String>();
+        this.snapshots = new TreeMap<Integer, File>();
+    }
+
+    /**
+     * The create() function starts a new journal. It is written to "<path>.new" until the
+     * game is first saved (see markSaved()), so a journal that was saved at the same path is
+     * only replaced when the new game is saved over it.
+     *
+     * @param path (String) the journal file
+     * @param storyPath (String) the story file that the game was started from
+     * @param seed (long) the seed of the game's GameState
+     * @return (GameJournal) the new, empty journal
+     */
+    public static GameJournal create(String path, String storyPath, long seed){
+        return create(path, storyPath, seed, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * The create() function starts a new journal with the given snapshot interval.
+     *
+     * @param path (String) the journal file
+     * @param storyPath (String) the story file that the game was started from
+     * @param seed (long) the seed of the game's GameState
+     * @param snapshotInterval (int) the number of turns between snapshots
+     * @return (GameJournal) the new, empty journal
+     */
+    public static GameJournal create(String path, String storyPath, long seed, int snapshotInterval){
+        GameJournal gameJournal = new GameJournal(path, storyPath, null, seed, Math.max(snapshotInterval, 1));
+        gameJournal.pending = true;
+        return gameJournal;
+    }
+
+    /**
+     * The open() function reads an existing journal and the list of its snapshots, ready to
+     * be restored and appended to. A record that was only partly written (e.g. because the
+     * game was killed mid-turn), or whose checksum does not match, is cut off along with
+     * everything after it.
+     *
+     * A journal written before save markers were recorded was saved on every turn, so its
+     * last turn is taken as its save point.
+     *
+     * @param path (String) the journal file
+     * @return (GameJournal) the journal
+     * @throws IOException if the file is missing or is not a journal
+     */
+    public static GameJournal open(String path) throws IOException{
+        GameJournal gameJournal;
+        long validLength;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))){
+            int version;
+            if(in.readInt() != MAGIC || ((version = in.readInt()) != VERSION && version != UNHASHED_VERSION && version != UNCHECKED_VERSION)){
+                throw new IOException(path + " is not a game journal");
+            }
+            String storyPath = readString(in);
+            gameJournal = new GameJournal(path, storyPath, version == VERSION ? readString(in) : null, in.readLong(), in.readInt());
+            validLength = gameJournal.getHeaderLength();
+            long fileLength = new File(path).length();
+            try{
+                while(true){
+                    int length = in.readInt();
+                    if(length == SAVE_MARKER){
+                        validLength += 4;
+                        gameJournal.savedTurn = gameJournal.inputs.size();
+                        gameJournal.savedLength = validLength;
+                        continue;
+                    }
+                    if(length < 0 || validLength + 4 + length > fileLength){
+                        break; //torn or damaged length
+                    }
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    if(version != UNCHECKED_VERSION){
+                        if(in.readInt() != (int) checksum(bytes)){
+                            break;
+                        }
+                        validLength += 4;
+                    }
+                    gameJournal.inputs.add(new String(bytes, StandardCharsets.UTF_8));
+                    validLength += 4 + length;
+                }
+            }catch(EOFException e){
+                //end of the journal
+            }
+            if(version == UNCHECKED_VERSION){
+                gameJournal.uncheckedRecords = true;
+            }
+            if(version != VERSION && gameJournal.savedTurn < 0){ //saved on every turn
+                gameJournal.savedTurn = gameJournal.inputs.size();
+                gameJournal.savedLength = validLength;
+            }
+            gameJournal.length = validLength;
+        }
+
+        try(RandomAccessFile file = new RandomAccessFile(path, "rw")){
+            if(file.length() > validLength){
+                file.setLength(validLength);
+            }
+        }
+
+        for(Map.Entry<Integer, File> snapshot : gameJournal.listSnapshots(path).entrySet()){
+            if(snapshot.getKey() <= gameJournal.inputs.size()){
+                gameJournal.snapshots.put(snapshot.getKey(), snapshot.getValue());
+            }else{
+                SaveNLoad.deleteGame(snapshot.getValue().getPath()); //ahead of the journal - its turns were lost
+            }
+        }
+        return gameJournal;
+    }
+
+    /**
+     * Utility function that checks whether a journal has been written at the given path.
+     *
+     * @param path (String) the journal file
+     * @return (boolean) true if the file exists
+     */
+    public static boolean exists(String path){
+        return new File(path).isFile();
+    }
+
+    /**
+     * The append() function records the input for a turn that has just been played, and
+     * writes a snapshot of the GameState if this turn is on the snapshot interval.
+     *
+     * @param userInput (String) the raw input that was sent to the GameEngine
+     * @param gameState (GameState) the game state after the turn
+     * @return (boolean) true if the turn was recorded
+     */
+    public synchronized boolean append(String userInput, GameState gameState){
+        return append(userInput, gameState, true);
+    }
+
+    /**
+     * The append() function records a turn as above. A batch of turns (see
+     * GameEngine.sendCommands()) is appended without flushing each turn, and flushed
+     * once at the end with flush().
+     *
+     * @param userInput (String) the raw input that was sent to the GameEngine
+     * @param gameState (GameState) the game state after the turn
+     * @param flush (boolean) true to flush the journal file after this turn
+     * @return (boolean) true if the turn was recorded
+     */
+    public synchronized boolean append(String userInput, GameState gameState, boolean flush){
+        try{
+            DataOutputStream out = getJournal();
+            byte[] bytes = userInput.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            if(!uncheckedRecords){
+                out.writeInt((int) checksum(bytes));
+            }
+            length += 4 + bytes.length + (uncheckedRecords ? 0 : 4);
+            if(flush || (inputs.size() + 1) % snapshotInterval == 0){ //a snapshot must never be ahead of the journal
+                out.flush();
+            }
+        }catch(IOException e){
+            e.printStackTrace();
+            return false;
+        }
+        inputs.add(userInput);
+        if(inputs.size() % snapshotInterval == 0){
+            snapshot(gameState);
+        }
+        return true;
+    }
+
+    /**
+     * The flush() function writes any turns that were appended without flushing to the
+     * journal file.
+     *
+     * @return (boolean) true if the journal was flushed
+     */
+    public synchronized boolean flush(){
+        try{
+            getJournal().flush();
+            return true;
+        }catch(IOException e){
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * The snapshot() function writes the GameState for the current turn with SaveNLoad, so
+     * that restoring the game does not need to replay anything before this turn. Only the most
+     * recent snapshots are kept - earlier turns can still be rebuilt from the start of the journal.
+     *
+     * A snapshot at turn 0 is kept for good. It is how a journal records a game that did not
+     * start at the beginning of the story, e.g. one that was loaded from a save slot.
+     *
+     * @param gameState (GameState) the game state after the last appended turn
+     * @return (boolean) true if the snapshot was written
+     */
+    public synchronized boolean snapshot(GameState gameState){
+        int turn = inputs.size();
+        if(snapshots.containsKey(turn)){
+            return true;
+        }
+        try{
+            getJournal(); //the journal must exist for the snapshot to be found again
+        }catch(IOException e){
+            e.printStackTrace();
+            return false;
+        }
+        File file = getSnapshotFile(getFilePath(), turn);
+        if(!SaveNLoad.saveGame(gameState, file.getPath())){
+            return false;
+        }
+        snapshots.put(turn, file);
+        while(snapshots.size() > RETAINED_SNAPSHOTS + (snapshots.containsKey(0) ? 1 : 0)){
+            Integer oldest = snapshots.containsKey(0) ? snapshots.higherKey(0) : snapshots.firstKey();
+            SaveNLoad.deleteGame(snapshots.remove(oldest).getPath());
+        }
+        return true;
+    }
+
+    /**
+     * The markSaved() function records that the game was saved after the last appended
+     * turn, which is the turn that restoreSaved() loads. The first time a new journal is saved,
+     * it replaces the journal that was saved at its path before.
+     *
+     * @return (boolean) true if the save marker was written
+     */
+    public synchronized boolean markSaved(){
+        try{
+            DataOutputStream out = getJournal();
+            out.writeInt(SAVE_MARKER);
+            out.flush();
+            length += 4;
+            savedTurn = inputs.size();
+            savedLength = length;
+            if(pending){
+                promote();
+            }
+            return true;
+        }catch(IOException e){
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Utility function that checks whether the game in the journal has been saved.
+     *
+     * @return (boolean) true if there is a save point to restore
+     */
+    public synchronized boolean hasSavedGame(){
+        return savedTurn >= 0;
+    }
+
+    /**
+     * Utility function that returns the turn that the game was last saved after.
+     *
+     * @return (int) the saved turn, or -1 if the game has not been saved
+     */
+    public synchronized int getSavedTurn(){
+        return savedTurn;
+    }
+
+    /**
+     * Utility function that checks whether the journal is still a new game that has not been
+     * saved, and so has not replaced the journal saved at its path.
+     *
+     * @return (boolean) true if the journal has not been saved
+     */
+    public synchronized boolean isPending(){
+        return pending;
+    }
+
+    /**
+     * The restoreSaved() function rebuilds the game as it was when it was last saved, and
+     * cuts the turns that were played after that off the journal, so that recording carries
+     * on from the save point.
+     *
+     * @return (GameEngine) a GameEngine holding the saved game
+     * @throws IOException if the game has not been saved, or it cannot be restored
+     */
+    public synchronized GameEngine restoreSaved() throws IOException{
+        if(savedTurn < 0){
+            throw new IOException(path + " has no saved game");
+        }
+        GameEngine gameEngine = restore(savedTurn);
+        close();
+        try(RandomAccessFile file = new RandomAccessFile(getFilePath(), "rw")){
+            file.setLength(savedLength);
+        }
+        length = savedLength;
+        inputs.subList(savedTurn, inputs.size()).clear();
+        while(!snapshots.isEmpty() && snapshots.lastKey() > savedTurn){
+            SaveNLoad.deleteGame(snapshots.remove(snapshots.lastKey()).getPath());
+        }
+        return gameEngine;
+    }
+
+    /**
+     * The restore() function rebuilds the game as it was after the last recorded turn.
+     *
+     * @return (GameEngine) a GameEngine holding the restored game
+     * @throws IOException if the story or a snapshot cannot be read
+     */
+    public GameEngine restore() throws IOException{
+        return restore(getTurnCount());
+    }
+
+    /**
+     * The restore() function rebuilds the game as it was after the given turn, starting
+     * from the nearest snapshot at or before it. The GameEngine that is returned does not
+     * record to this journal.
+     *
+     * The restored GameHistory shares its segment file with the game it was recorded from,
+     * and forks its own copy when it next spills (see GameHistory).
+     *
+     * @param turn (int) the number of turns to restore
+     * @return (GameEngine) a GameEngine holding the restored game
+     * @throws IOException if the story or a snapshot cannot be read
+     */
+    public GameEngine restore(int turn) throws IOException{
+        return restore(turn, true);
+    }
+
+    /**
+     * The restore() function rebuilds the game after the given turn, optionally ignoring
+     * the snapshots and replaying every turn from the start of the story.
+     *
+     * @param turn (int) the number of turns to restore
+     * @param fromSnapshot (boolean) whether the nearest snapshot may be used
+     * @return (GameEngine) a GameEngine holding the restored game
+     * @throws IOException if the story or a snapshot cannot be read
+     */
+    synchronized GameEngine restore(int turn, boolean fromSnapshot) throws IOException{
+        turn = Math.max(0, Math.min(turn, inputs.size()));
+
+        GameEngine gameEngine = null;
+        int firstTurn = 0;
+        if(fromSnapshot){
+            for(Map.Entry<Integer, File> snapshot = snapshots.floorEntry(turn); snapshot != null; snapshot = snapshots.lowerEntry(snapshot.getKey())){
+                GameState gameState = new SaveNLoad().loadGame(snapshot.getValue().getPath());
+                if(gameState != null){
+                    gameEngine = new GameEngine(gameState);
+                    firstTurn = snapshot.getKey();
+                    break;
+                }
+            }
+        }
+        if(firstTurn < turn || gameEngine == null){
+            checkStoryHash(); //the turns are replayed against the story, which must not have changed
+        }
+        if(gameEngine == null){
+            gameEngine = new GameEngine(StoryCache.getSharedCache().load(storyPath), seed);
+            gameEngine.startStory();
+        }
+
+        gameEngine.replay(inputs.subList(firstTurn, turn));
+        return gameEngine;
+    }
+
+    /**
+     * Utility function that returns the number of turns in the journal.
+     *
+     * @return (int) the number of recorded turns
+     */
+    public synchronized int getTurnCount(){
+        return inputs.size();
+    }
+
+    /**
+     * Utility function that returns the recorded input for a range of turns.
+     *
+     * @param firstTurn (int) the first turn
+     * @param lastTurn (int) the turn after the last turn
+     * @return (List<String>) the input for each turn, in order
+     */
+    public synchronized List<String> getInputs(int firstTurn, int lastTurn){
+        return Collections.unmodifiableList(new ArrayList<String>(inputs.subList(firstTurn, lastTurn)));
+    }
+
+    /**
+     * Utility function that returns the path of the story file that the game was started from.
+     *
+     * @return (String) the story path
+     */
+    public String getStoryPath(){
+        return storyPath;
+    }
+
+    /**
+     * Utility function that returns the hash of the story's content when the game was started.
+     *
+     * @return (String) the story hash, or null if the journal was written without one
+     */
+    public synchronized String getStoryHash(){
+        return storyHash;
+    }
+
+    /**
+     * Utility function that returns the seed that the game was started with.
+     *
+     * @return (long) the seed
+     */
+    public long getSeed(){
+        return seed;
+    }
+
+    /**
+     * Utility function that returns the journal file.
+     *
+     * @return (String) the journal path
+     */
+    public String getPath(){
+        return path;
+    }
+
+    /**
+     * The close() function closes the journal file. Every appended turn has already been flushed.
+     */
+    @Override
+    public synchronized void close() throws IOException{
+        if(journal != null){
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Utility function that returns the journal file stream, writing a new journal
+     * (and discarding the snapshots of an older one) the first time it is needed.
+     *
+     * @return (DataOutputStream) the stream that turns are appended to
+     */
+    private DataOutputStream getJournal() throws IOException{
+        if(journal == null){
+            boolean created = length == 0;
+            if(created && storyHash == null){
+                storyHash = StoryCache.getSharedCache().getContentHash(storyPath);
+            }
+            journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getFilePath(), !created)));
+            if(created){
+                uncheckedRecords = false;
+                deleteSnapshots(getFilePath());
+                journal.writeInt(MAGIC);
+                journal.writeInt(VERSION);
+                writeString(journal, storyPath);
+                writeString(journal, storyHash);
+                journal.writeLong(seed);
+                journal.writeInt(snapshotInterval);
+                journal.flush();
+                length = getHeaderLength();
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * The promote() function moves a new journal, and its snapshots, over the journal
+     * that was saved at its path, the first time it is saved.
+     */
+    private void promote() throws IOException{
+        close();
+        String pendingPath = getFilePath();
+        Files.move(new File(pendingPath).toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        pending = false;
+        deleteSnapshots(path);
+        for(Map.Entry<Integer, File> snapshot : snapshots.entrySet()){
+            File file = getSnapshotFile(path, snapshot.getKey());
+            SaveNLoad.moveGame(snapshot.getValue().getPath(), file.getPath());
+            snapshot.setValue(file);
+        }
+    }
+
+    /**
+     * The checkStoryHash() function checks that the story file has not changed since the
+     * game was recorded, because the recorded turns would not replay to the same game.
+     *
+     * @throws IOException if the story has changed, or cannot be read
+     */
+    private void checkStoryHash() throws IOException{
+        if(storyHash != null && !storyHash.equals(StoryCache.getSharedCache().getContentHash(storyPath))){
+            throw new IOException(storyPath + " has changed since the game in " + path + " was played");
+        }
+    }
+
+    /**
+     * Utility function that returns the file that the journal is written to - the pending
+     * file until the game has been saved.
+     *
+     * @return (String) the path of the journal file
+     */
+    private String getFilePath(){
+        return pending ? path + PENDING_EXTENSION : path;
+    }
+
+    /**
+     * Utility function that lists the snapshot files of a journal file, by turn.
+     *
+     * @param journalPath (String) the journal file
+     * @return (TreeMap<Integer, File>) the snapshot of each turn
+     */
+    private TreeMap<Integer, File> listSnapshots(String journalPath){
+        TreeMap<Integer, File> found = new TreeMap<Integer, File>();
+        String prefix = new File(journalPath).getName() + ".";
+        File[] files = getSnapshotDirectory().listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(SNAPSHOT_EXTENSION));
+        if(files != null){
+            for(File file : files){
+                String turn = file.getName().substring(prefix.length(), file.getName().length() - SNAPSHOT_EXTENSION.length());
+                try{
+                    found.put(Integer.parseInt(turn), file);
+                }catch(NumberFormatException e){
+                    //not one of ours - e.g. a snapshot of the pending journal
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Utility function that deletes every snapshot file belonging to a journal file.
+     *
+     * @param journalPath (String) the journal file
+     */
+    private void deleteSnapshots(String journalPath){
+        for(File file : listSnapshots(journalPath).values()){
+            SaveNLoad.deleteGame(file.getPath());
+        }
+    }
+
+    private File getSnapshotFile(String journalPath, int turn){
+        return new File(getSnapshotDirectory(), new File(journalPath).getName() + "." + turn + SNAPSHOT_EXTENSION);
+    }
+
+    private File getSnapshotDirectory(){
+        File directory = new File(path).getAbsoluteFile().getParentFile();
+        return directory == null ? new File(".") : directory;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException{
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static long checksum(byte[] bytes){
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    private static String readString(DataInputStream in) throws IOException{
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long getHeaderLength(){
+        long hashLength = storyHash == null ? 0 : 4 + storyHash.getBytes(StandardCharsets.UTF_8).length;
+        return 4 + 4 + 4 + storyPath.getBytes(StandardCharsets.UTF_8).length + hashLength + 8 + 4;
+    }
+}
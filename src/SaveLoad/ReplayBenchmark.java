@@ -0,0 +1,78 @@
+package SaveLoad;
+
+import java.io.IOException;
+
+import GameEngine.GameEngine;
+import StoryParser.Parser;
+
+/**
+ * The ReplayBenchmark class measures how quickly a GameJournal can be replayed, in turns
+ * per second. Every run rebuilds the game from the start of the story, ignoring snapshots,
+ * so the result is the cost of the worst-case load between two snapshots.
+ *
+ * Usage: ReplayBenchmark <journal> [runs] [turns]
+ *
+ * If the journal does not exist, a game of the given number of turns is recorded first by
+ * cycling through a fixed list of commands.
+ */
+public class ReplayBenchmark {
+
+    private static final String STORY_PATH = "res/story/story.json";
+    private static final String[] COMMANDS = {
+        "EXPLORE", "GREET LITTLE GIRL", "TAKE IT", "INVENTORY", "INSPECT DREAM AMULET", "LOOK SOUTH",
+        "ATTACK GIANT ROCK SPIDER", "ATTACK", "BLOCK", "DODGE", "ATTACK", "ESCAPE", "EXPLORE", "HELP"
+    };
+
+    public static void main(String[] args) throws IOException{
+        String journalPath = args.length > 0 ? args[0] : "res/benchmark.journal";
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int turns = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        if(!GameJournal.exists(journalPath)){
+            record(journalPath, turns);
+        }
+
+        try(GameJournal gameJournal = GameJournal.open(journalPath)){
+            int turnCount = gameJournal.getTurnCount();
+            gameJournal.restore(turnCount, false); //warm up
+
+            long totalNanos = 0;
+            long fastestNanos = Long.MAX_VALUE;
+            for(int i = 0; i < runs; i++){
+                long start = System.nanoTime();
+                gameJournal.restore(turnCount, false);
+                long elapsed = System.nanoTime() - start;
+                totalNanos += elapsed;
+                fastestNanos = Math.min(fastestNanos, elapsed);
+            }
+
+            long start = System.nanoTime();
+            gameJournal.restore(turnCount, true);
+            long fromSnapshotNanos = System.nanoTime() - start;
+
+            System.out.println(String.format("Replayed %d turns %d times", turnCount, runs));
+            System.out.println(String.format("Mean: %.0f turns/s", turnCount / (totalNanos / (double) runs / 1_000_000_000.0)));
+            System.out.println(String.format("Best: %.0f turns/s", turnCount / (fastestNanos / 1_000_000_000.0)));
+            System.out.println(String.format("Load from nearest snapshot: %.2f ms", fromSnapshotNanos / 1_000_000.0));
+        }
+    }
+
+    /**
+     * The record() function plays a game of the given length and records it to a journal.
+     *
+     * @param journalPath (String) the journal file
+     * @param turns (int) the number of turns to play
+     */
+    private static void record(String journalPath, int turns) throws IOException{
+        long seed = 0;
+        GameEngine gameEngine = new GameEngine(Parser.parse(STORY_PATH), seed);
+        try(GameJournal gameJournal = GameJournal.create(journalPath, STORY_PATH, seed)){
+            gameEngine.record(gameJournal);
+            gameEngine.startStory();
+            for(int i = 0; i < turns; i++){
+                gameEngine.sendCommand(COMMANDS[i % COMMANDS.length]);
+            }
+            gameJournal.markSaved(); //a new journal is only written to its path once it is saved
+        }
+    }
+}
@@ -3,50 +3,498 @@ package SaveLoad;
 import GameEngine.GameState;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import GameEngine.GameHistory;
 
 /**
  * This class is to save and load current game status.
  * With the use of serialization.
  *
+ * A save is never written straight onto the live save file. It is written to a temporary
+ * file, between a header (magic number and version) and a trailer holding its length and
+ * CRC32, forced to disk and then renamed over the save file in one atomic step, so a crash
+ * part-way through a save cannot damage the last good save, and there is always a live save.
+ * The directory is then forced to disk as well, so that the rename survives a power loss.
+ * The previous GENERATIONS - 1 saves are kept as "<save>.1", "<save>.2", etc. - the live save
+ * is linked (or copied) to "<save>.1" before it is replaced - and if the newest save cannot
+ * be read (e.g. its checksum does not match) the newest valid older generation is loaded
+ * instead.
+ *
+ * The GameHistory segment that each save refers to is written down in REFERENCES_PATH as the
+ * save is written, moved or deleted, so that the segments no save refers to any more can be
+ * found without reading every save (see collectHistorySegments()).
+ *
  * @author Yanyan Liu (u7189727)
  */
 public class SaveNLoad implements Serializable{
-    static GameState gameState;
+    static final String SAVE_PATH = "res/dreamfactory.sav";
+    static final int GENERATIONS = 3;
 
-    public static void saveGame(GameState gameState){
+    private static final int HEADER_MAGIC = 0x44465356; //"DFSV"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4;
+    private static final int TRAILER_MAGIC = 0x44465343; //"DFSC"
+    private static final int TRAILER_SIZE = 4 + 8 + 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final String REFERENCES_PATH = "res/history/references"; //"<save>\t<segment>" for each save whose history has a segment
+    private static final String REFERENCES_SINCE = "since ";
+    private static final ThreadLocal<ByteBuffer> WRITE_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private static HashMap<String, String> segmentReferences; //read from REFERENCES_PATH the first time it is needed
+    private static long referencesSince; //when the references started to be kept
+    private static boolean referencesWritten = true; //false while a change to the references has not been written
+
+    public static boolean saveGame(GameState gameState){
+        return saveGame(gameState, SAVE_PATH);
+    }
+
+    /**
+     * Saves the game state to the given path instead of the default save file.
+     * This is used by the SessionManager to passivate idle sessions.
+     *
+     * @param gameState (GameState) the game state to write
+     * @param path (String) the file to write it to
+     * @return (boolean) true if the game state was written
+     */
+    public static boolean saveGame(GameState gameState, String path){
+        Path temp = Paths.get(path + TEMP_EXTENSION);
+        String segmentPath = gameState.getGameHistory().getSegmentPath();
         try {
-            // creates a file to put all game records in
-            File file = new File("res/dreamfactory.sav");
-            FileOutputStream fileOutputStream = new FileOutputStream(file);
-            ObjectOutputStream objectOutputStream = new ObjectOutputStream(fileOutputStream);
-            objectOutputStream.writeObject(gameState);
-            objectOutputStream.flush();
-            objectOutputStream.close();
-            System.out.println("Game saved.");
-        } catch (FileNotFoundException e) {
-            System.out.println("Game not saved." + e.getClass() + ": " + e.getMessage());
-            e.printStackTrace();
+            // write the game record and its trailer to a temporary file, and make sure it is on disk
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+                ChecksumOutputStream checksumOutputStream = new ChecksumOutputStream(channel, WRITE_BUFFER.get());
+                ObjectOutputStream objectOutputStream = new ObjectOutputStream(checksumOutputStream);
+                objectOutputStream.writeObject(gameState);
+                objectOutputStream.flush();
+                checksumOutputStream.writeTrailer();
+                channel.force(true);
+            }
+
+            // keep the older generations, then swap the new save in over the live one
+            rotateGenerations(path);
+            Path live = Paths.get(path);
+            Files.move(temp, live, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            syncDirectory(live.toAbsolutePath().getParent());
+            referSave(path, segmentPath);
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
+            temp.toFile().delete();
         }
+        return false;
     }
     public GameState loadGame(){
+        return loadGame(SAVE_PATH);
+    }
+
+    /**
+     * Loads a game state from the given path instead of the default save file. If the
+     * save cannot be read, the older generations are tried, newest first.
+     *
+     * @param path (String) the file to read the game state from
+     * @return (GameState) the saved game state, or null if no generation could be read
+     */
+    public GameState loadGame(String path){
+        for(int generation = 0; generation < GENERATIONS; generation++){
+            String candidate = getGenerationPath(path, generation);
+            if(!new File(candidate).isFile()){
+                continue;
+            }
+            try{
+                return readGame(candidate);
+            } catch (IOException e) {
+                e.printStackTrace(); //the next older generation is tried
+            } catch (ClassNotFoundException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes a save and all of its older generations.
+     *
+     * @param path (String) the save file
+     * @return (boolean) true if the newest save existed
+     */
+    public static boolean deleteGame(String path){
+        boolean existed = new File(path).delete();
+        for(int generation = 1; generation < GENERATIONS; generation++){
+            new File(getGenerationPath(path, generation)).delete();
+        }
+        new File(path + TEMP_EXTENSION).delete();
+        forgetSave(path);
+        return existed;
+    }
+
+    /**
+     * Moves a save to another path, replacing any save there, e.g. when a journal's snapshots
+     * are moved over the saved journal's.
+     *
+     * @param from (String) the save file
+     * @param to (String) the path to move it to
+     * @throws IOException if the save cannot be moved
+     */
+    public static void moveGame(String from, String to) throws IOException{
+        Files.move(Paths.get(from), Paths.get(to), StandardCopyOption.REPLACE_EXISTING);
+        synchronized(SaveNLoad.class){
+            HashMap<String, String> references = getSegmentReferences();
+            String segmentPath = references.remove(getReferenceKey(from));
+            if(segmentPath != null){
+                references.put(getReferenceKey(to), segmentPath);
+            }else{
+                references.remove(getReferenceKey(to));
+            }
+            writeSegmentReferences();
+        }
+    }
+
+    /**
+     * The collectHistorySegments() function deletes the GameHistory segment files that no
+     * save refers to. The segment of each save is looked up in the references written as the
+     * saves were written, wherever they are (e.g. the save slots, journal snapshots and
+     * passivated sessions), so no save is read. References to saves that no longer exist are
+     * dropped. Segments that have not changed since the references started to be kept are
+     * left alone, as saves made before then may still use them.
+     *
+     * @return (int) the number of segments deleted
+     */
+    public static int collectHistorySegments(){
+        HashSet<String> referencedSegments = new HashSet<String>();
+        long since;
+        synchronized(SaveNLoad.class){
+            HashMap<String, String> references = getSegmentReferences();
+            boolean dropped = false;
+            for(Iterator<Map.Entry<String, String>> entries = references.entrySet().iterator(); entries.hasNext();){
+                Map.Entry<String, String> entry = entries.next();
+                if(new File(entry.getKey()).isFile()){
+                    referencedSegments.add(entry.getValue());
+                }else{
+                    entries.remove();
+                    dropped = true;
+                }
+            }
+            if(dropped || !referencesWritten){
+                writeSegmentReferences();
+            }
+            if(!referencesWritten){
+                return 0; //a save that is not in the file could be using any segment
+            }
+            since = referencesSince;
+        }
+        return GameHistory.deleteUnreferencedSegments(referencedSegments, since);
+    }
+
+    /**
+     * Writes down the segment of a save that has just been written, after moving the
+     * references of its older generations down by one as the files were.
+     */
+    private static synchronized void referSave(String path, String segmentPath){
+        HashMap<String, String> references = getSegmentReferences();
+        for(int generation = GENERATIONS - 1; generation > 0; generation--){
+            String older = references.get(getReferenceKey(getGenerationPath(path, generation - 1)));
+            if(older != null){
+                references.put(getReferenceKey(getGenerationPath(path, generation)), older);
+            }else{
+                references.remove(getReferenceKey(getGenerationPath(path, generation)));
+            }
+        }
+        if(segmentPath != null){
+            references.put(getReferenceKey(path), segmentPath);
+        }else{
+            references.remove(getReferenceKey(path));
+        }
+        writeSegmentReferences();
+    }
+
+    /**
+     * Forgets the segments of a save and its older generations, which have been deleted.
+     */
+    private static synchronized void forgetSave(String path){
+        HashMap<String, String> references = getSegmentReferences();
+        boolean removed = false;
+        for(int generation = 0; generation < GENERATIONS; generation++){
+            removed |= references.remove(getReferenceKey(getGenerationPath(path, generation))) != null;
+        }
+        if(removed){
+            writeSegmentReferences();
+        }
+    }
+
+    /**
+     * Returns the segment of each save, reading them from REFERENCES_PATH the first time.
+     * If there is no file yet (or it cannot be read), the references start from now.
+     */
+    private static HashMap<String, String> getSegmentReferences(){
+        if(segmentReferences == null){
+            segmentReferences = new HashMap<String, String>();
+            referencesSince = System.currentTimeMillis();
+            File file = new File(REFERENCES_PATH);
+            if(file.isFile()){
+                try(BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)){
+                    String line = reader.readLine();
+                    if(line == null || !line.startsWith(REFERENCES_SINCE)){
+                        throw new IOException(REFERENCES_PATH + " does not start with when it was started");
+                    }
+                    long since = Long.parseLong(line.substring(REFERENCES_SINCE.length()));
+                    HashMap<String, String> references = new HashMap<String, String>();
+                    while((line = reader.readLine()) != null){
+                        int tab = line.indexOf('\t');
+                        if(tab > 0){
+                            references.put(line.substring(0, tab), line.substring(tab + 1));
+                        }
+                    }
+                    segmentReferences = references;
+                    referencesSince = since;
+                }catch(IOException | NumberFormatException e){
+                    e.printStackTrace();
+                }
+            }
+        }
+        return segmentReferences;
+    }
+
+    /**
+     * Writes the references to a temporary file and renames it over REFERENCES_PATH. If
+     * that fails, no segments are collected until it has been written.
+     */
+    private static void writeSegmentReferences(){
+        Path file = Paths.get(REFERENCES_PATH);
+        Path temp = Paths.get(REFERENCES_PATH + TEMP_EXTENSION);
         try{
-            // load the directory of the file where all game records are saved.
-            FileInputStream fileInputStream = new FileInputStream("res/dreamfactory.sav");
-            ObjectInputStream objectInputStream = new ObjectInputStream(fileInputStream);
-            gameState = (GameState) objectInputStream.readObject();
-            objectInputStream.close();
-            System.out.println("Game loaded.");
-            return gameState;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (ClassNotFoundException e) {
+            Files.createDirectories(file.getParent());
+            try(BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)){
+                writer.write(REFERENCES_SINCE + referencesSince);
+                writer.newLine();
+                for(Map.Entry<String, String> reference : segmentReferences.entrySet()){
+                    writer.write(reference.getKey() + "\t" + reference.getValue());
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            referencesWritten = true;
+        }catch(IOException e){
             e.printStackTrace();
+            referencesWritten = false;
+        }
+    }
+
+    /**
+     * Utility function that returns the key of a save in the references - its absolute path,
+     * so that the same save is found whatever directory the game was started in.
+     */
+    private static String getReferenceKey(String path){
+        return new File(path).getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    /**
+     * Reads and checks one save file. The whole file is read into memory, the trailer is
+     * checked against the contents, and only then is the game state deserialized. The file
+     * is read into the heap rather than mapped, so that it is closed as soon as it has been
+     * read and can be rotated or deleted straight away on every platform.
+     *
+     * A save that starts with the header must have a trailer that matches it. Saves written
+     * before the header was added are read as they are, without a check.
+     */
+    private static GameState readGame(String path) throws IOException, ClassNotFoundException{
+        ByteBuffer contents;
+        try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)){
+            if(channel.size() > Integer.MAX_VALUE){
+                throw new IOException("the save is too large");
+            }
+            contents = ByteBuffer.allocate((int) channel.size());
+            while(contents.hasRemaining() && channel.read(contents) >= 0){
+                //read the whole file
+            }
+            contents.flip();
+        }
+
+        int size = contents.limit();
+        int bodyStart = 0;
+        int bodyLength = size;
+        if(size >= HEADER_SIZE && contents.getInt(0) == HEADER_MAGIC){
+            if(contents.getInt(4) != VERSION){
+                throw new IOException("the save was written by a newer version of the game");
+            }
+            if(size < HEADER_SIZE + TRAILER_SIZE || contents.getInt(size - TRAILER_SIZE) != TRAILER_MAGIC){
+                throw new IOException("the save is damaged (its trailer is missing)");
+            }
+            long length = contents.getLong(size - 16);
+            long checksum = contents.getLong(size - 8);
+            if(length != size - TRAILER_SIZE){
+                throw new IOException("the save is the wrong length");
+            }
+            ByteBuffer checked = contents.duplicate();
+            checked.limit((int) length);
+            CRC32 crc = new CRC32();
+            crc.update(checked);
+            if(crc.getValue() != checksum){
+                throw new IOException("the save is damaged (checksum does not match)");
+            }
+            bodyStart = HEADER_SIZE;
+            bodyLength = (int) length;
+        }
+
+        ByteBuffer body = contents.duplicate();
+        body.position(bodyStart).limit(bodyLength);
+        try(ObjectInputStream objectInputStream = new ObjectInputStream(new ByteBufferInputStream(body))){
+            return (GameState) objectInputStream.readObject();
+        }
+    }
+
+    /**
+     * Moves each older generation of a save down by one, dropping the oldest, and links the
+     * current save to "<save>.1" - copying it where links are not supported - so that the
+     * current save stays in place until the new one is renamed over it.
+     */
+    private static void rotateGenerations(String path) throws IOException{
+        if(GENERATIONS < 2){
+            return;
+        }
+        Files.deleteIfExists(Paths.get(getGenerationPath(path, GENERATIONS - 1)));
+        for(int generation = GENERATIONS - 2; generation >= 1; generation--){
+            Path older = Paths.get(getGenerationPath(path, generation));
+            if(Files.exists(older)){
+                Files.move(older, Paths.get(getGenerationPath(path, generation + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Path live = Paths.get(path);
+        if(Files.exists(live)){
+            Path previous = Paths.get(getGenerationPath(path, 1));
+            Files.deleteIfExists(previous);
+            try{
+                Files.createLink(previous, live);
+            }catch(UnsupportedOperationException | IOException e){
+                Files.copy(live, previous, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Forces a directory to disk, so that a file renamed into it is still there after a power
+     * loss. Directories cannot be opened on every platform (e.g. Windows, where the rename is
+     * written through anyway), so a directory that cannot be opened is left as it is.
+     */
+    private static void syncDirectory(Path directory){
+        if(directory == null){
+            return;
+        }
+        try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)){
+            channel.force(true);
+        }catch(IOException e){
+            //not supported here
+        }
+    }
+
+    private static String getGenerationPath(String path, int generation){
+        return generation == 0 ? path : path + "." + generation;
+    }
+
+    /**
+     * The ChecksumOutputStream class writes to a FileChannel through a direct buffer,
+     * starting with the header and keeping a CRC32 and length of everything written so that
+     * the trailer can be added.
+     */
+    private static class ChecksumOutputStream extends OutputStream {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final CRC32 crc = new CRC32();
+        private long length = 0;
+
+        ChecksumOutputStream(FileChannel channel, ByteBuffer buffer){
+            this.channel = channel;
+            this.buffer = buffer;
+            buffer.clear();
+            buffer.putInt(HEADER_MAGIC).putInt(VERSION);
+        }
+
+        @Override
+        public void write(int b) throws IOException{
+            if(!buffer.hasRemaining()){
+                drain();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException{
+            while(count > 0){
+                if(!buffer.hasRemaining()){
+                    drain();
+                }
+                int chunk = Math.min(count, buffer.remaining());
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+                count -= chunk;
+            }
+        }
+
+        void writeTrailer() throws IOException{
+            drain();
+            buffer.putInt(TRAILER_MAGIC).putLong(length).putLong(crc.getValue());
+            buffer.flip();
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void drain() throws IOException{
+            buffer.flip();
+            length += buffer.remaining();
+            crc.update(buffer.duplicate());
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * The ByteBufferInputStream class reads a save straight out of the buffer it was read into.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer){
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read(){
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int count){
+            if(!buffer.hasRemaining()){
+                return -1;
+            }
+            int chunk = Math.min(count, buffer.remaining());
+            buffer.get(bytes, offset, chunk);
+            return chunk;
+        }
+
+        @Override
+        public int available(){
+            return buffer.remaining();
         }
-        return gameState;
     }
 
 }
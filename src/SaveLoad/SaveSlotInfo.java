@@ -0,0 +1,106 @@
+package SaveLoad;
+
+/**
+ * The SaveSlotInfo class is the metadata of one named save slot, as it is stored in the
+ * save slot index. It holds everything a load menu needs to show, so the menu never has
+ * to read the save itself.
+ */
+public class SaveSlotInfo {
+
+    private final String slotName;
+    private final String storyTitle;
+    private final String roomName;
+    private final int heroHealth;
+    private final int turnCount;
+    private final long timestamp;
+    private final long size;
+
+    /**
+     * The constructor for SaveSlotInfo.
+     *
+     * @param slotName (String) the name of the slot
+     * @param storyTitle (String) the name of the story being played
+     * @param roomName (String) the room the hero was in
+     * @param heroHealth (int) the hero's health
+     * @param turnCount (int) the number of turns that had been played
+     * @param timestamp (long) when the slot was saved, in milliseconds since the epoch
+     * @param size (long) the size of the save file in bytes
+     */
+    public SaveSlotInfo(String slotName, String storyTitle, String roomName, int heroHealth, int turnCount, long timestamp, long size){
+        this.slotName = slotName;
+        this.storyTitle = storyTitle;
+        this.roomName = roomName;
+        this.heroHealth = heroHealth;
+        this.turnCount = turnCount;
+        this.timestamp = timestamp;
+        this.size = size;
+    }
+
+    /**
+     * Utility function that returns the name of the slot.
+     *
+     * @return (String) the slot name
+     */
+    public String getSlotName(){
+        return slotName;
+    }
+
+    /**
+     * Utility function that returns the name of the story that was being played.
+     *
+     * @return (String) the story title
+     */
+    public String getStoryTitle(){
+        return storyTitle;
+    }
+
+    /**
+     * Utility function that returns the name of the room that the hero was in.
+     *
+     * @return (String) the room name
+     */
+    public String getRoomName(){
+        return roomName;
+    }
+
+    /**
+     * Utility function that returns the hero's health.
+     *
+     * @return (int) the hero's health
+     */
+    public int getHeroHealth(){
+        return heroHealth;
+    }
+
+    /**
+     * Utility function that returns the number of turns that had been played.
+     *
+     * @return (int) the turn count
+     */
+    public int getTurnCount(){
+        return turnCount;
+    }
+
+    /**
+     * Utility function that returns when the slot was saved.
+     *
+     * @return (long) the time in milliseconds since the epoch
+     */
+    public long getTimestamp(){
+        return timestamp;
+    }
+
+    /**
+     * Utility function that returns the size of the save file.
+     *
+     * @return (long) the size in bytes
+     */
+    public long getSize(){
+        return size;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("%s - %s [%s] HP %d, turn %d", slotName, storyTitle, roomName, heroHealth, turnCount);
+    }
+}
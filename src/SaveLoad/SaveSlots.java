@@ -0,0 +1,366 @@
+package SaveLoad;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import GameEngine.GameState;
+
+/**
+ * The SaveSlots class keeps any number of named saves in one directory. Each slot is a
+ * GameState written with SaveNLoad to "<slot>.sav" (slot names are not case sensitive), and
+ * the directory also holds an index file with the metadata of every slot (see SaveSlotInfo).
+ *
+ * The index is made of fixed-size records, so listing the slots reads the index into memory
+ * in one go - the saves themselves are only opened when a slot is loaded. A
+ * slot is saved by writing its record in place. If the index is missing or damaged, it is
+ * rebuilt from the saves, which is the only time they are all read.
+ *
+ * Index layout: a header (magic number, version, number of records) followed by records of
+ * RECORD_SIZE bytes - an in-use flag, the slot name, story title and room name (each a
+ * length-prefixed UTF-8 string in a fixed field), hero health, turn count, timestamp and size.
+ */
+public class SaveSlots {
+
+    public static final String SLOT_DIRECTORY = "res/saves";
+
+    private static final String INDEX_FILE = "slots.idx";
+    private static final String SAVE_EXTENSION = ".sav";
+    private static final Pattern SLOT_NAME = Pattern.compile("[A-Za-z0-9 _-]{1,40}");
+
+    private static final int MAGIC = 0x44465349; //"DFSI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int NAME_FIELD = 64;
+    private static final int TITLE_FIELD = 128;
+    private static final int RECORD_SIZE = 1 + NAME_FIELD + TITLE_FIELD + TITLE_FIELD + 4 + 4 + 8 + 8;
+
+    private static final HashMap<String, SaveSlots> sharedSlots = new HashMap<String, SaveSlots>();
+
+    private final File directory;
+    private final File indexFile;
+
+    /**
+     * The constructor for SaveSlots that uses the default slot directory.
+     */
+    public SaveSlots(){
+        this(SLOT_DIRECTORY);
+    }
+
+    /**
+     * The constructor for SaveSlots.
+     *
+     * @param directory (String) the directory that the slots and their index are kept in
+     */
+    public SaveSlots(String directory){
+        this.directory = new File(directory);
+        this.indexFile = new File(directory, INDEX_FILE);
+        this.directory.mkdirs();
+    }
+
+    /**
+     * Utility function that returns the SaveSlots shared by every game for the default
+     * slot directory (see getSharedSlots(String)).
+     *
+     * @return (SaveSlots) the shared slots
+     */
+    public static SaveSlots getSharedSlots(){
+        return getSharedSlots(SLOT_DIRECTORY);
+    }
+
+    /**
+     * Utility function that returns the SaveSlots shared by every game for a directory. Its
+     * functions are synchronized, so games that save at the same time (e.g. the sessions of a
+     * SessionManager) take turns to update the index rather than writing over each other's records.
+     *
+     * @param directory (String) the directory that the slots and their index are kept in
+     * @return (SaveSlots) the shared slots for the directory
+     */
+    public static SaveSlots getSharedSlots(String directory){
+        String key = new File(directory).getAbsoluteFile().toPath().normalize().toString();
+        synchronized(sharedSlots){
+            return sharedSlots.computeIfAbsent(key, (path) -> new SaveSlots(directory));
+        }
+    }
+
+    /**
+     * Utility function that checks whether a name can be used for a slot. Slot names become
+     * file names, so they may only use letters, digits, spaces, '_' and '-'.
+     *
+     * @param slotName (String) the name to check
+     * @return (boolean) true if the name is valid
+     */
+    public static boolean isValidSlotName(String slotName){
+        return slotName != null && SLOT_NAME.matcher(slotName).matches() && !slotName.trim().isEmpty();
+    }
+
+    /**
+     * The save() function writes a game to a slot, replacing anything already saved there,
+     * and updates the slot's record in the index.
+     *
+     * @param slotName (String) the name of the slot
+     * @param gameState (GameState) the game to save
+     * @return (SaveSlotInfo) the metadata of the saved slot, or null if it could not be saved
+     */
+    public synchronized SaveSlotInfo save(String slotName, GameState gameState){
+        if(!isValidSlotName(slotName)){
+            return null;
+        }
+        File saveFile = getSaveFile(slotName);
+        if(!SaveNLoad.saveGame(gameState, saveFile.getPath())){
+            return null;
+        }
+        SaveSlotInfo info = describe(slotName, gameState, System.currentTimeMillis(), saveFile.length());
+        try{
+            writeRecord(info);
+        }catch(IOException e){
+            e.printStackTrace();
+            indexFile.delete(); //the index is rebuilt from the saves the next time it is needed
+        }
+        return info;
+    }
+
+    /**
+     * The load() function reads the game saved in a slot.
+     *
+     * @param slotName (String) the name of the slot
+     * @return (GameState) the saved game, or null if the slot is empty or cannot be read
+     */
+    public synchronized GameState load(String slotName){
+        if(!isValidSlotName(slotName) || !getSaveFile(slotName).isFile()){
+            return null;
+        }
+        return new SaveNLoad().loadGame(getSaveFile(slotName).getPath());
+    }
+
+    /**
+     * The delete() function removes a slot and its record in the index.
+     *
+     * @param slotName (String) the name of the slot
+     * @return (boolean) true if the slot existed
+     */
+    public synchronized boolean delete(String slotName){
+        if(!isValidSlotName(slotName)){
+            return false;
+        }
+        boolean existed = SaveNLoad.deleteGame(getSaveFile(slotName).getPath());
+        try{
+            int record = findRecord(slotName);
+            if(record >= 0){
+                try(FileChannel index = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE)){
+                    index.write(ByteBuffer.wrap(new byte[]{0}), HEADER_SIZE + (long) record * RECORD_SIZE);
+                }
+            }
+        }catch(IOException e){
+            e.printStackTrace();
+            indexFile.delete();
+        }
+        return existed;
+    }
+
+    /**
+     * The list() function returns the metadata of every slot, most recently saved first.
+     * Only the index is read.
+     *
+     * @return (List<SaveSlotInfo>) the slots
+     */
+    public synchronized List<SaveSlotInfo> list(){
+        ArrayList<SaveSlotInfo> slots = new ArrayList<SaveSlotInfo>();
+        try{
+            ByteBuffer index = readIndex();
+            int records = index.getInt(8);
+            for(int record = 0; record < records; record++){
+                int offset = HEADER_SIZE + record * RECORD_SIZE;
+                if(index.get(offset) != 0){
+                    slots.add(readRecord(index, offset));
+                }
+            }
+        }catch(IOException e){
+            e.printStackTrace();
+        }
+        slots.sort(Comparator.comparingLong(SaveSlotInfo::getTimestamp).reversed());
+        return slots;
+    }
+
+    /**
+     * The readIndex() function reads the index file into memory, rebuilding it first if it
+     * is missing or is not a valid index. It is read rather than mapped, so that the file is
+     * not held open by a mapping and can be replaced on every platform.
+     *
+     * @return (ByteBuffer) the index
+     */
+    private ByteBuffer readIndex() throws IOException{
+        if(!isIndexValid()){
+            rebuildIndex();
+        }
+        try(FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)){
+            ByteBuffer index = ByteBuffer.allocate((int) channel.size());
+            while(index.hasRemaining() && channel.read(index) >= 0){
+                //read the whole index
+            }
+            index.flip();
+            return index;
+        }
+    }
+
+    private boolean isIndexValid(){
+        if(!indexFile.isFile() || indexFile.length() < HEADER_SIZE){
+            return false;
+        }
+        try(FileChannel index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)){
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            index.read(header, 0);
+            header.flip();
+            return header.getInt() == MAGIC && header.getInt() == VERSION
+                && index.size() >= HEADER_SIZE + (long) header.getInt() * RECORD_SIZE;
+        }catch(IOException e){
+            return false;
+        }
+    }
+
+    /**
+     * The rebuildIndex() function writes a new index by reading every save in the directory.
+     */
+    private void rebuildIndex() throws IOException{
+        ArrayList<SaveSlotInfo> slots = new ArrayList<SaveSlotInfo>();
+        File[] saves = directory.listFiles((dir, name) -> name.endsWith(SAVE_EXTENSION));
+        if(saves != null){
+            for(File save : saves){
+                String slotName = save.getName().substring(0, save.getName().length() - SAVE_EXTENSION.length());
+                GameState gameState = isValidSlotName(slotName) ? new SaveNLoad().loadGame(save.getPath()) : null;
+                if(gameState != null){
+                    slots.add(describe(slotName, gameState, save.lastModified(), save.length()));
+                }
+            }
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(HEADER_SIZE + slots.size() * RECORD_SIZE);
+        index.putInt(MAGIC).putInt(VERSION).putInt(slots.size()).putInt(0);
+        for(SaveSlotInfo slot : slots){
+            putRecord(index, slot);
+        }
+        index.flip();
+        try(FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            channel.write(index);
+        }
+    }
+
+    /**
+     * The writeRecord() function writes the record for a slot in place, reusing its old
+     * record or an unused one, or appending a new record to the index.
+     *
+     * @param info (SaveSlotInfo) the metadata of the slot
+     */
+    private void writeRecord(SaveSlotInfo info) throws IOException{
+        int record = findRecord(info.getSlotName());
+        try(FileChannel index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            index.read(header, 0);
+            int records = header.getInt(8);
+            if(record < 0){
+                record = records;
+                header.putInt(8, records + 1);
+                header.rewind();
+                index.write(header, 0);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+            putRecord(buffer, info);
+            buffer.flip();
+            index.write(buffer, HEADER_SIZE + (long) record * RECORD_SIZE);
+        }
+    }
+
+    /**
+     * The findRecord() function looks up the record for a slot, or the first unused record.
+     *
+     * @param slotName (String) the name of the slot
+     * @return (int) the record number, or -1 if the slot has no record and none are unused
+     */
+    private int findRecord(String slotName) throws IOException{
+        ByteBuffer index = readIndex();
+        int records = index.getInt(8);
+        int unused = -1;
+        for(int record = 0; record < records; record++){
+            int offset = HEADER_SIZE + record * RECORD_SIZE;
+            if(index.get(offset) == 0){
+                unused = unused < 0 ? record : unused;
+            }else if(readString(index, offset + 1).equalsIgnoreCase(slotName)){
+                return record;
+            }
+        }
+        return unused;
+    }
+
+    private SaveSlotInfo describe(String slotName, GameState gameState, long timestamp, long size){
+        return new SaveSlotInfo(
+            slotName,
+            gameState.getStory().getName(),
+            gameState.getCurrentRoom().getRoomName(),
+            gameState.getHero().getHealth(),
+            gameState.getGameHistory().size(),
+            timestamp,
+            size
+        );
+    }
+
+    private static void putRecord(ByteBuffer buffer, SaveSlotInfo info){
+        int offset = buffer.position();
+        buffer.put((byte) 1);
+        putString(buffer, info.getSlotName(), NAME_FIELD);
+        putString(buffer, info.getStoryTitle(), TITLE_FIELD);
+        putString(buffer, info.getRoomName(), TITLE_FIELD);
+        buffer.putInt(info.getHeroHealth());
+        buffer.putInt(info.getTurnCount());
+        buffer.putLong(info.getTimestamp());
+        buffer.putLong(info.getSize());
+        buffer.position(offset + RECORD_SIZE);
+    }
+
+    private static SaveSlotInfo readRecord(ByteBuffer buffer, int offset){
+        int field = offset + 1;
+        String slotName = readString(buffer, field);
+        String storyTitle = readString(buffer, field += NAME_FIELD);
+        String roomName = readString(buffer, field += TITLE_FIELD);
+        field += TITLE_FIELD;
+        return new SaveSlotInfo(slotName, storyTitle, roomName,
+            buffer.getInt(field), buffer.getInt(field + 4), buffer.getLong(field + 8), buffer.getLong(field + 16));
+    }
+
+    /**
+     * Writes a string into a fixed-size field as a length and UTF-8 bytes, cutting it
+     * short (at a character boundary) if it does not fit.
+     */
+    private static void putString(ByteBuffer buffer, String string, int fieldSize){
+        int start = buffer.position();
+        String value = string == null ? "" : string;
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        while(bytes.length > fieldSize - 2){
+            value = value.substring(0, value.length() - 1);
+            bytes = value.getBytes(StandardCharsets.UTF_8);
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+        buffer.position(start + fieldSize);
+    }
+
+    private static String readString(ByteBuffer buffer, int offset){
+        byte[] bytes = new byte[buffer.getShort(offset)];
+        for(int i = 0; i < bytes.length; i++){
+            bytes[i] = buffer.get(offset + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private File getSaveFile(String slotName){
+        return new File(directory, slotName.toLowerCase(Locale.ROOT) + SAVE_EXTENSION); //so that slot names are not case sensitive on any file system
+    }
+}
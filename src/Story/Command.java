@@ -31,7 +31,9 @@ public enum Command  implements java.io.Serializable{
     ATTACK_ENEMY(CommandTarget.ENEMY, Mode.COMBAT),
     DODGE(CommandTarget.ENEMY, Mode.COMBAT),
     ESCAPE(CommandTarget.ENEMY, Mode.COMBAT),
-    HELP(CommandTarget.NONE, Mode.ANY);
+    HELP(CommandTarget.NONE, Mode.ANY),
+    UNDO(CommandTarget.NONE, Mode.ANY),
+    REDO(CommandTarget.NONE, Mode.ANY);
 
     /**
      * Variables
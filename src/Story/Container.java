@@ -21,6 +21,8 @@ public class Container  implements Serializable {
     int itemIndex;
     boolean isLooted;
     String descriptionAction;
+    transient int nameSymbol;
+    transient int keySymbol;
 
     // Constructor
     public Container (int containerIndex) {
@@ -101,6 +103,7 @@ public class Container  implements Serializable {
      */
     public void setName(String name) {
         this.name = name;
+        this.nameSymbol = SymbolTable.NO_SYMBOL;
     }
 
     /**
@@ -181,6 +184,7 @@ public class Container  implements Serializable {
      */
     public void setKey(String key) {
         this.key = key;
+        this.keySymbol = SymbolTable.NO_SYMBOL;
     }
 
     /**
@@ -240,4 +244,40 @@ public class Container  implements Serializable {
     public void setDescriptionAction(String descriptionAction) {
         this.descriptionAction = descriptionAction;
     }
+
+    /**
+     * Get the symbol of the name of the Container in the story's SymbolTable.
+     *
+     * @return the symbol, or SymbolTable.NO_SYMBOL if the name has not been interned
+     */
+    public int getNameSymbol() {
+        return nameSymbol;
+    }
+
+    /**
+     * Set the symbol of the name of the Container in the story's SymbolTable.
+     *
+     * @param nameSymbol the symbol
+     */
+    public void setNameSymbol(int nameSymbol) {
+        this.nameSymbol = nameSymbol;
+    }
+
+    /**
+     * Get the symbol of the key that will unlock the Container in the story's SymbolTable.
+     *
+     * @return the symbol, or SymbolTable.NO_SYMBOL if the key has not been interned
+     */
+    public int getKeySymbol() {
+        return keySymbol;
+    }
+
+    /**
+     * Set the symbol of the key that will unlock the Container in the story's SymbolTable.
+     *
+     * @param keySymbol the symbol
+     */
+    public void setKeySymbol(int keySymbol) {
+        this.keySymbol = keySymbol;
+    }
 }
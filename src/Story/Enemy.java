@@ -15,11 +15,15 @@ public class Enemy implements java.io.Serializable {
     String descriptionDead;
     String descriptionAlive;
     int health;
+    // the health the enemy has when the story is loaded, e.g. to respawn it with
+    int initialHealth;
     int attackPower;
     int defence;
     // enemy defeat reward
     int itemIndex;
     boolean hasLoot;
+    // the name as a symbol in the story's SymbolTable
+    transient int nameSymbol;
 
 
     // Constructor
@@ -29,6 +33,7 @@ public class Enemy implements java.io.Serializable {
         this.descriptionDead = descriptionDead;
         this.descriptionAlive = descriptionAlive;
         this.health = health;
+        this.initialHealth = health;
         this.attackPower = attackPower;
         this.defence = defence;
         this.itemIndex = itemIndex;
@@ -83,6 +88,7 @@ public class Enemy implements java.io.Serializable {
      */
     public void setName(String name) {
         this.name = name;
+        this.nameSymbol = SymbolTable.NO_SYMBOL;
     }
 
     /**
@@ -139,6 +145,15 @@ public class Enemy implements java.io.Serializable {
         this.health = health;
     }
 
+    /**
+     * Get the health the enemy had when the story was loaded, before it was fought.
+     *
+     * @return the initial health of the enemy
+     */
+    public int getInitialHealth() {
+        return initialHealth;
+    }
+
     /**
      * Get the attack power of the enemy
      *
@@ -198,4 +213,22 @@ public class Enemy implements java.io.Serializable {
     public void setItemIndex(int itemIndex) {
         this.itemIndex = itemIndex;
     }
+
+    /**
+     * Get the symbol of the name of the enemy in the story's SymbolTable.
+     *
+     * @return the symbol, or SymbolTable.NO_SYMBOL if the name has not been interned
+     */
+    public int getNameSymbol() {
+        return nameSymbol;
+    }
+
+    /**
+     * Set the symbol of the name of the enemy in the story's SymbolTable.
+     *
+     * @param nameSymbol the symbol
+     */
+    public void setNameSymbol(int nameSymbol) {
+        this.nameSymbol = nameSymbol;
+    }
 }
@@ -17,6 +17,9 @@ public class Hero  implements java.io.Serializable{
     int defense;
     HashMap<Integer, Boolean> inventory;
 
+    // Goes up whenever the inventory changes
+    int inventoryVersion;
+
     // Constructor
     public Hero(int health, int attackPower, int defense, HashMap<Integer, Boolean> inventory) {
         this.health = health;
@@ -107,5 +110,24 @@ public class Hero  implements java.io.Serializable{
      */
     public void setInventory(HashMap<Integer, Boolean> inventory) {
         this.inventory = inventory;
+        inventoryVersion++;
+    }
+
+    /**
+     * Get the inventory version of the hero. The version goes up whenever the inventory
+     * changes, so anything built from the inventory can be reused for as long as the
+     * version stays the same.
+     *
+     * @return the inventory version of the hero
+     */
+    public int getInventoryVersion() {
+        return inventoryVersion;
+    }
+
+    /**
+     * Record that the inventory has changed.
+     */
+    public void bumpInventoryVersion() {
+        inventoryVersion++;
     }
 }
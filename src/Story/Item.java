@@ -17,6 +17,7 @@ public class Item  implements java.io.Serializable{
     int defence;
     int health;
     boolean isEmpty;
+    transient int nameSymbol;
 
     // Constructor
     public Item(int index, String name, String description, boolean isEquippable, int attackPower, int defence) {
@@ -74,6 +75,15 @@ public class Item  implements java.io.Serializable{
         return isEmpty;
     }
 
+    /**
+     * Set whether the item has been consumed, e.g. when a move is undone.
+     *
+     * @param empty true if item is empty, else false.
+     */
+    public void setEmpty(boolean empty){
+        isEmpty = empty;
+    }
+
     /**
      * Set index of item
      *
@@ -102,6 +112,7 @@ public class Item  implements java.io.Serializable{
      */
     public void setName(String name) {
         this.name = name;
+        this.nameSymbol = SymbolTable.NO_SYMBOL;
     }
 
     /**
@@ -203,4 +214,22 @@ public class Item  implements java.io.Serializable{
     public boolean isConsumable(){
         return isConsumable;
     }
+
+    /**
+     * Get the symbol of the name of the item in the story's SymbolTable.
+     *
+     * @return the symbol, or SymbolTable.NO_SYMBOL if the name has not been interned
+     */
+    public int getNameSymbol() {
+        return nameSymbol;
+    }
+
+    /**
+     * Set the symbol of the name of the item in the story's SymbolTable.
+     *
+     * @param nameSymbol the symbol
+     */
+    public void setNameSymbol(int nameSymbol) {
+        this.nameSymbol = nameSymbol;
+    }
 }
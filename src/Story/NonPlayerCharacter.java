@@ -22,6 +22,9 @@ public class NonPlayerCharacter  implements java.io.Serializable{
     boolean isResolved;
     String resolvedGreeting;
 
+    // the name as a symbol in the story's SymbolTable
+    transient int nameSymbol;
+
     // Constructor
     public NonPlayerCharacter(int characterIndex, String name, String description, String greeting, boolean waitingForResponse,
                               boolean hasQuestion, HashMap<String, Response> responses, boolean isResolved,
@@ -77,6 +80,7 @@ public class NonPlayerCharacter  implements java.io.Serializable{
      */
     public void setName(String name) {
         this.name = name;
+        this.nameSymbol = SymbolTable.NO_SYMBOL;
     }
 
     /**
@@ -233,4 +237,22 @@ public class NonPlayerCharacter  implements java.io.Serializable{
     public void setResolvedGreeting(String resolvedGreeting) {
         this.resolvedGreeting = resolvedGreeting;
     }
+
+    /**
+     * Get the symbol of the name of the npc in the story's SymbolTable.
+     *
+     * @return the symbol, or SymbolTable.NO_SYMBOL if the name has not been interned
+     */
+    public int getNameSymbol() {
+        return nameSymbol;
+    }
+
+    /**
+     * Set the symbol of the name of the npc in the story's SymbolTable.
+     *
+     * @param nameSymbol the symbol
+     */
+    public void setNameSymbol(int nameSymbol) {
+        this.nameSymbol = nameSymbol;
+    }
 }
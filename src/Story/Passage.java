@@ -26,6 +26,7 @@ public class Passage  implements java.io.Serializable{
     String key;
     int roomIndex;
     String descriptionAction;
+    transient int keySymbol;
 
     // Constructor for when Passage objects are NOT of type PASSAGE_NONE
     public Passage(int passageIndex, PassageType passageType, String descriptionLocked, String descriptionUnlocked,
@@ -174,6 +175,7 @@ public class Passage  implements java.io.Serializable{
      */
     public void setKey(String key) {
         this.key = key;
+        this.keySymbol = SymbolTable.NO_SYMBOL;
     }
 
     /**
@@ -216,6 +218,24 @@ public class Passage  implements java.io.Serializable{
         this.descriptionAction = descriptionAction;
     }
 
+    /**
+     * Get the symbol of the key that will unlock the passage in the story's SymbolTable.
+     *
+     * @return the symbol, or SymbolTable.NO_SYMBOL if the key has not been interned
+     */
+    public int getKeySymbol() {
+        return keySymbol;
+    }
+
+    /**
+     * Set the symbol of the key that will unlock the passage in the story's SymbolTable.
+     *
+     * @param keySymbol the symbol
+     */
+    public void setKeySymbol(int keySymbol) {
+        this.keySymbol = keySymbol;
+    }
+
     public enum PassageType {
         // Passage is not visible to player unless unlocked via secret command
         PASSAGE_HIDDEN,
@@ -32,6 +32,9 @@ public class Room implements java.io.Serializable{
     //Last room in the story
     boolean isLastRoom;
 
+    // Goes up whenever something that can be seen in this room changes
+    int stateVersion;
+
     // Constructor
     public Room(int roomIndex, String roomName, String description, ArrayList<Integer> nonPlayerCharacters,
                 HashMap<Direction, Integer> passages, ArrayList<Integer> enemies, ArrayList<Integer> containers) {
@@ -106,6 +109,7 @@ public class Room implements java.io.Serializable{
      */
     public void setRoomName(String roomName) {
         this.roomName = roomName;
+        stateVersion++;
     }
 
     /**
@@ -146,6 +150,7 @@ public class Room implements java.io.Serializable{
      */
     public void setNonPlayerCharacters(ArrayList<Integer> nonPlayerCharacters) {
         this.nonPlayerCharacters = nonPlayerCharacters;
+        stateVersion++;
     }
 
     /**
@@ -166,6 +171,7 @@ public class Room implements java.io.Serializable{
      */
     public void setPassages(HashMap<Direction, Integer> passages) {
         this.passages = passages;
+        stateVersion++;
     }
 
     /**
@@ -186,6 +192,7 @@ public class Room implements java.io.Serializable{
      */
     public void setEnemies(ArrayList<Integer> enemies) {
         this.enemies = enemies;
+        stateVersion++;
     }
 
     /**
@@ -206,6 +213,24 @@ public class Room implements java.io.Serializable{
      */
     public void setContainers(ArrayList<Integer> containers) {
         this.containers = containers;
+        stateVersion++;
     }
-}
 
+    /**
+     * Get the state version of this room. The version goes up whenever a passage, container,
+     * enemy or NPC in the room changes, so anything rendered from the room's state can be
+     * reused for as long as the version stays the same.
+     *
+     * @return the state version of this room
+     */
+    public int getStateVersion() {
+        return stateVersion;
+    }
+
+    /**
+     * Record that something in this room has changed.
+     */
+    public void bumpStateVersion() {
+        stateVersion++;
+    }
+}
@@ -0,0 +1,295 @@
+package Story;
+
+import java.util.ArrayList;
+
+/**
+ * A Rule is a piece of story logic written in the "rules" section of a story file, e.g.
+ * "when the hero enters room 12 with the DREAM AMULET and the BUTLER is resolved, unlock
+ * passage 37". A rule waits for an Event (the hero enters a room, takes an item, kills an
+ * enemy, says a phrase, or a turn passes), and when it happens, if all of its Conditions
+ * hold, its Effects are applied. A rule fires once, unless it is repeatable. In the story
+ * file a rule is written as:
+ *
+ *     {"index": 0, "event": "ENTER_ROOM", "target": 12,
+ *      "conditions": [{"type": "HAS_ITEM", "value": 0}, {"type": "NPC_RESOLVED", "value": 3}],
+ *      "effects": [{"type": "UNLOCK_PASSAGE", "value": 37, "text": "The crypt door slides open."}]}
+ *
+ * Without a "target" the rule waits for the event on anything. A SAY rule has a "phrase"
+ * instead, and "repeatable": true lets a rule fire every time. Logic that the conditions and
+ * effects cannot express is written as a script (see GameEngine.ScriptCompiler): "if" is an
+ * expression that must also hold, e.g. "health < 50 || visits > 2", and "script" is run after
+ * the effects, e.g. "visits += 1; if (visits == 3) { say \"The walls remember you.\"; }".
+ *
+ * Timed events are made from timers, which are numbered by the story. A START_TIMER effect
+ * starts a timer that runs out after its "turns", and a rule that waits for TIMER with that
+ * number as its target fires when it does, e.g. a candle that burns out:
+ *
+ *     {"index": 1, "event": "TAKE_ITEM", "target": 4,
+ *      "effects": [{"type": "START_TIMER", "value": 0, "turns": 20}]},
+ *     {"index": 2, "event": "TIMER", "target": 0,
+ *      "effects": [{"type": "REMOVE_ITEM", "value": 4, "text": "Your candle gutters out."}]}
+ *
+ * The rules are compiled by the GameEngine into a network indexed by event, so only the
+ * rules waiting for the events that happened in a turn are ever looked at.
+ */
+public class Rule implements java.io.Serializable {
+
+    public static final int ANY_TARGET = -1;
+
+    // Variables
+    int index;
+    Event event;
+    int target;
+    String phrase;
+    boolean isRepeatable;
+    ArrayList<Condition> conditions;
+    ArrayList<Effect> effects;
+    String condition;
+    String script;
+
+    // Constructor
+    public Rule(int index, Event event, int target, String phrase, boolean isRepeatable, ArrayList<Condition> conditions, ArrayList<Effect> effects) {
+        this.index = index;
+        this.event = event;
+        this.target = target;
+        this.phrase = phrase;
+        this.isRepeatable = isRepeatable;
+        this.conditions = conditions;
+        this.effects = effects;
+    }
+
+    // Getters
+
+    /**
+     * Get the index of the Rule
+     *
+     * @return index of the rule
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the Event that the Rule waits for
+     *
+     * @return the event
+     */
+    public Event getEvent() {
+        return event;
+    }
+
+    /**
+     * Get the index of the room, item or enemy that the event must happen to
+     *
+     * @return the index, or ANY_TARGET if the event can happen to anything
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * Get the phrase that must be said, for a rule that waits for Event.SAY
+     *
+     * @return the phrase, or null for other events
+     */
+    public String getPhrase() {
+        return phrase;
+    }
+
+    /**
+     * Check if the rule can fire more than once
+     *
+     * @return true if the rule fires every time its event happens and its conditions hold
+     */
+    public boolean isRepeatable() {
+        return isRepeatable;
+    }
+
+    /**
+     * Get the Conditions that must all hold for the rule to fire
+     *
+     * @return the conditions
+     */
+    public ArrayList<Condition> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * Get the Effects of the rule, in the order they are applied
+     *
+     * @return the effects
+     */
+    public ArrayList<Effect> getEffects() {
+        return effects;
+    }
+
+    /**
+     * Get the script condition that must hold, as well as the Conditions, for the rule to fire
+     *
+     * @return the source of the condition, or null if the rule has none
+     */
+    public String getCondition() {
+        return condition;
+    }
+
+    /**
+     * Get the script that is run after the Effects when the rule fires
+     *
+     * @return the source of the script, or null if the rule has none
+     */
+    public String getScript() {
+        return script;
+    }
+
+    // Setters
+
+    /**
+     * Set the script condition of the rule
+     *
+     * @param condition the source of the condition, or null
+     */
+    public void setCondition(String condition) {
+        this.condition = condition;
+    }
+
+    /**
+     * Set the script that is run when the rule fires
+     *
+     * @param script the source of the script, or null
+     */
+    public void setScript(String script) {
+        this.script = script;
+    }
+
+    /**
+     * The events a Rule can wait for. The target of ENTER_ROOM is a room index, of TAKE_ITEM
+     * an item index and of KILL_ENEMY an enemy index. SAY waits for a phrase instead, and
+     * TURN for every turn that the hero explores or fights. The target of TIMER is the number
+     * of a timer, which happens when the timer runs out.
+     */
+    public enum Event {
+        ENTER_ROOM,
+        TAKE_ITEM,
+        KILL_ENEMY,
+        SAY,
+        TURN,
+        TIMER
+    }
+
+    /**
+     * A Condition is something that must be true for a rule to fire, e.g. HAS_ITEM 0.
+     */
+    public static class Condition implements java.io.Serializable {
+
+        ConditionType type;
+        int value;
+
+        public Condition(ConditionType type, int value) {
+            this.type = type;
+            this.value = value;
+        }
+
+        /**
+         * Get the type of the condition
+         *
+         * @return the condition type
+         */
+        public ConditionType getType() {
+            return type;
+        }
+
+        /**
+         * Get the value of the condition - an index, an amount of health, or a rule index
+         *
+         * @return the value
+         */
+        public int getValue() {
+            return value;
+        }
+    }
+
+    public enum ConditionType {
+        IN_ROOM,
+        HAS_ITEM,
+        LACKS_ITEM,
+        NPC_RESOLVED,
+        ENEMY_DEAD,
+        PASSAGE_UNLOCKED,
+        CONTAINER_LOOTED,
+        HEALTH_AT_LEAST,
+        HEALTH_BELOW,
+        RULE_FIRED
+    }
+
+    /**
+     * An Effect is one thing that a rule does when it fires, e.g. UNLOCK_PASSAGE 37. Any effect
+     * can have text, which is shown to the player when it is applied.
+     */
+    public static class Effect implements java.io.Serializable {
+
+        EffectType type;
+        int value;
+        String text;
+        int turns;
+
+        public Effect(EffectType type, int value, String text) {
+            this(type, value, text, 0);
+        }
+
+        public Effect(EffectType type, int value, String text, int turns) {
+            this.type = type;
+            this.value = value;
+            this.text = text;
+            this.turns = turns;
+        }
+
+        /**
+         * Get the type of the effect
+         *
+         * @return the effect type
+         */
+        public EffectType getType() {
+            return type;
+        }
+
+        /**
+         * Get the value of the effect - an index, a timer number, or the change in health for ALTER_HEALTH
+         *
+         * @return the value
+         */
+        public int getValue() {
+            return value;
+        }
+
+        /**
+         * Get the text shown when the effect is applied
+         *
+         * @return the text, or an empty string
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Get the number of turns until the timer of a START_TIMER effect runs out
+         *
+         * @return the number of turns
+         */
+        public int getTurns() {
+            return turns;
+        }
+    }
+
+    public enum EffectType {
+        TEXT,
+        UNLOCK_PASSAGE,
+        LOCK_PASSAGE,
+        UNLOCK_CONTAINER,
+        GIVE_ITEM,
+        REMOVE_ITEM,
+        ALTER_HEALTH,
+        START_TIMER,
+        CANCEL_TIMER,
+        RESPAWN_ENEMY
+    }
+}
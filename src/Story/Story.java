@@ -1,5 +1,6 @@
 package Story;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -24,6 +25,10 @@ public class Story  implements java.io.Serializable{
     private int initialHeroHealth;
     private int initialHeroAttackPower;
     private int initialHeroDefence;
+    private SymbolTable symbolTable;
+    private ArrayList<Rule> rules;
+    private String storyPath;
+    private transient int roomSetVersion;
 
     //Constructor
     public Story(
@@ -51,6 +56,9 @@ public class Story  implements java.io.Serializable{
         this.enemies = enemies;
         this.nonPlayerCharacters = nonPlayerCharacters;
         this.passages = passages;
+
+        this.symbolTable = new SymbolTable();
+        internSymbols();
     }
 
     /**
@@ -122,6 +130,7 @@ public class Story  implements java.io.Serializable{
      */
     public void addRoom(Room room) {
         this.rooms.put(room.roomIndex, room);
+        roomSetChanged();
     }
 
     /**
@@ -234,6 +243,190 @@ public class Story  implements java.io.Serializable{
         this.passages.put(passageIndex, passage);
     }
 
+    /**
+     * Tells the story which room the hero has moved into. A Story that is fully loaded
+     * does not need to know, but a story that loads rooms as they are needed (see
+     * StoryParser.LazyStory) uses it to load the rooms around the hero ahead of time.
+     *
+     * @param roomIndex - index of the Room the hero is in.
+     */
+    public void enterRoom(int roomIndex) {
+    }
+
+    /**
+     * Returns the story as it was before it was played, for stories that do not keep every
+     * entity in memory. The GameTimeline uses it to undo changes to entities that were not
+     * loaded when the game started. A Story that is fully loaded has every entity in the
+     * timeline from the start, so it returns itself.
+     *
+     * @return Story
+     */
+    public Story getOriginal() {
+        return this;
+    }
+
+    /**
+     * Get the path that the story was loaded from, e.g. so that a game loaded from a save
+     * slot knows which story it belongs to.
+     *
+     * @return the story path, or null if the story was not loaded from a path
+     */
+    public String getStoryPath() {
+        return storyPath;
+    }
+
+    /**
+     * Set the path that the story was loaded from.
+     *
+     * @param storyPath the story file, or a GeneratedStory path
+     */
+    public void setStoryPath(String storyPath) {
+        this.storyPath = storyPath;
+    }
+
+    /**
+     * Get the Rules of the story, in the order they are written in the story file.
+     *
+     * @return the rules - empty if the story has none
+     */
+    public ArrayList<Rule> getRules() {
+        if (rules == null) {
+            rules = new ArrayList<Rule>();
+        }
+        return rules;
+    }
+
+    /**
+     * Set the Rules of the story.
+     *
+     * @param rules the rules
+     */
+    public void setRules(ArrayList<Rule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Get the SymbolTable that the names and keys in the story are interned in.
+     *
+     * @return the symbol table
+     */
+    public SymbolTable getSymbolTable() {
+        if (symbolTable == null) {
+            symbolTable = new SymbolTable(); //a story saved before it had a symbol table
+            internSymbols();
+        }
+        return symbolTable;
+    }
+
+    /**
+     * Set the SymbolTable of the story, so that every copy of a story can share one table
+     * (see StoryParser.StoryCache). Symbols only mean something in the table they were interned
+     * in, so if the table is a different one, everything in the story is interned again.
+     *
+     * @param symbolTable the symbol table
+     */
+    public void setSymbolTable(SymbolTable symbolTable) {
+        if (symbolTable == this.symbolTable) {
+            return;
+        }
+        this.symbolTable = symbolTable;
+        for (Container container : containers.values()) {
+            container.nameSymbol = SymbolTable.NO_SYMBOL;
+            container.keySymbol = SymbolTable.NO_SYMBOL;
+        }
+        for (Item item : items.values()) {
+            item.nameSymbol = SymbolTable.NO_SYMBOL;
+        }
+        for (Enemy enemy : enemies.values()) {
+            enemy.nameSymbol = SymbolTable.NO_SYMBOL;
+        }
+        for (NonPlayerCharacter npc : nonPlayerCharacters.values()) {
+            npc.nameSymbol = SymbolTable.NO_SYMBOL;
+        }
+        for (Passage passage : passages.values()) {
+            passage.keySymbol = SymbolTable.NO_SYMBOL;
+        }
+        internSymbols();
+    }
+
+    /**
+     * Intern the names and keys of everything in the story's maps. A story that loads rooms
+     * as they are needed interns the rest as they are loaded (see internSymbols(Container) etc).
+     */
+    public void internSymbols() {
+        for (Container container : containers.values()) {
+            internSymbols(container);
+        }
+        for (Item item : items.values()) {
+            internSymbols(item);
+        }
+        for (Enemy enemy : enemies.values()) {
+            internSymbols(enemy);
+        }
+        for (NonPlayerCharacter npc : nonPlayerCharacters.values()) {
+            internSymbols(npc);
+        }
+        for (Passage passage : passages.values()) {
+            internSymbols(passage);
+        }
+    }
+
+    /**
+     * Intern the name and key of a container, if they have not been already.
+     *
+     * @param container the container, or null
+     */
+    public void internSymbols(Container container) {
+        if (container != null && container.getNameSymbol() == SymbolTable.NO_SYMBOL) {
+            container.setNameSymbol(getSymbolTable().intern(container.getName()));
+            container.setKeySymbol(getSymbolTable().intern(container.getKey()));
+        }
+    }
+
+    /**
+     * Intern the name of an item, if it has not been already.
+     *
+     * @param item the item, or null
+     */
+    public void internSymbols(Item item) {
+        if (item != null && item.getNameSymbol() == SymbolTable.NO_SYMBOL) {
+            item.setNameSymbol(getSymbolTable().intern(item.getName()));
+        }
+    }
+
+    /**
+     * Intern the name of an enemy, if it has not been already.
+     *
+     * @param enemy the enemy, or null
+     */
+    public void internSymbols(Enemy enemy) {
+        if (enemy != null && enemy.getNameSymbol() == SymbolTable.NO_SYMBOL) {
+            enemy.setNameSymbol(getSymbolTable().intern(enemy.getName()));
+        }
+    }
+
+    /**
+     * Intern the name of an npc, if it has not been already.
+     *
+     * @param npc the npc, or null
+     */
+    public void internSymbols(NonPlayerCharacter npc) {
+        if (npc != null && npc.getNameSymbol() == SymbolTable.NO_SYMBOL) {
+            npc.setNameSymbol(getSymbolTable().intern(npc.getName()));
+        }
+    }
+
+    /**
+     * Intern the key of a passage, if it has not been already.
+     *
+     * @param passage the passage, or null
+     */
+    public void internSymbols(Passage passage) {
+        if (passage != null && passage.getKeySymbol() == SymbolTable.NO_SYMBOL) {
+            passage.setKeySymbol(getSymbolTable().intern(passage.getKey()));
+        }
+    }
+
     // ** Standard getters and setters ** //
 
     /**
@@ -254,6 +447,25 @@ public class Story  implements java.io.Serializable{
      */
     public void setRooms(HashMap<Integer, Room> rooms) {
         this.rooms = rooms;
+        roomSetChanged();
+    }
+
+    /**
+     * Get the version of the set of rooms that the story holds in memory. It changes whenever
+     * a room is added to or dropped from getRooms(), e.g. as a LazyStory loads the rooms around
+     * the hero, so that anything worked out from the rooms can tell when it is out of date.
+     *
+     * @return the room set version
+     */
+    public int getRoomSetVersion() {
+        return roomSetVersion;
+    }
+
+    /**
+     * Record that a room has been added to or dropped from getRooms().
+     */
+    public void roomSetChanged() {
+        roomSetVersion++;
     }
 
     /**
@@ -0,0 +1,69 @@
+package Story;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The SymbolTable gives every name and key in a Story a number - its symbol - so that the
+ * GameEngine can tell whether the target of a command names something by comparing two ints,
+ * instead of comparing the strings every time. The same name always has the same symbol, and
+ * symbols start at 1, so NO_SYMBOL (0) never matches anything.
+ *
+ * The table is filled when the story is loaded (see Story.internSymbols()), and is saved with
+ * the Story, so the compiled form of a story holds it too. The symbols kept on the entities are
+ * not saved, as an entity can be read back into a story with a different table (e.g. the rooms
+ * of a LazyStory) - they are interned again when they are next seen. A LazyStory or
+ * GeneratedStory adds names as their rooms are read or made. Symbols are only ever added, never changed, so one
+ * table can be shared by every game of the same story - lookups can be made from any thread.
+ *
+ * Text the player types is only looked up, never added, so the table does not grow with
+ * what is typed.
+ */
+public class SymbolTable implements Serializable {
+
+    public static final int NO_SYMBOL = 0;
+
+    private final ConcurrentHashMap<String, Integer> symbols = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Get the symbol for a name, adding the name to the table if it is not already in it.
+     *
+     * @param name the name, in the case it is written in the story
+     * @return the symbol, or NO_SYMBOL if the name is null
+     */
+    public int intern(String name) {
+        if (name == null) {
+            return NO_SYMBOL;
+        }
+        Integer symbol = symbols.get(name);
+        if (symbol != null) {
+            return symbol;
+        }
+        synchronized (this) {
+            return symbols.computeIfAbsent(name, added -> symbols.size() + 1);
+        }
+    }
+
+    /**
+     * Get the symbol for a name without adding it to the table, e.g. for the target of a command.
+     *
+     * @param name the name
+     * @return the symbol, or NO_SYMBOL if nothing in the story is called that
+     */
+    public int lookup(String name) {
+        if (name == null) {
+            return NO_SYMBOL;
+        }
+        Integer symbol = symbols.get(name);
+        return symbol == null ? NO_SYMBOL : symbol;
+    }
+
+    /**
+     * Get the number of names in the table.
+     *
+     * @return the number of symbols
+     */
+    public int size() {
+        return symbols.size();
+    }
+}
@@ -0,0 +1,520 @@
+package StoryParser;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+import Story.Container;
+import Story.Direction;
+import Story.Enemy;
+import Story.Item;
+import Story.NonPlayerCharacter;
+import Story.Passage;
+import Story.Room;
+import Story.Story;
+
+/**
+ * The GeneratedStory class is an endless dungeon. Its rooms are not listed in a story file - each
+ * room is made from the dungeon's seed and the room's coordinates the first time it is needed, so
+ * the same seed always makes the same dungeon.
+ *
+ * The dungeon is a grid of rooms. Every fourth row and column is an unbroken corridor, so every
+ * room can be reached, and the walls between the other rooms are chosen at random. The grid wraps
+ * around at WORLD_SIZE rooms in each direction, so it has no edge. Enemies get stronger, and their
+ * loot better, the further a room is from the first room.
+ *
+ * Only the last windowSize rooms that were used are kept in memory, with their passages, container
+ * and enemy, and the last windowSize items. When a room is dropped, anything the player changed in
+ * it (e.g. a looted container or a dead enemy) is kept as a RoomDelta of a few numbers, and applied
+ * again when the room is made again; items only remember whether they have been used. The memory
+ * used does not grow with the distance walked - only with the number of rooms the player has
+ * changed. Items are made on their own (from the seed and their index), so looking up an item in
+ * the hero's inventory never brings its room back into memory.
+ *
+ * Indexes: room (x, y) has index x * WORLD_SIZE + y, so the first room (0, 0) is room 0. Its passage
+ * in a direction has index room * 4 + direction, its container and enemy have the room's index, and
+ * the items in its container and carried by its enemy have indexes room * 2 and room * 2 + 1.
+ */
+public class GeneratedStory extends Story {
+
+    public static final String STORY_PATH_PREFIX = "generated:";
+    public static final int WORLD_SIZE = 1 << 14;
+    public static final int DEFAULT_WINDOW_SIZE = 64;
+
+    private static final int CORRIDOR_SPACING = 4;
+    private static final int CONTAINER_SLOT = 0;
+    private static final int ENEMY_SLOT = 1;
+
+    private static final String[] ROOM_ADJECTIVES = {"DRIPPING", "SILENT", "CRUMBLING", "FLOODED", "ASHEN", "HOLLOW", "GILDED", "ROTTING", "FROZEN", "WHISPERING"};
+    private static final String[] ROOM_NOUNS = {"CRYPT", "HALL", "CELLAR", "CHAPEL", "GALLERY", "CISTERN", "LIBRARY", "OSSUARY", "KITCHEN", "NURSERY"};
+    private static final String[] ROOM_DETAILS = {
+        "Water drips steadily from the vaulted ceiling.",
+        "Broken furniture is piled against the walls.",
+        "The air is thick with the smell of wet stone.",
+        "Faded portraits watch you from the walls.",
+        "Something has scratched long marks into the floor.",
+        "Candles that nobody lit flicker in their sconces."
+    };
+    private static final String[] PASSAGES_OPEN = {
+        "A low archway leads into the dark.",
+        "A narrow corridor stretches away from you.",
+        "A door hangs open on one rusted hinge.",
+        "A flight of worn steps leads onwards."
+    };
+    private static final String[] PASSAGES_NONE = {
+        "A wall of damp stone blocks the way.",
+        "The way is choked with rubble. You cannot pass.",
+        "A sheer drop into blackness. You dare not go this way."
+    };
+    private static final String[] ENEMY_NAMES = {"GHOUL", "SHRIEKING BAT", "BONE HOUND", "GRAVE WORM", "HOLLOW KNIGHT", "PALE WITCH"};
+    private static final String[] CONTAINER_NAMES = {"OLD CHEST", "IRON COFFER", "SODDEN CRATE", "STONE URN"};
+    private static final String[] WEAPON_NAMES = {"RUSTED SWORD", "BONE CLUB", "SILVER DAGGER", "WAR HAMMER"};
+    private static final String[] ARMOUR_NAMES = {"LEATHER JERKIN", "CHAIN SHIRT", "IRON HELM", "TOWER SHIELD"};
+    private static final String[] POTION_NAMES = {"HEALING DRAUGHT", "VIAL OF TEARS", "BITTER TONIC"};
+
+    private final long seed;
+    private final int windowSize;
+    private final HashMap<Integer, RoomDelta> deltas;
+    private final HashSet<Integer> emptyItems;
+    private transient LinkedHashMap<Integer, Boolean> window;
+    private transient LinkedHashMap<Integer, Boolean> itemWindow;
+    private transient int currentRoomIndex;
+    private transient GeneratedStory original;
+
+    /**
+     * The constructor for GeneratedStory.
+     *
+     * @param seed (long) the seed that the dungeon is made from
+     */
+    public GeneratedStory(long seed){
+        this(seed, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * The constructor for GeneratedStory with the given number of rooms kept in memory.
+     *
+     * @param seed (long) the seed that the dungeon is made from
+     * @param windowSize (int) the most rooms to keep in memory
+     */
+    public GeneratedStory(long seed, int windowSize){
+        super(
+            "The Endless Dungeon",
+            "You wake on a cold stone floor. Passages lead away in every direction, and somewhere in the dark something is breathing. There is no way out but onwards.",
+            100, 10, 10,
+            new HashMap<Integer, Room>(),
+            new HashMap<Integer, Container>(),
+            new HashMap<Integer, Item>(),
+            new HashMap<Integer, Enemy>(),
+            new HashMap<Integer, NonPlayerCharacter>(),
+            new HashMap<Integer, Passage>()
+        );
+        this.seed = seed;
+        this.windowSize = Math.max(windowSize, 2);
+        setStoryPath(getStoryPath(seed));
+        this.deltas = new HashMap<Integer, RoomDelta>();
+        this.emptyItems = new HashSet<Integer>();
+        this.window = new LinkedHashMap<Integer, Boolean>(16, 0.75f, true);
+        this.itemWindow = new LinkedHashMap<Integer, Boolean>(16, 0.75f, true);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+        in.defaultReadObject();
+        window = new LinkedHashMap<Integer, Boolean>(16, 0.75f, true);
+        for(int roomIndex : getRooms().keySet()){
+            window.put(roomIndex, true);
+        }
+        itemWindow = new LinkedHashMap<Integer, Boolean>(16, 0.75f, true);
+        for(int itemIndex : getItems().keySet()){
+            itemWindow.put(itemIndex, true);
+        }
+    }
+
+    /**
+     * Utility function that returns the story path that stands for a generated dungeon,
+     * e.g. so that a GameJournal can make the dungeon again.
+     *
+     * @param seed (long) the seed of the dungeon
+     * @return (String) the story path
+     */
+    public static String getStoryPath(long seed){
+        return STORY_PATH_PREFIX + seed;
+    }
+
+    /**
+     * Utility function that checks whether a story path stands for a generated dungeon.
+     *
+     * @param storyPath (String) the story path
+     * @return (boolean) true if the path was made by getStoryPath()
+     */
+    public static boolean isGeneratedStoryPath(String storyPath){
+        return storyPath.startsWith(STORY_PATH_PREFIX);
+    }
+
+    /**
+     * The fromStoryPath() function makes the dungeon that a story path stands for.
+     *
+     * @param storyPath (String) the story path
+     * @return (GeneratedStory) the dungeon
+     * @throws IOException if the path does not hold a seed
+     */
+    public static GeneratedStory fromStoryPath(String storyPath) throws IOException{
+        try{
+            return new GeneratedStory(Long.parseLong(storyPath.substring(STORY_PATH_PREFIX.length())));
+        }catch(NumberFormatException e){
+            throw new IOException(storyPath + " is not a generated story", e);
+        }
+    }
+
+    @Override
+    public Room getRoom(int roomIndex){
+        materialize(roomIndex);
+        return getRooms().get(roomIndex);
+    }
+
+    @Override
+    public Passage getPassage(int passageIndex){
+        if(!getPassages().containsKey(passageIndex)){
+            materialize(passageIndex / 4);
+        }
+        return getPassages().get(passageIndex);
+    }
+
+    @Override
+    public Container getContainer(int containerIndex){
+        if(!getContainers().containsKey(containerIndex)){
+            materialize(containerIndex);
+        }
+        return getContainers().get(containerIndex);
+    }
+
+    @Override
+    public Enemy getEnemy(int enemyIndex){
+        if(!getEnemies().containsKey(enemyIndex)){
+            materialize(enemyIndex);
+        }
+        return getEnemies().get(enemyIndex);
+    }
+
+    @Override
+    public NonPlayerCharacter getNonPlayerCharacter(int npcIndex){
+        return getNonPlayerCharacters().get(npcIndex); //the dungeon has no one to talk to
+    }
+
+    @Override
+    public Item getItem(int itemIndex){
+        if(itemWindow.get(itemIndex) == null){
+            Item item = generateItem(itemIndex);
+            item.setEmpty(emptyItems.contains(itemIndex));
+            getItems().put(itemIndex, item);
+            itemWindow.put(itemIndex, true);
+
+            Iterator<Integer> eldest = itemWindow.keySet().iterator();
+            while(itemWindow.size() > windowSize){
+                int dropped = eldest.next();
+                eldest.remove();
+                if(getItems().remove(dropped).isEmpty()){
+                    emptyItems.add(dropped);
+                }else{
+                    emptyItems.remove(dropped);
+                }
+            }
+        }
+        return getItems().get(itemIndex);
+    }
+
+    @Override
+    public void enterRoom(int roomIndex){
+        currentRoomIndex = roomIndex;
+        materialize(roomIndex);
+    }
+
+    /**
+     * The getOriginal() function returns the dungeon as it was made, before anything in it
+     * was changed.
+     *
+     * @return (Story) a dungeon with the same seed and no changes
+     */
+    @Override
+    public Story getOriginal(){
+        if(original == null){
+            original = new GeneratedStory(seed, windowSize);
+        }
+        return original;
+    }
+
+    /**
+     * Utility function that returns the seed that the dungeon is made from.
+     *
+     * @return (long) the seed
+     */
+    public long getSeed(){
+        return seed;
+    }
+
+    /**
+     * Utility function that returns the number of rooms whose changes are kept while they
+     * are not in memory.
+     *
+     * @return (int) the number of room deltas
+     */
+    public int getDeltaCount(){
+        return deltas.size();
+    }
+
+    /**
+     * Makes a room and everything in it, applies the player's changes to it, and drops the
+     * least recently used room if the window is full.
+     */
+    private void materialize(int roomIndex){
+        if(window.get(roomIndex) != null){
+            return; //already in memory, and now the most recently used
+        }
+        Generated generated = generate(roomIndex);
+        RoomDelta delta = deltas.get(roomIndex);
+        if(delta != null){
+            delta.applyTo(generated);
+        }
+        getRooms().put(roomIndex, generated.room);
+        roomSetChanged();
+        for(Passage passage : generated.passages){
+            getPassages().put(passage.getPassageIndex(), passage);
+        }
+        if(generated.container != null){
+            getContainers().put(roomIndex, generated.container);
+        }
+        if(generated.enemy != null){
+            getEnemies().put(roomIndex, generated.enemy);
+        }
+        window.put(roomIndex, true);
+
+        Iterator<Integer> eldest = window.keySet().iterator();
+        while(window.size() > windowSize){
+            int dropped = eldest.next();
+            if(dropped != currentRoomIndex){ //the hero's room is always kept
+                eldest.remove();
+                drop(dropped);
+            }
+        }
+    }
+
+    /**
+     * Drops a room from memory, keeping whatever the player changed in it as a RoomDelta.
+     */
+    private void drop(int roomIndex){
+        RoomDelta delta = RoomDelta.of(this, generate(roomIndex));
+        if(delta != null){
+            deltas.put(roomIndex, delta);
+        }else{
+            deltas.remove(roomIndex);
+        }
+        getRooms().remove(roomIndex);
+        roomSetChanged();
+        for(Direction direction : Direction.values()){
+            getPassages().remove(roomIndex * 4 + direction.ordinal());
+        }
+        getContainers().remove(roomIndex);
+        getEnemies().remove(roomIndex);
+    }
+
+    /**
+     * The generate() function makes a room, exactly as it is every time it is made from
+     * this seed.
+     *
+     * @param roomIndex (int) the index of the room
+     * @return (Generated) the room and everything in it
+     */
+    private Generated generate(int roomIndex){
+        int x = roomIndex / WORLD_SIZE;
+        int y = roomIndex % WORLD_SIZE;
+        Random random = new Random(mix(seed, roomIndex, 0x524f4f4dL));
+        Generated generated = new Generated();
+
+        HashMap<Direction, Integer> passageIndexes = new HashMap<Direction, Integer>();
+        for(Direction direction : Direction.values()){
+            int passageIndex = roomIndex * 4 + direction.ordinal();
+            passageIndexes.put(direction, passageIndex);
+            int neighbour = getNeighbour(x, y, direction);
+            if(isOpen(x, y, direction)){
+                String description = PASSAGES_OPEN[random.nextInt(PASSAGES_OPEN.length)];
+                generated.passages.add(new Passage(passageIndex, Passage.PassageType.PASSAGE_FREE, "", description, false, "", neighbour, ""));
+            }else{
+                String description = PASSAGES_NONE[random.nextInt(PASSAGES_NONE.length)];
+                generated.passages.add(new Passage(passageIndex, Passage.PassageType.PASSAGE_NONE, "", description, false, "", ""));
+            }
+        }
+
+        //rooms further from the start are more dangerous
+        int depth = getDepth(roomIndex);
+        ArrayList<Integer> containers = new ArrayList<Integer>();
+        ArrayList<Integer> enemies = new ArrayList<Integer>();
+        if(roomIndex != 0 && random.nextInt(3) == 0){
+            String name = CONTAINER_NAMES[random.nextInt(CONTAINER_NAMES.length)];
+            generated.container = new Container(roomIndex, name, "There is " + withArticle(name) + " here.",
+                "", false, "", roomIndex * 2 + CONTAINER_SLOT, false, "");
+            containers.add(roomIndex);
+        }
+        if(roomIndex != 0 && random.nextInt(4) == 0){
+            boolean hasLoot = random.nextBoolean();
+            String name = ENEMY_NAMES[random.nextInt(ENEMY_NAMES.length)];
+            generated.enemy = new Enemy(roomIndex, name, "The " + name + " lies dead.", withArticle(name) + " lurks in the shadows, watching you.",
+                20 + depth * 2 + random.nextInt(20), 8 + depth / 2 + random.nextInt(8), 2 + depth / 4 + random.nextInt(4), roomIndex * 2 + ENEMY_SLOT, hasLoot);
+            enemies.add(roomIndex);
+        }
+
+        String name = ROOM_ADJECTIVES[random.nextInt(ROOM_ADJECTIVES.length)] + " " + ROOM_NOUNS[random.nextInt(ROOM_NOUNS.length)];
+        String description = ROOM_DETAILS[random.nextInt(ROOM_DETAILS.length)];
+        generated.room = new Room(roomIndex, name, description, new ArrayList<Integer>(), passageIndexes, enemies, containers);
+        return generated;
+    }
+
+    /**
+     * The generateItem() function makes an item, exactly as it is every time it is made from
+     * this seed. Items are better the further their room is from the start.
+     *
+     * @param itemIndex (int) the index of the item
+     * @return (Item) the item
+     */
+    private Item generateItem(int itemIndex){
+        Random random = new Random(mix(seed, itemIndex, 0x4954454dL));
+        int depth = getDepth(itemIndex / 2);
+        int power = 2 + depth / 5 + random.nextInt(4);
+        switch(random.nextInt(3)){
+            case 0:
+                return new Item(itemIndex, WEAPON_NAMES[random.nextInt(WEAPON_NAMES.length)], "A weapon, notched from use.", true, power, 0);
+            case 1:
+                return new Item(itemIndex, ARMOUR_NAMES[random.nextInt(ARMOUR_NAMES.length)], "Battered, but it will turn a blow.", true, 0, power);
+            default:
+                return new Item(itemIndex, POTION_NAMES[random.nextInt(POTION_NAMES.length)], "A small stoppered bottle.", 0, 0, 10 + power * 3);
+        }
+    }
+
+    /**
+     * Utility function that decides whether the way out of a room in a direction is open. The
+     * answer depends only on the wall between the two rooms, so both rooms agree on it.
+     */
+    private boolean isOpen(int x, int y, Direction direction){
+        switch(direction){
+            case SOUTH:
+                return isOpen(x, wrap(y - 1), Direction.NORTH);
+            case WEST:
+                return isOpen(wrap(x - 1), y, Direction.EAST);
+            case NORTH:
+                return x % CORRIDOR_SPACING == 0 || (mix(seed, x * WORLD_SIZE + y, 0x4e4f5254L) & 1) == 0;
+            default:
+                return y % CORRIDOR_SPACING == 0 || (mix(seed, x * WORLD_SIZE + y, 0x45415354L) & 1) == 0;
+        }
+    }
+
+    private static int getDepth(int roomIndex){
+        int x = roomIndex / WORLD_SIZE;
+        int y = roomIndex % WORLD_SIZE;
+        return Math.min(Math.min(x, WORLD_SIZE - x) + Math.min(y, WORLD_SIZE - y), 200);
+    }
+
+    private static String withArticle(String name){
+        return ("AEIOU".indexOf(name.charAt(0)) >= 0 ? "an " : "a ") + name;
+    }
+
+    private static int getNeighbour(int x, int y, Direction direction){
+        switch(direction){
+            case NORTH:
+                return x * WORLD_SIZE + wrap(y + 1);
+            case SOUTH:
+                return x * WORLD_SIZE + wrap(y - 1);
+            case EAST:
+                return wrap(x + 1) * WORLD_SIZE + y;
+            default:
+                return wrap(x - 1) * WORLD_SIZE + y;
+        }
+    }
+
+    private static int wrap(int coordinate){
+        return coordinate & (WORLD_SIZE - 1);
+    }
+
+    /**
+     * Utility function that mixes the seed, a room and a salt into a well spread number
+     * (the SplitMix64 finaliser).
+     */
+    private static long mix(long seed, int roomIndex, long salt){
+        long z = seed ^ (roomIndex * 0x9e3779b97f4a7c15L) ^ salt;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * The Generated class holds a room and everything in it, as it has just been made.
+     */
+    private static class Generated {
+        Room room;
+        final ArrayList<Passage> passages = new ArrayList<Passage>();
+        Container container;
+        Enemy enemy;
+    }
+
+    /**
+     * The RoomDelta class holds what the player has changed in a room that is not in memory.
+     */
+    private static class RoomDelta implements Serializable {
+
+        private int lockedPassages; //a bit for each direction
+        private boolean containerLocked;
+        private boolean containerLooted;
+        private int enemyHealth;
+        private int stateVersion;
+
+        /**
+         * Compares a room in memory with the room as it was made, and returns what differs,
+         * or null if nothing does.
+         */
+        static RoomDelta of(GeneratedStory story, Generated generated){
+            int roomIndex = generated.room.getRoomIndex();
+            RoomDelta delta = new RoomDelta();
+            boolean changed = false;
+            for(Passage passage : generated.passages){
+                Passage current = story.getPassages().get(passage.getPassageIndex());
+                if(current.isLocked()){
+                    delta.lockedPassages |= 1 << (passage.getPassageIndex() % 4);
+                }
+                changed |= current.isLocked() != passage.isLocked();
+            }
+            Container container = story.getContainers().get(roomIndex);
+            if(container != null){
+                delta.containerLocked = container.isLocked();
+                delta.containerLooted = container.isLooted();
+                changed |= container.isLocked() != generated.container.isLocked() || container.isLooted() != generated.container.isLooted();
+            }
+            Enemy enemy = story.getEnemies().get(roomIndex);
+            if(enemy != null){
+                delta.enemyHealth = enemy.getHealth();
+                changed |= enemy.getHealth() != generated.enemy.getHealth();
+            }
+            delta.stateVersion = story.getRooms().get(roomIndex).getStateVersion();
+            return changed ? delta : null;
+        }
+
+        void applyTo(Generated generated){
+            for(Passage passage : generated.passages){
+                passage.setLocked((lockedPassages & (1 << (passage.getPassageIndex() % 4))) != 0);
+            }
+            if(generated.container != null){
+                generated.container.setLocked(containerLocked);
+                generated.container.setLooted(containerLooted);
+            }
+            if(generated.enemy != null){
+                generated.enemy.setHealth(enemyHealth);
+            }
+            //anything rendered from the room before it was dropped must not be reused
+            while(generated.room.getStateVersion() <= stateVersion){
+                generated.room.bumpStateVersion();
+            }
+        }
+    }
+}
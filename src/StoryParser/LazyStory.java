@@ -0,0 +1,342 @@
+package StoryParser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import Story.Container;
+import Story.Enemy;
+import Story.Item;
+import Story.NonPlayerCharacter;
+import Story.Passage;
+import Story.Room;
+import Story.Story;
+
+/**
+ * The LazyStory class is a Story that is read from a StoryIndex one room at a time, for
+ * stories too large to keep in memory. A room is loaded, with its passages, containers, enemies
+ * and NPCs, the first time anything in it is looked up. Items are loaded one at a time, and at
+ * most ITEM_WINDOW of them that have not changed are kept, the least recently used being dropped.
+ *
+ * Whenever the hero moves into a room (see enterRoom()), the StoryIndex prefetches the rooms
+ * around it, and the rooms that are now more than prefetchHops + 1 passages from the hero are
+ * dropped - unless something in them has changed since they were loaded, in which case they
+ * are kept, as the index only holds the rooms as they were at the start of the story. Rooms that
+ * were part of a saved game are always kept, as it is not known whether they have changed.
+ *
+ * The story maps (getRooms(), getPassages(), etc.) only hold what is loaded. When a room that was
+ * dropped is loaded again, its state version is moved past the version it had, so nothing that was
+ * rendered from it before is reused.
+ *
+ * The game must tell the story which room the hero starts in, with enterRoom(). A LazyStory
+ * holds its StoryIndex open until it is closed.
+ */
+public class LazyStory extends Story implements Closeable {
+
+    public static final int ITEM_WINDOW = 64;
+
+    private final String indexPath;
+    private transient StoryIndex storyIndex;
+    private transient HashMap<Integer, String> loadedStates;
+    private transient HashMap<Integer, Integer> droppedVersions;
+    private transient LinkedHashMap<Integer, Boolean> itemWindow; //the items that can be dropped, least recently used first, and whether each was empty when loaded
+    private transient LazyStory original;
+    private transient int currentRoomIndex;
+    private transient boolean detached;
+    private transient boolean closed;
+
+    /**
+     * The constructor for LazyStory.
+     *
+     * @param storyIndex (StoryIndex) the compiled story to read rooms from
+     */
+    public LazyStory(StoryIndex storyIndex){
+        super(
+            storyIndex.getName(),
+            storyIndex.getIntroduction(),
+            storyIndex.getInitialHeroHealth(),
+            storyIndex.getInitialHeroAttackPower(),
+            storyIndex.getInitialHeroDefence(),
+            new HashMap<Integer, Room>(),
+            new HashMap<Integer, Container>(),
+            new HashMap<Integer, Item>(),
+            new HashMap<Integer, Enemy>(),
+            new HashMap<Integer, NonPlayerCharacter>(),
+            new HashMap<Integer, Passage>()
+        );
+        this.indexPath = storyIndex.getPath();
+        this.storyIndex = storyIndex;
+        initialize();
+        try{
+            setRules(storyIndex.getRules());
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void initialize(){
+        loadedStates = new HashMap<Integer, String>();
+        droppedVersions = new HashMap<Integer, Integer>();
+        itemWindow = new LinkedHashMap<Integer, Boolean>(16, 0.75f, true);
+        currentRoomIndex = -1;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+        in.defaultReadObject();
+        storyIndex = StoryIndex.open(indexPath);
+        initialize();
+    }
+
+    @Override
+    public Room getRoom(int roomIndex){
+        Room room = getRooms().get(roomIndex);
+        if(room == null){
+            loadRoom(roomIndex);
+            room = getRooms().get(roomIndex);
+        }
+        return room;
+    }
+
+    @Override
+    public Passage getPassage(int passageIndex){
+        if(!getPassages().containsKey(passageIndex)){
+            loadOwner(storyIndex.getPassageOwner(passageIndex));
+        }
+        return getPassages().get(passageIndex);
+    }
+
+    @Override
+    public Container getContainer(int containerIndex){
+        if(!getContainers().containsKey(containerIndex)){
+            loadOwner(storyIndex.getContainerOwner(containerIndex));
+        }
+        return getContainers().get(containerIndex);
+    }
+
+    @Override
+    public Enemy getEnemy(int enemyIndex){
+        if(!getEnemies().containsKey(enemyIndex)){
+            loadOwner(storyIndex.getEnemyOwner(enemyIndex));
+        }
+        return getEnemies().get(enemyIndex);
+    }
+
+    @Override
+    public NonPlayerCharacter getNonPlayerCharacter(int npcIndex){
+        if(!getNonPlayerCharacters().containsKey(npcIndex)){
+            loadOwner(storyIndex.getNonPlayerCharacterOwner(npcIndex));
+        }
+        return getNonPlayerCharacters().get(npcIndex);
+    }
+
+    @Override
+    public Item getItem(int itemIndex){
+        Item item = getItems().get(itemIndex);
+        if(item == null){
+            try{
+                item = storyIndex.readItem(itemIndex);
+            }catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+            if(item != null){
+                getItems().put(itemIndex, item);
+                itemWindow.put(itemIndex, item.isEmpty());
+                dropItems();
+            }
+        }else{
+            itemWindow.get(itemIndex); //now the most recently used
+        }
+        return item;
+    }
+
+    /**
+     * The enterRoom() function prefetches the rooms around the hero and drops the rooms
+     * that are now too far away.
+     *
+     * @param roomIndex (int) the room the hero has moved into
+     */
+    @Override
+    public void enterRoom(int roomIndex){
+        if(roomIndex == currentRoomIndex || detached){
+            return;
+        }
+        currentRoomIndex = roomIndex;
+        storyIndex.moveTo(this, roomIndex);
+
+        Set<Integer> kept = storyIndex.getRoomsWithin(roomIndex, storyIndex.getPrefetchHops() + 1);
+        List<Room> dropped = new ArrayList<Room>();
+        for(Room room : getRooms().values()){
+            String loadedState = loadedStates.get(room.getRoomIndex());
+            if(!kept.contains(room.getRoomIndex()) && loadedState != null && loadedState.equals(describeState(room))){
+                dropped.add(room);
+            }
+        }
+        for(Room room : dropped){
+            dropRoom(room);
+        }
+    }
+
+    /**
+     * The getOriginal() function returns a view of the story as it was before it was played,
+     * read from the same StoryIndex.
+     *
+     * @return (Story) the unplayed story
+     */
+    @Override
+    public Story getOriginal(){
+        if(original == null){
+            try{
+                original = new LazyStory(StoryIndex.open(indexPath));
+            }catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+            original.detached = true; //there is no hero in it, so it never prefetches or drops rooms
+        }
+        return original;
+    }
+
+    /**
+     * The close() function gives up this story's use of its StoryIndex, which closes the
+     * compiled story file once no other LazyStory is reading it. The story cannot load
+     * anything after it is closed.
+     */
+    @Override
+    public void close(){
+        if(closed){
+            return;
+        }
+        closed = true;
+        if(original != null){
+            original.close();
+        }
+        storyIndex.release(this);
+    }
+
+    /**
+     * Utility function that returns the StoryIndex that this story is read from, e.g. to
+     * read its cache metrics.
+     *
+     * @return (StoryIndex) the index
+     */
+    public StoryIndex getStoryIndex(){
+        return storyIndex;
+    }
+
+    private void loadOwner(Integer roomIndex){
+        if(roomIndex != null && !getRooms().containsKey(roomIndex)){
+            loadRoom(roomIndex);
+        }
+    }
+
+    /**
+     * Loads a room and everything in it. Entities that are already loaded are kept, as
+     * they may have changed.
+     */
+    private void loadRoom(int roomIndex){
+        StoryIndex.RoomRecord record;
+        try{
+            record = storyIndex.readRoom(roomIndex);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        if(record == null){
+            return;
+        }
+        Room room = record.room;
+        Integer droppedVersion = droppedVersions.remove(roomIndex);
+        while(droppedVersion != null && room.getStateVersion() <= droppedVersion){
+            room.bumpStateVersion();
+        }
+        getRooms().put(roomIndex, room);
+        roomSetChanged();
+        for(Passage passage : record.passages){
+            getPassages().putIfAbsent(passage.getPassageIndex(), passage);
+        }
+        for(Container container : record.containers){
+            getContainers().putIfAbsent(container.getContainerIndex(), container);
+        }
+        for(Enemy enemy : record.enemies){
+            getEnemies().putIfAbsent(enemy.getEnemyIndex(), enemy);
+        }
+        for(NonPlayerCharacter npc : record.nonPlayerCharacters){
+            getNonPlayerCharacters().putIfAbsent(npc.getCharacterIndex(), npc);
+        }
+        loadedStates.put(roomIndex, describeState(room));
+    }
+
+    /**
+     * Drops the least recently used items while there are more than ITEM_WINDOW. An item
+     * that has been used up since it was loaded is kept instead, as the index only holds it
+     * as it was at the start of the story.
+     */
+    private void dropItems(){
+        Iterator<Map.Entry<Integer, Boolean>> eldest = itemWindow.entrySet().iterator();
+        while(itemWindow.size() > ITEM_WINDOW && eldest.hasNext()){
+            Map.Entry<Integer, Boolean> entry = eldest.next();
+            eldest.remove();
+            Item item = getItems().get(entry.getKey());
+            if(item != null && item.isEmpty() == entry.getValue()){
+                getItems().remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Drops a room and the entities that belong to it.
+     */
+    private void dropRoom(Room room){
+        int roomIndex = room.getRoomIndex();
+        getRooms().remove(roomIndex);
+        roomSetChanged();
+        loadedStates.remove(roomIndex);
+        droppedVersions.put(roomIndex, room.getStateVersion());
+        removeOwned(getPassages(), room.getPassages().values(), storyIndex::getPassageOwner, roomIndex);
+        removeOwned(getContainers(), room.getContainers(), storyIndex::getContainerOwner, roomIndex);
+        removeOwned(getEnemies(), room.getEnemies(), storyIndex::getEnemyOwner, roomIndex);
+        removeOwned(getNonPlayerCharacters(), room.getNonPlayerCharacters(), storyIndex::getNonPlayerCharacterOwner, roomIndex);
+    }
+
+    private static void removeOwned(Map<Integer, ?> entities, Iterable<Integer> indexes, Function<Integer, Integer> owner, int roomIndex){
+        for(Integer index : indexes){
+            Integer ownerIndex = owner.apply(index);
+            if(ownerIndex != null && ownerIndex == roomIndex){
+                entities.remove(index);
+            }
+        }
+    }
+
+    /**
+     * Describes everything in a room that can change during a game, so that it can be told
+     * whether the room has changed since it was loaded.
+     */
+    private String describeState(Room room){
+        StringBuilder state = new StringBuilder();
+        state.append(room.getPassages()).append(room.getContainers()).append(room.getEnemies()).append(room.getNonPlayerCharacters());
+        for(int index : room.getPassages().values()){
+            Passage passage = getPassages().get(index);
+            state.append(passage == null ? "-" : passage.isLocked() ? "L" : "U");
+        }
+        for(int index : room.getContainers()){
+            Container container = getContainers().get(index);
+            state.append(container == null ? "-" : (container.isLocked() ? "L" : "U") + (container.isLooted() ? "E" : "F"));
+        }
+        for(int index : room.getEnemies()){
+            Enemy enemy = getEnemies().get(index);
+            state.append(enemy == null ? "-" : enemy.getHealth()).append(',');
+        }
+        for(int index : room.getNonPlayerCharacters()){
+            NonPlayerCharacter npc = getNonPlayerCharacters().get(index);
+            state.append(npc == null ? "-" : (npc.isWaitingForResponse() ? "W" : "N") + (npc.isResolved() ? "R" : "O"));
+        }
+        return state.toString();
+    }
+}
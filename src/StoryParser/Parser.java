@@ -32,6 +32,21 @@ public class Parser  implements Serializable{
      * @throws IOException
      */
     public static Story parse(String storyPath) throws IOException{
+        File file = new File(storyPath);
+        Story story = parse(Files.readAllBytes(Paths.get(file.getPath())));
+        story.setStoryPath(storyPath);
+        return story;
+    }
+
+    /**
+     * Parses a story from the contents of a json file that has already been read,
+     * e.g. by the StoryCache.
+     *
+     * @param contents: the bytes of the json file
+     * @return (Story) the story instance contains the all the story information
+     * @throws IOException
+     */
+    static Story parse(byte[] contents) throws IOException{
         HashMap<Integer, Room> rooms = new HashMap<>();
         HashMap<Integer, Container> containers = new HashMap<>();
         HashMap<Integer, Item> items = new HashMap<>();
@@ -40,8 +55,7 @@ public class Parser  implements Serializable{
         HashMap<Integer, Passage> passages = new HashMap<>();
 
         // get root node of story file
-        File file = new File(storyPath);
-        String jsonString = new String(Files.readAllBytes(Paths.get(file.getPath())));
+        String jsonString = new String(contents);
         JsonNode rootNode = objectMapper.readTree(jsonString);
 
         // parse title, introduction, hero health, attack power, hero defence
@@ -231,7 +245,53 @@ public class Parser  implements Serializable{
             items.put(index, i);
         }
 
-        return new Story(title, intro, initialHeroHealth, initialHeroAttackPower, initialHeroDefence, rooms, containers, items, enemies, nonPlayerCharacters, passages);
+        // parse rules - a story does not have to have any
+        ArrayList<Rule> rules = new ArrayList<>();
+        JsonNode rulesNode = rootNode.get("rules");
+        if (rulesNode != null) {
+            for (JsonNode rn: rulesNode) {
+                int index = rn.get("index").asInt();
+                Rule.Event event = Rule.Event.valueOf(rn.get("event").asText());
+                int target = rn.has("target") ? rn.get("target").asInt() : Rule.ANY_TARGET;
+                String phrase = rn.has("phrase") ? rn.get("phrase").asText() : null;
+                boolean repeatable = rn.has("repeatable") && rn.get("repeatable").asBoolean();
+                if (index < 0 || (event == Rule.Event.SAY && (phrase == null || phrase.trim().isEmpty()))) {
+                    throw new IOException("rule " + index + " needs an index of 0 or more, and a phrase if it waits for SAY");
+                }
+
+                // parse the conditions of the rule
+                ArrayList<Rule.Condition> conditions = new ArrayList<>();
+                if (rn.get("conditions") != null) {
+                    for (JsonNode cn: rn.get("conditions")) {
+                        conditions.add(new Rule.Condition(Rule.ConditionType.valueOf(cn.get("type").asText()), cn.get("value").asInt()));
+                    }
+                }
+
+                // parse the effects of the rule - a rule with a script does not need any
+                ArrayList<Rule.Effect> effects = new ArrayList<>();
+                if (rn.get("effects") != null) {
+                    for (JsonNode en: rn.get("effects")) {
+                        Rule.EffectType type = Rule.EffectType.valueOf(en.get("type").asText());
+                        int value = en.has("value") ? en.get("value").asInt() : 0;
+                        String text = en.has("text") ? en.get("text").asText() : "";
+                        int turns = en.has("turns") ? en.get("turns").asInt() : 0;
+                        if (type == Rule.EffectType.START_TIMER && turns < 1) {
+                            throw new IOException("rule " + index + " starts a timer that needs \"turns\" of 1 or more");
+                        }
+                        effects.add(new Rule.Effect(type, value, text, turns));
+                    }
+                }
+
+                Rule rule = new Rule(index, event, target, phrase, repeatable, conditions, effects);
+                rule.setCondition(rn.has("if") ? rn.get("if").asText() : null);
+                rule.setScript(rn.has("script") ? rn.get("script").asText() : null);
+                rules.add(rule);
+            }
+        }
+
+        Story story = new Story(title, intro, initialHeroHealth, initialHeroAttackPower, initialHeroDefence, rooms, containers, items, enemies, nonPlayerCharacters, passages);
+        story.setRules(rules);
+        return story;
     }
 
     /**
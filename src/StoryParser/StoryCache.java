@@ -0,0 +1,387 @@
+package StoryParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import Story.Story;
+import Story.SymbolTable;
+
+/**
+ * The StoryCache class keeps stories that have already been parsed, so that starting a new
+ * game does not parse the story file again.
+ *
+ * A Story is changed as it is played (rooms are explored, containers looted, enemies killed),
+ * so the cache does not hand out the parsed Story itself. It keeps the Story in its compiled
+ * form - the serialized bytes of the freshly parsed Story - and every call to load() returns a
+ * new copy made from those bytes, which is much cheaper than reading and parsing the JSON.
+ *
+ * Stories are keyed by the SHA-256 hash of the story file, so a story is only parsed again if
+ * its contents change. The file's size and modification time are remembered too, and while they
+ * are unchanged the file is not even read. The compiled form is also written to
+ * "<compiled directory>/<hash>.story", so the story does not have to be parsed again the next
+ * time the game is run. Only memoryBound bytes of compiled stories are kept in memory; the
+ * least recently loaded stories are dropped first.
+ *
+ * Story files larger than lazyThreshold are not kept in memory at all. They are compiled to a
+ * StoryIndex ("<compiled directory>/<hash>.index") instead, and load() returns a LazyStory that
+ * reads rooms from it as the hero gets near them.
+ *
+ * Every copy of the same story is given the same SymbolTable, so the names in a story are only
+ * held once however many games of it are being played. The compiled form holds the table as it
+ * was when the story was parsed, and copies only ever add names to it.
+ */
+public class StoryCache {
+
+    public static final String COMPILED_DIRECTORY = "res/story/compiled";
+    public static final long DEFAULT_MEMORY_BOUND = 16L * 1024 * 1024;
+    public static final long DEFAULT_LAZY_THRESHOLD = 8L * 1024 * 1024;
+
+    private static final String COMPILED_EXTENSION = ".story";
+    private static final String INDEX_EXTENSION = ".index";
+    private static final StoryCache sharedCache = new StoryCache(COMPILED_DIRECTORY, DEFAULT_MEMORY_BOUND);
+
+    private final File compiledDirectory;
+    private final long memoryBound;
+    private long lazyThreshold = DEFAULT_LAZY_THRESHOLD;
+    private final LinkedHashMap<String, byte[]> compiledStories;
+    private final HashMap<String, FileStamp> fileStamps;
+    private final HashMap<String, SymbolTable> symbolTables; //by content hash, or StoryIndex path for large stories
+    private long retainedBytes;
+    private int hits;
+    private int compiledLoads;
+    private int parses;
+
+    /**
+     * The constructor for StoryCache.
+     *
+     * @param compiledDirectory (String) the directory that compiled stories are kept in, or null to keep them in memory only
+     * @param memoryBound (long) the most bytes of compiled stories to keep in memory
+     */
+    public StoryCache(String compiledDirectory, long memoryBound){
+        this.compiledDirectory = compiledDirectory == null ? null : new File(compiledDirectory);
+        this.memoryBound = memoryBound;
+        this.compiledStories = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+        this.fileStamps = new HashMap<String, FileStamp>();
+        this.symbolTables = new HashMap<String, SymbolTable>();
+    }
+
+    /**
+     * Utility function that returns the cache shared by the whole game.
+     *
+     * @return (StoryCache) the shared cache
+     */
+    public static StoryCache getSharedCache(){
+        return sharedCache;
+    }
+
+    /**
+     * The load() function returns a new copy of the story at the given path, parsing the
+     * story file only if it has not been seen (in memory or on disk) before.
+     *
+     * @param storyPath (String) the path of the json file, eg: "res/story/story.json", or a GeneratedStory path
+     * @return (Story) a Story that no other game is using
+     * @throws IOException if the story file cannot be read or parsed
+     */
+    public Story load(String storyPath) throws IOException{
+        if(GeneratedStory.isGeneratedStoryPath(storyPath)){
+            return GeneratedStory.fromStoryPath(storyPath); //made from its seed, so there is nothing to cache
+        }
+        if(new File(storyPath).length() > lazyThreshold){
+            String indexPath = getStoryIndex(storyPath);
+            LazyStory story = new LazyStory(StoryIndex.open(indexPath));
+            story.setSymbolTable(shareSymbolTable(indexPath, story.getSymbolTable()));
+            story.setStoryPath(storyPath);
+            return story;
+        }
+        CompiledStory compiled = getCompiledStory(storyPath);
+        try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(compiled.bytes))){
+            Story story = (Story) in.readObject();
+            story.setSymbolTable(shareSymbolTable(compiled.contentHash, story.getSymbolTable()));
+            story.setStoryPath(storyPath);
+            return story;
+        }catch(ClassNotFoundException e){
+            throw new IOException("the compiled form of " + storyPath + " cannot be read", e);
+        }
+    }
+
+    /**
+     * The getContentHash() function returns the hash of a story file's contents, e.g. so that
+     * a GameJournal can tell whether the story it was recorded from has changed. The file is
+     * only read again if it has been touched since it was last hashed.
+     *
+     * @param storyPath (String) the path of the json file, or a GeneratedStory path
+     * @return (String) the SHA-256 of the story file, or the path itself for a GeneratedStory, which is made from its seed
+     * @throws IOException if the story file cannot be read
+     */
+    public synchronized String getContentHash(String storyPath) throws IOException{
+        if(GeneratedStory.isGeneratedStoryPath(storyPath)){
+            return storyPath;
+        }
+        File file = new File(storyPath);
+        String key = file.getAbsolutePath();
+        FileStamp stamp = fileStamps.get(key);
+        if(stamp != null && stamp.matches(file)){
+            return stamp.contentHash;
+        }
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String contentHash = hash(Files.readAllBytes(file.toPath()));
+        fileStamps.put(key, new FileStamp(length, lastModified, contentHash));
+        return contentHash;
+    }
+
+    /**
+     * Returns the SymbolTable shared by every copy of a story, which is the table of the
+     * first copy that was loaded.
+     */
+    private synchronized SymbolTable shareSymbolTable(String key, SymbolTable symbolTable){
+        SymbolTable shared = symbolTables.putIfAbsent(key, symbolTable);
+        return shared != null ? shared : symbolTable;
+    }
+
+    /**
+     * The getCompiledStory() function finds the compiled form of a story, checking the
+     * memory cache, then the compiled directory, and only then parsing the story file.
+     *
+     * @param storyPath (String) the path of the json file
+     * @return (CompiledStory) the serialized Story, with the hash of the story file
+     */
+    private synchronized CompiledStory getCompiledStory(String storyPath) throws IOException{
+        File file = new File(storyPath);
+        String key = file.getAbsolutePath();
+        FileStamp stamp = fileStamps.get(key);
+        if(stamp != null && stamp.matches(file)){
+            byte[] compiled = compiledStories.get(stamp.contentHash);
+            if(compiled != null){
+                hits++;
+                return new CompiledStory(stamp.contentHash, compiled);
+            }
+        }
+
+        // the file is new or has been touched, so find it by its contents
+        long length = file.length();
+        long lastModified = file.lastModified();
+        byte[] contents = Files.readAllBytes(file.toPath());
+        String contentHash = hash(contents);
+        fileStamps.put(key, new FileStamp(length, lastModified, contentHash));
+        byte[] compiled = compiledStories.get(contentHash);
+        if(compiled != null){
+            hits++;
+            return new CompiledStory(contentHash, compiled);
+        }
+
+        compiled = readCompiledStory(contentHash);
+        if(compiled != null){
+            compiledLoads++;
+        }else{
+            compiled = compile(Parser.parse(contents));
+            parses++;
+            writeCompiledStory(contentHash, compiled);
+        }
+        retain(contentHash, compiled);
+        return new CompiledStory(contentHash, compiled);
+    }
+
+    /**
+     * The getStoryIndex() function finds the StoryIndex for a large story, compiling it
+     * from the story file if it has not been compiled before.
+     *
+     * @param storyPath (String) the path of the json file
+     * @return (String) the path of the StoryIndex file
+     */
+    private synchronized String getStoryIndex(String storyPath) throws IOException{
+        File file = new File(storyPath);
+        String key = file.getAbsolutePath();
+        FileStamp stamp = fileStamps.get(key);
+        byte[] contents = null;
+        String contentHash;
+        if(stamp != null && stamp.matches(file)){
+            contentHash = stamp.contentHash;
+        }else{
+            long length = file.length();
+            long lastModified = file.lastModified();
+            contents = Files.readAllBytes(file.toPath());
+            contentHash = hash(contents);
+            fileStamps.put(key, new FileStamp(length, lastModified, contentHash));
+        }
+
+        File directory = compiledDirectory != null ? compiledDirectory : file.getAbsoluteFile().getParentFile();
+        File indexFile = new File(directory, contentHash + INDEX_EXTENSION);
+        if(indexFile.isFile() && StoryIndex.isCurrent(indexFile.getPath())){
+            hits++;
+        }else{
+            directory.mkdirs();
+            StoryIndex.compile(Parser.parse(contents != null ? contents : Files.readAllBytes(file.toPath())), indexFile.getPath());
+            parses++;
+        }
+        return indexFile.getPath();
+    }
+
+    /**
+     * Adds a compiled story to the memory cache and drops the least recently used stories
+     * until the cache is back within its bound. The newest story is always kept.
+     */
+    private void retain(String contentHash, byte[] compiled){
+        compiledStories.put(contentHash, compiled);
+        retainedBytes += compiled.length;
+        Iterator<Map.Entry<String, byte[]>> oldest = compiledStories.entrySet().iterator();
+        while(retainedBytes > memoryBound && compiledStories.size() > 1){
+            Map.Entry<String, byte[]> entry = oldest.next();
+            retainedBytes -= entry.getValue().length;
+            symbolTables.remove(entry.getKey()); //games still playing it keep their table
+            oldest.remove();
+        }
+    }
+
+    private byte[] readCompiledStory(String contentHash){
+        if(compiledDirectory == null){
+            return null;
+        }
+        File compiledFile = new File(compiledDirectory, contentHash + COMPILED_EXTENSION);
+        if(!compiledFile.isFile()){
+            return null;
+        }
+        try{
+            byte[] compiled = Files.readAllBytes(compiledFile.toPath());
+            //make sure the compiled story still matches the Story classes, or parse the story again
+            try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(compiled))){
+                in.readObject();
+            }
+            return compiled;
+        }catch(IOException | ClassNotFoundException e){
+            compiledFile.delete();
+            return null;
+        }
+    }
+
+    private void writeCompiledStory(String contentHash, byte[] compiled){
+        if(compiledDirectory == null){
+            return;
+        }
+        compiledDirectory.mkdirs();
+        Path target = new File(compiledDirectory, contentHash + COMPILED_EXTENSION).toPath();
+        Path temp = Paths.get(target + ".tmp");
+        try{
+            Files.write(temp, compiled);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }catch(IOException e){
+            e.printStackTrace(); //the story will just be parsed again next time
+            temp.toFile().delete();
+        }
+    }
+
+    private static byte[] compile(Story story) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectOutputStream out = new ObjectOutputStream(bytes)){
+            out.writeObject(story);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String hash(byte[] contents){
+        try{
+            StringBuilder hex = new StringBuilder();
+            for(byte b : MessageDigest.getInstance("SHA-256").digest(contents)){
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException(e); //every JVM has SHA-256
+        }
+    }
+
+    /**
+     * Utility function that sets the size above which story files are loaded as a LazyStory.
+     *
+     * @param lazyThreshold (long) the size in bytes
+     */
+    public void setLazyThreshold(long lazyThreshold){
+        this.lazyThreshold = lazyThreshold;
+    }
+
+    /**
+     * Utility function that returns the number of loads that were served from memory.
+     *
+     * @return (int) the number of hits
+     */
+    public synchronized int getHits(){
+        return hits;
+    }
+
+    /**
+     * Utility function that returns the number of loads that read a compiled story from disk.
+     *
+     * @return (int) the number of compiled loads
+     */
+    public synchronized int getCompiledLoads(){
+        return compiledLoads;
+    }
+
+    /**
+     * Utility function that returns the number of loads that had to parse the story file.
+     *
+     * @return (int) the number of parses
+     */
+    public synchronized int getParses(){
+        return parses;
+    }
+
+    /**
+     * Utility function that returns the bytes of compiled stories kept in memory.
+     *
+     * @return (long) the retained bytes
+     */
+    public synchronized long getRetainedBytes(){
+        return retainedBytes;
+    }
+
+    /**
+     * The CompiledStory class is the compiled form of a story, with the hash of the story
+     * file it was compiled from.
+     */
+    private static class CompiledStory {
+
+        private final String contentHash;
+        private final byte[] bytes;
+
+        CompiledStory(String contentHash, byte[] bytes){
+            this.contentHash = contentHash;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * The FileStamp class remembers the size and modification time a story file had when
+     * it was last hashed.
+     */
+    private static class FileStamp {
+
+        private final long length;
+        private final long lastModified;
+        private final String contentHash;
+
+        FileStamp(long length, long lastModified, String contentHash){
+            this.length = length;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+        }
+
+        boolean matches(File file){
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+}
@@ -0,0 +1,636 @@
+package StoryParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Story.Container;
+import Story.Enemy;
+import Story.Item;
+import Story.NonPlayerCharacter;
+import Story.Passage;
+import Story.Room;
+import Story.Rule;
+import Story.Story;
+
+/**
+ * The StoryIndex class is a story file that has been compiled so that it can be read one room
+ * at a time. Each room is stored as a record holding the room and its passages, containers,
+ * enemies and NPCs, and the index at the front of the file says where each record is, which
+ * rooms each room leads to, and which room each entity belongs to. Only the index is kept in
+ * memory; records are read as they are needed and are shared by every LazyStory over the file.
+ *
+ * Whenever a LazyStory moves into a room, the records of every room within prefetchHops passages
+ * of it are read in the background, so that by the time the hero walks through a passage the next
+ * room is already in memory. Records of rooms that are further than prefetchHops + 1 passages
+ * from every LazyStory are dropped, by the prefetcher once it has read the rooms, so that a room
+ * it reads for a LazyStory that has since moved on is not kept. The hit rate of the record cache and the time taken to read
+ * records are kept, see getHitRate() and getMeanFetchNanos().
+ *
+ * The file is kept open while any LazyStory is using the index, and closed when the last of
+ * them is closed (see release()).
+ *
+ * File layout: a header (magic number, version, story name, introduction and hero stats), the
+ * room table (index, offset, length and neighbouring rooms of each record), the owner tables for
+ * passages, containers, enemies and NPCs, the item table (index, offset, length), the story's
+ * rules, then the records.
+ * Offsets are counted from the end of the tables.
+ */
+public class StoryIndex {
+
+    public static final int DEFAULT_PREFETCH_HOPS = 2;
+
+    private static final int MAGIC = 0x44465358; //"DFSX"
+    private static final int VERSION = 5;
+    private static final HashMap<String, StoryIndex> openIndexes = new HashMap<String, StoryIndex>();
+    private static final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "story-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String path;
+    private final FileChannel channel;
+    private final String name;
+    private final String introduction;
+    private final int initialHeroHealth;
+    private final int initialHeroAttackPower;
+    private final int initialHeroDefence;
+    private final HashMap<Integer, long[]> roomRecords = new HashMap<Integer, long[]>();
+    private final HashMap<Integer, int[]> neighbours = new HashMap<Integer, int[]>();
+    private final HashMap<Integer, Integer> passageOwners = new HashMap<Integer, Integer>();
+    private final HashMap<Integer, Integer> containerOwners = new HashMap<Integer, Integer>();
+    private final HashMap<Integer, Integer> enemyOwners = new HashMap<Integer, Integer>();
+    private final HashMap<Integer, Integer> nonPlayerCharacterOwners = new HashMap<Integer, Integer>();
+    private final HashMap<Integer, long[]> itemRecords = new HashMap<Integer, long[]>();
+    private final byte[] rules; //the rules are small and read once by each LazyStory, so they are kept serialized
+
+    private final ConcurrentHashMap<Integer, byte[]> cachedRooms = new ConcurrentHashMap<Integer, byte[]>();
+    private final Object cacheLock = new Object(); //held to fetch rooms in the background and to drop them
+    private final WeakHashMap<LazyStory, Integer> positions = new WeakHashMap<LazyStory, Integer>();
+    private int prefetchHops = DEFAULT_PREFETCH_HOPS;
+    private int users; //the number of open() calls that have not been released, guarded by openIndexes
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong fetchNanos = new AtomicLong();
+    private final AtomicLong maxFetchNanos = new AtomicLong();
+
+    private StoryIndex(String path) throws IOException{
+        this.path = path;
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        ByteBuffer size = ByteBuffer.allocate(12);
+        readFully(size, 0);
+        size.flip();
+        if(size.getInt() != MAGIC || size.getInt() != VERSION){
+            channel.close();
+            throw new IOException(path + " is not a story index");
+        }
+        byte[] tables = new byte[size.getInt()];
+        readFully(ByteBuffer.wrap(tables), 12);
+        long recordStart = 12 + tables.length; //record offsets are stored from the end of the tables
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(tables));
+        name = readString(in);
+        introduction = readString(in);
+        initialHeroHealth = in.readInt();
+        initialHeroAttackPower = in.readInt();
+        initialHeroDefence = in.readInt();
+        for(int rooms = in.readInt(); rooms > 0; rooms--){
+            int roomIndex = in.readInt();
+            roomRecords.put(roomIndex, new long[]{recordStart + in.readLong(), in.readInt()});
+            int[] adjacent = new int[in.readInt()];
+            for(int i = 0; i < adjacent.length; i++){
+                adjacent[i] = in.readInt();
+            }
+            neighbours.put(roomIndex, adjacent);
+        }
+        readOwners(in, passageOwners);
+        readOwners(in, containerOwners);
+        readOwners(in, enemyOwners);
+        readOwners(in, nonPlayerCharacterOwners);
+        for(int items = in.readInt(); items > 0; items--){
+            itemRecords.put(in.readInt(), new long[]{recordStart + in.readLong(), in.readInt()});
+        }
+        rules = new byte[in.readInt()];
+        in.readFully(rules);
+    }
+
+    /**
+     * The open() function returns the StoryIndex for a compiled story file. Every LazyStory over
+     * the same file shares one StoryIndex, and so one cache of room records. Each call must be
+     * matched by a call to release().
+     *
+     * @param path (String) the compiled story file
+     * @return (StoryIndex) the index
+     * @throws IOException if the file cannot be read or is not a story index
+     */
+    public static StoryIndex open(String path) throws IOException{
+        String key = new File(path).getAbsolutePath();
+        synchronized(openIndexes){
+            StoryIndex storyIndex = openIndexes.get(key);
+            if(storyIndex == null){
+                storyIndex = new StoryIndex(path);
+                openIndexes.put(key, storyIndex);
+            }
+            storyIndex.users++;
+            return storyIndex;
+        }
+    }
+
+    /**
+     * The release() function gives up a use of the index that was taken with open(). When
+     * the last one is released, the file is closed and the next open() reads it again.
+     *
+     * @param story (LazyStory) the story that no longer uses the index
+     */
+    void release(LazyStory story){
+        synchronized(positions){
+            positions.remove(story);
+        }
+        synchronized(openIndexes){
+            if(--users > 0){
+                return;
+            }
+            openIndexes.remove(new File(path).getAbsolutePath(), this);
+        }
+        synchronized(cacheLock){ //not while the prefetcher is reading
+            cachedRooms.clear();
+            try{
+                channel.close();
+            }catch(IOException e){
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * The isCurrent() function checks whether a file is a story index in the format that this
+     * version of the game writes, so that an index written by an older version is compiled again.
+     *
+     * @param path (String) the compiled story file
+     * @return (boolean) true if the file can be opened as a StoryIndex
+     */
+    public static boolean isCurrent(String path){
+        try(FileChannel file = FileChannel.open(Paths.get(path), StandardOpenOption.READ)){
+            ByteBuffer header = ByteBuffer.allocate(8);
+            file.read(header, 0);
+            header.flip();
+            return header.remaining() == 8 && header.getInt() == MAGIC && header.getInt() == VERSION;
+        }catch(IOException e){
+            return false;
+        }
+    }
+
+    /**
+     * The compile() function writes a parsed story to a story index file.
+     *
+     * @param story (Story) the parsed story
+     * @param path (String) the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void compile(Story story, String path) throws IOException{
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        ByteArrayOutputStream tableBytes = new ByteArrayOutputStream();
+        DataOutputStream tables = new DataOutputStream(tableBytes);
+        HashMap<Integer, Integer> passageOwners = new HashMap<Integer, Integer>();
+        HashMap<Integer, Integer> containerOwners = new HashMap<Integer, Integer>();
+        HashMap<Integer, Integer> enemyOwners = new HashMap<Integer, Integer>();
+        HashMap<Integer, Integer> nonPlayerCharacterOwners = new HashMap<Integer, Integer>();
+
+        writeString(tables, story.getName());
+        writeString(tables, story.getIntroduction());
+        tables.writeInt(story.getInitialHeroHealth());
+        tables.writeInt(story.getInitialHeroAttackPower());
+        tables.writeInt(story.getInitialHeroDefence());
+
+        tables.writeInt(story.getRooms().size());
+        for(Room room : story.getRooms().values()){
+            RoomRecord record = new RoomRecord(room);
+            HashSet<Integer> adjacent = new HashSet<Integer>();
+            for(int passageIndex : room.getPassages().values()){
+                Passage passage = story.getPassage(passageIndex);
+                record.passages.add(passage);
+                passageOwners.putIfAbsent(passageIndex, room.getRoomIndex());
+                if(passage.getPassageType() != Passage.PassageType.PASSAGE_NONE){
+                    adjacent.add(passage.getRoomIndex());
+                }
+            }
+            for(int containerIndex : room.getContainers()){
+                record.containers.add(story.getContainer(containerIndex));
+                containerOwners.putIfAbsent(containerIndex, room.getRoomIndex());
+            }
+            for(int enemyIndex : room.getEnemies()){
+                record.enemies.add(story.getEnemy(enemyIndex));
+                enemyOwners.putIfAbsent(enemyIndex, room.getRoomIndex());
+            }
+            for(int npcIndex : room.getNonPlayerCharacters()){
+                record.nonPlayerCharacters.add(story.getNonPlayerCharacter(npcIndex));
+                nonPlayerCharacterOwners.putIfAbsent(npcIndex, room.getRoomIndex());
+            }
+            byte[] bytes = serialize(record);
+            tables.writeInt(room.getRoomIndex());
+            tables.writeLong(records.size());
+            tables.writeInt(bytes.length);
+            tables.writeInt(adjacent.size());
+            for(int roomIndex : adjacent){
+                tables.writeInt(roomIndex);
+            }
+            records.write(bytes);
+        }
+        writeOwners(tables, passageOwners);
+        writeOwners(tables, containerOwners);
+        writeOwners(tables, enemyOwners);
+        writeOwners(tables, nonPlayerCharacterOwners);
+        tables.writeInt(story.getItems().size());
+        for(Item item : story.getItems().values()){
+            byte[] bytes = serialize(item);
+            tables.writeInt(item.getIndex());
+            tables.writeLong(records.size());
+            tables.writeInt(bytes.length);
+            records.write(bytes);
+        }
+        byte[] rules = serialize(story.getRules());
+        tables.writeInt(rules.length);
+        tables.write(rules);
+        tables.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(12);
+        header.putInt(MAGIC).putInt(VERSION).putInt(tableBytes.size());
+        header.flip();
+        Path target = Paths.get(path);
+        Path temp = Paths.get(path + ".tmp");
+        try(FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            out.write(header);
+            out.write(ByteBuffer.wrap(tableBytes.toByteArray()));
+            out.write(ByteBuffer.wrap(records.toByteArray()));
+            out.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * The readRoom() function returns a new copy of a room's record, from the cache if it has
+     * been read (or prefetched) already.
+     *
+     * @param roomIndex (int) the index of the room
+     * @return (RoomRecord) the room and its entities, or null if the story has no such room
+     */
+    RoomRecord readRoom(int roomIndex) throws IOException{
+        byte[] bytes = cachedRooms.get(roomIndex);
+        if(bytes != null){
+            hits.incrementAndGet();
+        }else{
+            misses.incrementAndGet();
+            bytes = fetchRoom(roomIndex);
+            if(bytes == null){
+                return null;
+            }
+        }
+        return (RoomRecord) deserialize(bytes);
+    }
+
+    /**
+     * The readItem() function reads an item from the file. Items are small and are kept by
+     * the LazyStory once read, so they are not cached here.
+     *
+     * @param itemIndex (int) the index of the item
+     * @return (Item) the item, or null if the story has no such item
+     */
+    Item readItem(int itemIndex) throws IOException{
+        long[] record = itemRecords.get(itemIndex);
+        return record == null ? null : (Item) deserialize(read(record));
+    }
+
+    private byte[] fetchRoom(int roomIndex) throws IOException{
+        long[] record = roomRecords.get(roomIndex);
+        if(record == null){
+            return null;
+        }
+        long start = System.nanoTime();
+        byte[] bytes = read(record);
+        long elapsed = System.nanoTime() - start;
+        fetches.incrementAndGet();
+        fetchNanos.addAndGet(elapsed);
+        maxFetchNanos.accumulateAndGet(elapsed, Math::max);
+        synchronized(cacheLock){
+            cachedRooms.put(roomIndex, bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * The moveTo() function records the room that a LazyStory is in, prefetches the rooms
+     * around it in the background, and then drops the records of rooms that are far from
+     * every LazyStory.
+     *
+     * @param story (LazyStory) the story whose hero has moved
+     * @param roomIndex (int) the room the hero is in
+     */
+    void moveTo(LazyStory story, int roomIndex){
+        Set<Integer> wanted = getRoomsWithin(roomIndex, prefetchHops);
+        synchronized(positions){
+            positions.put(story, roomIndex);
+        }
+
+        prefetcher.execute(() -> {
+            synchronized(cacheLock){
+                if(!channel.isOpen()){
+                    return; //released while this was waiting
+                }
+                for(int index : wanted){
+                    if(!cachedRooms.containsKey(index)){
+                        try{
+                            fetchRoom(index);
+                            prefetches.incrementAndGet();
+                        }catch(IOException e){
+                            e.printStackTrace(); //the room will be read when it is entered instead
+                        }
+                    }
+                }
+                evict();
+            }
+        });
+    }
+
+    /**
+     * The evict() function drops the records of the rooms that are further than
+     * prefetchHops + 1 passages from every LazyStory. It is called with the cacheLock held,
+     * after the rooms that were prefetched have been read.
+     */
+    private void evict(){
+        Set<Integer> kept = new HashSet<Integer>();
+        synchronized(positions){
+            for(int position : positions.values()){
+                kept.addAll(getRoomsWithin(position, prefetchHops + 1));
+            }
+        }
+        cachedRooms.keySet().retainAll(kept);
+    }
+
+    /**
+     * The getRoomsWithin() function finds every room that can be reached from a room by going
+     * through at most the given number of passages, using the neighbours in the index.
+     *
+     * @param roomIndex (int) the room to start from
+     * @param hops (int) the most passages to go through
+     * @return (Set<Integer>) the indexes of the rooms, including the starting room
+     */
+    public Set<Integer> getRoomsWithin(int roomIndex, int hops){
+        HashSet<Integer> found = new HashSet<Integer>();
+        ArrayDeque<int[]> queue = new ArrayDeque<int[]>();
+        found.add(roomIndex);
+        queue.add(new int[]{roomIndex, 0});
+        while(!queue.isEmpty()){
+            int[] next = queue.poll();
+            int[] adjacent = neighbours.get(next[0]);
+            if(adjacent == null || next[1] == hops){
+                continue;
+            }
+            for(int neighbour : adjacent){
+                if(found.add(neighbour)){
+                    queue.add(new int[]{neighbour, next[1] + 1});
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Utility function that sets how many passages away from the hero rooms are prefetched.
+     *
+     * @param prefetchHops (int) the number of passages
+     */
+    public void setPrefetchHops(int prefetchHops){
+        this.prefetchHops = Math.max(prefetchHops, 0);
+    }
+
+    /**
+     * Utility function that returns how many passages away from the hero rooms are prefetched.
+     *
+     * @return (int) the number of passages
+     */
+    public int getPrefetchHops(){
+        return prefetchHops;
+    }
+
+    Integer getPassageOwner(int passageIndex){
+        return passageOwners.get(passageIndex);
+    }
+
+    Integer getContainerOwner(int containerIndex){
+        return containerOwners.get(containerIndex);
+    }
+
+    Integer getEnemyOwner(int enemyIndex){
+        return enemyOwners.get(enemyIndex);
+    }
+
+    Integer getNonPlayerCharacterOwner(int npcIndex){
+        return nonPlayerCharacterOwners.get(npcIndex);
+    }
+
+    String getPath(){
+        return path;
+    }
+
+    String getName(){
+        return name;
+    }
+
+    String getIntroduction(){
+        return introduction;
+    }
+
+    int getInitialHeroHealth(){
+        return initialHeroHealth;
+    }
+
+    int getInitialHeroAttackPower(){
+        return initialHeroAttackPower;
+    }
+
+    int getInitialHeroDefence(){
+        return initialHeroDefence;
+    }
+
+    @SuppressWarnings("unchecked")
+    ArrayList<Rule> getRules() throws IOException{
+        return (ArrayList<Rule>) deserialize(rules);
+    }
+
+    /**
+     * Utility function that returns the number of rooms in the story.
+     *
+     * @return (int) the number of rooms
+     */
+    public int getRoomCount(){
+        return roomRecords.size();
+    }
+
+    /**
+     * Utility function that returns the number of room records held in memory.
+     *
+     * @return (int) the number of cached rooms
+     */
+    public int getCachedRoomCount(){
+        return cachedRooms.size();
+    }
+
+    /**
+     * Utility function that returns the share of room reads that were served from memory.
+     *
+     * @return (double) the hit rate, between 0 and 1
+     */
+    public double getHitRate(){
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    /**
+     * Utility function that returns the number of room reads that were served from memory.
+     *
+     * @return (long) the number of hits
+     */
+    public long getHits(){
+        return hits.get();
+    }
+
+    /**
+     * Utility function that returns the number of room reads that had to wait for the file.
+     *
+     * @return (long) the number of misses
+     */
+    public long getMisses(){
+        return misses.get();
+    }
+
+    /**
+     * Utility function that returns the number of rooms read in the background.
+     *
+     * @return (long) the number of prefetches
+     */
+    public long getPrefetches(){
+        return prefetches.get();
+    }
+
+    /**
+     * Utility function that returns the mean time taken to read a room record from the file.
+     *
+     * @return (double) the mean fetch latency in nanoseconds
+     */
+    public double getMeanFetchNanos(){
+        long count = fetches.get();
+        return count == 0 ? 0 : (double) fetchNanos.get() / count;
+    }
+
+    /**
+     * Utility function that returns the longest time taken to read a room record from the file.
+     *
+     * @return (long) the longest fetch latency in nanoseconds
+     */
+    public long getMaxFetchNanos(){
+        return maxFetchNanos.get();
+    }
+
+    private byte[] read(long[] record) throws IOException{
+        byte[] bytes = new byte[(int) record[1]];
+        readFully(ByteBuffer.wrap(bytes), record[0]);
+        return bytes;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException{
+        while(buffer.hasRemaining()){
+            int read = channel.read(buffer, position);
+            if(read < 0){
+                throw new IOException(path + " is truncated");
+            }
+            position += read;
+        }
+    }
+
+    private static void readOwners(DataInputStream in, HashMap<Integer, Integer> owners) throws IOException{
+        for(int count = in.readInt(); count > 0; count--){
+            owners.put(in.readInt(), in.readInt());
+        }
+    }
+
+    private static void writeOwners(DataOutputStream out, HashMap<Integer, Integer> owners) throws IOException{
+        out.writeInt(owners.size());
+        for(Map.Entry<Integer, Integer> owner : owners.entrySet()){
+            out.writeInt(owner.getKey());
+            out.writeInt(owner.getValue());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException{
+        byte[] bytes = (string == null ? "" : string).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException{
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] serialize(Object object) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectOutputStream out = new ObjectOutputStream(bytes)){
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException{
+        try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))){
+            return in.readObject();
+        }catch(ClassNotFoundException e){
+            throw new IOException("a record in the story index cannot be read", e);
+        }
+    }
+
+    /**
+     * The RoomRecord class is one record of the index: a room and every entity in it.
+     */
+    static class RoomRecord implements Serializable {
+
+        final Room room;
+        final ArrayList<Passage> passages = new ArrayList<Passage>();
+        final ArrayList<Container> containers = new ArrayList<Container>();
+        final ArrayList<Enemy> enemies = new ArrayList<Enemy>();
+        final ArrayList<NonPlayerCharacter> nonPlayerCharacters = new ArrayList<NonPlayerCharacter>();
+
+        RoomRecord(Room room){
+            this.room = room;
+        }
+    }
+}
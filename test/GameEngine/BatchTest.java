@@ -0,0 +1,56 @@
+package GameEngine;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import Story.NonPlayerCharacter;
+import Story.Story;
+import StoryParser.Parser;
+
+/**
+ * The BatchTest class checks that a batch of commands stops after a turn that leaves a
+ * NonPlayerCharacter waiting for an answer, so that the next command in the batch is not
+ * taken as the player's answer.
+ */
+public class BatchTest {
+
+    private static final String STORY_PATH = "res/story/story.json";
+
+    public static void main(String[] args){
+        Story story;
+        try{
+            story = Parser.parse(STORY_PATH);
+        }catch(IOException e){
+            throw new AssertionError("could not read " + STORY_PATH, e);
+        }
+
+        GameEngine gameEngine = new GameEngine(story, 0);
+        gameEngine.startStory();
+        GameState gameState = gameEngine.getGameState();
+        NonPlayerCharacter girl = story.getNonPlayerCharacter(0);
+        check(girl.isHasQuestion(), "the " + girl.getName() + " has a question");
+
+        //a batch without a question is played in full...
+        List<Consequence> consequences = gameEngine.sendCommands(Arrays.asList("INVENTORY", "HELP"));
+        check(consequences.size() == 2, "both turns of the batch are played, not " + consequences.size());
+
+        //...but one that asks a question stops there
+        consequences = gameEngine.sendCommands(Arrays.asList("GREET " + girl.getName(), "TAKE IT", "INVENTORY"));
+        check(consequences.size() == 1, "the batch stops after the question, not after " + consequences.size() + " turns");
+        check(gameState.npcIsWaitingForResponse(), "the " + girl.getName() + " is still waiting for an answer");
+        check(!girl.isResolved(), "the " + girl.getName() + " was not answered by the batch");
+
+        //the answer is then given on its own
+        gameEngine.sendCommand("TAKE IT");
+        check(!gameState.npcIsWaitingForResponse(), "the " + girl.getName() + " has been answered");
+
+        System.out.println("BatchTest passed.");
+    }
+
+    private static void check(boolean holds, String description){
+        if(!holds){
+            throw new AssertionError("expected that " + description);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package GameEngine;
+
+import java.util.Properties;
+
+/**
+ * The MessageCatalogueTest class checks that messages are filled in the way String.format
+ * filled them in before the MessageCatalogue replaced it.
+ */
+public class MessageCatalogueTest {
+
+    public static void main(String[] args){
+        MessageCatalogue catalogue = new MessageCatalogue(new Properties());
+
+        //a null argument is written as "null", as String.format did
+        check(catalogue.get(Message.ENEMY_KILLED, (CharSequence) null), String.format("You have killed %s!", (Object) null));
+        check(catalogue.get(Message.ENEMY_DROPS_ITEM, "GHOUL", null), "GHOUL drops item 'null'.");
+
+        //the same when the message is written to a consequence
+        Consequence consequence = new Consequence();
+        catalogue.write(consequence, Message.ENEMY_KILLED, (CharSequence) null);
+        check(consequence.getConsequenceDescription(), "You have killed null!");
+
+        //a missing argument is left out
+        check(catalogue.get(Message.ENEMY_DROPS_ITEM, "GHOUL"), "GHOUL drops item ''.");
+        check(catalogue.get(Message.ENEMY_KILLED, (CharSequence[]) null), "You have killed !");
+
+        System.out.println("MessageCatalogueTest passed.");
+    }
+
+    private static void check(String actual, String expected){
+        if(!expected.equals(actual)){
+            throw new AssertionError("expected \"" + expected + "\" but was \"" + actual + "\"");
+        }
+    }
+}
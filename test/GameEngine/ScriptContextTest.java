@@ -0,0 +1,55 @@
+package GameEngine;
+
+import java.io.IOException;
+
+import Story.Enemy;
+import Story.Story;
+import StoryParser.Parser;
+
+/**
+ * The ScriptContextTest class checks that an enemy of a story that is fully loaded can be
+ * respawned, and that undoing the respawn puts it back the way it was.
+ */
+public class ScriptContextTest {
+
+    private static final String STORY_PATH = "res/story/story.json";
+
+    public static void main(String[] args){
+        Story story;
+        try{
+            story = Parser.parse(STORY_PATH);
+        }catch(IOException e){
+            throw new AssertionError("could not read " + STORY_PATH, e);
+        }
+        check(story.getOriginal() == story, "a fully loaded story is its own original");
+
+        GameEngine gameEngine = new GameEngine(story, 0);
+        gameEngine.startStory();
+        GameState gameState = gameEngine.getGameState();
+        Enemy enemy = story.getEnemies().values().iterator().next();
+        int initialHealth = enemy.getHealth();
+
+        //the enemy is killed in one turn...
+        enemy.setHealth(0);
+        gameState.updateEnemy(enemy);
+        gameState.getTimeline().commit(gameState);
+        check(enemy.getHealth() == 0, "the enemy is dead");
+
+        //...and respawned in the next
+        ScriptContext context = new ScriptContext(gameState, new Consequence());
+        context.respawnEnemy(enemy.getEnemyIndex());
+        gameState.getTimeline().commit(gameState);
+        check(enemy.getHealth() == initialHealth, "the enemy is respawned with " + initialHealth + " health, not " + enemy.getHealth());
+
+        check(gameState.getTimeline().undo(gameState), "the respawn can be undone");
+        check(enemy.getHealth() == 0, "the enemy is dead again after UNDO, not at " + enemy.getHealth());
+
+        System.out.println("ScriptContextTest passed.");
+    }
+
+    private static void check(boolean holds, String description){
+        if(!holds){
+            throw new AssertionError("expected that " + description);
+        }
+    }
+}
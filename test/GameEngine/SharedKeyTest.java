@@ -0,0 +1,68 @@
+package GameEngine;
+
+import java.io.IOException;
+
+import Story.Passage;
+import Story.Story;
+import StoryParser.Parser;
+
+/**
+ * The SharedKeyTest class checks that a key which fits two doors of the same room unlocks
+ * the one it is used on, whichever of them is found first.
+ */
+public class SharedKeyTest {
+
+    private static final String STORY_PATH = "res/story/story.json";
+
+    private static final int AMULET = 0;
+    private static final int SOUTH_DOOR = 2;
+    private static final int NORTH_DOOR = 3;
+
+    public static void main(String[] args){
+        Story story;
+        try{
+            story = Parser.parse(STORY_PATH);
+        }catch(IOException e){
+            throw new AssertionError("could not read " + STORY_PATH, e);
+        }
+
+        //the south door of the first room is locked with the same key as the north door
+        Passage northDoor = story.getPassage(NORTH_DOOR);
+        Passage southDoor = story.getPassage(SOUTH_DOOR);
+        story.internSymbols(northDoor);
+        check(northDoor.isLocked(), "the north door is locked");
+        southDoor.setPassageType(Passage.PassageType.PASSAGE_LOCKED);
+        southDoor.setLocked(true);
+        southDoor.setKey(northDoor.getKey());
+        southDoor.setKeySymbol(northDoor.getKeySymbol());
+        southDoor.setDescriptionAction("The south door opens.");
+
+        GameEngine gameEngine = new GameEngine(story, 0);
+        gameEngine.startStory();
+        GameState gameState = gameEngine.getGameState();
+        gameState.addToInventory(story.getItem(AMULET));
+        String key = northDoor.getKey();
+
+        //each door is unlocked by name, and the other one is left alone
+        Consequence consequence = gameEngine.sendCommand(key + " ON SOUTH");
+        check(!southDoor.isLocked(), "the south door is unlocked by \"" + key + " ON SOUTH\", not \"" + consequence.getConsequenceDescription() + "\"");
+        check(northDoor.isLocked(), "the north door is still locked");
+
+        consequence = gameEngine.sendCommand(key + " ON NORTH");
+        check(!northDoor.isLocked(), "the north door is unlocked by \"" + key + " ON NORTH\", not \"" + consequence.getConsequenceDescription() + "\"");
+
+        //without a door, the key goes to a door it has not unlocked yet
+        check(gameState.getTimeline().undo(gameState), "unlocking the north door can be undone");
+        check(northDoor.isLocked(), "the north door is locked again after UNDO");
+        consequence = gameEngine.sendCommand(key);
+        check(!northDoor.isLocked(), "the north door is unlocked by \"" + key + "\", not \"" + consequence.getConsequenceDescription() + "\"");
+
+        System.out.println("SharedKeyTest passed.");
+    }
+
+    private static void check(boolean holds, String description){
+        if(!holds){
+            throw new AssertionError("expected that " + description);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+import GameEngine.BatchTest;
+import GameEngine.MessageCatalogueTest;
+import GameEngine.ScriptContextTest;
+import GameEngine.SharedKeyTest;
+
+/**
+ * The RunTests class runs every test. A test that fails throws an AssertionError, which
+ * stops the run.
+ */
+public class RunTests {
+
+    public static void main(String[] args){
+        BatchTest.main(args);
+        MessageCatalogueTest.main(args);
+        ScriptContextTest.main(args);
+        SharedKeyTest.main(args);
+        System.out.println("All tests passed.");
+    }
+}